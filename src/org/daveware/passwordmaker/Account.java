@@ -21,6 +21,7 @@ import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
@@ -28,6 +29,11 @@ import java.util.Set;
  * Represents an account.  This object also functions as a parent account for
  * which it can have any number of child accounts.
  * 
+ * Databases can hold a very large number of these so they're kept small. The
+ * booleans, url components, algorithm and leet settings share one int, the
+ * pattern and child lists are only allocated once something asks for them, and
+ * the character set is interned since almost every account uses one of a few.
+ * 
  * @author Dave Marotti
  */
 public final class Account implements Comparable<Account> {
@@ -41,43 +47,71 @@ public final class Account implements Comparable<Account> {
     
     public static int DEFAULT_LENGTH = 8;
     
+    // Layout of "bits"
+    private static final int FLAG_HMAC          = 1;
+    private static final int FLAG_TRIM          = 1 << 1;
+    private static final int FLAG_SHA256_BUG    = 1 << 2;
+    private static final int FLAG_AUTO_POP      = 1 << 3;
+    static final int FLAG_FOLDER                = 1 << 4;
+    private static final int URL_SHIFT          = 5;    // One bit per UrlComponents ordinal
+    private static final int URL_MASK           = 0xf << URL_SHIFT;
+    private static final int ALGORITHM_SHIFT    = 9;    // Index into AlgorithmType.getTypes()
+    private static final int ALGORITHM_MASK     = 0x7 << ALGORITHM_SHIFT;
+    private static final int LEET_TYPE_SHIFT    = 12;   // Index into LeetType.TYPES
+    private static final int LEET_TYPE_MASK     = 0x3 << LEET_TYPE_SHIFT;
+    private static final int LEET_LEVEL_SHIFT   = 14;   // Level - 1
+    private static final int LEET_LEVEL_MASK    = 0xf << LEET_LEVEL_SHIFT;
+    
+    // Trimmed, MD5, no leet, level 1, everything else off
+    private static final int DEFAULT_BITS = FLAG_TRIM | algorithmBits(AlgorithmType.MD5) |
+                                            leetTypeBits(LeetType.NONE) | leetLevelBits(LeetLevel.LEVEL1);
+    
+    // Every possible getUrlComponents() result, indexed by the url bits
+    private static final ArrayList<Set<UrlComponents>> URL_COMPONENT_SETS = new ArrayList<Set<UrlComponents>>();
+    static {
+        for(int i=0; i<=(URL_MASK >>> URL_SHIFT); i++) {
+            EnumSet<UrlComponents> set = EnumSet.noneOf(UrlComponents.class);
+            for(UrlComponents component : UrlComponents.values()) {
+                if((i & (1 << component.ordinal()))!=0)
+                    set.add(component);
+            }
+            URL_COMPONENT_SETS.add(Collections.unmodifiableSet(set));
+        }
+    }
+    
     private String        name              = "";
     private String        desc              = "";
     private String        url               = "";
     private String        username          = "";
-    private AlgorithmType algorithm         = AlgorithmType.MD5;
-    private boolean       hmac              = false;
-    private boolean       trim              = true;
     private int           length            = 8;
     private String        characterSet      = CharacterSets.BASE_93_SET;
-    private LeetType      leetType          = LeetType.NONE;
-    private LeetLevel     leetLevel         = LeetLevel.LEVEL1;
     private String        modifier          = "";
     private String        prefix            = "";
     private String        suffix            = "";
-    private boolean       sha256Bug         = false;
     private String        id                = "";
-    private boolean       autoPop           = false;
-    private EnumSet<UrlComponents> urlComponents = defaultUrlComponents();
+    private int           bits              = DEFAULT_BITS;
     
-    private ArrayList<AccountPatternData> patterns = new ArrayList<AccountPatternData>();
-    private ArrayList<Account> children     = new ArrayList<Account>();
+    // Null until needed, most accounts have neither
+    private ArrayList<AccountPatternData> patterns = null;
+    private ArrayList<Account> children     = null;
     
-    private boolean       isAFolder         = false;
+    // The last published snapshot of this account, or null if it has been modified
+    // since. Maintained by Database, this is never copied.
+    AccountSnapshot       snapshot          = null;
     
     public Account() {
         
     }
     
     public Account(String name, boolean isFolder) {
-        this.isAFolder = isFolder;
-        this.name = name;
+        setIsFolder(isFolder);
+        this.name = share(name);
     }
     
     public Account(String name, String url, String username) {
-        this.name = name;
-        this.url = url;
-        this.username = username;
+        this.name = share(name);
+        this.url = share(url);
+        this.username = share(username);
     }
     
     /**
@@ -107,21 +141,21 @@ public final class Account implements Comparable<Account> {
             boolean sha256Bug) 
         throws Exception
     {
-        this.name = name;
-        this.desc = desc;
-        this.url = url;
-        this.username = username;
-        this.algorithm = algorithm;
-        this.hmac = hmac;
-        this.trim = trim;
-        this.length = length;
-        this.characterSet = characterSet;
-        this.leetType = leetType;
-        this.leetLevel = leetLevel;
-        this.modifier = modifier;
-        this.prefix = prefix;
-        this.suffix = suffix;
-        this.sha256Bug = sha256Bug;
+        setName(name);
+        setDesc(desc);
+        setUrl(url);
+        setUsername(username);
+        setAlgorithm(algorithm);
+        setHmac(hmac);
+        setTrim(trim);
+        setLength(length);
+        setCharacterSet(characterSet);
+        setLeetType(leetType);
+        setLeetLevel(leetLevel);
+        setModifier(modifier);
+        setPrefix(prefix);
+        setSuffix(suffix);
+        setSha256Bug(sha256Bug);
         this.id = createId(this.url + this.username);
     }
     
@@ -138,29 +172,46 @@ public final class Account implements Comparable<Account> {
         this.desc         = a.desc;
         this.url          = a.url;
         this.username     = a.username;
-        this.algorithm    = a.algorithm;
-        this.hmac         = a.hmac;
-        this.trim         = a.trim;
         this.length       = a.length;
         this.characterSet = a.characterSet;
-        this.leetType     = a.leetType;
-        this.leetLevel    = a.leetLevel;
         this.modifier     = a.modifier;
         this.prefix       = a.prefix;
         this.suffix       = a.suffix;
-        this.sha256Bug    = a.sha256Bug;
-        this.isAFolder    = a.isAFolder;
-        this.autoPop      = a.autoPop;
-        this.patterns.clear();
-        for(AccountPatternData data : a.getPatterns()) {
-            this.patterns.add(new AccountPatternData(data));
+        // hmac, trim, sha256Bug, folder, autoPop, url components, algorithm, leet type and level
+        this.bits         = a.bits;
+        if(this.patterns!=null)
+            this.patterns.clear();
+        for(AccountPatternData data : a.patternList()) {
+            getPatterns().add(new AccountPatternData(data));
         }
+    }
+    
+    /**
+     * Compares the settings (not including children or ID) with another account.
+     * This must cover the same members as copySettings().
+     * 
+     * @param a The other account.
+     * @return true if every setting is the same.
+     */
+    public boolean hasSameSettings(Account a) {
+        if(!this.name.equals(a.name) || !this.desc.equals(a.desc) || !this.url.equals(a.url) ||
+           !this.username.equals(a.username) || this.bits!=a.bits || this.length!=a.length ||
+           !this.characterSet.equals(a.characterSet) || !this.modifier.equals(a.modifier) ||
+           !this.prefix.equals(a.prefix) || !this.suffix.equals(a.suffix))
+            return false;
         
-        // The documentation says EnumSet.copyOf() will fail on empty sets.
-        if(a.urlComponents.isEmpty()==false)
-            this.urlComponents = EnumSet.copyOf(a.urlComponents);
-        else
-            this.urlComponents = defaultUrlComponents();
+        List<AccountPatternData> myPatterns = this.patternList();
+        List<AccountPatternData> theirPatterns = a.patternList();
+        if(myPatterns.size()!=theirPatterns.size())
+            return false;
+        for(int i=0; i<myPatterns.size(); i++) {
+            AccountPatternData mine = myPatterns.get(i);
+            AccountPatternData theirs = theirPatterns.get(i);
+            if(!mine.getPattern().equals(theirs.getPattern()) || mine.getType()!=theirs.getType() ||
+               mine.isEnabled()!=theirs.isEnabled() || !mine.getDesc().equals(theirs.getDesc()))
+                return false;
+        }
+        return true;
     }
     
 	    /**
@@ -170,21 +221,21 @@ public final class Account implements Comparable<Account> {
 	            boolean trim, int length, String characterSet, LeetType leetType,
 	            LeetLevel leetLevel, String modifier, String prefix, String suffix,
 	            boolean sha256Bug, String id) {
-	        this.name = name;
-	        this.desc = desc;
-	        this.url = url;
-	        this.username = username;
-	        this.algorithm = algorithm;
-	        this.hmac = hmac;
-	        this.trim = trim;
-	        this.length = length;
-	        this.characterSet = characterSet;
-	        this.leetType = leetType;
-	        this.leetLevel = leetLevel;
-	        this.modifier = modifier;
-	        this.prefix = prefix;
-	        this.suffix = suffix;
-	        this.sha256Bug = sha256Bug;
+	        setName(name);
+	        setDesc(desc);
+	        setUrl(url);
+	        setUsername(username);
+	        setAlgorithm(algorithm);
+	        setHmac(hmac);
+	        setTrim(trim);
+	        setLength(length);
+	        setCharacterSet(characterSet);
+	        setLeetType(leetType);
+	        setLeetLevel(leetLevel);
+	        setModifier(modifier);
+	        setPrefix(prefix);
+	        setSuffix(suffix);
+	        setSha256Bug(sha256Bug);
 	        this.id = id;
 	    }
     
@@ -217,20 +268,53 @@ public final class Account implements Comparable<Account> {
         return Account.createId(acc.getName() + acc.getDesc() + (new Random()).nextLong() + Runtime.getRuntime().freeMemory());
     }
 
+    private static int algorithmBits(AlgorithmType algorithm) {
+        return (algorithm.getType() - AlgorithmType.getTypes()[0].getType()) << ALGORITHM_SHIFT;
+    }
+    
+    private static int leetTypeBits(LeetType leetType) {
+        return leetType.type << LEET_TYPE_SHIFT;
+    }
+    
+    private static int leetLevelBits(LeetLevel leetLevel) {
+        return (leetLevel.getLevel() - 1) << LEET_LEVEL_SHIFT;
+    }
+    
     /**
-     * Gets the default set of UrlComponents (empty set).
-     * @return
+     * Gets the packed booleans, url components, algorithm and leet settings, used
+     * by CompactAccountStore to keep them without an Account.
      */
-	private static EnumSet<UrlComponents> defaultUrlComponents() {
-	    return EnumSet.noneOf(UrlComponents.class);
-	}
+    int getSettingBits() {
+        return bits;
+    }
+    
+    void setSettingBits(int bits) {
+        this.bits = bits;
+    }
+    
+    private void setFlag(int flag, boolean b) {
+        if(b)
+            bits |= flag;
+        else
+            bits &= ~flag;
+    }
+    
+    /**
+     * Strings read from a file are new objects even when they're empty, this
+     * points those at the one empty string.
+     */
+    private static String share(String s) {
+        if(s!=null && s.length()==0)
+            return "";
+        return s;
+    }
 	
     public String getName() {
         return name;
     }
     
     public void setName(String s) {
-        name = s;
+        name = share(s);
     }
     
     public String getDesc() {
@@ -238,19 +322,19 @@ public final class Account implements Comparable<Account> {
     }
     
     public void setDesc(String s) {
-        desc = s;
+        desc = share(s);
     }
     
     public boolean isFolder() {
-        return isAFolder;
+        return (bits & FLAG_FOLDER)!=0;
     }
     
     public boolean isAutoPop() {
-        return autoPop;
+        return (bits & FLAG_AUTO_POP)!=0;
     }
     
     public void setAutoPop(boolean b) {
-        autoPop = b;
+        setFlag(FLAG_AUTO_POP, b);
     }
     
     /**
@@ -270,49 +354,49 @@ public final class Account implements Comparable<Account> {
     }
     
     public void setIsFolder(boolean b) {
-        isAFolder = b;
+        setFlag(FLAG_FOLDER, b);
     }
     
     /**
      * @return the algorithm
      */
     public AlgorithmType getAlgorithm() {
-        return algorithm;
+        return AlgorithmType.getTypes()[(bits & ALGORITHM_MASK) >>> ALGORITHM_SHIFT];
     }
 
     /**
      * @param algorithm the algorithm to set
      */
     public void setAlgorithm(AlgorithmType algorithm) {
-        this.algorithm = algorithm;
+        bits = (bits & ~ALGORITHM_MASK) | algorithmBits(algorithm);
     }
 
     /**
      * @return the hmac
      */
     public boolean isHmac() {
-        return hmac;
+        return (bits & FLAG_HMAC)!=0;
     }
 
     /**
      * @param hmac the hmac to set
      */
     public void setHmac(boolean hmac) {
-        this.hmac = hmac;
+        setFlag(FLAG_HMAC, hmac);
     }
 
     /**
      * @return the trim
      */
     public boolean isTrim() {
-        return trim;
+        return (bits & FLAG_TRIM)!=0;
     }
 
     /**
      * @param trim the trim to set
      */
     public void setTrim(boolean trim) {
-        this.trim = trim;
+        setFlag(FLAG_TRIM, trim);
     }
 
     /**
@@ -326,7 +410,7 @@ public final class Account implements Comparable<Account> {
      * @param url the url to set
      */
     public void setUrl(String url) {
-        this.url = url;
+        this.url = share(url);
     }
 
     /**
@@ -354,35 +438,36 @@ public final class Account implements Comparable<Account> {
      * @param characterSet the characterSet to set
      */
     public void setCharacterSet(String characterSet) {
-        this.characterSet = characterSet;
+        // Interning returns the CharacterSets constants for the standard sets
+        this.characterSet = characterSet==null ? null : characterSet.intern();
     }
 
     /**
      * @return the leetType
      */
     public LeetType getLeetType() {
-        return leetType;
+        return LeetType.TYPES[(bits & LEET_TYPE_MASK) >>> LEET_TYPE_SHIFT];
     }
 
     /**
      * @param leetType the leetType to set
      */
     public void setLeetType(LeetType leetType) {
-        this.leetType = leetType;
+        bits = (bits & ~LEET_TYPE_MASK) | leetTypeBits(leetType);
     }
 
     /**
      * @return the leetLevel
      */
     public LeetLevel getLeetLevel() {
-        return leetLevel;
+        return LeetLevel.fromInt(((bits & LEET_LEVEL_MASK) >>> LEET_LEVEL_SHIFT) + 1);
     }
 
     /**
      * @param leetLevel the leetLevel to set
      */
     public void setLeetLevel(LeetLevel leetLevel) {
-        this.leetLevel = leetLevel;
+        bits = (bits & ~LEET_LEVEL_MASK) | leetLevelBits(leetLevel);
     }
 
     /**
@@ -396,7 +481,7 @@ public final class Account implements Comparable<Account> {
      * @param username the username to set
      */
     public void setUsername(String username) {
-        this.username = username;
+        this.username = share(username);
     }
 
     /**
@@ -410,7 +495,7 @@ public final class Account implements Comparable<Account> {
      * @param modifier the modifier to set
      */
     public void setModifier(String modifier) {
-        this.modifier = modifier;
+        this.modifier = share(modifier);
     }
 
     /**
@@ -424,7 +509,7 @@ public final class Account implements Comparable<Account> {
      * @param prefix the prefix to set
      */
     public void setPrefix(String prefix) {
-        this.prefix = prefix;
+        this.prefix = share(prefix);
     }
 
     /**
@@ -438,21 +523,21 @@ public final class Account implements Comparable<Account> {
      * @param suffix the suffix to set
      */
     public void setSuffix(String suffix) {
-        this.suffix = suffix;
+        this.suffix = share(suffix);
     }
 
     /**
      * @return the sha256Bug
      */
     public boolean isSha256Bug() {
-        return sha256Bug;
+        return (bits & FLAG_SHA256_BUG)!=0;
     }
 
     /**
      * @param sha256Bug the sha256Bug to set
      */
     public void setSha256Bug(boolean sha256Bug) {
-        this.sha256Bug = sha256Bug;
+        setFlag(FLAG_SHA256_BUG, sha256Bug);
     }
 
     /**
@@ -473,31 +558,34 @@ public final class Account implements Comparable<Account> {
      * Clears the UrlComponents used with this account
      */
     public final void clearUrlComponents() {
-    	this.urlComponents.clear();
+    	bits &= ~URL_MASK;
     }
     
     /**
      * @param urlComponent - Add a component of the url to be used as the input text for the generated password
      */
     public final void addUrlComponent(UrlComponents urlComponent) {
-    	this.urlComponents.add(urlComponent);
+    	bits |= 1 << (URL_SHIFT + urlComponent.ordinal());
     }
     
     /**
      * @param urlComponents - the Components to use of the url as the input text for the generated password
      */
     public final void setUrlComponents(Set<UrlComponents> urlComponents) {
-    	this.urlComponents.clear();
-    	this.urlComponents.addAll(urlComponents);
+    	int components = 0;
+    	for(UrlComponents component : urlComponents)
+    	    components |= 1 << (URL_SHIFT + component.ordinal());
+    	bits = (bits & ~URL_MASK) | components;
     }
     
     /**
      * If the urlComponents field is empty then the entire getUrl field will be used. 
-     * This set is unmodifiable.  Use the helper functions to set or modify the set.
+     * This set is unmodifiable and doesn't change if the account does.  Use the
+     * helper functions to set or modify the account's components.
      * @return the url components specified for this account (may be empty)
      */
 	public final Set<UrlComponents> getUrlComponents() {
-		return Collections.unmodifiableSet(urlComponents);
+		return URL_COMPONENT_SETS.get((bits & URL_MASK) >>> URL_SHIFT);
 	}
     
     /**
@@ -505,9 +593,28 @@ public final class Account implements Comparable<Account> {
      * @return The list of accounts (may be empty).
      */
     public ArrayList<Account> getChildren() {
+        if(children==null)
+            children = new ArrayList<Account>();
         return children;
     }
     
+    /**
+     * Gets the children without allocating a list for an account which has none.
+     * @return The children, only modify them through getChildren().
+     */
+    List<Account> childList() {
+        if(children==null)
+            return Collections.emptyList();
+        return children;
+    }
+    
+    /**
+     * @return The number of direct children.
+     */
+    public int getChildCount() {
+        return children==null ? 0 : children.size();
+    }
+    
     /**
      * Gets the count of all children (of children of children...).
      * @return The total number of all descendants.
@@ -520,7 +627,7 @@ public final class Account implements Comparable<Account> {
         while(stack.size()>0) {
             Account current = stack.get(0);
             stack.remove(0);
-            for(Account child : current.getChildren()) {
+            for(Account child : current.childList()) {
                 size++;
                 if(child.hasChildren())
                     stack.add(child);
@@ -539,13 +646,13 @@ public final class Account implements Comparable<Account> {
      * @throws IndexOutOfBoundsException upon invalid index.
      */
     public Account getChild(int index) throws IndexOutOfBoundsException {
-        if(index<0 || index >= children.size())
+        if(index<0 || index >= getChildCount())
             throw new IndexOutOfBoundsException("Illegal child index, " + index);
         return children.get(index);
     }
     
     public boolean hasChildren() {
-        return children.size() > 0;
+        return getChildCount() > 0;
     }
     
     /**
@@ -554,7 +661,7 @@ public final class Account implements Comparable<Account> {
      * @return
      */
     public boolean hasChild(Account account) {
-        for(Account child : children) {
+        for(Account child : childList()) {
             if(child.equals(account))
                 return true;
         }
@@ -600,11 +707,30 @@ public final class Account implements Comparable<Account> {
     }
 
     /**
-     * @return the patterns
+     * @return the patterns, this list is modifiable
      */
     public ArrayList<AccountPatternData> getPatterns() {
+        if(patterns==null)
+            patterns = new ArrayList<AccountPatternData>();
+        return patterns;
+    }
+    
+    /**
+     * Gets the patterns without allocating a list for an account which has none.
+     * @return The patterns, only modify them through getPatterns().
+     */
+    List<AccountPatternData> patternList() {
+        if(patterns==null)
+            return Collections.emptyList();
         return patterns;
     }
+    
+    /**
+     * @return The number of URL patterns.
+     */
+    public int getPatternCount() {
+        return patterns==null ? 0 : patterns.size();
+    }
 
     /**
      * @param patterns the patterns to set
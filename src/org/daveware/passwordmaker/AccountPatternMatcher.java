@@ -33,7 +33,7 @@ public class AccountPatternMatcher {
 	 * @return true if one of the 
 	 */
 	public static boolean matchUrl(Account account, String url) {
-		for(AccountPatternData pattern : account.getPatterns()) {
+		for(AccountPatternData pattern : account.patternList()) {
 			AccountPatternType type = pattern.getType();
 			if(type==AccountPatternType.REGEX) {
 				if(regexMatch(pattern.getPattern(), url))
@@ -53,6 +53,17 @@ public class AccountPatternMatcher {
 		return false;
 	}
 	
+	/**
+	 * Tests a single pattern against the url string.
+	 * @param regex true for a regular expression, false for a wildcard.
+	 * @param pattern The pattern.
+	 * @param url The url to test with.
+	 * @return true if it matches.
+	 */
+	static boolean matchPattern(boolean regex, String pattern, String url) {
+		return regex ? regexMatch(pattern, url) : globMatch(pattern, url);
+	}
+	
 	private static boolean regexMatch(String regex, String text) {
 		return Pattern.matches(regex, text);
 	}
@@ -0,0 +1,223 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An immutable copy of an Account and its children, as they were when a
+ * DatabaseSnapshot was published.
+ *
+ * Snapshots of unchanged subtrees are shared between successive versions of
+ * a DatabaseSnapshot, so publishing a new version only copies the accounts on
+ * the path from the root to whatever was modified.
+ *
+ * Each snapshot can also give a hash of its own settings and a Merkle hash of
+ * its whole subtree. These are computed the first time they're asked for and
+ * then kept, which is what lets DatabaseDiff skip identical subtrees.
+ *
+ * @author Dave Marotti
+ */
+public final class AccountSnapshot {
+    // Private copy of the account settings (no children). This object is never
+    // handed out so nothing can modify it.
+    private final Account settings;
+    private final AccountSnapshot [] children;
+    private final List<AccountSnapshot> childList;
+
+    // Lazily computed hashes. A race only means both threads compute the same
+    // value, the volatile flag publishes the long safely.
+    private long contentHash;
+    private long treeHash;
+    private volatile boolean hashed = false;
+
+    AccountSnapshot(Account account, AccountSnapshot [] children) {
+        Account copy = new Account();
+        copy.copySettings(account);
+        copy.setId(account.getId());
+
+        this.settings = copy;
+        this.children = children;
+        this.childList = Collections.unmodifiableList(Arrays.asList(children));
+    }
+
+    /**
+     * Gets the frozen settings. Package access only, this must never be modified.
+     */
+    Account getSettings() {
+        return settings;
+    }
+
+    /**
+     * Creates a new, modifiable Account with these settings and ID (but no children). This
+     * is what should be handed to PasswordMaker.makePassword().
+     * @return The new Account.
+     */
+    public Account toAccount() {
+        Account account = new Account();
+        account.copySettings(settings);
+        account.setId(settings.getId());
+        return account;
+    }
+
+    public String getId()                          { return settings.getId(); }
+    public String getName()                        { return settings.getName(); }
+    public String getDesc()                        { return settings.getDesc(); }
+    public String getUrl()                         { return settings.getUrl(); }
+    public String getUsername()                    { return settings.getUsername(); }
+    public AlgorithmType getAlgorithm()            { return settings.getAlgorithm(); }
+    public boolean isHmac()                        { return settings.isHmac(); }
+    public boolean isTrim()                        { return settings.isTrim(); }
+    public int getLength()                         { return settings.getLength(); }
+    public String getCharacterSet()                { return settings.getCharacterSet(); }
+    public LeetType getLeetType()                  { return settings.getLeetType(); }
+    public LeetLevel getLeetLevel()                { return settings.getLeetLevel(); }
+    public String getModifier()                    { return settings.getModifier(); }
+    public String getPrefix()                      { return settings.getPrefix(); }
+    public String getSuffix()                      { return settings.getSuffix(); }
+    public boolean isSha256Bug()                   { return settings.isSha256Bug(); }
+    public boolean isAutoPop()                     { return settings.isAutoPop(); }
+    public boolean isFolder()                      { return settings.isFolder(); }
+    public boolean isDefault()                     { return settings.isDefault(); }
+    public boolean isRoot()                        { return settings.isRoot(); }
+    public Set<Account.UrlComponents> getUrlComponents() { return settings.getUrlComponents(); }
+
+    /**
+     * @return The number of URL patterns.
+     */
+    public int getPatternCount() {
+        return settings.getPatternCount();
+    }
+
+    /**
+     * Tests the URL patterns of this account against an url.
+     * @param url The url to test.
+     * @return true if one of the patterns matches.
+     */
+    public boolean matchUrl(String url) {
+        return AccountPatternMatcher.matchUrl(settings, url);
+    }
+
+    /**
+     * @return The children, this list cannot be modified.
+     */
+    public List<AccountSnapshot> getChildren() {
+        return childList;
+    }
+
+    public AccountSnapshot getChild(int index) throws IndexOutOfBoundsException {
+        if(index<0 || index >= children.length)
+            throw new IndexOutOfBoundsException("Illegal child index, " + index);
+        return children[index];
+    }
+
+    public int getChildCount() {
+        return children.length;
+    }
+
+    public boolean hasChildren() {
+        return children.length > 0;
+    }
+
+    /**
+     * @return A 64 bit hash of the id and settings (not the children).
+     */
+    public long getContentHash() {
+        computeHashes();
+        return contentHash;
+    }
+
+    /**
+     * @return A 64 bit hash of this account and, in order, all of its descendants.
+     *         Two subtrees with the same hash can be treated as identical.
+     */
+    public long getTreeHash() {
+        computeHashes();
+        return treeHash;
+    }
+
+    private void computeHashes() {
+        if(hashed)
+            return;
+
+        long h = FNV_OFFSET;
+        h = hash(h, settings.getId());
+        h = hash(h, settings.getName());
+        h = hash(h, settings.getDesc());
+        h = hash(h, settings.getUrl());
+        h = hash(h, settings.getUsername());
+        h = hash(h, settings.getAlgorithm().getType());
+        h = hash(h, settings.isHmac() ? 1 : 0);
+        h = hash(h, settings.isTrim() ? 1 : 0);
+        h = hash(h, settings.getLength());
+        h = hash(h, settings.getCharacterSet());
+        h = hash(h, settings.getLeetType().toRdfString());
+        h = hash(h, settings.getLeetLevel().getLevel());
+        h = hash(h, settings.getModifier());
+        h = hash(h, settings.getPrefix());
+        h = hash(h, settings.getSuffix());
+        h = hash(h, settings.isSha256Bug() ? 1 : 0);
+        h = hash(h, settings.isAutoPop() ? 1 : 0);
+        h = hash(h, settings.isFolder() ? 1 : 0);
+        for(Account.UrlComponents component : settings.getUrlComponents())
+            h = hash(h, component.ordinal());
+        for(AccountPatternData data : settings.patternList()) {
+            h = hash(h, data.getPattern());
+            h = hash(h, data.getDesc());
+            h = hash(h, data.getType()==AccountPatternType.REGEX ? 1 : 0);
+            h = hash(h, data.isEnabled() ? 1 : 0);
+        }
+
+        long t = hash(h, children.length);
+        for(AccountSnapshot child : children)
+            t = hash(t, child.getTreeHash());
+
+        contentHash = h;
+        treeHash = t;
+        hashed = true;
+    }
+
+    // FNV-1a, 64 bit
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static long hash(long h, String str) {
+        // One step per char instead of per byte, it's still a bijection of the
+        // low 16 bits so no information is lost
+        for(int i=0; i<str.length(); i++)
+            h = (h ^ str.charAt(i)) * FNV_PRIME;
+        // Terminator so "ab"+"c" differs from "a"+"bc"
+        return hash(h, str.length());
+    }
+
+    private static long hash(long h, long value) {
+        for(int i=0; i<8; i++) {
+            h = (h ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return settings.getName();
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * A read-only, compact copy of a database's accounts for very large databases
+ * which only need to be searched and have passwords made from them.
+ *
+ * Instead of an object per account everything is kept in a handful of arrays.
+ * Accounts are numbered in tree order (the root is 0 and each account comes
+ * before its children), and every setting is a column indexed by that number.
+ * Strings are stored once each in a shared pool and the columns hold their
+ * index, the tree is an array of parents plus each account's range in an array
+ * of children, and patterns are stored the same way.
+ *
+ * Use toAccount() to get an Account which can be handed to
+ * PasswordMaker.makePassword(). Once built a store never changes, so any
+ * number of threads may use it.
+ *
+ * @author Dave Marotti
+ */
+public final class CompactAccountStore {
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    private static final byte PATTERN_REGEX   = 1;
+    private static final byte PATTERN_ENABLED = 2;
+
+    // String pool, string i is [poolStart[i], poolStart[i+1]). Only one of
+    // latin1Chars/chars is used, latin1Chars when every char fits in a byte.
+    private final int [] poolStart;
+    private final byte [] latin1Chars;
+    private final char [] chars;
+
+    // Account columns, strings are pool indexes
+    private final int size;
+    private final int [] name;
+    private final int [] desc;
+    private final int [] url;
+    private final int [] username;
+    private final int [] characterSet;
+    private final int [] modifier;
+    private final int [] prefix;
+    private final int [] suffix;
+    private final int [] id;
+    private final int [] length;
+    private final int [] settingBits;
+
+    // Tree, the children of i are children[childStart[i]] to children[childStart[i+1]-1]
+    private final int [] parent;
+    private final int [] childStart;
+    private final int [] children;
+
+    // Patterns, the patterns of i are patternStart[i] to patternStart[i+1]-1
+    private final int [] patternStart;
+    private final int [] patternText;
+    private final int [] patternDesc;
+    private final byte [] patternFlags;
+
+    // Accounts (not the root) sorted by id then number, for findAccountById()
+    private final int [] byId;
+
+    /**
+     * Builds a store from the current snapshot of a database.
+     * @param db The database.
+     */
+    public CompactAccountStore(Database db) {
+        this(db.getSnapshot());
+    }
+
+    /**
+     * Builds a store from a database snapshot.
+     * @param snapshot The snapshot.
+     */
+    public CompactAccountStore(DatabaseSnapshot snapshot) {
+        int [] counts = new int[2];
+        count(snapshot.getRootAccount(), counts);
+        size = counts[0];
+        name = new int[size];
+        desc = new int[size];
+        url = new int[size];
+        username = new int[size];
+        characterSet = new int[size];
+        modifier = new int[size];
+        prefix = new int[size];
+        suffix = new int[size];
+        id = new int[size];
+        length = new int[size];
+        settingBits = new int[size];
+        parent = new int[size];
+        childStart = new int[size + 1];
+        children = new int[size - 1];
+        patternStart = new int[size + 1];
+        patternText = new int[counts[1]];
+        patternDesc = new int[counts[1]];
+        patternFlags = new byte[counts[1]];
+
+        Builder builder = new Builder();
+        builder.add(snapshot.getRootAccount(), -1);
+        childStart[size] = builder.childCount;
+        patternStart[size] = builder.patternCount;
+
+        // Pack the pool
+        StringBuilder pool = builder.pool;
+        poolStart = new int[builder.strings.size() + 1];
+        System.arraycopy(builder.starts, 0, poolStart, 0, builder.strings.size());
+        poolStart[builder.strings.size()] = pool.length();
+        boolean latin1 = true;
+        for(int i=0; i<pool.length() && latin1; i++)
+            latin1 = pool.charAt(i) <= 0xff;
+        if(latin1) {
+            latin1Chars = new byte[pool.length()];
+            for(int i=0; i<latin1Chars.length; i++)
+                latin1Chars[i] = (byte)pool.charAt(i);
+            chars = null;
+        } else {
+            chars = new char[pool.length()];
+            pool.getChars(0, chars.length, chars, 0);
+            latin1Chars = null;
+        }
+
+        byId = sortById();
+    }
+
+    private static void count(AccountSnapshot account, int [] counts) {
+        counts[0]++;
+        counts[1] += account.getPatternCount();
+        for(AccountSnapshot child : account.getChildren())
+            count(child, counts);
+    }
+
+    /**
+     * Fills in the columns, only used while constructing.
+     */
+    private final class Builder {
+        final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+        final StringBuilder pool = new StringBuilder();
+        int [] starts = new int[1024];
+        int next = 0;
+        int childCount = 0;
+        int patternCount = 0;
+
+        int add(AccountSnapshot snapshot, int parentIndex) {
+            int index = next++;
+            Account account = snapshot.getSettings();
+            name[index] = intern(account.getName());
+            desc[index] = intern(account.getDesc());
+            url[index] = intern(account.getUrl());
+            username[index] = intern(account.getUsername());
+            characterSet[index] = intern(account.getCharacterSet());
+            modifier[index] = intern(account.getModifier());
+            prefix[index] = intern(account.getPrefix());
+            suffix[index] = intern(account.getSuffix());
+            id[index] = intern(account.getId());
+            length[index] = account.getLength();
+            settingBits[index] = account.getSettingBits();
+            parent[index] = parentIndex;
+
+            patternStart[index] = patternCount;
+            for(AccountPatternData data : account.patternList()) {
+                patternText[patternCount] = intern(data.getPattern());
+                patternDesc[patternCount] = intern(data.getDesc());
+                patternFlags[patternCount] = (byte)((data.getType()==AccountPatternType.REGEX ? PATTERN_REGEX : 0) |
+                                                    (data.isEnabled() ? PATTERN_ENABLED : 0));
+                patternCount++;
+            }
+
+            // The children's slots are reserved before any of them are added, so
+            // childStart ends up in account order
+            int first = childCount;
+            childStart[index] = first;
+            childCount += snapshot.getChildCount();
+            for(int i=0; i<snapshot.getChildCount(); i++)
+                children[first + i] = add(snapshot.getChild(i), index);
+            return index;
+        }
+
+        int intern(String str) {
+            if(str==null)
+                str = "";
+            Integer existing = strings.get(str);
+            if(existing!=null)
+                return existing;
+            int i = strings.size();
+            if(i==starts.length)
+                starts = Arrays.copyOf(starts, i * 2);
+            starts[i] = pool.length();
+            pool.append(str);
+            strings.put(str, i);
+            return i;
+        }
+    }
+
+    private int [] sortById() {
+        Integer [] order = new Integer[size - 1];
+        for(int i=1; i<size; i++)
+            order[i-1] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int result = compareStrings(id[a], id[b]);
+                if(result!=0)
+                    return result;
+                return a < b ? -1 : (a > b ? 1 : 0);
+            }
+        });
+        int [] sorted = new int[order.length];
+        for(int i=0; i<sorted.length; i++)
+            sorted[i] = order[i];
+        return sorted;
+    }
+
+    private char poolChar(int offset) {
+        return latin1Chars!=null ? (char)(latin1Chars[offset] & 0xff) : chars[offset];
+    }
+
+    private int compareStrings(int a, int b) {
+        if(a==b)
+            return 0;
+        int aStart = poolStart[a], aLen = poolStart[a+1] - aStart;
+        int bStart = poolStart[b], bLen = poolStart[b+1] - bStart;
+        int n = Math.min(aLen, bLen);
+        for(int i=0; i<n; i++) {
+            char ca = poolChar(aStart + i);
+            char cb = poolChar(bStart + i);
+            if(ca!=cb)
+                return ca - cb;
+        }
+        return aLen - bLen;
+    }
+
+    private int compareString(String str, int b) {
+        int bStart = poolStart[b], bLen = poolStart[b+1] - bStart;
+        int n = Math.min(str.length(), bLen);
+        for(int i=0; i<n; i++) {
+            char ca = str.charAt(i);
+            char cb = poolChar(bStart + i);
+            if(ca!=cb)
+                return ca - cb;
+        }
+        return str.length() - bLen;
+    }
+
+    private String string(int i) {
+        int start = poolStart[i];
+        if(latin1Chars!=null)
+            return new String(latin1Chars, start, poolStart[i+1] - start, LATIN1);
+        return new String(chars, start, poolStart[i+1] - start);
+    }
+
+    /**
+     * @return The number of accounts, including the root. The accounts are
+     *         numbered 0 to size()-1 in tree order.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of the root account, always 0.
+     */
+    public int getRoot() {
+        return 0;
+    }
+
+    /**
+     * Locates an account, given an id. If more than one account has the id this
+     * finds the same one as Database.findAccountById().
+     * @param accountId The account id (unique hash).
+     * @return The account's number, or -1 if not found.
+     */
+    public int findAccountById(String accountId) {
+        // Lower bound, so the first account in tree order wins
+        int low = 0, high = byId.length;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(compareString(accountId, id[byId[mid]]) > 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        if(low < byId.length && compareString(accountId, id[byId[low]])==0)
+            return byId[low];
+        return -1;
+    }
+
+    /**
+     * Searches for any account with a pattern matching an URL. Accounts are searched
+     * in the same order as Database.findAccountByUrl().
+     * @param urlToMatch The url to search with.
+     * @return The account's number, or -1 if not found.
+     */
+    public int findAccountByUrl(String urlToMatch) {
+        // Tree order is the search order, so it's a straight scan which only
+        // looks at the accounts with patterns
+        for(int i=0; i<size; i++) {
+            for(int p=patternStart[i]; p<patternStart[i+1]; p++) {
+                if(AccountPatternMatcher.matchPattern((patternFlags[p] & PATTERN_REGEX)!=0, string(patternText[p]), urlToMatch))
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index An account number.
+     * @return The parent's number, or -1 for the root.
+     */
+    public int getParent(int index) {
+        return parent[index];
+    }
+
+    public int getChildCount(int index) {
+        return childStart[index+1] - childStart[index];
+    }
+
+    public int getChild(int index, int child) throws IndexOutOfBoundsException {
+        if(child<0 || child >= getChildCount(index))
+            throw new IndexOutOfBoundsException("Illegal child index, " + child);
+        return children[childStart[index] + child];
+    }
+
+    public String getId(int index)                 { return string(id[index]); }
+    public String getName(int index)               { return string(name[index]); }
+    public String getDesc(int index)               { return string(desc[index]); }
+    public String getUrl(int index)                { return string(url[index]); }
+    public String getUsername(int index)           { return string(username[index]); }
+    public int getLength(int index)                { return length[index]; }
+    public boolean isFolder(int index)             { return (settingBits[index] & Account.FLAG_FOLDER)!=0; }
+    public int getPatternCount(int index)          { return patternStart[index+1] - patternStart[index]; }
+
+    /**
+     * Creates a new, modifiable Account with the settings, patterns and ID of an
+     * account (but no children). This is what should be handed to
+     * PasswordMaker.makePassword().
+     * @param index An account number.
+     * @return The new Account.
+     */
+    public Account toAccount(int index) {
+        Account account = new Account();
+        account.setName(string(name[index]));
+        account.setDesc(string(desc[index]));
+        account.setUrl(string(url[index]));
+        account.setUsername(string(username[index]));
+        account.setCharacterSet(string(characterSet[index]));
+        account.setModifier(string(modifier[index]));
+        account.setPrefix(string(prefix[index]));
+        account.setSuffix(string(suffix[index]));
+        account.setId(string(id[index]));
+        account.setLength(length[index]);
+        account.setSettingBits(settingBits[index]);
+        for(int p=patternStart[index]; p<patternStart[index+1]; p++) {
+            AccountPatternData data = new AccountPatternData();
+            data.setPattern(string(patternText[p]));
+            data.setDesc(string(patternDesc[p]));
+            data.setType((patternFlags[p] & PATTERN_REGEX)!=0 ? AccountPatternType.REGEX : AccountPatternType.WILDCARD);
+            data.setEnabled((patternFlags[p] & PATTERN_ENABLED)!=0);
+            account.getPatterns().add(data);
+        }
+        return account;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates daemon threads with a fixed name, so background work never keeps the
+ * application from exiting and is easy to spot in a thread dump.
+ *
+ * @author Dave Marotti
+ */
+final class DaemonThreadFactory implements ThreadFactory {
+    private final String name;
+
+    /**
+     * @param name The name given to every thread, by convention "pwmje-" and what it's for.
+     */
+    DaemonThreadFactory(String name) {
+        this.name = name;
+    }
+
+    public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+}
@@ -17,8 +17,14 @@
  */
 package org.daveware.passwordmaker;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Logger;
 
@@ -27,7 +33,14 @@ import org.daveware.passwordmaker.Account.UrlComponents;
 /**
  * Represents a database of accounts.
  * 
- * An application can register a DatabaseListener to receive events.
+ * An application can register a DatabaseListener to receive events. Bulk
+ * operations should be wrapped in beginUpdate()/commitUpdate() so listeners
+ * receive one DatabaseBatch instead of an event per account.
+ * 
+ * Threads other than the one modifying the database should read from
+ * getSnapshot(). Snapshots are immutable and are published atomically after
+ * each modification (or after the outermost commitUpdate()), so readers never
+ * block and never see a half-applied edit.
  * 
  * @author Dave Marotti
  */
@@ -44,8 +57,27 @@ public class Database {
     
     private boolean dirty = false;
     
+    // Non-null while inside of beginUpdate()/commitUpdate()
+    private DatabaseBatch pendingBatch = null;
+    private int batchDepth = 0;
+    private boolean dirtyChangedInBatch = false;
+    
+    // The most recently published snapshot. Readers only ever touch this.
+    private volatile DatabaseSnapshot snapshot = null;
+    private final Object snapshotLock = new Object();
+    private long snapshotVersion = 0;
+    private boolean snapshotPending = false;
+    private boolean globalSettingsChanged = true;
+    
+    // The parent of each account, so markStale() can walk up from an account
+    // rather than search the tree for it. Built on demand, and checked against
+    // the children lists as it's used since the tree can also be changed
+    // without going through this class.
+    private IdentityHashMap<Account, Account> parents = null;
+    
     public Database() {
         rootAccount.setId(Account.ROOT_ACCOUNT_URI);
+        publishSnapshot();
     }
     
     public Account getRootAccount() {
@@ -71,7 +103,7 @@ public class Database {
             throws Exception {
         // Check to see if the account physically already exists - there is something funny with
         // some Firefox RDF exports where an RDF:li node gets duplicated multiple times.
-        for(Account dup : parent.getChildren()) {
+        for(Account dup : parent.childList()) {
             if(dup == child) {
                 logger.warning("Duplicate RDF:li=" + child.getId() + " detected. Dropping duplicate");
                 return;
@@ -88,11 +120,27 @@ public class Database {
             throw new Exception("Could not genererate a unique ID in " + iterationCount + " iterations, this is really rare. I know it's lame, but change the description and try again.");
         }
         
+        addAccountWithUniqueId(parent, child);
+    }
+    
+    /**
+     * addAccount() for callers which keep their own index of the tree and so
+     * already know the ID of the child isn't in use, which saves searching the
+     * whole tree for it.
+     * 
+     * @param parent The parent to add the child under.
+     * @param child The child to add.
+     */
+    void addAccountWithUniqueId(Account parent, Account child) {
         // add to new parent
         parent.getChildren().add(child);
+        if(parents!=null)
+            mapParents(parent, child);
+        markStale(parent);
         sendAccountAdded(parent, child);
         
         setDirty(true);
+        publishSnapshot();
     }
     
     /**
@@ -103,8 +151,10 @@ public class Database {
      * @param account The account that was changed.
      */
     public void changeAccount(Account account) {
+        markStale(account);
         sendAccountChanged(account);
         setDirty(true);
+        publishSnapshot();
     }
     
     /**
@@ -117,20 +167,94 @@ public class Database {
             return;
 
         Account parent = findParent(accountToDelete);
-        if(parent!=null) {
+        if(parent!=null)
             removeAccount(parent, accountToDelete);
-            setDirty(true);
-        }
     }
     
     /**
-     * Internal routine to remove a child from a parent.
+     * Removes a child from a parent, for callers which already know the parent
+     * and so don't need the tree searched for it.
      * @param parent
      * @param child 
      */
-    private void removeAccount(Account parent, Account child) {
+    void removeAccount(Account parent, Account child) {
         parent.getChildren().remove(child);
+        if(parents!=null)
+            unmapParents(child);
+        markStale(parent);
         sendAccountRemoved(parent, child);
+        setDirty(true);
+        publishSnapshot();
+    }
+    
+    /**
+     * Sorts the children of an account and notifies listeners that the account
+     * changed.
+     * 
+     * @param parent The account whose children should be sorted.
+     * @param comparator The sort order.
+     */
+    public void sortChildren(Account parent, Comparator<Account> comparator) {
+        Collections.sort(parent.getChildren(), comparator);
+        markStale(parent);
+        sendAccountChanged(parent);
+        setDirty(true);
+        publishSnapshot();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    //
+    // BULK UPDATE ROUTINES
+    //
+    ////////////////////////////////////////////////////////////////////////////
+    
+    /**
+     * Starts a bulk update. Until the matching commitUpdate() is called, account
+     * events are collected instead of being sent. Calls may be nested, the batch
+     * is only sent when the outermost commitUpdate() is reached.
+     * 
+     * Always pair this with commitUpdate() in a finally block.
+     */
+    public void beginUpdate() {
+        if(batchDepth++ == 0) {
+            pendingBatch = new DatabaseBatch();
+            dirtyChangedInBatch = false;
+        }
+    }
+    
+    /**
+     * Ends a bulk update started with beginUpdate(). When the outermost update
+     * is committed, every DatabaseBatchListener receives the whole batch and
+     * every other DatabaseListener receives the individual events.
+     * 
+     * @throws IllegalStateException if beginUpdate() was not called first.
+     */
+    public void commitUpdate() {
+        if(batchDepth <= 0)
+            throw new IllegalStateException("commitUpdate() called without a matching beginUpdate()");
+        
+        if(--batchDepth == 0) {
+            DatabaseBatch batch = pendingBatch;
+            boolean sendDirty = dirtyChangedInBatch;
+            
+            pendingBatch = null;
+            dirtyChangedInBatch = false;
+            
+            // Publish before notifying so listeners see the finished batch
+            publishSnapshot();
+            
+            if(batch.isEmpty()==false)
+                sendBatch(batch);
+            if(sendDirty)
+                sendDirtyStatusChanged();
+        }
+    }
+    
+    /**
+     * @return true if currently inside of beginUpdate()/commitUpdate().
+     */
+    public boolean isUpdating() {
+        return batchDepth > 0;
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -155,7 +279,9 @@ public class Database {
                 return;
         }
         globalSettings.put(name, value);
+        globalSettingsChanged = true;
         setDirty(true);
+        publishSnapshot();
     }
 
     /**
@@ -198,25 +324,190 @@ public class Database {
     }
 
     private void sendAccountAdded(Account parent, Account child) {
+        if(pendingBatch!=null) {
+            pendingBatch.accountAdded(parent, child);
+            return;
+        }
         for(DatabaseListener listener : listeners)
             listener.accountAdded(parent, child);
     }
     
     private void sendAccountChanged(Account account) {
+        if(pendingBatch!=null) {
+            pendingBatch.accountChanged(account);
+            return;
+        }
         for(DatabaseListener listener : listeners)
             listener.accountChanged(account);
     }
     
     private void sendAccountRemoved(Account parent, Account child) {
+        if(pendingBatch!=null) {
+            pendingBatch.accountRemoved(parent, child);
+            return;
+        }
        for(DatabaseListener listener : listeners)
             listener.accountRemoved(parent, child);
     }
     
     private void sendDirtyStatusChanged() {
+        if(pendingBatch!=null) {
+            dirtyChangedInBatch = true;
+            return;
+        }
         for(DatabaseListener listener : listeners)
             listener.dirtyStatusChanged(dirty);
     }
     
+    /**
+     * Sends a committed batch. Listeners which don't know about batches get
+     * each event replayed individually.
+     */
+    private void sendBatch(DatabaseBatch batch) {
+        for(DatabaseListener listener : listeners) {
+            if(listener instanceof DatabaseBatchListener)
+                ((DatabaseBatchListener)listener).accountsBatchUpdated(batch);
+            else
+                batch.replay(listener);
+        }
+    }
+    
+    ////////////////////////////////////////////////////////////////////////////
+    //
+    // SNAPSHOT ROUTINES
+    //
+    ////////////////////////////////////////////////////////////////////////////
+    
+    /**
+     * Gets the most recently published snapshot of this database. This never
+     * blocks and may be called from any thread.
+     * 
+     * @return The current snapshot.
+     */
+    public DatabaseSnapshot getSnapshot() {
+        return snapshot;
+    }
+    
+    /**
+     * Throws away every cached account snapshot and publishes a complete copy of
+     * the account tree. This must be called after accounts are modified without
+     * going through this class (for example by adding to Account.getChildren()
+     * directly as the RDF reader does).
+     */
+    public void invalidateSnapshot() {
+        clearSnapshots(rootAccount);
+        parents = null;
+        globalSettingsChanged = true;
+        publishSnapshot();
+    }
+    
+    private void clearSnapshots(Account account) {
+        account.snapshot = null;
+        for(Account child : account.childList())
+            clearSnapshots(child);
+    }
+    
+    /**
+     * Marks an account and all of its ancestors as needing a new snapshot.
+     */
+    private void markStale(Account account) {
+        ArrayList<Account> path = findPath(account);
+        if(path==null && parents!=null) {
+            // The tree was changed behind our back, or the account isn't in it
+            parents = null;
+            path = findPath(account);
+        }
+        if(path!=null) {
+            for(Account a : path)
+                a.snapshot = null;
+        }
+        snapshotPending = true;
+    }
+    
+    /**
+     * Internal routine to locate the chain of accounts from account up to the root.
+     * @return The chain, or null if the account isn't in the tree or the parents
+     *         map doesn't match it.
+     */
+    private ArrayList<Account> findPath(Account account) {
+        if(parents==null) {
+            parents = new IdentityHashMap<Account, Account>();
+            for(Account child : rootAccount.childList())
+                mapParents(rootAccount, child);
+        }
+        
+        ArrayList<Account> path = new ArrayList<Account>();
+        for(Account a = account; a != rootAccount; ) {
+            Account parent = parents.get(a);
+            if(parent==null || isChild(parent, a)==false || path.size() > parents.size())
+                return null;
+            path.add(a);
+            a = parent;
+        }
+        path.add(rootAccount);
+        return path;
+    }
+    
+    private static boolean isChild(Account parent, Account account) {
+        for(Account child : parent.childList()) {
+            if(child == account)
+                return true;
+        }
+        return false;
+    }
+    
+    private void mapParents(Account parent, Account account) {
+        parents.put(account, parent);
+        for(Account child : account.childList())
+            mapParents(account, child);
+    }
+    
+    private void unmapParents(Account account) {
+        parents.remove(account);
+        for(Account child : account.childList())
+            unmapParents(child);
+    }
+    
+    /**
+     * Publishes a new snapshot unless inside of a bulk update, in which case it is
+     * published by the outermost commitUpdate(). Accounts which were not marked as
+     * stale reuse their previous snapshot.
+     */
+    private void publishSnapshot() {
+        if(pendingBatch!=null)
+            return;
+        
+        synchronized(snapshotLock) {
+            DatabaseSnapshot current = snapshot;
+            if(current!=null && snapshotPending==false && globalSettingsChanged==false && rootAccount.snapshot!=null)
+                return;
+            
+            // The settings map is shared between versions until a setting changes
+            Map<String, String> settings;
+            if(current==null || globalSettingsChanged)
+                settings = DatabaseSnapshot.copySettings(globalSettings);
+            else
+                settings = current.getGlobalSettings();
+            
+            snapshot = new DatabaseSnapshot(buildSnapshot(rootAccount), settings, ++snapshotVersion);
+            snapshotPending = false;
+            globalSettingsChanged = false;
+        }
+    }
+    
+    private AccountSnapshot buildSnapshot(Account account) {
+        if(account.snapshot!=null)
+            return account.snapshot;
+        
+        List<Account> children = account.childList();
+        AccountSnapshot [] childSnapshots = new AccountSnapshot[children.size()];
+        for(int i=0; i<childSnapshots.length; i++)
+            childSnapshots[i] = buildSnapshot(children.get(i));
+        
+        account.snapshot = new AccountSnapshot(account, childSnapshots);
+        return account.snapshot;
+    }
+    
     ////////////////////////////////////////////////////////////////////////////
     //
     // UTILITY FUNCTIONS
@@ -271,11 +562,11 @@ public class Database {
             buf += " ";
         
         buf += "+";
-        buf += acc.getName() + "[" + acc.getUrl() + "] (" + acc.getPatterns().size() + " patterns)";
+        buf += acc.getName() + "[" + acc.getUrl() + "] (" + acc.getPatternCount() + " patterns)";
         
         System.out.println(buf);
         
-        for(Account account : acc.getChildren())
+        for(Account account : acc.childList())
             printDatabase(account, level + 2);
     }
     
@@ -297,10 +588,10 @@ public class Database {
     private Account findAccountById(Account parent, String id) {
         if(parent==null)
             return null;
-        for(Account child : parent.getChildren()) {
+        for(Account child : parent.childList()) {
             if(child.getId().equals(id))
                 return child;
-            if(child.getChildren().size()>0) {
+            if(child.hasChildren()) {
                 Account foundAccount = findAccountById(child, id);
                 if(foundAccount!=null)
                     return foundAccount;
@@ -316,21 +607,36 @@ public class Database {
      * @return The account if found, else null.
      */
     public Account findAccountByUrl(String url) {
-    	return findAccountByUrl(rootAccount, url);
+        FlightRecorderEvents.AccountLookup event = new FlightRecorderEvents.AccountLookup();
+        event.begin();
+        int [] searched = new int[1];
+        
+    	Account found = findAccountByUrl(rootAccount, url, searched);
+    	
+    	event.end();
+    	if(event.shouldCommit()) {
+    	    event.accountsSearched = searched[0];
+    	    event.urlLength = url!=null ? url.length() : 0;
+    	    event.found = found!=null;
+    	    event.commit();
+    	}
+    	return found;
     }
     
     /**
      * Internal function to aid in searching.
      * @param parent
      * @param url
+     * @param searched Element 0 is incremented for every account tested.
      * @return
      */
-    private Account findAccountByUrl(Account parent, String url) {
+    private Account findAccountByUrl(Account parent, String url, int [] searched) {
     	// First search the parent
+    	searched[0]++;
     	if(AccountPatternMatcher.matchUrl(parent, url))
     		return parent;
-    	for(Account child : parent.getChildren()) {
-    		Account foundAccount = findAccountByUrl(child, url);
+    	for(Account child : parent.childList()) {
+    		Account foundAccount = findAccountByUrl(child, url, searched);
     		if(foundAccount!=null)
     			return foundAccount;
     	}
@@ -357,11 +663,11 @@ public class Database {
             return null;
         
         // Does this parent contain the child account?
-        if(parent.getChildren().contains(account))
+        if(parent.childList().contains(account))
             return parent;
         
         // Recurse through the children
-        for(Account child : parent.getChildren()) {
+        for(Account child : parent.childList()) {
             Account theOne = findParent(child, account);
             if(theOne!=null)
                 return theOne;
@@ -0,0 +1,174 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A set of changes made to a Database between Database.beginUpdate() and
+ * Database.commitUpdate().
+ *
+ * The changes are kept in the order they were made so a listener which does not
+ * understand batches can still be sent every single event (see replay()).  Listeners
+ * which do understand batches can instead use getAffectedParents() to refresh each
+ * modified subtree once.
+ *
+ * @author Dave Marotti
+ */
+public class DatabaseBatch {
+
+    public enum ChangeType {
+        ADDED, REMOVED, CHANGED
+    }
+
+    /**
+     * A single change inside of a batch.
+     */
+    public static class Change {
+        private ChangeType type;
+        private Account parent;
+        private Account account;
+
+        Change(ChangeType type, Account parent, Account account) {
+            this.type = type;
+            this.parent = parent;
+            this.account = account;
+        }
+
+        public ChangeType getType() {
+            return type;
+        }
+
+        /**
+         * @return The parent the account was added to or removed from. This is null
+         *         for CHANGED events.
+         */
+        public Account getParent() {
+            return parent;
+        }
+
+        public Account getAccount() {
+            return account;
+        }
+    }
+
+    private ArrayList<Change> changes = new ArrayList<Change>();
+
+    // Kept in the order they were first affected. Account.equals() is based on the
+    // ID, so membership is tracked by identity alongside each list.
+    private ArrayList<Account> affectedParents = new ArrayList<Account>();
+    private Set<Account> affectedParentSet = Collections.newSetFromMap(new IdentityHashMap<Account, Boolean>());
+    private ArrayList<Account> changedAccounts = new ArrayList<Account>();
+    private Set<Account> changedAccountSet = Collections.newSetFromMap(new IdentityHashMap<Account, Boolean>());
+
+    DatabaseBatch() {
+    }
+
+    void accountAdded(Account parent, Account account) {
+        changes.add(new Change(ChangeType.ADDED, parent, account));
+        addUnique(affectedParents, affectedParentSet, parent);
+    }
+
+    void accountRemoved(Account parent, Account account) {
+        changes.add(new Change(ChangeType.REMOVED, parent, account));
+        addUnique(affectedParents, affectedParentSet, parent);
+    }
+
+    void accountChanged(Account account) {
+        changes.add(new Change(ChangeType.CHANGED, null, account));
+        addUnique(changedAccounts, changedAccountSet, account);
+    }
+
+    private static void addUnique(ArrayList<Account> list, Set<Account> set, Account account) {
+        if(set.add(account))
+            list.add(account);
+    }
+
+    /**
+     * Gets every change in the order it was made.
+     * @return An unmodifiable list of changes.
+     */
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Gets the parents whose list of children was modified. Each parent appears
+     * once no matter how many children were added or removed from it.
+     * @return An unmodifiable list of parents.
+     */
+    public List<Account> getAffectedParents() {
+        return Collections.unmodifiableList(affectedParents);
+    }
+
+    /**
+     * Gets the accounts whose settings were changed. Each account appears once.
+     * @return An unmodifiable list of accounts.
+     */
+    public List<Account> getChangedAccounts() {
+        return Collections.unmodifiableList(changedAccounts);
+    }
+
+    /**
+     * Tests if the root account is one of the affected parents, in which case
+     * it is generally easier to refresh everything.
+     * @return true if the root account had children added or removed.
+     */
+    public boolean isRootAffected() {
+        for(Account parent : affectedParents) {
+            if(parent.isRoot())
+                return true;
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    /**
+     * Sends every change in this batch, in order, to a listener that does not
+     * implement DatabaseBatchListener. This is how existing listeners keep working
+     * when a batch is committed.
+     *
+     * @param listener The listener to send the individual events to.
+     */
+    public void replay(DatabaseListener listener) {
+        for(Change change : changes) {
+            switch(change.type) {
+                case ADDED:
+                    listener.accountAdded(change.parent, change.account);
+                    break;
+                case REMOVED:
+                    listener.accountRemoved(change.parent, change.account);
+                    break;
+                case CHANGED:
+                    listener.accountChanged(change.account);
+                    break;
+            }
+        }
+    }
+}
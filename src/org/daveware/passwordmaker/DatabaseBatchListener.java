@@ -0,0 +1,31 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+/**
+ * A DatabaseListener which wishes to receive all the changes made between
+ * Database.beginUpdate() and Database.commitUpdate() as a single event.
+ *
+ * Plain DatabaseListener objects are still notified of batches, they just
+ * receive the individual events one at a time (see DatabaseBatch.replay()).
+ *
+ * @author Dave Marotti
+ */
+public interface DatabaseBatchListener extends DatabaseListener {
+    public void accountsBatchUpdated(DatabaseBatch batch);
+}
@@ -0,0 +1,435 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The differences between two versions of a database, matched up by account id.
+ *
+ * A diff is computed from two DatabaseSnapshot objects, so it can be done on any
+ * thread (for example right after parsing a file in the background). apply() then
+ * makes the same changes to a live Database through the normal Database methods,
+ * so listeners receive ordinary add/remove/change events for just the accounts
+ * that differ instead of having to reload everything.
+ *
+ * @author Dave Marotti
+ */
+public class DatabaseDiff {
+
+    public enum Type {
+        ADDED, REMOVED, CHANGED, MOVED
+    }
+
+    /**
+     * One difference.
+     */
+    public static class Entry {
+        private final Type type;
+        private final AccountSnapshot account;
+        private final AccountSnapshot parent;
+
+        Entry(Type type, AccountSnapshot account, AccountSnapshot parent) {
+            this.type = type;
+            this.account = account;
+            this.parent = parent;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return The account as it is in the newer version (or, for removed
+         *         accounts, as it was in the older version).
+         */
+        public AccountSnapshot getAccount() {
+            return account;
+        }
+
+        /**
+         * @return The id of the new parent for ADDED and MOVED, the id of the old
+         *         parent for REMOVED, else the current parent.
+         */
+        public String getParentId() {
+            return parent==null ? null : parent.getId();
+        }
+
+        /**
+         * @return The parent the id of getParentId() belongs to, in the same version
+         *         as getAccount().
+         */
+        public AccountSnapshot getParent() {
+            return parent;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + account.getId() + " (" + account.getName() + ")";
+        }
+    }
+
+    private final ArrayList<Entry> entries = new ArrayList<Entry>();
+    private final LinkedHashMap<String, String> changedSettings = new LinkedHashMap<String, String>();
+
+    DatabaseDiff() {
+    }
+
+    /**
+     * Computes the changes needed to turn one version of a database into another.
+     *
+     * Subtrees which are the same object (snapshots of the same Database share
+     * unchanged subtrees) or have the same Merkle hash are skipped without looking
+     * inside them, so the cost depends on how much changed rather than on the size
+     * of the database. Only the added and removed subtrees are indexed, which is
+     * enough to tell a move from an add and a remove.
+     *
+     * @param older The version to start from.
+     * @param newer The version to end up with.
+     * @return The differences.
+     */
+    public static DatabaseDiff compare(DatabaseSnapshot older, DatabaseSnapshot newer) {
+        DatabaseDiff diff = new DatabaseDiff();
+
+        // Accounts found under a parent in one version but not the other, with
+        // the parent they were found under.
+        LinkedHashMap<String, AccountSnapshot[]> added = new LinkedHashMap<String, AccountSnapshot[]>();
+        LinkedHashMap<String, AccountSnapshot[]> removed = new LinkedHashMap<String, AccountSnapshot[]>();
+
+        if(isOrderChanged(older.getRootAccount(), newer.getRootAccount()))
+            diff.entries.add(new Entry(Type.CHANGED, newer.getRootAccount(), null));
+        diff.comparePair(older.getRootAccount(), newer.getRootAccount(), added, removed);
+
+        // An account in both lists was moved, compare it like any other pair
+        // after recording the move.
+        ArrayList<AccountSnapshot[]> moved = new ArrayList<AccountSnapshot[]>();
+        for(Map.Entry<String, AccountSnapshot[]> entry : added.entrySet()) {
+            AccountSnapshot[] from = removed.get(entry.getKey());
+            if(from!=null)
+                moved.add(new AccountSnapshot[] { from[0], from[1], entry.getValue()[0], entry.getValue()[1] });
+        }
+        for(AccountSnapshot[] move : moved) {
+            added.remove(move[2].getId());
+            removed.remove(move[0].getId());
+            if(!move[1].getId().equals(move[3].getId()))
+                diff.entries.add(new Entry(Type.MOVED, move[2], move[3]));
+            if(!move[0].getSettings().hasSameSettings(move[2].getSettings()) || isOrderChanged(move[0], move[2]))
+                diff.entries.add(new Entry(Type.CHANGED, move[2], move[3]));
+        }
+
+        // Both maps are in tree order, so parents come before their children
+        for(AccountSnapshot[] add : added.values())
+            diff.entries.add(new Entry(Type.ADDED, add[0], add[1]));
+        for(AccountSnapshot[] remove : removed.values())
+            diff.entries.add(new Entry(Type.REMOVED, remove[0], remove[1]));
+
+        for(Map.Entry<String, String> setting : newer.getGlobalSettings().entrySet()) {
+            String oldValue = older.getGlobalSettings().get(setting.getKey());
+            if(oldValue==null || !oldValue.equals(setting.getValue()))
+                diff.changedSettings.put(setting.getKey(), setting.getValue());
+        }
+        return diff;
+    }
+
+    /**
+     * Compares the children of an account which exists in both versions.
+     */
+    private void comparePair(AccountSnapshot olderParent, AccountSnapshot newerParent,
+                             Map<String, AccountSnapshot[]> added, Map<String, AccountSnapshot[]> removed) {
+        if(olderParent==newerParent || olderParent.getTreeHash()==newerParent.getTreeHash())
+            return;
+
+        HashMap<String, AccountSnapshot> olderChildren = new HashMap<String, AccountSnapshot>();
+        for(AccountSnapshot child : olderParent.getChildren())
+            olderChildren.put(child.getId(), child);
+
+        for(AccountSnapshot child : newerParent.getChildren()) {
+            AccountSnapshot old = olderChildren.remove(child.getId());
+            if(old==null) {
+                collect(child, newerParent, added);
+                continue;
+            }
+            if(old==child || old.getTreeHash()==child.getTreeHash())
+                continue;
+            if(!old.getSettings().hasSameSettings(child.getSettings()) || isOrderChanged(old, child))
+                entries.add(new Entry(Type.CHANGED, child, newerParent));
+            comparePair(old, child, added, removed);
+        }
+
+        // Whatever is left is gone from this parent
+        for(AccountSnapshot child : olderParent.getChildren()) {
+            if(olderChildren.containsKey(child.getId()))
+                collect(child, olderParent, removed);
+        }
+    }
+
+    /**
+     * Adds an account and all of its descendants to a map, parents first.
+     */
+    private static void collect(AccountSnapshot account, AccountSnapshot parent, Map<String, AccountSnapshot[]> map) {
+        map.put(account.getId(), new AccountSnapshot[] { account, parent });
+        for(AccountSnapshot child : account.getChildren())
+            collect(child, account, map);
+    }
+
+    /**
+     * Tests if the children both versions have in common are in a different order.
+     */
+    static boolean isOrderChanged(AccountSnapshot older, AccountSnapshot newer) {
+        HashSet<String> olderIds = new HashSet<String>();
+        for(AccountSnapshot child : older.getChildren())
+            olderIds.add(child.getId());
+        HashSet<String> newerIds = new HashSet<String>();
+        for(AccountSnapshot child : newer.getChildren())
+            newerIds.add(child.getId());
+
+        int o = 0;
+        int n = 0;
+        List<AccountSnapshot> olderChildren = older.getChildren();
+        List<AccountSnapshot> newerChildren = newer.getChildren();
+        while(true) {
+            while(o<olderChildren.size() && !newerIds.contains(olderChildren.get(o).getId()))
+                o++;
+            while(n<newerChildren.size() && !olderIds.contains(newerChildren.get(n).getId()))
+                n++;
+            if(o>=olderChildren.size() || n>=newerChildren.size())
+                return false;
+            if(!olderChildren.get(o).getId().equals(newerChildren.get(n).getId()))
+                return true;
+            o++;
+            n++;
+        }
+    }
+
+    /**
+     * @return Every difference. Accounts inside an added or removed folder are
+     *         listed individually, parents first.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return Only the differences of one type.
+     */
+    public List<Entry> getEntries(Type type) {
+        ArrayList<Entry> list = new ArrayList<Entry>();
+        for(Entry entry : entries) {
+            if(entry.type==type)
+                list.add(entry);
+        }
+        return list;
+    }
+
+    /**
+     * @return The global settings which were added or modified, with their new values.
+     */
+    public Map<String, String> getChangedSettings() {
+        return Collections.unmodifiableMap(changedSettings);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty() && changedSettings.isEmpty();
+    }
+
+    /**
+     * Creates a copy of this diff without some of its changes.
+     *
+     * @param skipEntries The entries to leave out (compared by identity).
+     * @param skipSettings The global settings to leave out.
+     * @param extraEntries Entries to put before the others, parents first.
+     * @return The new diff.
+     */
+    DatabaseDiff without(Set<Entry> skipEntries, Set<String> skipSettings, List<Entry> extraEntries) {
+        DatabaseDiff diff = new DatabaseDiff();
+        diff.entries.addAll(extraEntries);
+        for(Entry entry : entries) {
+            if(skipEntries.contains(entry)==false)
+                diff.entries.add(entry);
+        }
+        for(Map.Entry<String, String> setting : changedSettings.entrySet()) {
+            if(skipSettings.contains(setting.getKey())==false)
+                diff.changedSettings.put(setting.getKey(), setting.getValue());
+        }
+        return diff;
+    }
+
+    /**
+     * Makes these changes to a database. This is meant to be applied to the
+     * database the older snapshot came from, but it is safe to apply it to one
+     * that has been modified since: accounts which no longer exist are skipped and
+     * accounts which weren't part of the diff are left alone.
+     *
+     * All changes are sent to listeners as a single batch.
+     *
+     * @param db The database to modify.
+     * @throws Exception if an account cannot be added.
+     */
+    public void apply(Database db) throws Exception {
+        HashMap<String, Account> live = new HashMap<String, Account>();
+        HashMap<String, Account> liveParents = new HashMap<String, Account>();
+        index(db.getRootAccount(), live, liveParents);
+
+        // Parents whose children have to be put in the newer order afterward
+        LinkedHashMap<String, Account> reorder = new LinkedHashMap<String, Account>();
+        HashMap<String, AccountSnapshot> newerNodes = new HashMap<String, AccountSnapshot>();
+        for(Entry entry : entries) {
+            if(entry.type==Type.CHANGED)
+                newerNodes.put(entry.account.getId(), entry.account);
+            else if(entry.type!=Type.REMOVED && entry.parent!=null)
+                newerNodes.put(entry.parent.getId(), entry.parent);
+        }
+
+        db.beginUpdate();
+        try {
+            for(Entry entry : entries) {
+                if(entry.type!=Type.ADDED)
+                    continue;
+                Account parent = live.get(entry.getParentId());
+                if(parent==null || live.containsKey(entry.account.getId()))
+                    continue;
+                Account account = entry.account.toAccount();
+                db.addAccount(parent, account);
+                live.put(account.getId(), account);
+                liveParents.put(account.getId(), parent);
+                reorder.put(parent.getId(), parent);
+            }
+
+            for(Entry entry : entries) {
+                if(entry.type!=Type.MOVED)
+                    continue;
+                Account account = live.get(entry.account.getId());
+                Account parent = live.get(entry.getParentId());
+                if(account==null || parent==null || liveParents.get(account.getId())==parent || isWithin(parent, account, liveParents))
+                    continue;
+                db.removeAccount(account);
+                db.addAccount(parent, account);
+                liveParents.put(account.getId(), parent);
+                reorder.put(parent.getId(), parent);
+            }
+
+            for(Entry entry : entries) {
+                if(entry.type!=Type.CHANGED)
+                    continue;
+                Account account = live.get(entry.account.getId());
+                if(account==null)
+                    continue;
+                if(account.isRoot()==false)
+                    account.copySettings(entry.account.getSettings());
+                reorderChildren(account, newerNodes.get(account.getId()));
+                reorder.remove(account.getId());
+                db.changeAccount(account);
+            }
+
+            for(Account parent : reorder.values()) {
+                if(reorderChildren(parent, newerNodes.get(parent.getId())))
+                    db.changeAccount(parent);
+            }
+
+            for(Entry entry : entries) {
+                if(entry.type!=Type.REMOVED)
+                    continue;
+                Account account = live.get(entry.account.getId());
+                // Skip accounts which went away with their folder
+                if(account!=null && isAttached(account, db, liveParents)) {
+                    db.removeAccount(account);
+                    live.remove(account.getId());
+                }
+            }
+
+            for(Map.Entry<String, String> setting : changedSettings.entrySet())
+                db.setGlobalSetting(setting.getKey(), setting.getValue());
+        } finally {
+            db.commitUpdate();
+        }
+    }
+
+    /**
+     * Maps the ID of an account and everything below it to the account, and the
+     * ID of everything below it to its parent.
+     */
+    static void index(Account parent, Map<String, Account> index, Map<String, Account> parents) {
+        index.put(parent.getId(), parent);
+        for(Account child : parent.childList()) {
+            parents.put(child.getId(), parent);
+            index(child, index, parents);
+        }
+    }
+
+    /**
+     * Tests if an account is the same as, or a descendant of, another account.
+     */
+    private static boolean isWithin(Account account, Account ancestor, Map<String, Account> parents) {
+        for(Account a = account; a!=null; a = parents.get(a.getId())) {
+            if(a==ancestor)
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isAttached(Account account, Database db, Map<String, Account> parents) {
+        Account a = account;
+        while(a!=null && a!=db.getRootAccount()) {
+            Account parent = parents.get(a.getId());
+            if(parent==null || parent.childList().contains(a)==false)
+                return false;
+            a = parent;
+        }
+        return a!=null;
+    }
+
+    /**
+     * Sorts the children of a live account into the order of the newer version.
+     * Children the newer version doesn't have stay at the end.
+     *
+     * @return true if the order changed.
+     */
+    private static boolean reorderChildren(Account account, AccountSnapshot newer) {
+        if(newer==null)
+            return false;
+
+        final HashMap<String, Integer> position = new HashMap<String, Integer>();
+        for(int i=0; i<newer.getChildCount(); i++)
+            position.put(newer.getChild(i).getId(), i);
+
+        ArrayList<Account> children = account.getChildren();
+        ArrayList<Account> sorted = new ArrayList<Account>(children);
+        Collections.sort(sorted, new Comparator<Account>() {
+            public int compare(Account a1, Account a2) {
+                Integer p1 = position.get(a1.getId());
+                Integer p2 = position.get(a2.getId());
+                int i1 = p1==null ? Integer.MAX_VALUE : p1;
+                int i2 = p2==null ? Integer.MAX_VALUE : p2;
+                return i1 < i2 ? -1 : (i1 > i2 ? 1 : 0);
+            }
+        });
+        if(sorted.equals(children))
+            return false;
+        children.clear();
+        children.addAll(sorted);
+        return true;
+    }
+}
@@ -0,0 +1,670 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of account changes kept beside a database file.
+ *
+ * Rewriting the whole RDF file for every edit costs time proportional to the size
+ * of the database. Instead, a journal collects the accounts which were added,
+ * changed or removed and sync() appends just those records to "file.rdf.journal".
+ * Loading a database with load() reads the RDF file and then replays the journal
+ * on top of it.
+ *
+ * Once the journal grows past a threshold it is compacted: the current state is
+ * written to the RDF file in the background (see DatabaseSaveService) and the
+ * records that write covers are dropped from the journal.
+ *
+ * Each record is stored as:
+ * <pre>
+ *   [byte op] [int payload length] [payload] [int CRC32 of op + payload]
+ * </pre>
+ * A record with a bad checksum or a short read (a crash part way through an
+ * append) ends the replay, anything before it is still applied. Every record
+ * holds the full state of what it touches, so replaying a record that the RDF
+ * file already contains is harmless.
+ *
+ * Changes are only buffered in memory until sync() is called, so discard() (or
+ * never syncing) throws unsaved edits away just like not saving the RDF file.
+ *
+ * @author Dave Marotti
+ */
+public class DatabaseJournal implements DatabaseBatchListener, DatabaseSaveService.Listener {
+    public static final String EXTENSION = ".journal";
+    public static final long DEFAULT_COMPACT_THRESHOLD = 256 * 1024;
+
+    private static final byte [] MAGIC = { 'P', 'W', 'M', 'J', 1 };
+    private static final byte OP_ADD      = 'A';
+    private static final byte OP_CHANGE   = 'C';
+    private static final byte OP_REMOVE   = 'R';
+    private static final byte OP_SETTINGS = 'G';
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static Logger logger = Logger.getLogger(DatabaseJournal.class.getName());
+
+    private final File dbFile;
+    private final File journalFile;
+    private final Database db;
+    private final DatabaseSaveService compactor = new DatabaseSaveService();
+    private long compactThreshold = DEFAULT_COMPACT_THRESHOLD;
+
+    // Records which have not been synced yet. Only touched by the thread
+    // modifying the database.
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private Map<String, String> syncedSettings;
+
+    // Guards the journal file, compaction trims it from the save thread.
+    private final Object fileLock = new Object();
+    private DatabaseSnapshot compacting = null;
+    private long compactOffset = 0;
+
+    /**
+     * Starts journaling changes made to a database. The database should have been
+     * loaded with load() so it already contains whatever the journal holds.
+     *
+     * @param dbFile The RDF file the database was read from.
+     * @param db The database to watch.
+     */
+    public DatabaseJournal(File dbFile, Database db) {
+        this.dbFile = dbFile.getAbsoluteFile();
+        this.journalFile = getJournalFile(this.dbFile);
+        this.db = db;
+        this.syncedSettings = db.getSnapshot().getGlobalSettings();
+
+        compactor.addListener(this);
+        db.addDatabaseListener(this);
+    }
+
+    /**
+     * Gets the name of the journal which belongs to a database file.
+     * @param dbFile The RDF file.
+     * @return The journal file (which may not exist).
+     */
+    public static File getJournalFile(File dbFile) {
+        return new File(dbFile.getPath() + EXTENSION);
+    }
+
+    /**
+     * Reads a database from an RDF file and replays its journal, if there is one.
+     *
+     * @param dbFile The RDF file.
+     * @return The database, not marked dirty.
+     * @throws Exception if the RDF file cannot be read.
+     */
+    public static Database load(File dbFile) throws Exception {
+        Database db;
+        FileInputStream fin = new FileInputStream(dbFile);
+        try {
+            db = new ParallelRDFDatabaseReader().read(fin);
+        } finally {
+            fin.close();
+        }
+
+        File journalFile = getJournalFile(dbFile);
+        if(journalFile.exists()) {
+            InputStream is = new FileInputStream(journalFile);
+            try {
+                int count = replay(is, db);
+                logger.fine("Replayed " + count + " journal records from " + journalFile);
+            } finally {
+                is.close();
+            }
+        }
+        db.setDirty(false);
+        return db;
+    }
+
+    /**
+     * Applies the records of a journal to a database. Replay stops quietly at the
+     * first damaged or incomplete record.
+     *
+     * @param is The journal contents.
+     * @param db The database to modify.
+     * @return The number of records applied.
+     * @throws Exception if the stream is not a journal or cannot be read.
+     */
+    public static int replay(InputStream is, Database db) throws Exception {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        byte [] magic = new byte[MAGIC.length];
+        try {
+            in.readFully(magic);
+        } catch(EOFException e) {
+            return 0;
+        }
+        for(int i=0; i<MAGIC.length; i++) {
+            if(magic[i]!=MAGIC[i])
+                throw new Exception("Not a PasswordMaker journal (or an unsupported version)");
+        }
+
+        // Looked up by every record, so kept up to date rather than searching
+        // the tree each time
+        HashMap<String, Account> index = new HashMap<String, Account>();
+        HashMap<String, Account> parents = new HashMap<String, Account>();
+        DatabaseDiff.index(db.getRootAccount(), index, parents);
+
+        int count = 0;
+        db.beginUpdate();
+        try {
+            byte [] payload;
+            while((payload = readRecord(in))!=null) {
+                applyRecord(db, payload, index, parents);
+                count++;
+            }
+        } finally {
+            db.commitUpdate();
+        }
+        return count;
+    }
+
+    /**
+     * Reads one record.
+     * @return The op byte followed by the payload, or null at the end of the valid data.
+     */
+    private static byte [] readRecord(DataInputStream in) throws IOException {
+        try {
+            int op = in.read();
+            if(op<0)
+                return null;
+            int length = in.readInt();
+            if(length<0 || length > 64 * 1024 * 1024) {
+                logger.warning("Journal record has an invalid length, ignoring the rest of the journal");
+                return null;
+            }
+            byte [] record = new byte[length + 1];
+            record[0] = (byte)op;
+            in.readFully(record, 1, length);
+
+            CRC32 crc = new CRC32();
+            crc.update(record, 0, record.length);
+            if((int)crc.getValue()!=in.readInt()) {
+                logger.warning("Journal record has a bad checksum, ignoring the rest of the journal");
+                return null;
+            }
+            return record;
+        } catch(EOFException e) {
+            logger.warning("Journal ends with an incomplete record, ignoring it");
+            return null;
+        }
+    }
+
+    /**
+     * Applies one record.
+     * @param index Every account in the database by ID, kept up to date.
+     * @param parents The parent of every account by ID, kept up to date.
+     */
+    private static void applyRecord(Database db, byte [] record, Map<String, Account> index,
+            Map<String, Account> parents) throws Exception {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 1));
+        switch(record[0]) {
+            case OP_ADD: {
+                String parentId = readString(in);
+                Account account = readAccountTree(in);
+                Account parent = index.get(parentId);
+                if(parent==null) {
+                    logger.warning("Journal adds '" + account.getId() + "' to missing parent '" + parentId + "', dropping it");
+                    break;
+                }
+                if(account.getId().equals(Account.ROOT_ACCOUNT_URI))
+                    break;
+                // Already there (the RDF file is newer than the record), replace it
+                Account existing = index.get(account.getId());
+                if(existing!=null)
+                    remove(db, existing, index, parents);
+                db.addAccountWithUniqueId(parent, account);
+                parents.put(account.getId(), parent);
+                DatabaseDiff.index(account, index, parents);
+                break;
+            }
+            case OP_CHANGE: {
+                Account settings = readAccount(in);
+                int childCount = in.readInt();
+                ArrayList<String> order = new ArrayList<String>(childCount);
+                for(int i=0; i<childCount; i++)
+                    order.add(readString(in));
+
+                Account account = index.get(settings.getId());
+                if(account==null)
+                    break;
+                account.copySettings(settings);
+                reorderChildren(account, order);
+                db.changeAccount(account);
+                break;
+            }
+            case OP_REMOVE: {
+                Account account = index.get(readString(in));
+                if(account!=null && account!=db.getRootAccount())
+                    remove(db, account, index, parents);
+                break;
+            }
+            case OP_SETTINGS: {
+                int count = in.readInt();
+                for(int i=0; i<count; i++) {
+                    String key = readString(in);
+                    db.setGlobalSetting(key, readString(in));
+                }
+                break;
+            }
+            default:
+                logger.warning("Unknown journal record type " + record[0] + ", skipping it");
+        }
+    }
+
+    private static void remove(Database db, Account account, Map<String, Account> index, Map<String, Account> parents) {
+        db.removeAccount(parents.get(account.getId()), account);
+        unindex(account, index, parents);
+    }
+
+    private static void unindex(Account account, Map<String, Account> index, Map<String, Account> parents) {
+        index.remove(account.getId());
+        parents.remove(account.getId());
+        for(Account child : account.childList())
+            unindex(child, index, parents);
+    }
+
+    /**
+     * Puts the children in the recorded order. Children the record doesn't know
+     * about keep their relative order at the end.
+     */
+    private static void reorderChildren(Account account, ArrayList<String> order) {
+        ArrayList<Account> children = account.getChildren();
+        HashMap<String, Account> byId = new HashMap<String, Account>();
+        for(Account child : children)
+            byId.put(child.getId(), child);
+
+        ArrayList<Account> sorted = new ArrayList<Account>(children.size());
+        for(String id : order) {
+            Account child = byId.remove(id);
+            if(child!=null)
+                sorted.add(child);
+        }
+        for(Account child : children) {
+            if(byId.containsKey(child.getId()))
+                sorted.add(child);
+        }
+        children.clear();
+        children.addAll(sorted);
+    }
+
+    public long getCompactThreshold() {
+        return compactThreshold;
+    }
+
+    /**
+     * @param bytes Once the journal is larger than this, sync() starts a compaction.
+     */
+    public void setCompactThreshold(long bytes) {
+        compactThreshold = bytes;
+    }
+
+    public File getDatabaseFile() {
+        return dbFile;
+    }
+
+    /**
+     * @return true if there are changes which have not been synced.
+     */
+    public boolean hasPendingChanges() {
+        return pending.size() > 0 || syncedSettings != db.getSnapshot().getGlobalSettings();
+    }
+
+    /**
+     * Appends every change made since the last sync to the journal and forces it
+     * to disk. This is what "save" means for a journaled database. If the journal
+     * is now over the threshold, a compaction is started.
+     *
+     * @throws IOException if the journal cannot be written.
+     */
+    public void sync() throws IOException {
+        // Global settings don't produce events, but the snapshot only gets a new
+        // settings map when they change.
+        Map<String, String> settings = db.getSnapshot().getGlobalSettings();
+        if(settings!=syncedSettings) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(settings.size());
+            for(Map.Entry<String, String> entry : settings.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+            appendRecord(OP_SETTINGS, bytes);
+        }
+
+        long length;
+        synchronized(fileLock) {
+            boolean isNew = journalFile.exists()==false || journalFile.length()==0;
+            FileOutputStream fout = new FileOutputStream(journalFile, true);
+            try {
+                if(isNew)
+                    fout.write(MAGIC);
+                pending.writeTo(fout);
+                fout.flush();
+                fout.getChannel().force(false);
+            } finally {
+                fout.close();
+            }
+            length = journalFile.length();
+        }
+        pending.reset();
+        syncedSettings = settings;
+
+        if(length > compactThreshold)
+            compact();
+    }
+
+    /**
+     * Throws away changes which have not been synced.
+     */
+    public void discard() {
+        pending.reset();
+        syncedSettings = db.getSnapshot().getGlobalSettings();
+    }
+
+    /**
+     * Writes the synced state of the database to the RDF file in the background,
+     * then removes the records that write made redundant. Must be called right
+     * after sync() so the database holds no unsynced changes.
+     */
+    public void compact() {
+        synchronized(fileLock) {
+            if(compacting!=null)
+                return;
+            compacting = db.getSnapshot();
+            compactOffset = journalFile.length();
+        }
+        compactor.save(dbFile, compacting);
+    }
+
+    /**
+     * Stops journaling. Unsynced changes are discarded, a compaction in progress
+     * is allowed to finish.
+     */
+    public void close() throws InterruptedException {
+        db.removeDatabaseListener(this);
+        discard();
+        compactor.shutdown();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    //
+    // COMPACTION (save thread)
+    //
+    ////////////////////////////////////////////////////////////////////////////
+
+    public void saveCompleted(File file, DatabaseSnapshot snapshot) {
+        synchronized(fileLock) {
+            if(snapshot!=compacting)
+                return;
+            try {
+                trimJournal(compactOffset);
+            } catch(IOException e) {
+                // Harmless, the old records will simply be replayed again
+                logger.warning("Unable to trim journal " + journalFile + ": " + e.getMessage());
+            }
+            compacting = null;
+        }
+    }
+
+    public void saveFailed(File file, DatabaseSnapshot snapshot, Exception e) {
+        synchronized(fileLock) {
+            if(snapshot==compacting)
+                compacting = null;
+        }
+    }
+
+    /**
+     * Replaces the journal with the records past an offset. Called with fileLock held.
+     */
+    private void trimJournal(long offset) throws IOException {
+        long length = journalFile.length();
+        if(length<=offset) {
+            journalFile.delete();
+            return;
+        }
+
+        File temp = File.createTempFile("." + journalFile.getName() + "-", ".tmp", journalFile.getParentFile());
+        boolean moved = false;
+        try {
+            RandomAccessFile in = new RandomAccessFile(journalFile, "r");
+            FileOutputStream fout = new FileOutputStream(temp);
+            try {
+                fout.write(MAGIC);
+                in.seek(offset);
+                byte [] buffer = new byte[8192];
+                int n;
+                while((n = in.read(buffer))>0)
+                    fout.write(buffer, 0, n);
+                fout.flush();
+                fout.getChannel().force(false);
+            } finally {
+                fout.close();
+                in.close();
+            }
+
+            try {
+                Files.move(temp.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if(!moved)
+                temp.delete();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    //
+    // DATABASE LISTENER METHODS
+    //
+    ////////////////////////////////////////////////////////////////////////////
+
+    public void accountAdded(Account parent, Account account) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, parent.getId());
+            writeAccountTree(out, account);
+            appendRecord(OP_ADD, bytes);
+        } catch(IOException e) {
+            // Only possible from a ByteArrayOutputStream if we're out of memory
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void accountRemoved(Account parent, Account account) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, account.getId());
+            appendRecord(OP_REMOVE, bytes);
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void accountChanged(Account account) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeAccount(out, account);
+            // The children are recorded by id so a sort survives
+            out.writeInt(account.getChildCount());
+            for(Account child : account.childList())
+                writeString(out, child.getId());
+            appendRecord(OP_CHANGE, bytes);
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void accountsBatchUpdated(DatabaseBatch batch) {
+        batch.replay(this);
+    }
+
+    public void dirtyStatusChanged(boolean status) {
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    //
+    // RECORD ENCODING
+    //
+    ////////////////////////////////////////////////////////////////////////////
+
+    private void appendRecord(byte op, ByteArrayOutputStream payload) throws IOException {
+        byte [] data = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(data, 0, data.length);
+
+        DataOutputStream out = new DataOutputStream(pending);
+        out.writeByte(op);
+        out.writeInt(data.length);
+        out.write(data);
+        out.writeInt((int)crc.getValue());
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte [] bytes = str.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte [] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void writeAccountTree(DataOutputStream out, Account account) throws IOException {
+        writeAccount(out, account);
+        out.writeInt(account.getChildCount());
+        for(Account child : account.childList())
+            writeAccountTree(out, child);
+    }
+
+    private static Account readAccountTree(DataInputStream in) throws Exception {
+        Account account = readAccount(in);
+        int childCount = in.readInt();
+        for(int i=0; i<childCount; i++)
+            account.getChildren().add(readAccountTree(in));
+        return account;
+    }
+
+    private static void writeAccount(DataOutputStream out, Account account) throws IOException {
+        writeString(out, account.getId());
+        writeString(out, account.getName());
+        writeString(out, account.getDesc());
+        writeString(out, account.getUrl());
+        writeString(out, account.getUsername());
+        out.writeByte(account.getAlgorithm().getType());
+        out.writeBoolean(account.isHmac());
+        out.writeBoolean(account.isTrim());
+        out.writeInt(account.getLength());
+        writeString(out, account.getCharacterSet());
+        writeString(out, account.getLeetType().toRdfString());
+        out.writeByte(account.getLeetLevel().getLevel());
+        writeString(out, account.getModifier());
+        writeString(out, account.getPrefix());
+        writeString(out, account.getSuffix());
+        out.writeBoolean(account.isSha256Bug());
+        out.writeBoolean(account.isAutoPop());
+        out.writeBoolean(account.isFolder());
+
+        int components = 0;
+        for(Account.UrlComponents component : account.getUrlComponents())
+            components |= 1 << component.ordinal();
+        out.writeByte(components);
+
+        out.writeInt(account.getPatternCount());
+        for(AccountPatternData data : account.patternList()) {
+            writeString(out, data.getPattern());
+            writeString(out, data.getDesc());
+            out.writeBoolean(data.getType()==AccountPatternType.REGEX);
+            out.writeBoolean(data.isEnabled());
+        }
+    }
+
+    private static Account readAccount(DataInputStream in) throws Exception {
+        Account account = new Account();
+        account.setId(readString(in));
+        account.setName(readString(in));
+        account.setDesc(readString(in));
+        account.setUrl(readString(in));
+        account.setUsername(readString(in));
+
+        int algorithm = in.readByte();
+        for(AlgorithmType type : AlgorithmType.getTypes()) {
+            if(type.getType()==algorithm)
+                account.setAlgorithm(type);
+        }
+        account.setHmac(in.readBoolean());
+        account.setTrim(in.readBoolean());
+        account.setLength(in.readInt());
+        account.setCharacterSet(readString(in));
+        account.setLeetType(LeetType.fromRdfString(readString(in)));
+        account.setLeetLevel(LeetLevel.fromInt(in.readByte()));
+        account.setModifier(readString(in));
+        account.setPrefix(readString(in));
+        account.setSuffix(readString(in));
+        account.setSha256Bug(in.readBoolean());
+        account.setAutoPop(in.readBoolean());
+        account.setIsFolder(in.readBoolean());
+
+        int components = in.readByte();
+        EnumSet<Account.UrlComponents> set = EnumSet.noneOf(Account.UrlComponents.class);
+        for(Account.UrlComponents component : Account.UrlComponents.values()) {
+            if((components & (1 << component.ordinal()))!=0)
+                set.add(component);
+        }
+        account.setUrlComponents(set);
+
+        int patternCount = in.readInt();
+        for(int i=0; i<patternCount; i++) {
+            AccountPatternData data = new AccountPatternData();
+            data.setPattern(readString(in));
+            data.setDesc(readString(in));
+            data.setType(in.readBoolean() ? AccountPatternType.REGEX : AccountPatternType.WILDCARD);
+            data.setEnabled(in.readBoolean());
+            account.getPatterns().add(data);
+        }
+        return account;
+    }
+}
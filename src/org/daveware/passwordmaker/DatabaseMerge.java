@@ -0,0 +1,295 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A three-way merge of two databases which were both modified from a common
+ * version, for example copies of the same RDF file kept on two machines.
+ *
+ * Both sides are compared against the common base with DatabaseDiff. Changes
+ * only one side made are combined. When both sides changed the same thing in
+ * different ways, our side wins and a Conflict is reported so the user can look
+ * at it. The exception is a folder one side removed while the other added or
+ * moved accounts into it, the folder is then kept so nothing is lost.
+ *
+ * @author Dave Marotti
+ */
+public class DatabaseMerge {
+
+    /**
+     * Something both sides changed differently. Our version was kept, apart
+     * from folders we removed which they added to.
+     */
+    public static class Conflict {
+        private final String id;
+        private final AccountSnapshot ours;
+        private final AccountSnapshot theirs;
+        private final String reason;
+
+        Conflict(String id, AccountSnapshot ours, AccountSnapshot theirs, String reason) {
+            this.id = id;
+            this.ours = ours;
+            this.theirs = theirs;
+            this.reason = reason;
+        }
+
+        /**
+         * @return The account id, or the global setting name for setting conflicts.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return Our version of the account, null if we removed it or this is a setting.
+         */
+        public AccountSnapshot getOurs() {
+            return ours;
+        }
+
+        /**
+         * @return Their version of the account, null if they removed it or this is a setting.
+         */
+        public AccountSnapshot getTheirs() {
+            return theirs;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return id + ": " + reason;
+        }
+    }
+
+    private final DatabaseDiff ourChanges;
+    private final DatabaseDiff theirChanges;
+    private final DatabaseDiff toApply;
+    private final ArrayList<Conflict> conflicts = new ArrayList<Conflict>();
+    private final DatabaseSnapshot ours;
+    private Database merged = null;
+
+    private DatabaseMerge(DatabaseSnapshot base, DatabaseSnapshot ours, DatabaseSnapshot theirs) {
+        this.ours = ours;
+        this.ourChanges = DatabaseDiff.compare(base, ours);
+        this.theirChanges = DatabaseDiff.compare(base, theirs);
+
+        HashMap<String, Map<DatabaseDiff.Type, DatabaseDiff.Entry>> ourById = new HashMap<String, Map<DatabaseDiff.Type, DatabaseDiff.Entry>>();
+        HashSet<String> ourNewParents = new HashSet<String>();
+        HashMap<String, DatabaseDiff.Entry> ourRemoved = new HashMap<String, DatabaseDiff.Entry>();
+        for(DatabaseDiff.Entry entry : ourChanges.getEntries()) {
+            String id = entry.getAccount().getId();
+            Map<DatabaseDiff.Type, DatabaseDiff.Entry> types = ourById.get(id);
+            if(types==null) {
+                types = new HashMap<DatabaseDiff.Type, DatabaseDiff.Entry>();
+                ourById.put(id, types);
+            }
+            types.put(entry.getType(), entry);
+            if(entry.getType()==DatabaseDiff.Type.ADDED || entry.getType()==DatabaseDiff.Type.MOVED)
+                ourNewParents.add(entry.getParentId());
+            else if(entry.getType()==DatabaseDiff.Type.REMOVED)
+                ourRemoved.put(id, entry);
+        }
+
+        // Folders we removed which they added to, put back ahead of their changes
+        ArrayList<DatabaseDiff.Entry> restore = new ArrayList<DatabaseDiff.Entry>();
+        HashSet<String> restored = new HashSet<String>();
+
+        Set<DatabaseDiff.Entry> skip = Collections.newSetFromMap(new IdentityHashMap<DatabaseDiff.Entry, Boolean>());
+        HashMap<String, DatabaseDiff.Entry> theirRemoved = new HashMap<String, DatabaseDiff.Entry>();
+        for(DatabaseDiff.Entry entry : theirChanges.getEntries(DatabaseDiff.Type.REMOVED))
+            theirRemoved.put(entry.getAccount().getId(), entry);
+
+        for(DatabaseDiff.Entry entry : theirChanges.getEntries()) {
+            String id = entry.getAccount().getId();
+            Map<DatabaseDiff.Type, DatabaseDiff.Entry> our = ourById.get(id);
+            if(our==null)
+                our = Collections.emptyMap();
+            DatabaseDiff.Entry removedByUs = our.get(DatabaseDiff.Type.REMOVED);
+
+            switch(entry.getType()) {
+                case ADDED: {
+                    DatabaseDiff.Entry ourAdded = our.get(DatabaseDiff.Type.ADDED);
+                    if(ourAdded!=null) {
+                        skip.add(entry);
+                        if(!ourAdded.getAccount().getSettings().hasSameSettings(entry.getAccount().getSettings()))
+                            conflicts.add(new Conflict(id, ourAdded.getAccount(), entry.getAccount(), "Added on both sides with different settings"));
+                    } else if(restoreFolder(entry.getParentId(), ourRemoved, restore, restored)) {
+                        conflicts.add(new Conflict(id, null, entry.getAccount(), "Added by them into a folder removed by us"));
+                    }
+                    break;
+                }
+                case CHANGED: {
+                    DatabaseDiff.Entry ourChanged = our.get(DatabaseDiff.Type.CHANGED);
+                    if(ourChanged!=null) {
+                        skip.add(entry);
+                        if(!ourChanged.getAccount().getSettings().hasSameSettings(entry.getAccount().getSettings()))
+                            conflicts.add(new Conflict(id, ourChanged.getAccount(), entry.getAccount(), "Changed on both sides"));
+                    } else if(removedByUs!=null) {
+                        skip.add(entry);
+                        conflicts.add(new Conflict(id, null, entry.getAccount(), "Changed by them, removed by us"));
+                    }
+                    break;
+                }
+                case MOVED: {
+                    DatabaseDiff.Entry ourMoved = our.get(DatabaseDiff.Type.MOVED);
+                    if(ourMoved!=null) {
+                        skip.add(entry);
+                        if(!ourMoved.getParentId().equals(entry.getParentId()))
+                            conflicts.add(new Conflict(id, ourMoved.getAccount(), entry.getAccount(), "Moved to different folders on both sides"));
+                    } else if(removedByUs!=null) {
+                        skip.add(entry);
+                        conflicts.add(new Conflict(id, null, entry.getAccount(), "Moved by them, removed by us"));
+                    } else if(restoreFolder(entry.getParentId(), ourRemoved, restore, restored)) {
+                        conflicts.add(new Conflict(id, null, entry.getAccount(), "Moved by them into a folder removed by us"));
+                    }
+                    break;
+                }
+                case REMOVED: {
+                    boolean keep = ourNewParents.contains(id);
+                    DatabaseDiff.Entry ourModified = our.get(DatabaseDiff.Type.CHANGED);
+                    if(ourModified==null)
+                        ourModified = our.get(DatabaseDiff.Type.MOVED);
+                    if(ourModified!=null) {
+                        keep = true;
+                        conflicts.add(new Conflict(id, ourModified.getAccount(), null, "Removed by them, changed by us"));
+                    }
+                    if(keep) {
+                        // Their removal of the folders above it has to go as well
+                        DatabaseDiff.Entry e = entry;
+                        while(e!=null && skip.add(e))
+                            e = theirRemoved.get(e.getParentId());
+                    }
+                    break;
+                }
+            }
+        }
+
+        HashSet<String> skipSettings = new HashSet<String>();
+        for(Map.Entry<String, String> setting : theirChanges.getChangedSettings().entrySet()) {
+            String ourValue = ourChanges.getChangedSettings().get(setting.getKey());
+            if(ourValue!=null) {
+                skipSettings.add(setting.getKey());
+                if(!ourValue.equals(setting.getValue()))
+                    conflicts.add(new Conflict(setting.getKey(), null, null, "Global setting changed on both sides"));
+            }
+        }
+
+        toApply = theirChanges.without(skip, skipSettings, restore);
+    }
+
+    /**
+     * Puts a folder we removed back, along with the removed folders above it,
+     * by adding them to the changes to apply, parents first. Only the folders
+     * themselves come back, not the rest of what was in them.
+     *
+     * @return true if the folder was one we removed.
+     */
+    private static boolean restoreFolder(String id, Map<String, DatabaseDiff.Entry> ourRemoved,
+            List<DatabaseDiff.Entry> restore, Set<String> restored) {
+        if(ourRemoved.containsKey(id)==false)
+            return false;
+
+        ArrayList<DatabaseDiff.Entry> chain = new ArrayList<DatabaseDiff.Entry>();
+        DatabaseDiff.Entry removed = ourRemoved.get(id);
+        while(removed!=null && restored.add(removed.getAccount().getId())) {
+            chain.add(removed);
+            removed = ourRemoved.get(removed.getParentId());
+        }
+        for(int i=chain.size()-1; i>=0; i--)
+            restore.add(new DatabaseDiff.Entry(DatabaseDiff.Type.ADDED, chain.get(i).getAccount(), chain.get(i).getParent()));
+        return true;
+    }
+
+    /**
+     * Merges two versions of a database.
+     *
+     * @param base The version both sides started from.
+     * @param ours Our version.
+     * @param theirs Their version.
+     * @return The merge.
+     */
+    public static DatabaseMerge merge(DatabaseSnapshot base, DatabaseSnapshot ours, DatabaseSnapshot theirs) {
+        return new DatabaseMerge(base, ours, theirs);
+    }
+
+    /**
+     * @return Our changes compared to the base.
+     */
+    public DatabaseDiff getOurChanges() {
+        return ourChanges;
+    }
+
+    /**
+     * @return Their changes compared to the base.
+     */
+    public DatabaseDiff getTheirChanges() {
+        return theirChanges;
+    }
+
+    /**
+     * @return Their changes which don't conflict with ours, these are what turns
+     *         our version into the merged version.
+     */
+    public DatabaseDiff getChangesToApply() {
+        return toApply;
+    }
+
+    public List<Conflict> getConflicts() {
+        return Collections.unmodifiableList(conflicts);
+    }
+
+    public boolean hasConflicts() {
+        return conflicts.isEmpty()==false;
+    }
+
+    /**
+     * Builds the merged database from a copy of our version.
+     * @return The merged database.
+     * @throws Exception if their changes cannot be applied.
+     */
+    public Database getMerged() throws Exception {
+        if(merged==null) {
+            merged = ours.toDatabase();
+            toApply.apply(merged);
+        }
+        return merged;
+    }
+
+    /**
+     * Applies their non-conflicting changes directly to the database our
+     * version came from, with the usual listener events.
+     *
+     * @param db Our database.
+     * @throws Exception if their changes cannot be applied.
+     */
+    public void applyTo(Database db) throws Exception {
+        toApply.apply(db);
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Saves databases on a background thread.
+ *
+ * The caller hands over a DatabaseSnapshot (which is free to obtain) and returns
+ * immediately. The snapshot is written to a temporary file in the same directory,
+ * synced to disk and then renamed over the real file, so a crash part way
+ * through a save leaves the previous file intact instead of a truncated one.
+ *
+ * Saves requested for the same file before the previous request was written are
+ * coalesced, only the newest snapshot gets written.
+ *
+ * Listeners are notified on the save thread, GUI code must hop back to its own
+ * thread before touching widgets.
+ *
+ * @author Dave Marotti
+ */
+public class DatabaseSaveService {
+
+    /**
+     * Receives the outcome of each write.
+     */
+    public interface Listener {
+        public void saveCompleted(File file, DatabaseSnapshot snapshot);
+        public void saveFailed(File file, DatabaseSnapshot snapshot, Exception e);
+    }
+
+    private Logger logger = Logger.getLogger(getClass().getName());
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final ScheduledExecutorService executor;
+    private final long delayMillis;
+
+    // Snapshots waiting to be written, newest per file. Guarded by "this".
+    private final LinkedHashMap<File, DatabaseSnapshot> pending = new LinkedHashMap<File, DatabaseSnapshot>();
+    private Future<?> scheduled = null;
+    private boolean writing = false;
+
+    /**
+     * Creates a service which starts writing as soon as a save is requested.
+     */
+    public DatabaseSaveService() {
+        this(0);
+    }
+
+    /**
+     * Creates a service which waits before writing so bursts of saves turn into a
+     * single write.
+     *
+     * @param delayMillis How long to wait after the first request before writing.
+     */
+    public DatabaseSaveService(long delayMillis) {
+        this.delayMillis = delayMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("pwmje-save"));
+    }
+
+    public void addListener(Listener l) {
+        if(listeners.contains(l)==false)
+            listeners.add(l);
+    }
+
+    public void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Queues the current state of a database to be written to a file.
+     *
+     * @param file The file to write.
+     * @param db The database, only its current snapshot is used.
+     * @return A future which completes once the write containing this state is done.
+     */
+    public Future<?> save(File file, Database db) {
+        return save(file, db.getSnapshot());
+    }
+
+    /**
+     * Queues a snapshot to be written to a file. If an older snapshot for the
+     * same file is still waiting, it is replaced.
+     *
+     * @param file The file to write.
+     * @param snapshot The snapshot to write.
+     * @return A future which completes once the write containing this snapshot is done.
+     */
+    public synchronized Future<?> save(File file, DatabaseSnapshot snapshot) {
+        pending.put(file.getAbsoluteFile(), snapshot);
+        if(scheduled==null) {
+            scheduled = executor.schedule(new Runnable() {
+                public void run() {
+                    writePending();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        return scheduled;
+    }
+
+    /**
+     * Waits until every queued save has been written.
+     *
+     * @param timeoutMillis The maximum time to wait.
+     * @return true if nothing is left to write.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedException {
+        // The executor only has one thread, so this runs after any write in
+        // progress and skips the coalescing delay for anything still queued.
+        Future<?> f = executor.submit(new Runnable() {
+            public void run() {
+                writePending();
+            }
+        });
+        try {
+            f.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch(InterruptedException e) {
+            throw e;
+        } catch(Exception e) {
+            return false;
+        }
+        return isIdle();
+    }
+
+    /**
+     * @return true if no saves are queued or being written.
+     */
+    public synchronized boolean isIdle() {
+        return scheduled==null && writing==false;
+    }
+
+    /**
+     * Writes whatever is queued and stops the save thread.
+     */
+    public void shutdown() throws InterruptedException {
+        flush(Long.MAX_VALUE);
+        executor.shutdown();
+    }
+
+    /**
+     * Runs on the save thread.
+     */
+    private void writePending() {
+        ArrayList<File> files;
+        ArrayList<DatabaseSnapshot> snapshots;
+        synchronized(this) {
+            // An earlier task (or flush()) already wrote everything
+            if(pending.isEmpty())
+                return;
+            files = new ArrayList<File>(pending.keySet());
+            snapshots = new ArrayList<DatabaseSnapshot>(pending.values());
+            pending.clear();
+            scheduled = null;
+            writing = true;
+        }
+
+        try {
+            for(int i=0; i<files.size(); i++) {
+                File file = files.get(i);
+                DatabaseSnapshot snapshot = snapshots.get(i);
+                try {
+                    writeAtomically(file, snapshot);
+                    for(Listener l : listeners)
+                        l.saveCompleted(file, snapshot);
+                } catch(Exception e) {
+                    logger.warning("Unable to save " + file + ": " + e.getMessage());
+                    for(Listener l : listeners)
+                        l.saveFailed(file, snapshot, e);
+                }
+            }
+        } finally {
+            synchronized(this) {
+                writing = false;
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot to a temporary file beside the target, syncs it and then
+     * renames it over the target. This may be called from any thread.
+     *
+     * A symlinked target is resolved first so the link itself is kept and the
+     * file it points to is replaced. On POSIX file systems the temporary file is
+     * only readable by its owner until it has been given the permissions (and,
+     * where allowed, the owner and group) of the file it replaces.
+     *
+     * @param target The file to replace.
+     * @param snapshot The snapshot to write.
+     * @throws Exception upon failure, in which case the target is untouched.
+     */
+    public static void writeAtomically(File target, DatabaseSnapshot snapshot)
+            throws Exception
+    {
+        Path path = target.toPath().toAbsolutePath();
+        if(Files.exists(path))
+            path = path.toRealPath();
+        Path dir = path.getParent();
+        String prefix = "." + path.getFileName() + "-";
+        PosixFileAttributes original = null;
+        Path temp;
+        if(Files.getFileStore(dir).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            if(Files.exists(path))
+                original = Files.readAttributes(path, PosixFileAttributes.class);
+            temp = Files.createTempFile(dir, prefix, ".tmp", PosixFilePermissions.asFileAttribute(
+                    EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+        }
+        else {
+            temp = Files.createTempFile(dir, prefix, ".tmp");
+        }
+        boolean moved = false;
+
+        try {
+            FileOutputStream fout = new FileOutputStream(temp.toFile());
+            try {
+                // The writer closes the stream it is given, keep it open for the sync
+                new RDFDatabaseWriter().write(new UnclosableOutputStream(fout), snapshot);
+                fout.flush();
+                fout.getChannel().force(true);
+            } finally {
+                fout.close();
+            }
+
+            if(original!=null)
+                copyPosixAttributes(original, temp);
+
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+            syncDirectory(dir.toFile());
+        } finally {
+            if(!moved)
+                Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Gives the temporary file the owner, group and permissions of the file it
+     * is about to replace. Only root may change the owner, and only to a group
+     * the user is in, so those are kept as they are when it's not allowed. The
+     * permissions are set last as changing the owner may clear setuid bits.
+     */
+    private static void copyPosixAttributes(PosixFileAttributes original, Path temp)
+            throws IOException
+    {
+        PosixFileAttributeView view = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+        try {
+            if(original.owner().equals(Files.getOwner(temp))==false)
+                view.setOwner(original.owner());
+        } catch(IOException e) {
+        }
+        try {
+            GroupPrincipal group = original.group();
+            if(group.equals(view.readAttributes().group())==false)
+                view.setGroup(group);
+        } catch(IOException e) {
+        }
+        view.setPermissions(original.permissions());
+    }
+
+    /**
+     * Makes the rename itself durable. Not every platform allows opening a
+     * directory (windows doesn't), in which case there is nothing more to do.
+     */
+    private static void syncDirectory(File dir) {
+        try {
+            FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch(IOException e) {
+        }
+    }
+
+    private static class UnclosableOutputStream extends FilterOutputStream {
+        UnclosableOutputStream(OutputStream os) {
+            super(os);
+        }
+
+        @Override
+        public void write(byte [] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable version of a Database.
+ *
+ * Obtain one with Database.getSnapshot(). Any number of threads may use a snapshot
+ * without locking while the Database itself is being modified; they will simply
+ * keep seeing the version they obtained. Call getSnapshot() again to see newer
+ * changes.
+ *
+ * @author Dave Marotti
+ */
+public final class DatabaseSnapshot {
+    private final AccountSnapshot rootAccount;
+    private final Map<String, String> globalSettings;
+    private final long version;
+
+    DatabaseSnapshot(AccountSnapshot root, Map<String, String> settings, long version) {
+        this.rootAccount = root;
+        this.globalSettings = settings;
+        this.version = version;
+    }
+
+    /**
+     * Creates a snapshot by copying the entire account tree of a database, without
+     * reusing anything from previously published snapshots. This is used when the
+     * tree may have been modified behind the Database's back.
+     *
+     * @param db The database to copy.
+     * @return The new snapshot.
+     */
+    static DatabaseSnapshot capture(Database db) {
+        return new DatabaseSnapshot(capture(db.getRootAccount()), copySettings(db.getGlobalSettings()), -1);
+    }
+
+    private static AccountSnapshot capture(Account account) {
+        AccountSnapshot [] children = new AccountSnapshot[account.getChildCount()];
+        for(int i=0; i<children.length; i++)
+            children[i] = capture(account.getChild(i));
+        return new AccountSnapshot(account, children);
+    }
+
+    /**
+     * Creates a new, modifiable Database with the contents of this snapshot.
+     * @return The new database (not dirty).
+     */
+    public Database toDatabase() {
+        Database db = new Database();
+        for(AccountSnapshot child : rootAccount.getChildren())
+            db.getRootAccount().getChildren().add(toAccountTree(child));
+        db.getGlobalSettings().putAll(globalSettings);
+        db.invalidateSnapshot();
+        return db;
+    }
+
+    private static Account toAccountTree(AccountSnapshot snapshot) {
+        Account account = snapshot.toAccount();
+        for(AccountSnapshot child : snapshot.getChildren())
+            account.getChildren().add(toAccountTree(child));
+        return account;
+    }
+
+    static Map<String, String> copySettings(Map<String, String> settings) {
+        return Collections.unmodifiableMap(new HashMap<String, String>(settings));
+    }
+
+    public AccountSnapshot getRootAccount() {
+        return rootAccount;
+    }
+
+    /**
+     * Each snapshot published by a Database has a larger version than the last.
+     * @return The version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The firefox global settings, this map cannot be modified.
+     */
+    public Map<String, String> getGlobalSettings() {
+        return globalSettings;
+    }
+
+    public String getGlobalSetting(GlobalSettingKey key) {
+        if(globalSettings.containsKey(key.toString()))
+            return globalSettings.get(key.toString());
+        return key.getDefault();
+    }
+
+    /**
+     * Locates an account, given an id.
+     * @param id The account id (unique hash).
+     * @return The account if found, else null.
+     */
+    public AccountSnapshot findAccountById(String id) {
+        return findAccountById(rootAccount, id);
+    }
+
+    private AccountSnapshot findAccountById(AccountSnapshot parent, String id) {
+        for(AccountSnapshot child : parent.getChildren()) {
+            if(child.getId().equals(id))
+                return child;
+            if(child.hasChildren()) {
+                AccountSnapshot foundAccount = findAccountById(child, id);
+                if(foundAccount!=null)
+                    return foundAccount;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Searches the snapshot for any account with a matching URL. Accounts are
+     * searched in the same order as Database.findAccountByUrl().
+     * @param url The url to search with.
+     * @return The account if found, else null.
+     */
+    public AccountSnapshot findAccountByUrl(String url) {
+        return findAccountByUrl(rootAccount, url);
+    }
+
+    private AccountSnapshot findAccountByUrl(AccountSnapshot parent, String url) {
+        if(parent.matchUrl(url))
+            return parent;
+        for(AccountSnapshot child : parent.getChildren()) {
+            AccountSnapshot foundAccount = findAccountByUrl(child, url);
+            if(foundAccount!=null)
+                return foundAccount;
+        }
+        return null;
+    }
+
+    /**
+     * Locates the parent of an account in this snapshot.
+     * @param account The account to find the parent of.
+     * @return The parent, else null if not found.
+     */
+    public AccountSnapshot findParent(AccountSnapshot account) {
+        return findParent(rootAccount, account);
+    }
+
+    private AccountSnapshot findParent(AccountSnapshot parent, AccountSnapshot account) {
+        for(AccountSnapshot child : parent.getChildren()) {
+            if(child == account)
+                return parent;
+        }
+        for(AccountSnapshot child : parent.getChildren()) {
+            AccountSnapshot theOne = findParent(child, account);
+            if(theOne!=null)
+                return theOne;
+        }
+        return null;
+    }
+}
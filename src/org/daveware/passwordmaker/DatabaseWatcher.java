@@ -0,0 +1,256 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Notices when a database file is changed by another program (a file sync tool,
+ * another copy of PasswordMaker...).
+ *
+ * The directory holding the file is watched with a WatchService. Events are
+ * debounced since sync tools tend to write a file in several steps, then the
+ * file (and its journal, see DatabaseJournal) is parsed on a background thread
+ * and compared to the last known contents of the file. Listeners receive a
+ * DatabaseDiff holding only what was changed on disk, which they can apply() to
+ * the Database they are showing. Unsaved local edits are not part of that diff so
+ * they are kept.
+ *
+ * Programs which write the file themselves should call setBase() after each save
+ * so their own writes are not reported back to them.
+ *
+ * @author Dave Marotti
+ */
+public class DatabaseWatcher {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 500;
+
+    /**
+     * Receives changes found on disk. Called on the watcher's thread.
+     */
+    public interface Listener {
+        public void databaseChangedOnDisk(File file, DatabaseDiff diff);
+        public void reloadFailed(File file, Exception e);
+    }
+
+    private static Logger logger = Logger.getLogger(DatabaseWatcher.class.getName());
+
+    private final File dbFile;
+    private final File journalFile;
+    private final long debounceMillis;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private WatchService watchService = null;
+    private Thread watchThread = null;
+    private final ScheduledExecutorService executor;
+    private ScheduledFuture<?> scheduledReload = null;
+
+    // What the file is known to contain. Guarded by "this".
+    private DatabaseSnapshot base;
+    private String baseFingerprint;
+    private long baseGeneration = 0;
+
+    /**
+     * @param dbFile The RDF file to watch.
+     * @param base What the file contains right now (usually the snapshot of the
+     *             database just loaded from it).
+     */
+    public DatabaseWatcher(File dbFile, DatabaseSnapshot base) {
+        this(dbFile, base, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * @param dbFile The RDF file to watch.
+     * @param base What the file contains right now.
+     * @param debounceMillis How long the file has to stay quiet before it is read.
+     */
+    public DatabaseWatcher(File dbFile, DatabaseSnapshot base, long debounceMillis) {
+        this.dbFile = dbFile.getAbsoluteFile();
+        this.journalFile = DatabaseJournal.getJournalFile(this.dbFile);
+        this.debounceMillis = debounceMillis;
+        this.base = base;
+        this.baseFingerprint = fingerprint();
+        this.executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("pwmje-reload"));
+    }
+
+    public void addListener(Listener l) {
+        if(listeners.contains(l)==false)
+            listeners.add(l);
+    }
+
+    public void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    public File getDatabaseFile() {
+        return dbFile;
+    }
+
+    /**
+     * Starts watching.
+     * @throws IOException if the directory cannot be watched.
+     */
+    public synchronized void start() throws IOException {
+        if(watchService!=null)
+            return;
+
+        watchService = FileSystems.getDefault().newWatchService();
+        dbFile.getParentFile().toPath().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+
+        final WatchService service = watchService;
+        watchThread = new DaemonThreadFactory("pwmje-watch").newThread(new Runnable() {
+            public void run() {
+                watch(service);
+            }
+        });
+        watchThread.start();
+    }
+
+    /**
+     * Stops watching. No listener is called after this returns.
+     */
+    public void stop() {
+        synchronized(this) {
+            if(watchService!=null) {
+                try {
+                    watchService.close();
+                } catch(IOException e) {
+                }
+                watchService = null;
+            }
+        }
+        listeners.clear();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Tells the watcher what the file contains after the program wrote it itself.
+     *
+     * @param snapshot The contents which were written.
+     */
+    public synchronized void setBase(DatabaseSnapshot snapshot) {
+        base = snapshot;
+        baseFingerprint = fingerprint();
+        baseGeneration++;
+    }
+
+    /**
+     * Schedules the file to be read, restarting the debounce delay if a read was
+     * already scheduled.
+     */
+    public synchronized void fileChanged() {
+        if(scheduledReload!=null)
+            scheduledReload.cancel(false);
+        if(executor.isShutdown())
+            return;
+        scheduledReload = executor.schedule(new Runnable() {
+            public void run() {
+                reload();
+            }
+        }, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void watch(WatchService service) {
+        Path dbName = dbFile.toPath().getFileName();
+        Path journalName = journalFile.toPath().getFileName();
+        try {
+            while(true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    // OVERFLOW means events were lost, so assume it was ours
+                    if(event.kind()==StandardWatchEventKinds.OVERFLOW || dbName.equals(event.context()) || journalName.equals(event.context()))
+                        changed = true;
+                }
+                if(changed)
+                    fileChanged();
+                if(key.reset()==false)
+                    break;
+            }
+        } catch(InterruptedException e) {
+        } catch(ClosedWatchServiceException e) {
+        }
+    }
+
+    /**
+     * Reads the file and reports any differences from the base. Runs on the
+     * reload thread.
+     */
+    void reload() {
+        while(true) {
+            DatabaseSnapshot oldBase;
+            long generation;
+            String fingerprint = fingerprint();
+            synchronized(this) {
+                scheduledReload = null;
+                if(fingerprint.equals(baseFingerprint))
+                    return;
+                oldBase = base;
+                generation = baseGeneration;
+            }
+
+            DatabaseSnapshot newBase;
+            try {
+                newBase = DatabaseJournal.load(dbFile).getSnapshot();
+            } catch(Exception e) {
+                // Most likely caught in the middle of being written, another event
+                // will follow when the writer is done
+                logger.warning("Unable to reload " + dbFile + ": " + e.getMessage());
+                for(Listener l : listeners)
+                    l.reloadFailed(dbFile, e);
+                return;
+            }
+
+            DatabaseDiff diff = DatabaseDiff.compare(oldBase, newBase);
+            synchronized(this) {
+                // The program saved while we were reading, start over
+                if(generation!=baseGeneration)
+                    continue;
+                base = newBase;
+                baseFingerprint = fingerprint;
+            }
+
+            if(diff.isEmpty()==false) {
+                for(Listener l : listeners)
+                    l.databaseChangedOnDisk(dbFile, diff);
+            }
+            return;
+        }
+    }
+
+    private String fingerprint() {
+        return dbFile.lastModified() + ":" + dbFile.length() + ":" + journalFile.lastModified() + ":" + journalFile.length();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The same as SecureByteArray except the bytes are kept in a direct buffer
+ * from SecureBufferPool instead of a byte array on the heap. See
+ * DirectSecureCharArray for why.
+ * 
+ * Call release() when done. It erases the buffer and hands it back to the
+ * pool, the object can't be used afterwards.
+ * 
+ * @author Dave Marotti
+ */
+public class DirectSecureByteArray {
+    private ByteBuffer buffer;
+    private int size;
+    
+    public DirectSecureByteArray()
+    {
+        this(0);
+    }
+    
+    public DirectSecureByteArray(int size)
+    {
+        this.buffer = SecureBufferPool.acquire(size);
+        this.size = size;
+    }
+    
+    /**
+     * Converts characters to bytes the same way SecureByteArray(char []) does,
+     * by keeping the low 8 bits.
+     * 
+     * @param chars The characters to convert.
+     */
+    public DirectSecureByteArray(DirectSecureCharArray chars)
+    {
+        this(chars.size());
+        for(int i=0; i<size; i++)
+            buffer.put(i, (byte)chars.getCharAt(i));
+    }
+    
+    private ByteBuffer buffer()
+    {
+        if(buffer==null)
+            throw new IllegalStateException("The array has been released");
+        return buffer;
+    }
+    
+    private void ensureCapacity(int bytes)
+    {
+        ByteBuffer old = buffer();
+        if(bytes <= old.capacity())
+            return;
+        ByteBuffer bigger = SecureBufferPool.acquire(Math.max(bytes, old.capacity() * 2));
+        ByteBuffer from = old.duplicate();
+        from.limit(size).position(0);
+        bigger.put(from);
+        bigger.clear();
+        buffer = bigger;
+        SecureBufferPool.release(old);
+    }
+    
+    /**
+     * Replaces the contents with characters converted like the constructor does.
+     * 
+     * @param chars The characters to convert.
+     */
+    public void replace(DirectSecureCharArray chars)
+    {
+        erase();
+        ensureCapacity(chars.size());
+        for(int i=0; i<chars.size(); i++)
+            buffer.put(i, (byte)chars.getCharAt(i));
+        size = chars.size();
+    }
+    
+    /**
+     * Appends the characters of a string (don't pass passwords in this way),
+     * converted like the constructor does.
+     * 
+     * @param str The string to append.
+     */
+    public void append(String str)
+    {
+        ensureCapacity(size + str.length());
+        for(int i=0; i<str.length(); i++)
+            buffer.put(size + i, (byte)str.charAt(i));
+        size += str.length();
+    }
+    
+    /**
+     * Appends a single byte.
+     * 
+     * @param b The byte to append.
+     */
+    public void append(byte b)
+    {
+        ensureCapacity(size + 1);
+        buffer.put(size, b);
+        size++;
+    }
+    
+    /**
+     * Erases the bytes, the size stays the same.
+     */
+    public void erase()
+    {
+        SecureBufferPool.erase(buffer(), 0, size);
+    }
+    
+    /**
+     * Erases the bytes and returns the buffer to the pool. Nothing else may be
+     * called afterwards. Releasing twice does nothing.
+     */
+    public void release()
+    {
+        if(buffer!=null) {
+            SecureBufferPool.release(buffer);
+            buffer = null;
+            size = 0;
+        }
+    }
+    
+    public byte getByteAt(int index)
+            throws ArrayIndexOutOfBoundsException
+    {
+        ByteBuffer buf = buffer();
+        if(index >= 0 && index < size)
+            return buf.get(index);
+        else
+            throw new ArrayIndexOutOfBoundsException(index);
+    }
+    
+    public void setByteAt(int index, byte b)
+            throws ArrayIndexOutOfBoundsException
+    {
+        ByteBuffer buf = buffer();
+        if(index >= 0 && index < size)
+            buf.put(index, b);
+        else
+            throw new ArrayIndexOutOfBoundsException(index);
+    }
+    
+    /**
+     * @return A read only view of the bytes, from position 0 to size(). It shares
+     *         the buffer, so it's only valid until this array changes.
+     */
+    public ByteBuffer asReadOnlyBuffer()
+    {
+        ByteBuffer view = buffer().asReadOnlyBuffer();
+        view.clear();
+        view.limit(size);
+        return view;
+    }
+    
+    /**
+     * Gets the size of this array.
+     * 
+     * @return The size of the array.
+     */
+    public int size()
+    {
+        return size;
+    }
+}
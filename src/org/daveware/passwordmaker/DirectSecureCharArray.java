@@ -0,0 +1,295 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The same as SecureCharArray except the characters are kept in a direct
+ * buffer from SecureBufferPool instead of a char array on the heap.
+ * 
+ * A heap array can be copied by the garbage collector at any time, and erasing
+ * it only erases the latest copy. A direct buffer never moves, so erase()
+ * really does get rid of the password. The buffer also has room to grow, so
+ * append() and prepend() only need a new buffer once it's full.
+ * 
+ * Call release() when done. It erases the buffer and hands it back to the
+ * pool, the object can't be used afterwards.
+ * 
+ * @author Dave Marotti
+ */
+public class DirectSecureCharArray {
+    private ByteBuffer buffer;
+    private int size;
+    
+    public DirectSecureCharArray()
+    {
+        this(0);
+    }
+    
+    public DirectSecureCharArray(int size)
+    {
+        this.buffer = SecureBufferPool.acquire(size * 2);
+        this.size = size;
+    }
+    
+    public DirectSecureCharArray(char [] chars)
+    {
+        this(chars.length);
+        for(int i=0; i<size; i++)
+            buffer.putChar(i * 2, chars[i]);
+    }
+    
+    public DirectSecureCharArray(SecureCharArray copy)
+    {
+        this(copy.getData());
+    }
+    
+    public DirectSecureCharArray(DirectSecureCharArray copy)
+    {
+        this(copy.size());
+        copyChars(copy.buffer(), 0, buffer, 0, size);
+    }
+    
+    /**
+     * Creates the object from a string (don't pass passwords in this way).
+     * 
+     * @param str The string object to get the data from.
+     */
+    public DirectSecureCharArray(String str)
+    {
+        this(str.length());
+        for(int i=0; i<size; i++)
+            buffer.putChar(i * 2, str.charAt(i));
+    }
+    
+    private ByteBuffer buffer()
+    {
+        if(buffer==null)
+            throw new IllegalStateException("The array has been released");
+        return buffer;
+    }
+    
+    private static void copyChars(ByteBuffer src, int srcIndex, ByteBuffer dst, int dstIndex, int count)
+    {
+        ByteBuffer from = src.duplicate();
+        from.limit((srcIndex + count) * 2).position(srcIndex * 2);
+        ByteBuffer to = dst.duplicate();
+        to.position(dstIndex * 2);
+        to.put(from);
+    }
+    
+    /**
+     * Makes sure the buffer can hold a number of characters, moving the contents
+     * to a bigger buffer (at least twice the size) if it can't.
+     */
+    private void ensureCapacity(int chars)
+    {
+        ByteBuffer old = buffer();
+        if(chars * 2 <= old.capacity())
+            return;
+        ByteBuffer bigger = SecureBufferPool.acquire(Math.max(chars * 2, old.capacity() * 2));
+        copyChars(old, 0, bigger, 0, size);
+        buffer = bigger;
+        SecureBufferPool.release(old);
+    }
+    
+    /**
+     * Appends another array to this one.
+     * 
+     * @param arr The array to append.
+     */
+    public void append(DirectSecureCharArray arr)
+    {
+        int count = arr.size();
+        ensureCapacity(size + count);
+        copyChars(arr.buffer(), 0, buffer, size, count);
+        size += count;
+    }
+    
+    /**
+     * Appends the characters of a string (don't pass passwords in this way).
+     * 
+     * @param str The string to append.
+     */
+    public void append(String str)
+    {
+        ensureCapacity(size + str.length());
+        for(int i=0; i<str.length(); i++)
+            buffer.putChar((size + i) * 2, str.charAt(i));
+        size += str.length();
+    }
+    
+    /**
+     * Appends a SecureCharArray to this one.
+     * 
+     * @param arr The array to append.
+     */
+    public void append(SecureCharArray arr)
+    {
+        ensureCapacity(size + arr.size());
+        for(int i=0; i<arr.size(); i++)
+            buffer.putChar((size + i) * 2, arr.getCharAt(i));
+        size += arr.size();
+    }
+    
+    /**
+     * Prepends this array with another one.
+     * 
+     * @param arr The array to prepend.
+     */
+    public void prepend(DirectSecureCharArray arr)
+    {
+        int count = arr.size();
+        ensureCapacity(size + count);
+        // Moving up within the same buffer, duplicate() views don't overlap safely
+        for(int i=size-1; i>=0; i--)
+            buffer.putChar((i + count) * 2, buffer.getChar(i * 2));
+        copyChars(arr.buffer(), 0, buffer, 0, count);
+        size += count;
+    }
+    
+    /**
+     * Replaces the contents of this array with a copy of those in arr.
+     * 
+     * @param arr The copy to use.
+     */
+    public void replace(DirectSecureCharArray arr)
+    {
+        if(arr==this)
+            return;
+        erase();
+        ensureCapacity(arr.size());
+        copyChars(arr.buffer(), 0, buffer, 0, arr.size());
+        size = arr.size();
+    }
+    
+    /**
+     * Resizes the array, optionally keeping the old data. New characters are 0.
+     * 
+     * @param size The new size of the array.
+     * @param retainData Whether or not to keep the old data.
+     * @throws Exception If the size is less than 0.
+     */
+    public void resize(int size, boolean retainData)
+            throws Exception
+    {
+        if(size < 0)
+            throw new Exception("Invalid array size");
+        
+        if(retainData==false)
+            erase();
+        else if(size < this.size)
+            SecureBufferPool.erase(buffer(), size * 2, this.size * 2);
+        ensureCapacity(size);
+        this.size = size;
+    }
+    
+    /**
+     * Erases the characters, the size stays the same.
+     */
+    public void erase()
+    {
+        SecureBufferPool.erase(buffer(), 0, size * 2);
+    }
+    
+    /**
+     * Erases the characters and returns the buffer to the pool. Nothing else may
+     * be called afterwards. Releasing twice does nothing.
+     */
+    public void release()
+    {
+        if(buffer!=null) {
+            SecureBufferPool.release(buffer);
+            buffer = null;
+            size = 0;
+        }
+    }
+    
+    /**
+     * Obtains the character at an index.
+     * @param index The index to obtain the character at.
+     * @return The character at the index.
+     * @throws ArrayIndexOutOfBoundsException Upon bad index.
+     */
+    public char getCharAt(int index)
+            throws ArrayIndexOutOfBoundsException
+    {
+        ByteBuffer b = buffer();
+        if(index >= 0 && index < size)
+            return b.getChar(index * 2);
+        else
+            throw new ArrayIndexOutOfBoundsException(index);
+    }
+    
+    /**
+     * Sets the character at an index.
+     * @param index The index to set at.
+     * @param c The character to set.
+     * @throws ArrayIndexOutOfBoundsException Upon bad index.
+     */
+    public void setCharAt(int index, char c)
+            throws ArrayIndexOutOfBoundsException
+    {
+        ByteBuffer b = buffer();
+        if(index >= 0 && index < size)
+            b.putChar(index * 2, c);
+        else
+            throw new ArrayIndexOutOfBoundsException(index);
+    }
+    
+    /**
+     * Copies the characters into a heap array. Erase it when done.
+     * @param dest The array to copy into, it must hold size() characters from offset.
+     * @param offset Where in dest to start.
+     */
+    public void getChars(char [] dest, int offset)
+    {
+        ByteBuffer b = buffer();
+        for(int i=0; i<size; i++)
+            dest[offset + i] = b.getChar(i * 2);
+    }
+    
+    /**
+     * @return A heap copy of the characters.
+     */
+    public SecureCharArray toSecureCharArray()
+    {
+        SecureCharArray copy = new SecureCharArray(size);
+        getChars(copy.getData(), 0);
+        return copy;
+    }
+    
+    /**
+     * Gets the size of this array.
+     * 
+     * @return The size of the array.
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * @return The number of characters the buffer holds before it must grow.
+     */
+    public int capacity()
+    {
+        return buffer().capacity() / 2;
+    }
+}
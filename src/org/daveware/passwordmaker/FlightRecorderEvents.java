@@ -0,0 +1,194 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events emitted while loading, saving, searching and
+ * generating passwords. They show up under "PasswordMaker" in JDK Mission
+ * Control, or can be listed with:
+ *
+ *   jfr print --categories PasswordMaker recording.jfr
+ *
+ * The events only carry sizes, counts and settings. Master passwords, generated
+ * passwords and the text they are generated from are never recorded.
+ *
+ * While no recording is running, begin()/commit() do nothing and the event
+ * objects are eliminated by the JIT.
+ *
+ * @author Dave Marotti
+ */
+final class FlightRecorderEvents {
+    private FlightRecorderEvents() {
+    }
+
+    @Name("org.daveware.passwordmaker.DatabaseRead")
+    @Label("Database Read")
+    @Category("PasswordMaker")
+    @Description("An RDF database was parsed")
+    static final class DatabaseRead extends Event {
+        @Label("Accounts")
+        int accounts;
+
+        @Label("Patterns")
+        int patterns;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("org.daveware.passwordmaker.DatabaseWrite")
+    @Label("Database Write")
+    @Category("PasswordMaker")
+    @Description("An RDF database was written")
+    static final class DatabaseWrite extends Event {
+        @Label("Accounts")
+        int accounts;
+
+        @Label("Patterns")
+        int patterns;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("org.daveware.passwordmaker.AccountLookup")
+    @Label("Account Lookup")
+    @Category("PasswordMaker")
+    @Description("A database was searched for an account matching an URL")
+    static final class AccountLookup extends Event {
+        @Label("Accounts Searched")
+        int accountsSearched;
+
+        @Label("URL Length")
+        int urlLength;
+
+        @Label("Found")
+        boolean found;
+    }
+
+    @Name("org.daveware.passwordmaker.PasswordGeneration")
+    @Label("Password Generation")
+    @Category("PasswordMaker")
+    @Description("A password was generated, only the account settings are recorded")
+    static final class PasswordGeneration extends Event {
+        @Label("Algorithm")
+        String algorithm;
+
+        @Label("Length")
+        int length;
+
+        @Label("Character Set Size")
+        int charsetSize;
+
+        @Label("Leet Type")
+        String leetType;
+
+        @Label("Leet Level")
+        int leetLevel;
+
+        @Label("Trim")
+        boolean trim;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    /**
+     * Counts the accounts (not including the root) and URL patterns below a snapshot.
+     * @return {accounts, patterns}
+     */
+    static int [] countAccountsAndPatterns(AccountSnapshot parent) {
+        int [] counts = new int[2];
+        countAccountsAndPatterns(parent, counts);
+        counts[0]--;
+        return counts;
+    }
+
+    private static void countAccountsAndPatterns(AccountSnapshot account, int [] counts) {
+        counts[0]++;
+        counts[1] += account.getPatternCount();
+        for(AccountSnapshot child : account.getChildren())
+            countAccountsAndPatterns(child, counts);
+    }
+
+    static class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if(b>=0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte [] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if(n>0)
+                count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    static class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte [] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -26,6 +26,8 @@ package org.daveware.passwordmaker;
 public class GlobalSettingKey {
     public static GlobalSettingKey CLIPBOARD_TIMEOUT = new GlobalSettingKey("NS1:autoClearClipboardSeconds", "10");
     public static GlobalSettingKey SHOW_GEN_PW = new GlobalSettingKey("NS1:maskMasterPassword", "true");
+    // Not a Firefox setting: "auto", "jdk", "bc" or "pure", see HashEngines
+    public static GlobalSettingKey HASH_PROVIDER = new GlobalSettingKey("NS1:pwmjeHashProvider", "auto");
     
     String key;
     String defaultValue;
@@ -0,0 +1,422 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Picks which HashProvider computes each algorithm, HMAC or not.
+ *
+ * How fast each provider is depends heavily on the JVM, recent ones have
+ * intrinsics for SHA1 and SHA256 that beat anything written in Java. So the
+ * first time an algorithm is used, every provider which has it is checked
+ * against BouncyCastle (the provider PasswordMaker has always used) and timed
+ * on a password sized input, and the fastest correct one is kept. This takes
+ * up to 20ms per algorithm.
+ *
+ * setOverride() (fed from GlobalSettingKey.HASH_PROVIDER) skips calibration
+ * and forces one provider. The JDK has no MD4 or RIPEMD160, those fall back to
+ * BC when JDK is forced.
+ *
+ * Engines are cached per thread, so hash() may be called from any thread.
+ *
+ * @author Dave Marotti
+ */
+public final class HashEngines {
+    private static final Logger logger = Logger.getLogger(HashEngines.class.getName());
+
+    private static final HashProvider [] PROVIDERS = HashProvider.values();
+    private static final int SLOTS = 16;
+    private static final int CALIBRATION_ROUNDS = 6;
+    private static final long CALIBRATION_ROUND_NANOS = 1000000;
+
+    private static volatile HashProvider override = null;
+    // Calibrated choice per algorithm type * 2 + hmac. Read without locking,
+    // each slot's lock is only taken to calibrate it.
+    private static final AtomicReferenceArray<HashProvider> selected = new AtomicReferenceArray<HashProvider>(SLOTS);
+    private static final Object [] calibrationLocks = new Object[SLOTS];
+    static {
+        for(int i=0; i<SLOTS; i++)
+            calibrationLocks[i] = new Object();
+    }
+
+    private static final ThreadLocal<Engine []> engines = new ThreadLocal<Engine []>() {
+        @Override
+        protected Engine [] initialValue() {
+            return new Engine[SLOTS * PROVIDERS.length];
+        }
+    };
+
+    private HashEngines() {
+    }
+
+    /**
+     * One provider's implementation of one algorithm. Not thread safe.
+     */
+    private static abstract class Engine {
+        /**
+         * Hashes key followed by data, or computes the HMAC of data with key.
+         * @return The number of bytes written to out.
+         */
+        abstract int hash(byte [] key, int keyOff, int keyLen, byte [] data, int dataOff, int dataLen, byte [] out) throws Exception;
+
+        int hash(byte [] key, int keyLen, byte [] data, int dataLen, byte [] out) throws Exception {
+            return hash(key, 0, keyLen, data, 0, dataLen, out);
+        }
+
+        /**
+         * The same with the key and data in buffers. This copies them to heap
+         * arrays which are erased straight after, engines which can read the
+         * buffers themselves override it (hash() only gives buffers to those).
+         */
+        int hash(ByteBuffer key, ByteBuffer data, byte [] out) throws Exception {
+            byte [] k = new byte[key.remaining()];
+            byte [] d = new byte[data.remaining()];
+            try {
+                key.duplicate().get(k);
+                data.duplicate().get(d);
+                return hash(k, k.length, d, d.length, out);
+            } finally {
+                Arrays.fill(k, (byte)0);
+                Arrays.fill(d, (byte)0);
+            }
+        }
+    }
+
+    private static class JcaDigestEngine extends Engine {
+        private final MessageDigest md;
+
+        JcaDigestEngine(MessageDigest md) {
+            this.md = md;
+        }
+
+        int hash(byte [] key, int keyOff, int keyLen, byte [] data, int dataOff, int dataLen, byte [] out) throws Exception {
+            md.update(key, keyOff, keyLen);
+            md.update(data, dataOff, dataLen);
+            return md.digest(out, 0, md.getDigestLength());
+        }
+    }
+
+    private static class JcaMacEngine extends Engine {
+        // Re-keying with this afterwards keeps the master password out of the cached Mac
+        private static final byte [] BLANK_KEY = { 0 };
+
+        private final Mac mac;
+        private final String name;
+
+        JcaMacEngine(Mac mac, String name) {
+            this.mac = mac;
+            this.name = name;
+        }
+
+        int hash(byte [] key, int keyOff, int keyLen, byte [] data, int dataOff, int dataLen, byte [] out) throws Exception {
+            mac.init(new SecretKeySpec(key, keyOff, keyLen, name));
+            mac.update(data, dataOff, dataLen);
+            mac.doFinal(out, 0);
+            mac.init(new SecretKeySpec(BLANK_KEY, name));
+            return mac.getMacLength();
+        }
+    }
+
+    private static class PureDigestEngine extends Engine {
+        private final PureDigest digest;
+
+        PureDigestEngine(PureDigest digest) {
+            this.digest = digest;
+        }
+
+        int hash(byte [] key, int keyOff, int keyLen, byte [] data, int dataOff, int dataLen, byte [] out) {
+            digest.update(key, keyOff, keyLen);
+            digest.update(data, dataOff, dataLen);
+            return digest.doFinal(out, 0);
+        }
+
+        @Override
+        int hash(ByteBuffer key, ByteBuffer data, byte [] out) {
+            digest.update(key.duplicate());
+            digest.update(data.duplicate());
+            return digest.doFinal(out, 0);
+        }
+    }
+
+    private static class PureHmacEngine extends Engine {
+        private final PureHmac hmac;
+
+        PureHmacEngine(PureHmac hmac) {
+            this.hmac = hmac;
+        }
+
+        int hash(byte [] key, int keyOff, int keyLen, byte [] data, int dataOff, int dataLen, byte [] out) {
+            // Behave like SecretKeySpec does for the JCA providers
+            if(keyLen==0)
+                throw new IllegalArgumentException("Empty key");
+            hmac.init(key, keyOff, keyLen);
+            hmac.update(data, dataOff, dataLen);
+            int len = hmac.doFinal(out, 0);
+            hmac.erase();
+            return len;
+        }
+
+        @Override
+        int hash(ByteBuffer key, ByteBuffer data, byte [] out) {
+            if(key.hasRemaining()==false)
+                throw new IllegalArgumentException("Empty key");
+            hmac.init(key.duplicate());
+            hmac.update(data.duplicate());
+            int len = hmac.doFinal(out, 0);
+            hmac.erase();
+            return len;
+        }
+    }
+
+    private static Engine createEngine(HashProvider provider, AlgorithmType algorithm, boolean hmac) throws Exception {
+        switch(provider) {
+            case JDK: {
+                String name = HashProvider.getJdkName(algorithm, hmac);
+                if(name==null)
+                    throw new Exception("The JDK has no " + algorithm.getName());
+                if(hmac)
+                    return new JcaMacEngine(Mac.getInstance(name, "SunJCE"), name);
+                return new JcaDigestEngine(MessageDigest.getInstance(name, "SUN"));
+            }
+            case BC: {
+                if(hmac) {
+                    String name = "HMAC" + algorithm.getName();
+                    return new JcaMacEngine(Mac.getInstance(name, "BC"), name);
+                }
+                return new JcaDigestEngine(MessageDigest.getInstance(algorithm.getName(), "BC"));
+            }
+            default:
+                if(hmac)
+                    return new PureHmacEngine(new PureHmac(algorithm));
+                return new PureDigestEngine(PureDigest.create(algorithm));
+        }
+    }
+
+    private static int slot(AlgorithmType algorithm, boolean hmac) {
+        return ((algorithm.getType() << 1) | (hmac ? 1 : 0)) & (SLOTS - 1);
+    }
+
+    private static Engine getEngine(HashProvider provider, AlgorithmType algorithm, boolean hmac) throws Exception {
+        Engine [] cache = engines.get();
+        int index = slot(algorithm, hmac) * PROVIDERS.length + provider.ordinal();
+        Engine engine = cache[index];
+        if(engine==null) {
+            engine = createEngine(provider, algorithm, hmac);
+            cache[index] = engine;
+        }
+        return engine;
+    }
+
+    /**
+     * Forces one provider for every algorithm.
+     * @param provider The provider, or null to go back to automatic selection.
+     */
+    public static void setOverride(HashProvider provider) {
+        override = provider;
+    }
+
+    public static HashProvider getOverride() {
+        return override;
+    }
+
+    /**
+     * Applies the HASH_PROVIDER global setting of a database. Invalid values are
+     * logged and treated as "auto".
+     */
+    public static void applySettings(Database db) {
+        String value = db.getGlobalSetting(GlobalSettingKey.HASH_PROVIDER);
+        try {
+            setOverride(HashProvider.fromSetting(value));
+        } catch(IllegalArgumentException e) {
+            logger.warning(e.getMessage());
+            setOverride(null);
+        }
+    }
+
+    /**
+     * @return The provider hash() uses for an algorithm.
+     */
+    public static HashProvider getProvider(AlgorithmType algorithm, boolean hmac) {
+        HashProvider forced = override;
+        if(forced!=null)
+            return forced.supports(algorithm) ? forced : HashProvider.BC;
+
+        int slot = slot(algorithm, hmac);
+        HashProvider provider = selected.get(slot);
+        if(provider!=null)
+            return provider;
+
+        // Calibrating takes a while, other algorithms carry on meanwhile
+        synchronized(calibrationLocks[slot]) {
+            provider = selected.get(slot);
+            if(provider==null) {
+                provider = calibrate(algorithm, hmac);
+                selected.set(slot, provider);
+            }
+            return provider;
+        }
+    }
+
+    /**
+     * @return The size of the hash an algorithm produces, in bytes.
+     */
+    public static int getDigestSize(AlgorithmType algorithm) {
+        if(algorithm==AlgorithmType.MD4 || algorithm==AlgorithmType.MD5)
+            return 16;
+        if(algorithm==AlgorithmType.SHA256)
+            return 32;
+        return 20;
+    }
+
+    /**
+     * Hashes key followed by data or, for HMAC, computes the MAC of data keyed by key.
+     *
+     * @param algorithm The algorithm.
+     * @param hmac Whether to compute an HMAC.
+     * @param key The key (the master password).
+     * @param keyLen The number of bytes of key to use.
+     * @param data The data.
+     * @param dataLen The number of bytes of data to use.
+     * @param out Receives the hash, must hold getDigestSize(algorithm) bytes.
+     * @return The number of bytes written.
+     * @throws Exception if the provider fails.
+     */
+    public static int hash(AlgorithmType algorithm, boolean hmac, byte [] key, int keyLen, byte [] data, int dataLen, byte [] out)
+            throws Exception {
+        return hash(algorithm, hmac, key, 0, keyLen, data, 0, dataLen, out);
+    }
+
+    /**
+     * The same as hash() with the key and data starting part way into their
+     * arrays, which may also be the same array (see HashInput).
+     *
+     * @return The number of bytes written.
+     * @throws Exception if the provider fails.
+     */
+    public static int hash(AlgorithmType algorithm, boolean hmac, byte [] key, int keyOff, int keyLen,
+            byte [] data, int dataOff, int dataLen, byte [] out) throws Exception {
+        // SecretKeySpec only rejects an empty array, not an empty slice of a
+        // bigger one, so check here to make every provider fail the same way
+        if(hmac && keyLen==0)
+            throw new IllegalArgumentException("Empty key");
+        return getEngine(getProvider(algorithm, hmac), algorithm, hmac).hash(key, keyOff, keyLen, data, dataOff, dataLen, out);
+    }
+
+    /**
+     * The same as hash() with the key and data held in buffers, normally direct
+     * ones from DirectSecureByteArray. The bytes from position to limit are used,
+     * the buffers themselves are not changed.
+     *
+     * This always uses the PURE engines, whatever the override or calibration
+     * picked: they read the buffers straight into their block buffer, which is
+     * cleared after every hash. The JCA ones would need the key and data copied
+     * to heap arrays, and SecretKeySpec keeps a copy of the key of its own.
+     *
+     * @return The number of bytes written.
+     * @throws Exception if the provider fails.
+     */
+    public static int hash(AlgorithmType algorithm, boolean hmac, ByteBuffer key, ByteBuffer data, byte [] out)
+            throws Exception {
+        return getEngine(HashProvider.PURE, algorithm, hmac).hash(key, data, out);
+    }
+
+    /**
+     * Finds the fastest provider which gives the same results as BC. Falls back
+     * to BC if nothing else qualifies or if BC itself isn't registered.
+     */
+    private static HashProvider calibrate(AlgorithmType algorithm, boolean hmac) {
+        byte [] key = new byte[96];
+        byte [] data = new byte[96];
+        for(int i=0; i<key.length; i++) {
+            key[i] = (byte)(i * 7 + 1);
+            data[i] = (byte)(i * 13 + 5);
+        }
+
+        Engine reference;
+        try {
+            reference = createEngine(HashProvider.BC, algorithm, hmac);
+        } catch(Exception e) {
+            logger.warning("BouncyCastle is not available for " + algorithm.getName() + ": " + e.getMessage());
+            return HashProvider.BC;
+        }
+
+        // Check each candidate on short and longer than a block keys and data
+        Engine [] candidates = new Engine[PROVIDERS.length];
+        byte [] expected = new byte[32];
+        byte [] actual = new byte[32];
+        for(HashProvider provider : PROVIDERS) {
+            if(provider.supports(algorithm)==false)
+                continue;
+            try {
+                Engine engine = createEngine(provider, algorithm, hmac);
+                boolean correct = true;
+                for(int len=1; len<=key.length && correct; len+=19) {
+                    int n = reference.hash(key, len, data, key.length - len, expected);
+                    engine.hash(key, len, data, key.length - len, actual);
+                    correct = Arrays.equals(Arrays.copyOf(expected, n), Arrays.copyOf(actual, n));
+                }
+                if(correct)
+                    candidates[provider.ordinal()] = engine;
+                else
+                    logger.warning(provider + " gives wrong results for " + algorithm.getName() + ", it will not be used");
+            } catch(Exception e) {
+                logger.fine(provider + " is not available for " + algorithm.getName() + ": " + e.getMessage());
+            }
+        }
+
+        // Each round gives every candidate the same time slice, interleaved so JIT
+        // warm up doesn't favour the last one. The best round counts.
+        double [] best = new double[PROVIDERS.length];
+        Arrays.fill(best, Double.MAX_VALUE);
+        for(int round=0; round<CALIBRATION_ROUNDS; round++) {
+            for(int p=0; p<PROVIDERS.length; p++) {
+                if(candidates[p]==null)
+                    continue;
+                try {
+                    long calls = 0;
+                    long start = System.nanoTime();
+                    long now;
+                    do {
+                        for(int i=0; i<16; i++)
+                            candidates[p].hash(key, 16, data, 48, actual);
+                        calls += 16;
+                    } while((now = System.nanoTime()) - start < CALIBRATION_ROUND_NANOS);
+                    best[p] = Math.min(best[p], (double)(now - start) / calls);
+                } catch(Exception e) {
+                    candidates[p] = null;
+                }
+            }
+        }
+
+        HashProvider fastest = HashProvider.BC;
+        for(int p=0; p<PROVIDERS.length; p++) {
+            if(candidates[p]!=null && (candidates[fastest.ordinal()]==null || best[p] < best[fastest.ordinal()]))
+                fastest = PROVIDERS[p];
+        }
+        logger.fine("Using " + fastest + " for " + (hmac ? algorithm.getHmacName() : algorithm.getName()));
+        return fastest;
+    }
+}
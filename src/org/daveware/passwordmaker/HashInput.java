@@ -0,0 +1,107 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.Arrays;
+
+/**
+ * The bytes hashed by each round of PasswordMaker.hashTheData(), assembled
+ * straight from their parts into one array.
+ *
+ * The array holds the data (url, username and modifier) followed by the master
+ * password and then, from the second round on, "\n" and the round number. Only
+ * that last bit changes between rounds, so nothing is copied after the first.
+ * The chars are converted to bytes the same way SecureByteArray(char[]) does it.
+ *
+ * Call erase() when done.
+ *
+ * @author Dave Marotti
+ */
+final class HashInput {
+    // "\n" plus the digits of the largest int
+    private static final int ROUND_SPACE = 11;
+
+    private final byte [] buffer;
+    private final int dataLength;
+    private final int masterLength;
+    private int roundLength = 0;
+
+    /**
+     * @param masterPassword The master password (the key).
+     * @param dataParts The pieces of the data, in order.
+     */
+    HashInput(SecureCharArray masterPassword, CharSequence... dataParts) {
+        int length = 0;
+        for(CharSequence part : dataParts)
+            length += part.length();
+        dataLength = length;
+        masterLength = masterPassword.size();
+        buffer = new byte[dataLength + masterLength + ROUND_SPACE];
+
+        int pos = 0;
+        for(CharSequence part : dataParts) {
+            for(int i=0; i<part.length(); i++)
+                buffer[pos++] = (byte)part.charAt(i);
+        }
+        for(int i=0; i<masterLength; i++)
+            buffer[pos++] = (byte)masterPassword.getCharAt(i);
+    }
+
+    /**
+     * Sets the round, this changes the key.
+     * @param count The round number, 0 for the first.
+     */
+    void setRound(int count) {
+        int pos = dataLength + masterLength;
+        Arrays.fill(buffer, pos, pos + roundLength, (byte)0);
+        if(count==0) {
+            roundLength = 0;
+            return;
+        }
+
+        int digits = 1;
+        for(int n=count; n>=10; n/=10)
+            digits++;
+        buffer[pos] = '\n';
+        for(int i=digits; i>0; i--) {
+            buffer[pos + i] = (byte)('0' + count % 10);
+            count /= 10;
+        }
+        roundLength = digits + 1;
+    }
+
+    byte [] getBuffer() {
+        return buffer;
+    }
+
+    int getDataLength() {
+        return dataLength;
+    }
+
+    int getKeyOffset() {
+        return dataLength;
+    }
+
+    int getKeyLength() {
+        return masterLength + roundLength;
+    }
+
+    void erase() {
+        Arrays.fill(buffer, (byte)0);
+    }
+}
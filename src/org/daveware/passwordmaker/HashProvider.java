@@ -0,0 +1,83 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+/**
+ * The implementations PasswordMaker can hash with. See HashEngines.
+ *
+ * @author Dave Marotti
+ */
+public enum HashProvider {
+    /** The providers built into the JVM (SUN and SunJCE). Only MD5, SHA1 and SHA256. */
+    JDK("jdk"),
+    /** BouncyCastle, which must be registered as "BC". Every algorithm. */
+    BC("bc"),
+    /** PureDigest and PureHmac. Every algorithm. */
+    PURE("pure");
+
+    private final String settingName;
+
+    private HashProvider(String settingName) {
+        this.settingName = settingName;
+    }
+
+    /**
+     * @return The value used for this provider in GlobalSettingKey.HASH_PROVIDER.
+     */
+    public String getSettingName() {
+        return settingName;
+    }
+
+    /**
+     * @return Whether this provider implements an algorithm at all.
+     */
+    public boolean supports(AlgorithmType algorithm) {
+        if(this==JDK)
+            return getJdkName(algorithm, false)!=null;
+        return true;
+    }
+
+    /**
+     * @return The JCA name the JDK providers use for an algorithm, or null if they don't have it.
+     */
+    static String getJdkName(AlgorithmType algorithm, boolean hmac) {
+        if(algorithm==AlgorithmType.MD5)
+            return hmac ? "HmacMD5" : "MD5";
+        if(algorithm==AlgorithmType.SHA1)
+            return hmac ? "HmacSHA1" : "SHA-1";
+        if(algorithm==AlgorithmType.SHA256)
+            return hmac ? "HmacSHA256" : "SHA-256";
+        return null;
+    }
+
+    /**
+     * Parses a setting value.
+     * @param str "jdk", "bc", "pure", or "auto" (or empty) for automatic selection.
+     * @return The provider, or null for automatic selection.
+     * @throws IllegalArgumentException on anything else.
+     */
+    public static HashProvider fromSetting(String str) {
+        if(str==null || str.length()==0 || str.equalsIgnoreCase("auto"))
+            return null;
+        for(HashProvider provider : values()) {
+            if(provider.settingName.equalsIgnoreCase(str))
+                return provider;
+        }
+        throw new IllegalArgumentException("Unknown hash provider '" + str + "', valid values are auto, jdk, bc and pure");
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds.
+ *
+ * Bucket i holds durations from 2^i up to 2^(i+1) nanoseconds, which gives a
+ * constant relative error while staying small enough to record from several
+ * threads without any locking. Percentiles are reported as the upper bound of
+ * the bucket they fall in.
+ *
+ * @author Dave Marotti
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Adds one duration.
+     * @param nanos The duration, negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        if(nanos<0)
+            nanos = 0;
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+
+        long current;
+        while(nanos > (current = max.get())) {
+            if(max.compareAndSet(current, nanos))
+                break;
+        }
+    }
+
+    private static int bucketOf(long nanos) {
+        return nanos==0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNanos() {
+        return total.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public long getMeanNanos() {
+        long n = count.get();
+        return n==0 ? 0 : total.get() / n;
+    }
+
+    /**
+     * @param percentile From 0 to 100.
+     * @return The duration below which that percentage of the recorded values fall.
+     */
+    public long getPercentileNanos(double percentile) {
+        long n = count.get();
+        if(n==0)
+            return 0;
+
+        long target = (long)Math.ceil(n * percentile / 100.0);
+        if(target<1)
+            target = 1;
+        long seen = 0;
+        for(int i=0; i<BUCKETS; i++) {
+            seen += buckets.get(i);
+            if(seen>=target)
+                return Math.min(i>=62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1, max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for(int i=0; i<BUCKETS; i++)
+            buckets.set(i, 0);
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return The count, mean, median, 99th percentile and maximum in microseconds.
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus",
+                getCount(), getMeanNanos() / 1000.0, getPercentileNanos(50) / 1000.0,
+                getPercentileNanos(99) / 1000.0, getMaxNanos() / 1000.0);
+    }
+}
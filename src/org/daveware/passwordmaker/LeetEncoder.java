@@ -55,10 +55,86 @@ public class LeetEncoder {
 	"|_|", "\\/", "\\^/", ")(", "'/", "\"/_"} 
     };
     
+    /**
+     * LEVELS flattened for the converters: for an ASCII character c, after the
+     * lowercasing the converters do, its conversion is
+     * chars[starts[c]] up to chars[starts[c+1]].
+     */
+    private static final class Table {
+        final char [] chars;
+        final int [] starts = new int[129];
+        // Every character converts to exactly one, so the conversion can be done in place
+        final boolean oneToOne;
+
+        Table(String [] leets) {
+            StringBuilder flat = new StringBuilder();
+            boolean single = true;
+            for(char c=0; c<128; c++) {
+                starts[c] = flat.length();
+                char lower = Character.toLowerCase(c);
+                if(lower >= 'a' && lower <= 'z') {
+                    flat.append(leets[lower - 'a']);
+                    single &= leets[lower - 'a'].length()==1;
+                }
+                else {
+                    flat.append(lower);
+                }
+            }
+            starts[128] = flat.length();
+            chars = flat.toString().toCharArray();
+            oneToOne = single;
+        }
+
+        /**
+         * @return The character lowercased, and converted if it's a letter
+         *         with a one character conversion.
+         */
+        char convertOne(char c) {
+            if(c < 128)
+                return chars[starts[c]];
+            char lower = Character.toLowerCase(c);
+            if(lower < 128)
+                return chars[starts[lower]];
+            return lower;
+        }
+
+        /**
+         * @return How many characters c converts to.
+         */
+        int length(char c) {
+            if(c >= 128) {
+                c = Character.toLowerCase(c);
+                if(c >= 128)
+                    return 1;
+            }
+            return starts[c + 1] - starts[c];
+        }
+    }
+
+    private static final Table [] TABLES = new Table[LEVELS.length];
+    static {
+        for(int i=0; i<LEVELS.length; i++)
+            TABLES[i] = new Table(LEVELS[i]);
+    }
+
+    /**
+     * @return The table for a level, null if there isn't one.
+     */
+    private static Table getTable(LeetLevel level) {
+        if(level.compareTo(LeetLevel.LEVEL1) >= 0  && level.compareTo(LeetLevel.LEVEL9) <=0 )
+            return TABLES[level.getLevel()-1];
+        return null;
+    }
+
     /**
      * Converts a SecureCharArray into a new SecureCharArray with any applicable
      * characters converted to leet-speak.
      * 
+     * Levels where every letter has a single character replacement are converted
+     * in place. Otherwise the size of the result is counted first so it can be
+     * written straight into an array of exactly the right size, which then
+     * replaces (and erases) the old one.
+     * 
      * @param level What level of leet to use. Each leet corresponds to a different
      *              leet lookup table.
      * @param message The array to convert.
@@ -68,32 +144,83 @@ public class LeetEncoder {
     public static void leetConvert(LeetLevel level, SecureCharArray message)
             throws Exception 
     {
-        // pre-allocate an array that is 4 times the size of the message.  I don't
-        // see anything in the leet-table that is larger than 3 characters, but I'm
-        // using 4-characters to calcualte the size just in case. This is to avoid
-        // a bunch of array resizes.
-        SecureCharArray ret = new SecureCharArray(message.size() * 4);
-        char [] messageBytes = message.getData();     // Reference to message's data
-        char [] retBytes = ret.getData();             // Reference to ret's data
-        int currentRetByte = 0;                       // Index of current ret byte
+        Table table = getTable(level);
+        if(table==null) {
+            message.resize(0, false);
+            return;
+        }
 
-        if (level.compareTo(LeetLevel.LEVEL1) >= 0  && level.compareTo(LeetLevel.LEVEL9) <=0 ) {
-            for(int i=0; i<messageBytes.length; i++) {
-                char b = Character.toLowerCase(messageBytes[i]);
-                if(b >= 'a' &&  b <= 'z') {
-                    for(int j=0; j<LEVELS[level.getLevel()-1][b - 'a'].length(); j++)
-                        retBytes[currentRetByte++] = LEVELS[level.getLevel()-1][b - 'a'].charAt(j);
-                }
-                else {
-                    retBytes[currentRetByte++] = b;
+        char [] messageChars = message.getData();     // Reference to message's data
+        if(table.oneToOne) {
+            for(int i=0; i<messageChars.length; i++)
+                messageChars[i] = table.convertOne(messageChars[i]);
+            return;
+        }
+
+        int length = 0;
+        for(int i=0; i<messageChars.length; i++)
+            length += table.length(messageChars[i]);
+
+        char [] ret = new char[length];
+        int currentRetChar = 0;
+        for(int i=0; i<messageChars.length; i++) {
+            char c = messageChars[i];
+            if(c >= 128) {
+                c = Character.toLowerCase(c);
+                if(c >= 128) {
+                    ret[currentRetChar++] = c;
+                    continue;
                 }
             }
+            for(int j=table.starts[c]; j<table.starts[c + 1]; j++)
+                ret[currentRetChar++] = table.chars[j];
+        }
+        message.setData(ret);
+    }
+
+    /**
+     * The same as leetConvert(LeetLevel, SecureCharArray) for an array kept
+     * off the heap. The converted characters never touch the heap either, the
+     * array is grown to the converted size and converted from the back so
+     * nothing is overwritten before it's been read.
+     * 
+     * @param level What level of leet to use.
+     * @param message The array to convert.
+     * @throws Exception upon sizing error.
+     */
+    public static void leetConvert(LeetLevel level, DirectSecureCharArray message)
+            throws Exception 
+    {
+        Table table = getTable(level);
+        if(table==null) {
+            message.resize(0, false);
+            return;
         }
 
-        // Resize the array to the length that we actually filled it, then replace
-        // the original message and erase the buffer we built up.
-        ret.resize(currentRetByte, true);
-        message.replace(ret);
-        ret.erase();
+        int size = message.size();
+        if(table.oneToOne) {
+            for(int i=0; i<size; i++)
+                message.setCharAt(i, table.convertOne(message.getCharAt(i)));
+            return;
+        }
+
+        int length = 0;
+        for(int i=0; i<size; i++)
+            length += table.length(message.getCharAt(i));
+
+        message.resize(length, true);
+        int currentRetChar = length;
+        for(int i=size-1; i>=0; i--) {
+            char c = message.getCharAt(i);
+            if(c >= 128) {
+                c = Character.toLowerCase(c);
+                if(c >= 128) {
+                    message.setCharAt(--currentRetChar, c);
+                    continue;
+                }
+            }
+            for(int j=table.starts[c + 1] - 1; j>=table.starts[c]; j--)
+                message.setCharAt(--currentRetChar, table.chars[j]);
+        }
     }
 }
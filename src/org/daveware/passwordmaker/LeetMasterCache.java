@@ -0,0 +1,92 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+/**
+ * The master password converted to leet, for accounts which use leet before
+ * hashing. Each level is converted the first time it's needed and then kept,
+ * so generating any number of passwords converts the master password at most
+ * once per LeetLevel. The master password itself is never modified.
+ *
+ * Safe to use from several threads. Call erase() at the end of the session.
+ *
+ * @author Dave Marotti
+ */
+final class LeetMasterCache {
+    private final SecureCharArray masterPassword;
+    private final SecureCharArray [] converted = new SecureCharArray[LeetLevel.getLevels().length];
+
+    /**
+     * @param masterPassword The master password, it's referenced rather than copied
+     *                       so it must not change while the cache is in use.
+     */
+    LeetMasterCache(SecureCharArray masterPassword) {
+        this.masterPassword = masterPassword;
+    }
+
+    /**
+     * @return The unconverted master password.
+     */
+    SecureCharArray getMasterPassword() {
+        return masterPassword;
+    }
+
+    /**
+     * Gets the master password converted with a level. The array belongs to the
+     * cache and must not be modified or erased.
+     *
+     * @param level The leet level.
+     * @return The converted master password.
+     * @throws Exception upon conversion error.
+     */
+    synchronized SecureCharArray get(LeetLevel level) throws Exception {
+        int index = level.getLevel() - 1;
+        if(converted[index]==null) {
+            SecureCharArray arr = new SecureCharArray(masterPassword);
+            LeetEncoder.leetConvert(level, arr);
+            converted[index] = arr;
+        }
+        return converted[index];
+    }
+
+    /**
+     * Gets the master password to hash with for an account, converted if the
+     * account uses leet before hashing.
+     *
+     * @param account The account.
+     * @return The master password, which must not be modified or erased.
+     * @throws Exception upon conversion error.
+     */
+    SecureCharArray get(Account account) throws Exception {
+        if(account.getLeetType()==LeetType.BEFORE || account.getLeetType()==LeetType.BOTH)
+            return get(account.getLeetLevel());
+        return masterPassword;
+    }
+
+    /**
+     * Erases the converted passwords (but not the master password).
+     */
+    synchronized void erase() {
+        for(int i=0; i<converted.length; i++) {
+            if(converted[i]!=null) {
+                converted[i].erase();
+                converted[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates the passwords a set of accounts would have with other modifiers
+ * (the counter), for planning password rotation.
+ *
+ * Accounts are spread over a pool of threads, each one is swept with
+ * PasswordMaker.sweepModifiers(). The passwords are handed to a Receiver as
+ * they're made rather than collected, and erased once it returns.
+ *
+ * @author Dave Marotti
+ */
+public final class ModifierSweep {
+
+    /**
+     * Gets the passwords of a sweep. It's called from the sweep's threads, for
+     * several accounts at once, so it must be thread safe.
+     */
+    public interface Receiver {
+        /**
+         * @param account The account.
+         * @param modifier The modifier the password was made with.
+         * @param password The password, it's erased once this returns.
+         * @throws Exception to stop the sweep.
+         */
+        public void passwordGenerated(Account account, String modifier, SecureCharArray password) throws Exception;
+    }
+
+    private final int threads;
+
+    /**
+     * Creates a sweep which uses one thread per processor.
+     */
+    public ModifierSweep() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads The number of threads to generate passwords on.
+     */
+    public ModifierSweep(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Gets the counter values which follow an account's modifier. The modifier
+     * must be a number, or empty which counts as 0.
+     *
+     * @param account The account.
+     * @param count How many values.
+     * @return The values, as modifiers.
+     * @throws NumberFormatException if the modifier is not a number.
+     */
+    public static String [] nextCounters(Account account, int count) {
+        String modifier = account.getModifier().trim();
+        long current = modifier.length()==0 ? 0 : Long.parseLong(modifier);
+        String [] counters = new String[count];
+        for(int i=0; i<count; i++)
+            counters[i] = Long.toString(current + i + 1);
+        return counters;
+    }
+
+    /**
+     * Sweeps each account with its own list of modifiers.
+     *
+     * @param masterPassword The master password, it is not modified.
+     * @param accounts The accounts, folders are not allowed.
+     * @param modifiers The modifiers for each account.
+     * @param receiver Gets the passwords.
+     * @throws Exception if a password could not be generated, or the receiver threw it.
+     */
+    public void run(SecureCharArray masterPassword, Account [] accounts, final String [][] modifiers,
+            final Receiver receiver) throws Exception {
+        // Shared by all the threads so each leet level is converted only once
+        final LeetMasterCache masters = new LeetMasterCache(masterPassword);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("pwmje-sweep"));
+        try {
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for(int i=0; i<accounts.length; i++) {
+                final Account account = accounts[i];
+                final String [] accountModifiers = modifiers[i];
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        new PasswordMaker().sweepModifiers(masters, account, account.getUrl(), accountModifiers, receiver);
+                        return null;
+                    }
+                }));
+            }
+
+            for(Future<Object> future : futures)
+                WorkerPools.get(future);
+        } finally {
+            WorkerPools.shutdownAndWait(executor);
+            masters.erase();
+        }
+    }
+
+    /**
+     * Sweeps each account with the next counter values after its modifier (see
+     * nextCounters()).
+     *
+     * @param masterPassword The master password, it is not modified.
+     * @param accounts The accounts, folders are not allowed.
+     * @param count How many counter values per account.
+     * @param receiver Gets the passwords.
+     * @throws Exception if a password could not be generated, or the receiver threw it.
+     */
+    public void run(SecureCharArray masterPassword, Account [] accounts, int count, Receiver receiver)
+            throws Exception {
+        String [][] modifiers = new String[accounts.length][];
+        for(int i=0; i<accounts.length; i++)
+            modifiers[i] = nextCounters(accounts[i], count);
+        run(masterPassword, accounts, modifiers, receiver);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Hashes many independent (key, data) pairs with the same algorithm at once.
+ *
+ * When the jdk.incubator.vector module is present (start the JVM with
+ * "--add-modules jdk.incubator.vector") MD5, SHA1 and SHA256 are computed
+ * several messages at a time in SIMD lanes. Everything else, and everything when
+ * the module is missing or the system property "pwmje.simd" is "false", goes
+ * through HashEngines one pair at a time. Either way the results are identical
+ * to HashEngines.hash().
+ *
+ * A provider forced with HashEngines.setOverride() is respected, the lanes are
+ * only used in automatic mode.
+ *
+ * @author Dave Marotti
+ */
+public final class MultiLaneHasher {
+    public static final String PROPERTY = "pwmje.simd";
+
+    private static final Logger logger = Logger.getLogger(MultiLaneHasher.class.getName());
+    private static final int BLOCK_SIZE = 64;
+    private static final byte [] EMPTY = new byte[0];
+    private static final boolean vectorAvailable = detect();
+
+    private MultiLaneHasher() {
+    }
+
+    private static boolean detect() {
+        if("false".equalsIgnoreCase(System.getProperty(PROPERTY)))
+            return false;
+        if(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()==false) {
+            logger.fine("jdk.incubator.vector is not present, batches are hashed one at a time");
+            return false;
+        }
+        try {
+            int lanes = VectorDigests.getLanes();
+            logger.fine("Hashing batches in " + lanes + " lanes");
+            return lanes > 1;
+        } catch(Throwable t) {
+            logger.warning("Unable to use the vector API: " + t);
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the vector API can be used.
+     */
+    public static boolean isVectorAvailable() {
+        return vectorAvailable;
+    }
+
+    /**
+     * @return The number of messages hashed at once, 1 without the vector API.
+     */
+    public static int getLanes() {
+        return vectorAvailable ? VectorDigests.getLanes() : 1;
+    }
+
+    /**
+     * @return true if hash() will use SIMD lanes for an algorithm.
+     */
+    public static boolean isVectorized(AlgorithmType algorithm) {
+        return vectorAvailable && HashEngines.getOverride()==null && VectorDigests.supports(algorithm);
+    }
+
+    /**
+     * Hashes key[i] followed by data[i] or, for HMAC, computes the MAC of data[i]
+     * keyed by key[i], for every i below count.
+     *
+     * @param algorithm The algorithm.
+     * @param hmac Whether to compute HMACs.
+     * @param keys The keys (master passwords).
+     * @param keyLens The number of bytes of each key to use.
+     * @param data The data.
+     * @param dataLens The number of bytes of each data to use.
+     * @param count The number of pairs.
+     * @param out Receives the hashes, each must hold HashEngines.getDigestSize(algorithm) bytes.
+     * @throws Exception if the provider fails.
+     */
+    public static void hash(AlgorithmType algorithm, boolean hmac, byte [][] keys, int [] keyLens,
+            byte [][] data, int [] dataLens, int count, byte [][] out) throws Exception {
+        if(count < 2 || isVectorized(algorithm)==false) {
+            for(int i=0; i<count; i++)
+                HashEngines.hash(algorithm, hmac, keys[i], keyLens[i], data[i], dataLens[i], out[i]);
+            return;
+        }
+
+        if(hmac)
+            hmac(algorithm, keys, keyLens, data, dataLens, count, out);
+        else
+            digest(algorithm, keys, keyLens, data, dataLens, count, out);
+    }
+
+    private static void digest(AlgorithmType algorithm, byte [][] keys, int [] keyLens,
+            byte [][] data, int [] dataLens, int count, byte [][] out) {
+        byte [][] messages = new byte[count][];
+        int [] lengths = new int[count];
+        try {
+            for(int i=0; i<count; i++) {
+                messages[i] = new byte[keyLens[i] + dataLens[i]];
+                System.arraycopy(keys[i], 0, messages[i], 0, keyLens[i]);
+                System.arraycopy(data[i], 0, messages[i], keyLens[i], dataLens[i]);
+                lengths[i] = messages[i].length;
+            }
+            VectorDigests.digest(algorithm, messages, lengths, 0, count, out);
+        } finally {
+            erase(messages);
+        }
+    }
+
+    /**
+     * HMAC is two digests, H(K ^ ipad || data) and then H(K ^ opad || inner), each
+     * of which runs in the lanes.
+     */
+    private static void hmac(AlgorithmType algorithm, byte [][] keys, int [] keyLens,
+            byte [][] data, int [] dataLens, int count, byte [][] out) throws Exception {
+        int digestSize = HashEngines.getDigestSize(algorithm);
+        byte [][] messages = new byte[count][];
+        byte [][] inner = new byte[count][];
+        int [] lengths = new int[count];
+        byte [] key = new byte[BLOCK_SIZE];
+
+        try {
+            for(int i=0; i<count; i++) {
+                if(keyLens[i]==0)
+                    throw new IllegalArgumentException("Empty key");
+
+                // Keys longer than a block are replaced by their hash
+                Arrays.fill(key, (byte)0);
+                if(keyLens[i] > BLOCK_SIZE)
+                    HashEngines.hash(algorithm, false, keys[i], keyLens[i], EMPTY, 0, key);
+                else
+                    System.arraycopy(keys[i], 0, key, 0, keyLens[i]);
+
+                messages[i] = new byte[BLOCK_SIZE + Math.max(dataLens[i], digestSize)];
+                for(int j=0; j<BLOCK_SIZE; j++)
+                    messages[i][j] = (byte)(key[j] ^ 0x36);
+                System.arraycopy(data[i], 0, messages[i], BLOCK_SIZE, dataLens[i]);
+                lengths[i] = BLOCK_SIZE + dataLens[i];
+                inner[i] = new byte[digestSize];
+            }
+            VectorDigests.digest(algorithm, messages, lengths, 0, count, inner);
+
+            // The opad block is the ipad block with every byte xor'd by 0x36 ^ 0x5c
+            for(int i=0; i<count; i++) {
+                for(int j=0; j<BLOCK_SIZE; j++)
+                    messages[i][j] ^= (byte)(0x36 ^ 0x5c);
+                System.arraycopy(inner[i], 0, messages[i], BLOCK_SIZE, digestSize);
+                lengths[i] = BLOCK_SIZE + digestSize;
+            }
+            VectorDigests.digest(algorithm, messages, lengths, 0, count, out);
+        } finally {
+            Arrays.fill(key, (byte)0);
+            erase(messages);
+            erase(inner);
+        }
+    }
+
+    private static void erase(byte [][] arrays) {
+        for(byte [] a : arrays) {
+            if(a!=null)
+                Arrays.fill(a, (byte)0);
+        }
+    }
+}
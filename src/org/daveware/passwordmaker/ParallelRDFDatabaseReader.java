@@ -0,0 +1,319 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An RDFDatabaseReader which parses large files on several threads.
+ *
+ * The whole file is read into memory and scanned (without parsing) for the
+ * boundaries between the elements directly inside RDF:RDF, the RDF:Description
+ * and RDF:Seq nodes. Those are split into ranges and each range is parsed on
+ * its own thread, as a small document made of the original file's header, the
+ * range and a closing RDF:RDF tag. The partial description and seq maps are
+ * merged in file order, so a later node still replaces an earlier one with the
+ * same id, and the tree is assembled exactly as RDFDatabaseReader does.
+ *
+ * Small files, files the scanner can't split safely (UTF-16, a DOCTYPE with an
+ * internal subset, anything unexpected) and files with errors are read by
+ * RDFDatabaseReader instead, so the result and any exception are always the
+ * same as the sequential reader's.
+ *
+ * @author Dave Marotti
+ */
+public class ParallelRDFDatabaseReader extends RDFDatabaseReader {
+    /**
+     * Files smaller than this are read on one thread.
+     */
+    public static final int MIN_PARALLEL_SIZE = 1 << 20;
+
+    // Ranges per thread, so a slow range doesn't leave the other threads idle
+    private static final int RANGES_PER_THREAD = 4;
+
+    private static final byte [] RDF_START = ascii("<RDF:RDF");
+    private static final byte [] RDF_END = ascii("</RDF:RDF>");
+
+    private final int threads;
+
+    /**
+     * Creates a reader which uses one thread per processor.
+     */
+    public ParallelRDFDatabaseReader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads The number of threads to parse on.
+     */
+    public ParallelRDFDatabaseReader(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * The maps from one range of the file.
+     */
+    private static final class Shard {
+        final HashMap<String, Account> descriptionMap = new HashMap<String, Account>();
+        final HashMap<String, ArrayList<String> > seqMap = new HashMap<String, ArrayList<String> >();
+        final LinkedHashMap<String, String> globalSettings = new LinkedHashMap<String, String>();
+    }
+
+    @Override
+    void readMaps(InputStream in,
+                  HashMap<String, Account> descriptionMap,
+                  HashMap<String, ArrayList<String> > seqMap,
+                  Map<String, String> globalSettings)
+            throws Exception
+    {
+        final byte [] data = readFully(in);
+        final int [] bounds = data.length < MIN_PARALLEL_SIZE || threads==1 ? null : split(data, threads * RANGES_PER_THREAD);
+        if(bounds==null || bounds.length < 3) {
+            super.readMaps(new ByteArrayInputStream(data), descriptionMap, seqMap, globalSettings);
+            return;
+        }
+
+        ArrayList<Shard> shards = new ArrayList<Shard>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("pwmje-rdf"));
+        try {
+            ArrayList<Future<Shard>> futures = new ArrayList<Future<Shard>>();
+            for(int i=1; i<bounds.length-1; i++) {
+                final int start = bounds[i];
+                final int end = bounds[i+1];
+                futures.add(executor.submit(new Callable<Shard>() {
+                    public Shard call() throws Exception {
+                        InputStream range = new SequenceInputStream(
+                                new SequenceInputStream(new ByteArrayInputStream(data, 0, bounds[0]),
+                                                        new ByteArrayInputStream(data, start, end - start)),
+                                new ByteArrayInputStream(RDF_END));
+                        Shard shard = new Shard();
+                        readAndCreateMaps(parseRdfElement(range), shard.descriptionMap, shard.seqMap, shard.globalSettings);
+                        return shard;
+                    }
+                }));
+            }
+            for(Future<Shard> future : futures)
+                shards.add(future.get());
+        } catch(Exception e) {
+            // Let the sequential reader report the same error it always would
+            logger.fine("Parallel read failed, reading sequentially: " + e);
+            super.readMaps(new ByteArrayInputStream(data), descriptionMap, seqMap, globalSettings);
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // In file order, so later nodes replace earlier ones just like one parse
+        for(Shard shard : shards) {
+            descriptionMap.putAll(shard.descriptionMap);
+            seqMap.putAll(shard.seqMap);
+            globalSettings.putAll(shard.globalSettings);
+        }
+    }
+
+    private static byte [] readFully(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 8192));
+        byte [] buf = new byte[65536];
+        int n;
+        while((n = in.read(buf)) > 0)
+            out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    private static byte [] ascii(String str) {
+        byte [] bytes = new byte[str.length()];
+        for(int i=0; i<bytes.length; i++)
+            bytes[i] = (byte)str.charAt(i);
+        return bytes;
+    }
+
+    private static boolean startsWith(byte [] data, int pos, String str) {
+        if(pos + str.length() > data.length)
+            return false;
+        for(int i=0; i<str.length(); i++) {
+            if(data[pos + i]!=(byte)str.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(byte [] data, int from, String str) {
+        byte first = (byte)str.charAt(0);
+        for(int i=from; i<=data.length - str.length(); i++) {
+            if(data[i]==first && startsWith(data, i, str))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds where the file can be split. This only has to understand as much XML
+     * as it takes to find the elements directly inside RDF:RDF, anything it's not
+     * sure about gives up.
+     *
+     * @param data The file.
+     * @param ranges Roughly how many ranges to split it into.
+     * @return The end of the RDF:RDF start tag, then the start of each range and
+     *         finally the start of the RDF:RDF end tag. Null if it can't be split.
+     */
+    static int [] split(byte [] data, int ranges) {
+        // UTF-16 (or anything else which isn't ASCII compatible)
+        if(data.length < 2 || data[0]==0 || data[1]==0 || (data[0] & 0xff) >= 0xfe)
+            return null;
+
+        long target = data.length / ranges;
+        ArrayList<Integer> bounds = new ArrayList<Integer>();
+        int depth = 0;
+        int last = 0;
+        int pos = 0;
+        while(pos < data.length) {
+            if(data[pos]!='<') {
+                pos++;
+                continue;
+            }
+
+            int end;
+            if(startsWith(data, pos, "<!--")) {
+                end = indexOf(data, pos + 4, "-->");
+                if(end < 0)
+                    return null;
+                pos = end + 3;
+                continue;
+            }
+            if(startsWith(data, pos, "<![CDATA[")) {
+                end = indexOf(data, pos + 9, "]]>");
+                if(end < 0)
+                    return null;
+                pos = end + 3;
+                continue;
+            }
+            if(startsWith(data, pos, "<?")) {
+                end = indexOf(data, pos + 2, "?>");
+                if(end < 0)
+                    return null;
+                pos = end + 2;
+                continue;
+            }
+            if(startsWith(data, pos, "<!")) {
+                // A DOCTYPE, its internal subset could declare anything
+                if(depth > 0)
+                    return null;
+                end = indexOf(data, pos, ">");
+                if(end < 0 || indexOf(data, pos, "[") >= 0 && indexOf(data, pos, "[") < end)
+                    return null;
+                pos = end + 1;
+                continue;
+            }
+
+            // A tag, find its end. '>' can appear in attribute values.
+            byte quote = 0;
+            end = pos + 1;
+            while(end < data.length) {
+                byte c = data[end];
+                if(quote!=0) {
+                    if(c==quote)
+                        quote = 0;
+                } else if(c=='"' || c=='\'') {
+                    quote = c;
+                } else if(c=='>') {
+                    break;
+                }
+                end++;
+            }
+            if(end >= data.length)
+                return null;
+
+            if(data[pos + 1]=='/') {
+                depth--;
+                if(depth==0) {
+                    // </RDF:RDF>, nothing but whitespace, comments or PIs may follow
+                    if(!startsWith(data, pos, "</RDF:RDF") || !onlyMiscAfter(data, end + 1))
+                        return null;
+                    bounds.add(pos);
+                    break;
+                }
+                if(depth==1 && end + 1 - last >= target) {
+                    last = end + 1;
+                    bounds.add(last);
+                }
+            } else if(depth==0) {
+                // The document element
+                if(!startsWith(data, pos, "<RDF:RDF") || (data[pos + RDF_START.length]!=' ' &&
+                   data[pos + RDF_START.length]!='>' && data[pos + RDF_START.length]!='\n' &&
+                   data[pos + RDF_START.length]!='\r' && data[pos + RDF_START.length]!='\t') ||
+                   data[end - 1]=='/')
+                    return null;
+                depth = 1;
+                last = end + 1;
+                bounds.add(last);
+                // The first range starts right after the header
+                bounds.add(last);
+            } else if(data[end - 1]!='/') {
+                depth++;
+            } else if(depth==1 && end + 1 - last >= target) {
+                last = end + 1;
+                bounds.add(last);
+            }
+            pos = end + 1;
+        }
+        if(depth!=0 || bounds.size() < 3)
+            return null;
+
+        // A cut right before the end would leave an empty last range
+        if(bounds.get(bounds.size() - 2).intValue()==bounds.get(bounds.size() - 1).intValue())
+            bounds.remove(bounds.size() - 2);
+
+        int [] result = new int[bounds.size()];
+        for(int i=0; i<result.length; i++)
+            result[i] = bounds.get(i);
+        return result;
+    }
+
+    private static boolean onlyMiscAfter(byte [] data, int pos) {
+        while(pos < data.length) {
+            byte c = data[pos];
+            if(c==' ' || c=='\n' || c=='\r' || c=='\t') {
+                pos++;
+            } else if(startsWith(data, pos, "<!--")) {
+                int end = indexOf(data, pos + 4, "-->");
+                if(end < 0)
+                    return false;
+                pos = end + 3;
+            } else if(startsWith(data, pos, "<?")) {
+                int end = indexOf(data, pos + 2, "?>");
+                if(end < 0)
+                    return false;
+                pos = end + 2;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small cache of generated passwords, for callers which ask for the same
+ * password again and again (the GUI does every time an account is selected).
+ *
+ * Entries are keyed by a SHA-256 of the master password, every account setting
+ * which affects the password and the input text, salted with random bytes
+ * picked when the cache is created. The passwords themselves are kept off the
+ * heap in DirectSecureCharArrays. Entries expire after a fixed time, the least
+ * recently used one is dropped when the cache is full, and either way they're
+ * erased straight away.
+ *
+ * The whole cache is flushed as soon as it's asked for a password with a
+ * different master password than the last one. Call flush() when the master
+ * password is cleared or the application is locked or closed.
+ *
+ * It's opt-in: fromProperty() only creates one if the pwmje.passwordCache
+ * system property gives the time to live in seconds.
+ *
+ * @author Dave Marotti
+ */
+public final class PasswordCache {
+    public static final String PROPERTY = "pwmje.passwordCache";
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private static final class Key {
+        final byte [] digest;
+        final int hash;
+
+        Key(byte [] digest) {
+            this.digest = digest;
+            this.hash = PureDigest.readIntBE(digest, 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(digest, ((Key)o).digest);
+        }
+    }
+
+    private static final class Entry {
+        final Key key;      // The instance held by the map
+        final DirectSecureCharArray password;
+        final long expires;
+
+        Entry(Key key, DirectSecureCharArray password, long expires) {
+            this.key = key;
+            this.password = password;
+            this.expires = expires;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final byte [] salt = new byte[32];
+    private final PureDigest digest = PureDigest.create(AlgorithmType.SHA256);
+
+    // Guarded by "this"
+    private final LinkedHashMap<Key, Entry> entries;
+    private byte [] masterFingerprint = null;
+    private long flushes = 0;   // So a password made across a flush isn't cached
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxEntries The most passwords to keep.
+     * @param ttlMillis How long each password is kept for.
+     */
+    public PasswordCache(int maxEntries, long ttlMillis) {
+        if(maxEntries < 1 || ttlMillis < 1)
+            throw new IllegalArgumentException("The size and time to live must be positive");
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1000000L;
+        new SecureRandom().nextBytes(salt);
+        entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if(size() <= PasswordCache.this.maxEntries)
+                    return false;
+                discard(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Creates a cache if the pwmje.passwordCache system property is set to the
+     * number of seconds to keep passwords for.
+     *
+     * @return The cache, or null if it's not enabled.
+     */
+    public static PasswordCache fromProperty() {
+        String value = System.getProperty(PROPERTY);
+        if(value==null)
+            return null;
+        try {
+            long seconds = Long.parseLong(value.trim());
+            if(seconds > 0)
+                return new PasswordCache(DEFAULT_MAX_ENTRIES, seconds * 1000);
+        } catch(NumberFormatException e) {
+        }
+        return null;
+    }
+
+    /**
+     * Gets a password from the cache, or makes it with PasswordMaker.makePassword()
+     * and caches it.
+     *
+     * @param pwm Makes the password when it's not cached.
+     * @param masterPassword The master password, it is not modified.
+     * @param account The account.
+     * @param inputText The input text.
+     * @return A new copy of the password, erase it when done.
+     * @throws Exception if the password could not be made.
+     */
+    public SecureCharArray makePassword(PasswordMaker pwm, SecureCharArray masterPassword, Account account, String inputText)
+            throws Exception {
+        Key key;
+        long generation;
+        synchronized(this) {
+            byte [] fingerprint = fingerprint(masterPassword);
+            if(masterFingerprint!=null && !Arrays.equals(fingerprint, masterFingerprint))
+                flush();
+            if(masterFingerprint!=null)
+                Arrays.fill(masterFingerprint, (byte)0);
+            masterFingerprint = fingerprint;
+            generation = flushes;
+
+            key = new Key(keyDigest(masterPassword, account, inputText));
+            Entry entry = entries.get(key);
+            if(entry!=null && entry.expires - System.nanoTime() > 0) {
+                hits++;
+                Arrays.fill(key.digest, (byte)0);
+                return entry.password.toSecureCharArray();
+            }
+            if(entry!=null) {
+                // Expired. This erases the map's copy of the key, not the one
+                // just made, which is put back with the new password.
+                entries.remove(key);
+                discard(entry);
+            }
+            misses++;
+        }
+
+        // Made without holding the lock, two threads may make the same password
+        // at once but the second just replaces the first
+        SecureCharArray password = pwm.makePassword(masterPassword, account, inputText);
+        synchronized(this) {
+            if(generation != flushes) {
+                // Flushed meanwhile (locked or the master password cleared),
+                // the caller still gets the password but it's not kept
+                Arrays.fill(key.digest, (byte)0);
+                return password;
+            }
+            purgeExpired();
+            // Removed first, put() would keep the old key instance
+            Entry old = entries.remove(key);
+            if(old!=null)
+                discard(old);
+            entries.put(key, new Entry(key, new DirectSecureCharArray(password), System.nanoTime() + ttlNanos));
+        }
+        return password;
+    }
+
+    private byte [] fingerprint(SecureCharArray masterPassword) {
+        digest.update(salt, 0, salt.length);
+        update(masterPassword);
+        byte [] out = new byte[digest.getDigestSize()];
+        digest.doFinal(out, 0);
+        return out;
+    }
+
+    private byte [] keyDigest(SecureCharArray masterPassword, Account account, String inputText) {
+        digest.update(salt, 0, salt.length);
+        update(masterPassword);
+        update(inputText);
+        update(account.getId());
+        update(account.getUrl());
+        update(account.getUsername());
+        update(Integer.toString(account.getAlgorithm().getType()));
+        update(account.isHmac() ? "hmac" : "");
+        update(account.isTrim() ? "trim" : "");
+        update(Integer.toString(account.getLength()));
+        update(account.getCharacterSet());
+        update(account.getLeetType().toRdfString());
+        update(Integer.toString(account.getLeetLevel().getLevel()));
+        update(account.getModifier());
+        update(account.getPrefix());
+        update(account.getSuffix());
+        update(account.isSha256Bug() ? "bug" : "");
+        update(account.getUrlComponents().toString());
+        byte [] out = new byte[digest.getDigestSize()];
+        digest.doFinal(out, 0);
+        return out;
+    }
+
+    private void update(SecureCharArray chars) {
+        updateLength(chars.size());
+        for(int i=0; i<chars.size(); i++) {
+            char c = chars.getCharAt(i);
+            digest.update((byte)(c >>> 8));
+            digest.update((byte)c);
+        }
+    }
+
+    private void update(String str) {
+        updateLength(str.length());
+        for(int i=0; i<str.length(); i++) {
+            char c = str.charAt(i);
+            digest.update((byte)(c >>> 8));
+            digest.update((byte)c);
+        }
+    }
+
+    // So "ab"+"c" differs from "a"+"bc"
+    private void updateLength(int length) {
+        digest.update((byte)(length >>> 24));
+        digest.update((byte)(length >>> 16));
+        digest.update((byte)(length >>> 8));
+        digest.update((byte)length);
+    }
+
+    private void purgeExpired() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while(it.hasNext()) {
+            Map.Entry<Key, Entry> e = it.next();
+            if(e.getValue().expires - now <= 0) {
+                discard(e.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    private static void discard(Entry entry) {
+        Arrays.fill(entry.key.digest, (byte)0);
+        entry.password.release();
+    }
+
+    /**
+     * Erases every cached password. Passwords which are being made at the time
+     * are returned to their callers but not cached.
+     */
+    public synchronized void flush() {
+        flushes++;
+        for(Entry entry : entries.values())
+            discard(entry);
+        entries.clear();
+        if(masterFingerprint!=null) {
+            Arrays.fill(masterFingerprint, (byte)0);
+            masterFingerprint = null;
+        }
+    }
+
+    /**
+     * @return The number of passwords cached, including any which expired but
+     *         haven't been purged yet.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return How many passwords were found in the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return How many passwords had to be made.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -17,15 +17,11 @@
  */
 package org.daveware.passwordmaker;
 
-import java.security.MessageDigest;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-
 import org.daveware.passwordmaker.Account.UrlComponents;
 
 /**
@@ -34,6 +30,10 @@ import org.daveware.passwordmaker.Account.UrlComponents;
  */
 public class PasswordMaker {
 	private static Pattern urlRegex = Pattern.compile("([^:\\/\\/]*:\\/\\/)?([^:\\/]*)([^#]*).*");
+
+    // null unless metrics are enabled, every use is guarded so it costs nothing otherwise
+    private static final PasswordMakerMetrics metrics = PasswordMakerMetrics.get();
+
     /**
      * Maps an array of characters to another character set.
      * 
@@ -135,30 +135,54 @@ public class PasswordMaker {
 
     /**
      * Calculates the strength of a password.
+     * 
+     * Everything is counted in a single pass, characters below 256 are tracked
+     * in a small bitmap and a full one is only made if anything else shows up.
+     * 
      * @return An integer value from 0 to 100.
      */
     public static double calcPasswordStrength(SecureCharArray pw) {
-        ArrayList<Character> uniques = new ArrayList<Character>();
         int pwLength = pw.size();
-        int i, j;
+        int i;
         
         if(pwLength<=2)
             return 0;
         
-        // Find character frequency
+        long [] seen = new long[4];
+        long [] seenHigh = null;
+        int uniques = 0;
+        int digits = 0, symbols = 0, upper = 0, lower = 0;
         for(i=0; i<pwLength; i++) {
-            for(j=0; j<uniques.size(); j++) {
-                if(i==j)
-                    continue;
-                if(pw.getCharAt(i) == uniques.get(j).charValue())
-                    break;
+            char ch = pw.getCharAt(i);
+
+            // Find character frequency
+            long [] bits = seen;
+            if(ch >= 256) {
+                if(seenHigh==null)
+                    seenHigh = new long[1024];
+                bits = seenHigh;
+            }
+            long mask = 1L << (ch & 63);
+            if((bits[(ch >> 6) & (bits.length - 1)] & mask)==0) {
+                bits[(ch >> 6) & (bits.length - 1)] |= mask;
+                uniques++;
             }
-            if(j==uniques.size())
-                uniques.add(pw.getCharAt(i));
+
+            if(Character.isDigit(ch))
+                digits++;
+            if(!Character.isLetterOrDigit(ch) && ch!='_')
+                symbols++;
+            if(Character.isUpperCase(ch))
+                upper++;
+            if(Character.isLowerCase(ch))
+                lower++;
         }
+        Arrays.fill(seen, 0);
+        if(seenHigh!=null)
+            Arrays.fill(seenHigh, 0);
         
-        double r0 = ((double)uniques.size()) / ((double)pwLength);
-        if(uniques.size()==1)
+        double r0 = ((double)uniques) / ((double)pwLength);
+        if(uniques==1)
             r0 = 0;
         
         // length of the password - 1pt per char over 5, up to 15 for 10 pts total
@@ -171,40 +195,18 @@ public class PasswordMaker {
             r1 -= 5;
         
         double quarterLen = Math.round(((double)pwLength) / 4.0);
-        double num = 0;
-        for(i=0; i<pwLength; i++)
-            if(!Character.isDigit(pw.getCharAt(i)))
-                num++;
-        num = pwLength - num;
-        double c = num > quarterLen*2.0 ? quarterLen : Math.abs(quarterLen - num);
-        double r2 = 1.0 - (c / quarterLen);
-        
+
+        // ratio of numbers in the password
+        double r2 = ratioScore(digits, quarterLen);
+
         // ratio of symbols in the password
-        num = 0;
-        for(i=0; i<pwLength; i++)
-            if(Character.isLetterOrDigit(pw.getCharAt(i)) || pw.getCharAt(i)=='_')
-                num++;
-        num = pwLength - num;
-        c = num > quarterLen*2 ? quarterLen : Math.abs(quarterLen - num);
-        double r3 = 1.0 - (c / quarterLen);
+        double r3 = ratioScore(symbols, quarterLen);
 
         // ratio of uppercase in the password
-        num = 0;
-        for(i=0; i<pwLength; i++)
-            if(!Character.isUpperCase(pw.getCharAt(i)))
-                num++;
-        num = pwLength - num;
-        c = num > quarterLen*2 ? quarterLen : Math.abs(quarterLen - num);
-        double r4 = 1.0 - (c / quarterLen);
+        double r4 = ratioScore(upper, quarterLen);
 
         // ratio of lower case in the password
-        num = 0;
-        for(i=0; i<pwLength; i++)
-            if(!Character.isLowerCase(pw.getCharAt(i)))
-                num++;
-        num = pwLength - num;
-        c = num > quarterLen*2 ? quarterLen : Math.abs(quarterLen - num);
-        double r5 = 1.0 - (c / quarterLen);
+        double r5 = ratioScore(lower, quarterLen);
 
         double pwStrength = (((r0+r2+r3+r4+r5) / 5.0f) * 100.0f) + r1;
         
@@ -215,6 +217,16 @@ public class PasswordMaker {
         
         return pwStrength;
     }
+
+    /**
+     * Scores how close a count is to a quarter of the password, 1 at exactly a
+     * quarter down to 0 at none or at half and above.
+     */
+    private static double ratioScore(int count, double quarterLen) {
+        double num = count;
+        double c = num > quarterLen*2.0 ? quarterLen : Math.abs(quarterLen - num);
+        return 1.0 - (c / quarterLen);
+    }
     
     
 	public final String getModifiedInputText(final String inputText, final Account account) {
@@ -270,6 +282,7 @@ public class PasswordMaker {
     /**
      * Generates a hash of the master password with settings from the account.
      * @param masterPassword The password to use as a key for the various algorithms.
+     *                       It is not modified, even by leet before hashing.
      * @param account The account with the specific settings for the hash.
      * @param inputText The text to use as the input into the password maker algorithm
      * @return A SecureCharArray with the hashed data.
@@ -278,73 +291,569 @@ public class PasswordMaker {
     public SecureCharArray makePassword(SecureCharArray masterPassword, Account account, final String inputText)
             throws Exception
     {
-        LeetLevel leetLevel = account.getLeetLevel();
-        //int count = 0;
+        LeetMasterCache masters = new LeetMasterCache(masterPassword);
+        try {
+            return makePassword(masters, account, inputText);
+        } finally {
+            masters.erase();
+        }
+    }
+
+    /**
+     * makePassword() with the (converted) master passwords of a session.
+     */
+    SecureCharArray makePassword(LeetMasterCache masters, Account account, final String inputText)
+            throws Exception
+    {
         int length = account.getLength();
         SecureCharArray output = null;
+        long start = 0, mark = 0;
+        boolean succeeded = false;
+        FlightRecorderEvents.PasswordGeneration event = new FlightRecorderEvents.PasswordGeneration();
+        event.begin();
+
+        try {
+            if(metrics!=null)
+                start = System.nanoTime();
+
+            output = generate(masters, account, inputText, length);
+
+            if(metrics!=null)
+                mark = System.nanoTime();
+            applyAffixes(output, length, account.getPrefix(), account.getSuffix());
+
+            if(metrics!=null) {
+                metrics.lap(PasswordMakerMetrics.Phase.AFFIXES, mark);
+                metrics.lap(PasswordMakerMetrics.Phase.TOTAL, start);
+                metrics.passwordGenerated(account.getAlgorithm(), account.isHmac());
+            }
+            succeeded = true;
+        }
+        catch(Exception e) {
+            if(output!=null)
+                output.erase();
+            throw e;
+        }
+        finally {
+            commitEvent(event, account, length, succeeded);
+        }
+        
+        return output;
+    }
+
+    /**
+     * Ends the flight recorder event of a password and commits it, if it's enabled.
+     */
+    private static void commitEvent(FlightRecorderEvents.PasswordGeneration event, Account account,
+            int length, boolean succeeded)
+    {
+        event.end();
+        if(event.shouldCommit()) {
+            AlgorithmType algorithm = account.getAlgorithm();
+            event.algorithm = account.isHmac() ? algorithm.getHmacName() : algorithm.getName();
+            event.length = length;
+            event.charsetSize = account.getCharacterSet().length();
+            event.leetType = account.getLeetType().toString();
+            event.leetLevel = account.getLeetLevel().getLevel();
+            event.trim = account.isTrim();
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+    
+    /**
+     * Everything makePassword() does apart from the prefix, suffix and cutting
+     * the password to length. The result is at least length characters long and
+     * the result for a shorter length is always the start of the result for a
+     * longer one.
+     */
+    private SecureCharArray generate(LeetMasterCache masters, Account account, final String inputText, int length)
+            throws Exception
+    {
+        LeetLevel leetLevel = account.getLeetLevel();
+        SecureCharArray output = null;
         SecureCharArray data = null;
+        HashInput input = null;
+        long mark = 0;
 
         try {
+            if(metrics!=null)
+                mark = System.nanoTime();
+
             if(account.getCharacterSet().length() < 2)
                 throw new Exception("Account contains a character set that is too short");
 
-            data = new SecureCharArray(getModifiedInputText(inputText, account) + account.getUsername() + account.getModifier() );
+            String modifiedInputText = getModifiedInputText(inputText, account);
+            if(metrics!=null)
+                mark = metrics.lap(PasswordMakerMetrics.Phase.INPUT_MODIFICATION, mark);
 
             // Use leet before hashing
             if(account.getLeetType()==LeetType.BEFORE || account.getLeetType()==LeetType.BOTH) {
-                LeetEncoder.leetConvert(leetLevel, masterPassword);
+                data = new SecureCharArray();
+                data.append(modifiedInputText);
+                data.append(account.getUsername());
+                data.append(account.getModifier());
                 LeetEncoder.leetConvert(leetLevel, data);
+                input = new HashInput(masters.get(leetLevel), data.slice(0, data.size()));
+                if(metrics!=null)
+                    metrics.lap(PasswordMakerMetrics.Phase.LEET_BEFORE, mark);
+            }
+            else {
+                input = new HashInput(masters.getMasterPassword(), modifiedInputText, account.getUsername(), account.getModifier());
             }
 
-            // Perform the actual hashing
-            output = hashTheData(masterPassword, data, account);
+            // Perform the actual hashing (timed per round by runAlgorithm)
+            output = hashTheData(input, account, length);
 
             // Use leet after hashing
             if(account.getLeetType()==LeetType.AFTER || account.getLeetType()==LeetType.BOTH) {
+                if(metrics!=null)
+                    mark = System.nanoTime();
                 LeetEncoder.leetConvert(leetLevel, output);
+                if(metrics!=null)
+                    metrics.lap(PasswordMakerMetrics.Phase.LEET_AFTER, mark);
             }
+        }
+        catch(Exception e) {
+            if(output!=null)
+                output.erase();
+            throw e;
+        }
+        finally {
+            // not really needed... but here for completeness
+            if(data!=null)
+                data.erase();
+            if(input!=null)
+                input.erase();
+        }
+        
+        return output;
+    }
+    
+    /**
+     * Generates several variants of the password of one account, each with its own
+     * length, prefix and suffix but otherwise the account's settings. The hashing
+     * is done only once, for the longest variant, as the shorter ones are cut from
+     * the same characters.
+     * 
+     * @param masterPassword The master password, it is not modified.
+     * @param account The account with the specific settings for the hash.
+     * @param inputText The text to use as the input into the password maker algorithm.
+     * @param variants The variants to generate.
+     * @return The passwords, in the same order as the variants. Each is the same as
+     *         makePassword() gives for the account with that length, prefix and suffix.
+     * @throws Exception if something bad happened, no passwords are returned then.
+     */
+    public SecureCharArray [] makePasswordVariants(SecureCharArray masterPassword, Account account,
+            final String inputText, PasswordVariant [] variants)
+            throws Exception
+    {
+        int maxLength = 0;
+        for(PasswordVariant variant : variants)
+            maxLength = Math.max(maxLength, variant.getLength());
 
-            // Apply the prefix
-            if(account.getPrefix().length() > 0) {
-                SecureCharArray prefix = new SecureCharArray(account.getPrefix());
-                output.prepend(prefix);
-                prefix.erase();
+        LeetMasterCache masters = new LeetMasterCache(masterPassword);
+        SecureCharArray full = null;
+        SecureCharArray [] outputs = new SecureCharArray[variants.length];
+        try {
+            full = generate(masters, account, inputText, maxLength);
+            for(int i=0; i<variants.length; i++) {
+                outputs[i] = new SecureCharArray(full);
+                applyAffixes(outputs[i], variants[i].getLength(), variants[i].getPrefix(), variants[i].getSuffix());
+                if(metrics!=null)
+                    metrics.passwordGenerated(account.getAlgorithm(), account.isHmac());
             }
+        } catch(Exception e) {
+            for(SecureCharArray output : outputs) {
+                if(output!=null)
+                    output.erase();
+            }
+            throw e;
+        } finally {
+            masters.erase();
+            if(full!=null)
+                full.erase();
+        }
 
-            // Handle the suffix
-            output.resize(length, true);
-            if(account.getSuffix().length() > 0) {
-                SecureCharArray suffix = new SecureCharArray(account.getSuffix());
+        return outputs;
+    }
+    
+    /**
+     * Generates the password of one account with each of a list of modifiers in
+     * place of its own. The key and the data up to the modifier are hashed only
+     * once per round (see PrefixHasher), each modifier then only costs the hashing
+     * of its last block or two.
+     * 
+     * @param masterPassword The master password, it is not modified.
+     * @param account The account with the specific settings for the hash.
+     * @param inputText The text to use as the input into the password maker algorithm.
+     * @param modifiers The modifiers to use.
+     * @param receiver Gets each password, in the order of the modifiers, as soon as
+     *                 it's made. The password is erased once the receiver returns.
+     * @throws Exception if something bad happened, or the receiver threw it.
+     */
+    public void sweepModifiers(SecureCharArray masterPassword, Account account, final String inputText,
+            String [] modifiers, ModifierSweep.Receiver receiver)
+            throws Exception
+    {
+        LeetMasterCache masters = new LeetMasterCache(masterPassword);
+        try {
+            sweepModifiers(masters, account, inputText, modifiers, receiver);
+        } finally {
+            masters.erase();
+        }
+    }
 
-                // If the suffix is larger than the entire password (not smart), then
-                // just replace the output with a section of the suffix that fits
-                if(length < suffix.size()) {
-                    output.replace(suffix);
-                    output.resize(length, true);
-                }
-                // Otherwise insert the prefix where it fits
-                else {
-                    output.resize(length - suffix.size(), true);
-                    output.append(suffix);
+    /**
+     * sweepModifiers() with the (converted) master passwords of a session.
+     */
+    void sweepModifiers(LeetMasterCache masters, Account account, final String inputText,
+            String [] modifiers, ModifierSweep.Receiver receiver)
+            throws Exception
+    {
+        if(account.getCharacterSet().length() < 2)
+            throw new Exception("Account contains a character set that is too short");
+
+        LeetLevel leetLevel = account.getLeetLevel();
+        boolean leetBefore = account.getLeetType()==LeetType.BEFORE || account.getLeetType()==LeetType.BOTH;
+        boolean leetAfter = account.getLeetType()==LeetType.AFTER || account.getLeetType()==LeetType.BOTH;
+        int length = account.getLength();
+
+        // Leet converts one character at a time, so the prefix and each modifier
+        // can be converted on their own
+        SecureCharArray prefix = new SecureCharArray();
+        prefix.append(getModifiedInputText(inputText, account));
+        prefix.append(account.getUsername());
+        if(leetBefore)
+            LeetEncoder.leetConvert(leetLevel, prefix);
+        PrefixHasher hasher = new PrefixHasher(account.getAlgorithm(), account.isHmac(), masters.get(account), prefix);
+        prefix.erase();
+
+        byte [] digest = new byte[hasher.getDigestSize()];
+        SecureCharArray modifier = new SecureCharArray();
+        byte [] modifierBytes = null;
+        SecureCharArray output = null;
+        long mark = 0;
+
+        try {
+            for(String text : modifiers) {
+                modifier.resize(0, false);
+                modifier.append(text);
+                if(leetBefore)
+                    LeetEncoder.leetConvert(leetLevel, modifier);
+                modifierBytes = PrefixHasher.toBytes(modifier);
+
+                output = new SecureCharArray();
+                output.ensureCapacity(length + 32);
+                for(int count=0; output.size() < length; count++) {
+                    if(metrics!=null)
+                        mark = System.nanoTime();
+                    hasher.hash(count, modifierBytes, modifierBytes.length, digest);
+                    if(metrics!=null)
+                        mark = metrics.lap(PasswordMakerMetrics.Phase.HASH_ROUND, mark);
+                    appendRound(digest, account, output, mark);
                 }
+                Arrays.fill(modifierBytes, (byte)0);
+
+                if(leetAfter)
+                    LeetEncoder.leetConvert(leetLevel, output);
+                applyAffixes(output, account);
+                if(metrics!=null)
+                    metrics.passwordGenerated(account.getAlgorithm(), account.isHmac());
+
+                receiver.passwordGenerated(account, text, output);
+                output.erase();
+                output = null;
+            }
+        } finally {
+            hasher.erase();
+            modifier.erase();
+            Arrays.fill(digest, (byte)0);
+            if(modifierBytes!=null)
+                Arrays.fill(modifierBytes, (byte)0);
+            if(output!=null)
+                output.erase();
+        }
+    }
+    
+    /**
+     * Adds the prefix and suffix of an account and cuts the password to length.
+     */
+    private void applyAffixes(SecureCharArray output, Account account)
+            throws Exception
+    {
+        applyAffixes(output, account.getLength(), account.getPrefix(), account.getSuffix());
+    }
+
+    /**
+     * Adds a prefix and suffix and cuts the password to length.
+     */
+    private void applyAffixes(SecureCharArray output, int length, String prefix, String suffix)
+            throws Exception
+    {
+        // Apply the prefix
+        if(prefix.length() > 0)
+            output.prepend(prefix);
+
+        // Handle the suffix
+        output.resize(length, true);
+        if(suffix.length() > 0) {
+            // If the suffix is larger than the entire password (not smart), then
+            // just replace the output with a section of the suffix that fits
+            if(length < suffix.length()) {
+                output.resize(0, false);
+                output.append(suffix.subSequence(0, length));
+            }
+            // Otherwise insert the prefix where it fits
+            else {
+                output.resize(length - suffix.length(), true);
+                output.append(suffix);
+            }
+        }
+    }
+
+    /**
+     * The same as makePassword(SecureCharArray, Account, String) with everything
+     * kept off the heap: the master password, the text being hashed, the key of
+     * each round and the password itself. These are hashed by the PURE engines
+     * whatever provider is selected (see HashEngines), which copy them a block at
+     * a time into a buffer that is cleared after each hash. Apart from that only
+     * the few bytes of each round's hash and their rstr2any() conversion are on
+     * the heap, and those are erased as soon as they've been appended.
+     * 
+     * @param masterPassword The password to use as a key for the various algorithms.
+     *                       It is not modified, even by leet before hashing.
+     * @param account The account with the specific settings for the hash.
+     * @param inputText The text to use as the input into the password maker algorithm
+     * @return The password, release() it when done.
+     * @throws Exception if something bad happened.
+     */
+    public DirectSecureCharArray makePassword(DirectSecureCharArray masterPassword, Account account, final String inputText)
+            throws Exception
+    {
+        LeetLevel leetLevel = account.getLeetLevel();
+        DirectSecureCharArray output = null;
+        DirectSecureCharArray data = null;
+        DirectSecureCharArray leetMaster = null;
+        long start = 0, mark = 0;
+        boolean succeeded = false;
+        FlightRecorderEvents.PasswordGeneration event = new FlightRecorderEvents.PasswordGeneration();
+        event.begin();
+
+        try {
+            if(metrics!=null)
+                start = mark = System.nanoTime();
+
+            if(account.getCharacterSet().length() < 2)
+                throw new Exception("Account contains a character set that is too short");
+
+            data = new DirectSecureCharArray();
+            data.append(getModifiedInputText(inputText, account));
+            if(metrics!=null)
+                mark = metrics.lap(PasswordMakerMetrics.Phase.INPUT_MODIFICATION, mark);
+            data.append(account.getUsername());
+            data.append(account.getModifier());
 
-                suffix.erase();
+            // Use leet before hashing
+            if(account.getLeetType()==LeetType.BEFORE || account.getLeetType()==LeetType.BOTH) {
+                leetMaster = new DirectSecureCharArray(masterPassword);
+                LeetEncoder.leetConvert(leetLevel, leetMaster);
+                LeetEncoder.leetConvert(leetLevel, data);
+                if(metrics!=null)
+                    metrics.lap(PasswordMakerMetrics.Phase.LEET_BEFORE, mark);
+            }
+
+            // Perform the actual hashing (timed per round by hashTheData)
+            output = hashTheData(leetMaster!=null ? leetMaster : masterPassword, data, account);
+
+            // Use leet after hashing
+            if(metrics!=null)
+                mark = System.nanoTime();
+            if(account.getLeetType()==LeetType.AFTER || account.getLeetType()==LeetType.BOTH) {
+                LeetEncoder.leetConvert(leetLevel, output);
+                if(metrics!=null)
+                    mark = metrics.lap(PasswordMakerMetrics.Phase.LEET_AFTER, mark);
             }
+
+            applyAffixes(output, account);
+
+            if(metrics!=null) {
+                metrics.lap(PasswordMakerMetrics.Phase.AFFIXES, mark);
+                metrics.lap(PasswordMakerMetrics.Phase.TOTAL, start);
+                metrics.passwordGenerated(account.getAlgorithm(), account.isHmac());
+            }
+            succeeded = true;
         }
         catch(Exception e) {
             if(output!=null)
-                output.erase();
+                output.release();
             throw e;
         }
         finally {
-            // not really needed... but here for completeness
             if(data!=null)
-                data.erase();
+                data.release();
+            if(leetMaster!=null)
+                leetMaster.release();
+            commitEvent(event, account, account.getLength(), succeeded);
         }
-        
+
         return output;
     }
-    
+
+    /**
+     * applyAffixes() for an off-heap password.
+     */
+    private void applyAffixes(DirectSecureCharArray output, Account account)
+            throws Exception
+    {
+        int length = account.getLength();
+
+        if(account.getPrefix().length() > 0) {
+            DirectSecureCharArray prefix = new DirectSecureCharArray(account.getPrefix());
+            output.prepend(prefix);
+            prefix.release();
+        }
+
+        output.resize(length, true);
+        if(account.getSuffix().length() > 0) {
+            DirectSecureCharArray suffix = new DirectSecureCharArray(account.getSuffix());
+            if(length < suffix.size()) {
+                output.replace(suffix);
+                output.resize(length, true);
+            }
+            else {
+                output.resize(length - suffix.size(), true);
+                output.append(suffix);
+            }
+            suffix.release();
+        }
+    }
+
+    /**
+     * hashTheData() for off-heap arrays.
+     */
+    private DirectSecureCharArray hashTheData(DirectSecureCharArray masterPassword, DirectSecureCharArray data, Account account)
+            throws Exception
+    {
+        DirectSecureCharArray output = new DirectSecureCharArray();
+        DirectSecureByteArray key = new DirectSecureByteArray(masterPassword);
+        DirectSecureByteArray dataBytes = new DirectSecureByteArray(data);
+        byte [] digest = new byte[HashEngines.getDigestSize(account.getAlgorithm())];
+        long mark = 0;
+
+        try {
+            for(int count=0; output.size() < account.getLength(); count++) {
+                if(metrics!=null)
+                    mark = System.nanoTime();
+                if(count > 0) {
+                    // add ye bit'o chaos
+                    key.replace(masterPassword);
+                    key.append((byte)'\n');
+                    appendDigits(key, count);
+                }
+
+                HashEngines.hash(account.getAlgorithm(), account.isHmac(),
+                        key.asReadOnlyBuffer(), dataBytes.asReadOnlyBuffer(), digest);
+                if(metrics!=null)
+                    mark = metrics.lap(PasswordMakerMetrics.Phase.HASH_ROUND, mark);
+                appendRound(digest, account, output, mark);
+            }
+        } catch(Exception e) {
+            output.release();
+            throw e;
+        } finally {
+            key.release();
+            dataBytes.release();
+            Arrays.fill(digest, (byte)0);
+        }
+
+        return output;
+    }
+
+    /**
+     * Appends the decimal digits of a round count, as Integer.toString() would
+     * give them but without the String.
+     */
+    private static void appendDigits(DirectSecureByteArray key, int count)
+    {
+        int div = 1;
+        while(div <= count / 10)
+            div *= 10;
+        for(; div > 0; div /= 10)
+            key.append((byte)('0' + count / div % 10));
+    }
+
+    /**
+     * Generates passwords for many accounts with the same master password.
+     *
+     * The results are identical to calling makePassword() for each account. The
+     * difference is that the hash rounds of all the accounts run in lockstep,
+     * accounts which share an algorithm are hashed together by MultiLaneHasher,
+     * and the master password is converted to leet once per level rather than
+     * once per account.
+     *
+     * @param masterPassword The master password, it is not modified.
+     * @param accounts The accounts.
+     * @param inputTexts The input text for each account, or null to use the url of each account.
+     * @return The passwords, in the same order as the accounts.
+     * @throws Exception if something bad happened, no passwords are returned then.
+     */
+    public SecureCharArray [] makePasswords(SecureCharArray masterPassword, Account [] accounts, String [] inputTexts)
+            throws Exception
+    {
+        int n = accounts.length;
+        // Shared by every account, the cache converts once per leet level
+        LeetMasterCache leetMasters = new LeetMasterCache(masterPassword);
+        SecureCharArray [] masters = new SecureCharArray[n];
+        SecureCharArray [] outputs = new SecureCharArray[n];
+        SecureByteArray [] dataBytes = new SecureByteArray[n];
+
+        try {
+            for(int i=0; i<n; i++) {
+                Account account = accounts[i];
+                if(account.getCharacterSet().length() < 2)
+                    throw new Exception("Account contains a character set that is too short");
+
+                String inputText = inputTexts!=null ? inputTexts[i] : account.getUrl();
+                SecureCharArray data = new SecureCharArray();
+                data.append(getModifiedInputText(inputText, account));
+                data.append(account.getUsername());
+                data.append(account.getModifier());
+                masters[i] = leetMasters.get(account);
+                if(account.getLeetType()==LeetType.BEFORE || account.getLeetType()==LeetType.BOTH)
+                    LeetEncoder.leetConvert(account.getLeetLevel(), data);
+                dataBytes[i] = new SecureByteArray(data);
+                data.erase();
+                outputs[i] = new SecureCharArray();
+            }
+
+            hashTheData(masters, dataBytes, accounts, outputs);
+
+            for(int i=0; i<n; i++) {
+                Account account = accounts[i];
+                if(account.getLeetType()==LeetType.AFTER || account.getLeetType()==LeetType.BOTH)
+                    LeetEncoder.leetConvert(account.getLeetLevel(), outputs[i]);
+                applyAffixes(outputs[i], account);
+                if(metrics!=null)
+                    metrics.passwordGenerated(account.getAlgorithm(), account.isHmac());
+            }
+        } catch(Exception e) {
+            for(SecureCharArray output : outputs) {
+                if(output!=null)
+                    output.erase();
+            }
+            throw e;
+        } finally {
+            leetMasters.erase();
+            for(int i=0; i<n; i++) {
+                if(dataBytes[i]!=null)
+                    dataBytes[i].erase();
+            }
+        }
+
+        return outputs;
+    }
+
     /**
      * Generates a hash of the master password with settings from the account.
      * @param masterPassword The password to use as a key for the various algorithms.
@@ -359,111 +868,195 @@ public class PasswordMaker {
     }
     /**
      * Intermediate step of generating a password. Performs constant hashing until
-     * the resulting hash is long enough.
+     * the resulting hash is long enough. HashEngines picks which implementation
+     * of the algorithm is used, they all produce identical results.
      * 
-     * @param masterPassword You should know by now.
-     * @param data Not much has changed.
+     * @param input You should know by now. Not much has changed.
      * @param account A donut?
+     * @param length How many characters are needed (at least).
      * @return A suitable hash.
      * @throws Exception if we ran out of donuts.
      */
-    private SecureCharArray hashTheData(SecureCharArray masterPassword, SecureCharArray data, Account account)
+    private SecureCharArray hashTheData(HashInput input, Account account, int length)
             throws Exception
     {
         SecureCharArray output                  = new SecureCharArray();
-        SecureCharArray secureIteration         = new SecureCharArray();
-        SecureCharArray intermediateOutput      = null;
-        int count   = 0;
-        int length  = account.getLength();
+        byte [] digest                          = new byte[HashEngines.getDigestSize(account.getAlgorithm())];
+        byte [] buffer                          = input.getBuffer();
+        long mark   = 0;
+        
+        // The rounds usually need a few more characters than asked for, this
+        // just saves growing the output in tiny steps
+        output.ensureCapacity(length + 32);
         
         try {
-            while(output.size() < length) {
-                if(count==0) {
-                    intermediateOutput = runAlgorithm(masterPassword, data, account);
-                }
-                else {
-                    // add ye bit'o chaos
-                    secureIteration.replace(masterPassword);
-                    secureIteration.append(new SecureCharArray("\n"));
-                    secureIteration.append(new SecureCharArray(Integer.toString(count)));
-                    
-                    intermediateOutput = runAlgorithm(secureIteration, data, account);
+            for(int count=0; output.size() < length; count++) {
+                if(metrics!=null)
+                    mark = System.nanoTime();
 
-                    secureIteration.erase();
-                }
-                output.append(intermediateOutput);
-                intermediateOutput.erase();
+                // add ye bit'o chaos (a "\n" and the count after the master
+                // password, from the second round on)
+                input.setRound(count);
 
-                count++;
+                // Without HMAC this hashes the master password followed by the data
+                HashEngines.hash(account.getAlgorithm(), account.isHmac(),
+                        buffer, input.getKeyOffset(), input.getKeyLength(),
+                        buffer, 0, input.getDataLength(), digest);
+                if(metrics!=null)
+                    mark = metrics.lap(PasswordMakerMetrics.Phase.HASH_ROUND, mark);
+                appendRound(digest, account, output, mark);
             }
         } catch(Exception e) {
-            if(output!=null)
-                output.erase();
+            output.erase();
             throw e;
         } finally {
-            if(intermediateOutput!=null)
-                intermediateOutput.erase();
-            if(secureIteration!=null)
-                secureIteration.erase();
+            Arrays.fill(digest, (byte)0);
         }
         
         return output;
     }
-    
+
     /**
-     * This performs the actual hashing. It obtains an instance of the hashing algorithm
-     * and feeds in the necessary data.
+     * Ends a hash round: converts the digest with rstr2any(), appends it to the
+     * output and erases the digest and everything in between. Every way of
+     * generating a password finishes its rounds with this.
      * 
-     * @param masterPassword The master password to use as a key.
-     * @param data The data to be hashed.
-     * @param account The account with the hash settings to use.
-     * @return A SecureCharArray of the hash.
-     * @throws Exception if something bad happened.
+     * @param digest The hash of the round, it is erased.
+     * @param account The account with the character set to convert to.
+     * @param output The password so far.
+     * @param mark When the conversion started, for the metrics.
+     * @return When it finished.
+     * @throws Exception if rstr2any() fails.
      */
-    private SecureCharArray runAlgorithm(SecureCharArray masterPassword, SecureCharArray data, Account account)
+    private long appendRound(byte [] digest, Account account, SecureCharArray output, long mark)
             throws Exception
     {
-        SecureCharArray output = null;
-        SecureCharArray digestChars = null;
-        SecureByteArray masterPasswordBytes = null;
-        SecureByteArray dataBytes = null;
+        SecureCharArray chars = convertRound(digest, account);
+        try {
+            output.append(chars);
+        } finally {
+            chars.erase();
+        }
+        return metrics!=null ? metrics.lap(PasswordMakerMetrics.Phase.RSTR2ANY, mark) : mark;
+    }
 
+    /**
+     * appendRound() for an off-heap password.
+     */
+    private long appendRound(byte [] digest, Account account, DirectSecureCharArray output, long mark)
+            throws Exception
+    {
+        SecureCharArray chars = convertRound(digest, account);
         try {
-            masterPasswordBytes = new SecureByteArray(masterPassword.getData());
-            dataBytes = new SecureByteArray(data.getData());
+            output.append(chars);
+        } finally {
+            chars.erase();
+        }
+        return metrics!=null ? metrics.lap(PasswordMakerMetrics.Phase.RSTR2ANY, mark) : mark;
+    }
 
-            if (account.isHmac() == false) {
-                dataBytes.prepend(masterPasswordBytes);
+    private SecureCharArray convertRound(byte [] digest, Account account)
+            throws Exception
+    {
+        SecureCharArray digestChars = new SecureCharArray(digest);
+        Arrays.fill(digest, (byte)0);
+        try {
+            return rstr2any(digestChars.getData(), account.getCharacterSet(), account.isTrim());
+        } finally {
+            digestChars.erase();
+        }
+    }
+    
+    /**
+     * The batch version of hashTheData(). Every round hashes, for each account
+     * whose output is still too short, the same key and data the single version
+     * would; the rounds of accounts with the same algorithm are computed together.
+     */
+    private void hashTheData(SecureCharArray [] masterPasswords, SecureByteArray [] data, Account [] accounts, SecureCharArray [] outputs)
+            throws Exception
+    {
+        int n = accounts.length;
+        int [] pending = new int[n];
+
+        for(int count=0; ; count++) {
+            int numPending = 0;
+            for(int i=0; i<n; i++) {
+                if(outputs[i].size() < accounts[i].getLength())
+                    pending[numPending++] = i;
             }
+            if(numPending==0)
+                break;
+
+            for(AlgorithmType algorithm : AlgorithmType.getTypes()) {
+                for(int hmac=0; hmac<2; hmac++) {
+                    int [] group = new int[numPending];
+                    int groupSize = 0;
+                    for(int p=0; p<numPending; p++) {
+                        Account account = accounts[pending[p]];
+                        if(account.getAlgorithm()==algorithm && account.isHmac()==(hmac==1))
+                            group[groupSize++] = pending[p];
+                    }
+                    if(groupSize > 0)
+                        runAlgorithm(masterPasswords, data, accounts, outputs, group, groupSize, count);
+                }
+            }
+        }
+    }
 
-            if (account.isHmac()) {
-                Mac mac;
-                String algoName = "HMAC" + account.getAlgorithm().getName();
-                mac = Mac.getInstance(algoName, "BC");
-                mac.init(new SecretKeySpec(masterPasswordBytes.getData(), algoName));
-                mac.reset();
-                mac.update(dataBytes.getData());
-                digestChars = new SecureCharArray(mac.doFinal());
-            } else {
-                MessageDigest md = MessageDigest.getInstance(account.getAlgorithm().getName(), "BC");
-                digestChars = new SecureCharArray(md.digest(dataBytes.getData()));
+    /**
+     * Runs one round for a group of accounts with the same algorithm and appends
+     * the result to their outputs.
+     */
+    private void runAlgorithm(SecureCharArray [] masterPasswords, SecureByteArray [] data, Account [] accounts,
+            SecureCharArray [] outputs, int [] group, int groupSize, int count) throws Exception
+    {
+        Account first = accounts[group[0]];
+        SecureByteArray [] keys = new SecureByteArray[groupSize];
+        SecureByteArray [] digests = new SecureByteArray[groupSize];
+        byte [][] keyData = new byte[groupSize][];
+        int [] keyLens = new int[groupSize];
+        byte [][] dataData = new byte[groupSize][];
+        int [] dataLens = new int[groupSize];
+        byte [][] digestData = new byte[groupSize][];
+        long mark = 0;
+
+        try {
+            for(int j=0; j<groupSize; j++) {
+                int i = group[j];
+                if(count==0) {
+                    keys[j] = new SecureByteArray(masterPasswords[i]);
+                }
+                else {
+                    // add ye bit'o chaos
+                    SecureCharArray secureIteration = new SecureCharArray(masterPasswords[i]);
+                    secureIteration.append("\n");
+                    secureIteration.append(Integer.toString(count));
+                    keys[j] = new SecureByteArray(secureIteration);
+                    secureIteration.erase();
+                }
+                digests[j] = new SecureByteArray(HashEngines.getDigestSize(first.getAlgorithm()));
+                keyData[j] = keys[j].getData();
+                keyLens[j] = keys[j].size();
+                dataData[j] = data[i].getData();
+                dataLens[j] = data[i].size();
+                digestData[j] = digests[j].getData();
             }
 
+            if(metrics!=null)
+                mark = System.nanoTime();
+            MultiLaneHasher.hash(first.getAlgorithm(), first.isHmac(), keyData, keyLens, dataData, dataLens, groupSize, digestData);
+            if(metrics!=null)
+                mark = metrics.lap(PasswordMakerMetrics.Phase.HASH_ROUND, mark);
 
-            output = rstr2any(digestChars.getData(), account.getCharacterSet(), account.isTrim());
-        } catch(Exception e) {
-            if(output!=null)
-                output.erase();
-            throw e;
+            for(int j=0; j<groupSize; j++)
+                mark = appendRound(digestData[j], accounts[group[j]], outputs[group[j]], mark);
         } finally {
-            if(masterPasswordBytes!=null)
-                masterPasswordBytes.erase();
-            if(dataBytes!=null)
-                dataBytes.erase();
-            if(digestChars!=null)
-                digestChars.erase();
+            for(int j=0; j<groupSize; j++) {
+                if(keys[j]!=null)
+                    keys[j].erase();
+                if(digests[j]!=null)
+                    digests[j].erase();
+            }
         }
-        
-        return output;
     }
 }
@@ -0,0 +1,164 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+
+/**
+ * Optional timing of the phases of PasswordMaker.makePassword().
+ *
+ * Metrics are off unless the JVM is started with -Dpwmje.metrics=true (the
+ * --metrics command line option does that). When off, get() returns null and
+ * PasswordMaker keeps that in a static final field, so every timing call is
+ * behind a constant null check the JIT removes.
+ *
+ * When on, the metrics are registered with the platform MBeanServer as
+ * "org.daveware.passwordmaker:type=PasswordMakerMetrics" and dump() gives a
+ * plain text report.
+ *
+ * @author Dave Marotti
+ */
+public class PasswordMakerMetrics implements PasswordMakerMetricsMXBean {
+    public static final String PROPERTY = "pwmje.metrics";
+    public static final String OBJECT_NAME = "org.daveware.passwordmaker:type=PasswordMakerMetrics";
+
+    /**
+     * The timed parts of makePassword(). HASH_ROUND is recorded once for every
+     * round of hashing, a long password needs several.
+     */
+    public enum Phase {
+        INPUT_MODIFICATION, LEET_BEFORE, HASH_ROUND, RSTR2ANY, LEET_AFTER, AFFIXES, TOTAL
+    }
+
+    private static final PasswordMakerMetrics instance = create();
+
+    private final LatencyHistogram [] histograms = new LatencyHistogram[Phase.values().length];
+    // Indexed by algorithm type * 2 + (hmac ? 1 : 0)
+    private final AtomicLongArray algorithmCounts = new AtomicLongArray(16);
+
+    public PasswordMakerMetrics() {
+        for(int i=0; i<histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+    }
+
+    private static PasswordMakerMetrics create() {
+        if(Boolean.getBoolean(PROPERTY)==false)
+            return null;
+
+        PasswordMakerMetrics metrics = new PasswordMakerMetrics();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+        } catch(Exception e) {
+            Logger.getLogger(PasswordMakerMetrics.class.getName()).warning("Unable to register metrics with JMX: " + e.getMessage());
+        }
+        return metrics;
+    }
+
+    /**
+     * @return The metrics, or null if they are disabled.
+     */
+    public static PasswordMakerMetrics get() {
+        return instance;
+    }
+
+    /**
+     * Records the time since a mark.
+     * @param phase The phase which just ended.
+     * @param mark The System.nanoTime() at which it started.
+     * @return The current System.nanoTime(), to be used as the next mark.
+     */
+    public long lap(Phase phase, long mark) {
+        long now = System.nanoTime();
+        histograms[phase.ordinal()].record(now - mark);
+        return now;
+    }
+
+    /**
+     * Counts one generated password.
+     */
+    public void passwordGenerated(AlgorithmType algorithm, boolean hmac) {
+        algorithmCounts.incrementAndGet((algorithm.getType() * 2 + (hmac ? 1 : 0)) & 15);
+    }
+
+    public LatencyHistogram getHistogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    public long getPasswordCount() {
+        long total = 0;
+        for(int i=0; i<algorithmCounts.length(); i++)
+            total += algorithmCounts.get(i);
+        return total;
+    }
+
+    public Map<String, Long> getPasswordCountByAlgorithm() {
+        LinkedHashMap<String, Long> map = new LinkedHashMap<String, Long>();
+        for(AlgorithmType type : AlgorithmType.getTypes()) {
+            map.put(type.getName(), algorithmCounts.get(type.getType() * 2));
+            map.put(type.getHmacName(), algorithmCounts.get(type.getType() * 2 + 1));
+        }
+        return map;
+    }
+
+    public Map<String, Long> getMeanNanosByPhase() {
+        LinkedHashMap<String, Long> map = new LinkedHashMap<String, Long>();
+        for(Phase phase : Phase.values())
+            map.put(phase.name(), getHistogram(phase).getMeanNanos());
+        return map;
+    }
+
+    public Map<String, Long> getP99NanosByPhase() {
+        LinkedHashMap<String, Long> map = new LinkedHashMap<String, Long>();
+        for(Phase phase : Phase.values())
+            map.put(phase.name(), getHistogram(phase).getPercentileNanos(99));
+        return map;
+    }
+
+    public Map<String, Long> getMaxNanosByPhase() {
+        LinkedHashMap<String, Long> map = new LinkedHashMap<String, Long>();
+        for(Phase phase : Phase.values())
+            map.put(phase.name(), getHistogram(phase).getMaxNanos());
+        return map;
+    }
+
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Passwords generated: ").append(getPasswordCount()).append('\n');
+        for(Map.Entry<String, Long> entry : getPasswordCountByAlgorithm().entrySet()) {
+            if(entry.getValue()>0)
+                sb.append(String.format("  %-16s %d%n", entry.getKey(), entry.getValue()));
+        }
+        sb.append("Phase timings:\n");
+        for(Phase phase : Phase.values())
+            sb.append(String.format("  %-20s %s%n", phase.name(), getHistogram(phase)));
+        return sb.toString();
+    }
+
+    public void reset() {
+        for(LatencyHistogram histogram : histograms)
+            histogram.reset();
+        for(int i=0; i<algorithmCounts.length(); i++)
+            algorithmCounts.set(i, 0);
+    }
+}
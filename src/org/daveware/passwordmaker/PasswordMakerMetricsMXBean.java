@@ -0,0 +1,35 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.Map;
+
+/**
+ * The JMX view of PasswordMakerMetrics. Durations are in nanoseconds.
+ *
+ * @author Dave Marotti
+ */
+public interface PasswordMakerMetricsMXBean {
+    public long getPasswordCount();
+    public Map<String, Long> getPasswordCountByAlgorithm();
+    public Map<String, Long> getMeanNanosByPhase();
+    public Map<String, Long> getP99NanosByPhase();
+    public Map<String, Long> getMaxNanosByPhase();
+    public String dump();
+    public void reset();
+}
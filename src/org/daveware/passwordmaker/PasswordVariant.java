@@ -0,0 +1,65 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+/**
+ * The length, prefix and suffix of one password made by
+ * PasswordMaker.makePasswordVariants().
+ *
+ * @author Dave Marotti
+ */
+public final class PasswordVariant {
+    private final int length;
+    private final String prefix;
+    private final String suffix;
+
+    /**
+     * @param length The length of the password.
+     * @param prefix The prefix, null for none.
+     * @param suffix The suffix, null for none.
+     */
+    public PasswordVariant(int length, String prefix, String suffix) {
+        if(length < 0)
+            throw new IllegalArgumentException("Invalid length " + length);
+        this.length = length;
+        this.prefix = prefix!=null ? prefix : "";
+        this.suffix = suffix!=null ? suffix : "";
+    }
+
+    /**
+     * Creates a variant with the prefix and suffix of an account.
+     *
+     * @param account The account.
+     * @param length The length of the password.
+     */
+    public PasswordVariant(Account account, int length) {
+        this(length, account.getPrefix(), account.getSuffix());
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Hashes the rounds of PasswordMaker.hashTheData() for many messages which
+ * only differ at the end, like the same account with different modifiers.
+ *
+ * The data hashed is the common prefix followed by a varying suffix. For each
+ * round the digest (or HMAC) state after the key and the prefix is computed
+ * once and kept, every message then only costs the blocks of its suffix. The
+ * built in digests are used, they give the same results as every other
+ * provider.
+ *
+ * Not thread safe. Call erase() when done.
+ *
+ * @author Dave Marotti
+ */
+final class PrefixHasher {
+    private final AlgorithmType algorithm;
+    private final boolean hmac;
+    private final byte [] masterPassword;
+    private final byte [] prefix;
+
+    // Indexed by round, created when first needed
+    private final ArrayList<PureDigest> digests = new ArrayList<PureDigest>();
+    private final ArrayList<PureHmac> hmacs = new ArrayList<PureHmac>();
+    private final PureDigest digest;
+    private final PureHmac mac;
+
+    /**
+     * @param algorithm The algorithm.
+     * @param hmac Whether to compute HMACs.
+     * @param masterPassword The master password, converted to bytes like SecureByteArray(char[]).
+     * @param prefix The start of the data, converted the same way.
+     */
+    PrefixHasher(AlgorithmType algorithm, boolean hmac, SecureCharArray masterPassword, SecureCharArray prefix) {
+        this.algorithm = algorithm;
+        this.hmac = hmac;
+        this.masterPassword = toBytes(masterPassword);
+        this.prefix = toBytes(prefix);
+        if(hmac) {
+            digest = null;
+            mac = new PureHmac(algorithm);
+        }
+        else {
+            digest = PureDigest.create(algorithm);
+            mac = null;
+        }
+    }
+
+    static byte [] toBytes(SecureCharArray chars) {
+        byte [] bytes = new byte[chars.size()];
+        for(int i=0; i<bytes.length; i++)
+            bytes[i] = (byte)chars.getCharAt(i);
+        return bytes;
+    }
+
+    /**
+     * @return The size of the hashes in bytes.
+     */
+    int getDigestSize() {
+        return hmac ? mac.getMacSize() : digest.getDigestSize();
+    }
+
+    /**
+     * Hashes one round of the prefix followed by a suffix.
+     *
+     * @param round The round, from the second on the key is the master password, "\n" and the round.
+     * @param suffix The end of the data.
+     * @param suffixLen The number of bytes of suffix to use.
+     * @param out Receives the hash.
+     * @return The number of bytes written.
+     */
+    int hash(int round, byte [] suffix, int suffixLen, byte [] out) {
+        if(hmac) {
+            mac.copyFrom(getHmac(round));
+            mac.update(suffix, 0, suffixLen);
+            return mac.doFinal(out, 0);
+        }
+        digest.copyFrom(getDigest(round));
+        digest.update(suffix, 0, suffixLen);
+        return digest.doFinal(out, 0);
+    }
+
+    private byte [] getKey(int round) {
+        if(round==0)
+            return masterPassword.clone();
+        byte [] count = Integer.toString(round).getBytes();
+        byte [] key = Arrays.copyOf(masterPassword, masterPassword.length + 1 + count.length);
+        key[masterPassword.length] = '\n';
+        System.arraycopy(count, 0, key, masterPassword.length + 1, count.length);
+        return key;
+    }
+
+    private PureDigest getDigest(int round) {
+        while(digests.size() <= round) {
+            byte [] key = getKey(digests.size());
+            PureDigest keyed = PureDigest.create(algorithm);
+            keyed.update(key, 0, key.length);
+            keyed.update(prefix, 0, prefix.length);
+            Arrays.fill(key, (byte)0);
+            digests.add(keyed);
+        }
+        return digests.get(round);
+    }
+
+    private PureHmac getHmac(int round) {
+        while(hmacs.size() <= round) {
+            byte [] key = getKey(hmacs.size());
+            try {
+                // Behave like SecretKeySpec does for the JCA providers
+                if(key.length==0)
+                    throw new IllegalArgumentException("Empty key");
+                PureHmac keyed = new PureHmac(algorithm);
+                keyed.init(key, 0, key.length);
+                keyed.update(prefix, 0, prefix.length);
+                hmacs.add(keyed);
+            } finally {
+                Arrays.fill(key, (byte)0);
+            }
+        }
+        return hmacs.get(round);
+    }
+
+    /**
+     * Forgets the keys and the prefix.
+     */
+    void erase() {
+        for(PureDigest keyed : digests)
+            keyed.reset();
+        for(PureHmac keyed : hmacs)
+            keyed.erase();
+        digests.clear();
+        hmacs.clear();
+        if(digest!=null)
+            digest.reset();
+        if(mac!=null)
+            mac.erase();
+        Arrays.fill(masterPassword, (byte)0);
+        Arrays.fill(prefix, (byte)0);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Base class of the built in message digests.
+ *
+ * All of the AlgorithmTypes are Merkle-Damgard hashes with a 64 byte block and
+ * the same padding, they only differ in the compression function, the initial
+ * state and the byte order of the length and the output. This class does the
+ * buffering and padding, full blocks are compressed straight out of the
+ * caller's array.
+ *
+ * Nothing is allocated after construction. An instance is not thread safe but
+ * can be reused for any number of messages. reset() (which doFinal() calls)
+ * clears everything that was hashed from memory.
+ *
+ * @author Dave Marotti
+ */
+public abstract class PureDigest {
+    public static final int BLOCK_SIZE = 64;
+
+    private final byte [] buffer = new byte[BLOCK_SIZE];
+    private final boolean bigEndian;
+    private int bufferLength = 0;
+    private long byteCount = 0;
+
+    protected PureDigest(boolean bigEndian) {
+        this.bigEndian = bigEndian;
+    }
+
+    /**
+     * Creates the digest for an algorithm.
+     * @param algorithm The algorithm.
+     * @return A new digest.
+     * @throws IllegalArgumentException if there is no built in implementation.
+     */
+    public static PureDigest create(AlgorithmType algorithm) {
+        if(algorithm==AlgorithmType.MD4)
+            return new PureMD4();
+        if(algorithm==AlgorithmType.MD5)
+            return new PureMD5();
+        if(algorithm==AlgorithmType.SHA1)
+            return new PureSHA1();
+        if(algorithm==AlgorithmType.RIPEMD160)
+            return new PureRIPEMD160();
+        if(algorithm==AlgorithmType.SHA256)
+            return new PureSHA256();
+        throw new IllegalArgumentException("No built in digest for " + algorithm.getName());
+    }
+
+    public abstract String getAlgorithmName();
+
+    /**
+     * @return The size of the hash in bytes.
+     */
+    public abstract int getDigestSize();
+
+    public int getBlockSize() {
+        return BLOCK_SIZE;
+    }
+
+    public void update(byte b) {
+        byteCount++;
+        buffer[bufferLength++] = b;
+        if(bufferLength==BLOCK_SIZE) {
+            processBlock(buffer, 0);
+            bufferLength = 0;
+        }
+    }
+
+    public void update(byte [] in, int off, int len) {
+        byteCount += len;
+
+        // Top up a partial block first
+        if(bufferLength > 0) {
+            int n = Math.min(BLOCK_SIZE - bufferLength, len);
+            System.arraycopy(in, off, buffer, bufferLength, n);
+            bufferLength += n;
+            off += n;
+            len -= n;
+            if(bufferLength < BLOCK_SIZE)
+                return;
+            processBlock(buffer, 0);
+            bufferLength = 0;
+        }
+
+        while(len >= BLOCK_SIZE) {
+            processBlock(in, off);
+            off += BLOCK_SIZE;
+            len -= BLOCK_SIZE;
+        }
+
+        if(len > 0) {
+            System.arraycopy(in, off, buffer, 0, len);
+            bufferLength = len;
+        }
+    }
+
+    /**
+     * Hashes the bytes from the position to the limit of a buffer, leaving the
+     * position at the limit. They're read straight into the block buffer.
+     */
+    public void update(ByteBuffer in) {
+        while(in.hasRemaining()) {
+            int n = Math.min(BLOCK_SIZE - bufferLength, in.remaining());
+            in.get(buffer, bufferLength, n);
+            bufferLength += n;
+            byteCount += n;
+            if(bufferLength==BLOCK_SIZE) {
+                processBlock(buffer, 0);
+                bufferLength = 0;
+            }
+        }
+    }
+
+    /**
+     * Pads the message, writes the hash and resets the digest.
+     * @param out The array to write the hash into.
+     * @param off Where in out to write it, getDigestSize() bytes are written.
+     * @return The number of bytes written.
+     */
+    public int doFinal(byte [] out, int off) {
+        long bitLength = byteCount << 3;
+
+        buffer[bufferLength++] = (byte)0x80;
+        if(bufferLength > BLOCK_SIZE - 8) {
+            Arrays.fill(buffer, bufferLength, BLOCK_SIZE, (byte)0);
+            processBlock(buffer, 0);
+            bufferLength = 0;
+        }
+        Arrays.fill(buffer, bufferLength, BLOCK_SIZE - 8, (byte)0);
+        if(bigEndian) {
+            writeIntBE((int)(bitLength >>> 32), buffer, BLOCK_SIZE - 8);
+            writeIntBE((int)bitLength, buffer, BLOCK_SIZE - 4);
+        }
+        else {
+            writeIntLE((int)bitLength, buffer, BLOCK_SIZE - 8);
+            writeIntLE((int)(bitLength >>> 32), buffer, BLOCK_SIZE - 4);
+        }
+        processBlock(buffer, 0);
+
+        writeOutput(out, off);
+        reset();
+        return getDigestSize();
+    }
+
+    /**
+     * Starts a new message, clearing anything buffered.
+     */
+    public void reset() {
+        Arrays.fill(buffer, (byte)0);
+        bufferLength = 0;
+        byteCount = 0;
+        resetState();
+    }
+
+    /**
+     * Makes this digest continue from exactly where another one of the same
+     * algorithm is. This is how PureHmac rewinds to the keyed state without
+     * hashing the key again.
+     * @param other The digest to copy.
+     */
+    public void copyFrom(PureDigest other) {
+        if(other.getClass()!=getClass())
+            throw new IllegalArgumentException("Cannot copy a " + other.getAlgorithmName() + " state into " + getAlgorithmName());
+        System.arraycopy(other.buffer, 0, buffer, 0, BLOCK_SIZE);
+        bufferLength = other.bufferLength;
+        byteCount = other.byteCount;
+        copyState(other);
+    }
+
+    /**
+     * Compresses one 64 byte block.
+     */
+    protected abstract void processBlock(byte [] in, int off);
+
+    /**
+     * Writes the chaining state as the hash.
+     */
+    protected abstract void writeOutput(byte [] out, int off);
+
+    /**
+     * Sets the initial chaining state and clears any scratch space.
+     */
+    protected abstract void resetState();
+
+    /**
+     * Copies the chaining state of another digest of the same class.
+     */
+    protected abstract void copyState(PureDigest other);
+
+    static int readIntLE(byte [] b, int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | (b[off + 3] << 24);
+    }
+
+    static int readIntBE(byte [] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    static void writeIntLE(int v, byte [] b, int off) {
+        b[off]     = (byte)v;
+        b[off + 1] = (byte)(v >>> 8);
+        b[off + 2] = (byte)(v >>> 16);
+        b[off + 3] = (byte)(v >>> 24);
+    }
+
+    static void writeIntBE(int v, byte [] b, int off) {
+        b[off]     = (byte)(v >>> 24);
+        b[off + 1] = (byte)(v >>> 16);
+        b[off + 2] = (byte)(v >>> 8);
+        b[off + 3] = (byte)v;
+    }
+}
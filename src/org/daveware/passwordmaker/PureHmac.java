@@ -0,0 +1,169 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HMAC (RFC 2104) on top of a PureDigest.
+ *
+ * The digest states after the inner and outer padded keys are kept once init()
+ * has run, so each message only costs the blocks of the message itself plus
+ * one block for the outer hash. Like the digests, nothing is allocated after
+ * construction.
+ *
+ * @author Dave Marotti
+ */
+public final class PureHmac {
+    private static final byte IPAD = 0x36;
+    private static final byte OPAD = 0x5c;
+
+    private final PureDigest digest;
+    private final PureDigest innerKeyed;
+    private final PureDigest outerKeyed;
+    private final byte [] pad;
+    private final byte [] innerHash;
+
+    /**
+     * @param algorithm The algorithm to create the underlying digests with.
+     */
+    public PureHmac(AlgorithmType algorithm) {
+        digest = PureDigest.create(algorithm);
+        innerKeyed = PureDigest.create(algorithm);
+        outerKeyed = PureDigest.create(algorithm);
+        pad = new byte[digest.getBlockSize()];
+        innerHash = new byte[digest.getDigestSize()];
+    }
+
+    public String getAlgorithmName() {
+        return "HMAC" + digest.getAlgorithmName();
+    }
+
+    public int getMacSize() {
+        return digest.getDigestSize();
+    }
+
+    /**
+     * Sets the key and starts a new message.
+     * @param key The array holding the key.
+     * @param off Where the key starts.
+     * @param len The length of the key, keys longer than a block are hashed first.
+     */
+    public void init(byte [] key, int off, int len) {
+        Arrays.fill(pad, (byte)0);
+        if(len > pad.length) {
+            digest.reset();
+            digest.update(key, off, len);
+            digest.doFinal(pad, 0);
+        }
+        else {
+            System.arraycopy(key, off, pad, 0, len);
+        }
+        initPads();
+    }
+
+    /**
+     * The same with the key read from the position to the limit of a buffer,
+     * which is left at the limit. The key is only ever copied into the pad.
+     * @param key The buffer holding the key.
+     */
+    public void init(ByteBuffer key) {
+        Arrays.fill(pad, (byte)0);
+        if(key.remaining() > pad.length) {
+            digest.reset();
+            digest.update(key);
+            digest.doFinal(pad, 0);
+        }
+        else {
+            key.get(pad, 0, key.remaining());
+        }
+        initPads();
+    }
+
+    private void initPads() {
+        for(int i=0; i<pad.length; i++)
+            pad[i] ^= IPAD;
+        innerKeyed.reset();
+        innerKeyed.update(pad, 0, pad.length);
+
+        for(int i=0; i<pad.length; i++)
+            pad[i] ^= (IPAD ^ OPAD);
+        outerKeyed.reset();
+        outerKeyed.update(pad, 0, pad.length);
+
+        Arrays.fill(pad, (byte)0);
+        digest.copyFrom(innerKeyed);
+    }
+
+    public void update(byte b) {
+        digest.update(b);
+    }
+
+    public void update(byte [] in, int off, int len) {
+        digest.update(in, off, len);
+    }
+
+    public void update(ByteBuffer in) {
+        digest.update(in);
+    }
+
+    /**
+     * Writes the MAC and gets ready for another message with the same key.
+     * @param out The array to write into.
+     * @param off Where to write, getMacSize() bytes are written.
+     * @return The number of bytes written.
+     */
+    public int doFinal(byte [] out, int off) {
+        digest.doFinal(innerHash, 0);
+        digest.copyFrom(outerKeyed);
+        digest.update(innerHash, 0, innerHash.length);
+        int len = digest.doFinal(out, off);
+        Arrays.fill(innerHash, (byte)0);
+        digest.copyFrom(innerKeyed);
+        return len;
+    }
+
+    /**
+     * Makes this HMAC continue from exactly where another one of the same
+     * algorithm is, key and message so far included.
+     * @param other The HMAC to copy.
+     */
+    public void copyFrom(PureHmac other) {
+        digest.copyFrom(other.digest);
+        innerKeyed.copyFrom(other.innerKeyed);
+        outerKeyed.copyFrom(other.outerKeyed);
+    }
+
+    /**
+     * Discards the current message, the key is kept.
+     */
+    public void reset() {
+        digest.copyFrom(innerKeyed);
+    }
+
+    /**
+     * Forgets the key and everything hashed.
+     */
+    public void erase() {
+        digest.reset();
+        innerKeyed.reset();
+        outerKeyed.reset();
+        Arrays.fill(innerHash, (byte)0);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.Arrays;
+
+/**
+ * MD4 (RFC 1320).
+ *
+ * @author Dave Marotti
+ */
+public final class PureMD4 extends PureDigest {
+    private int h0, h1, h2, h3;
+    private final int [] x = new int[16];
+
+    public PureMD4() {
+        super(false);
+        resetState();
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return "MD4";
+    }
+
+    @Override
+    public int getDigestSize() {
+        return 16;
+    }
+
+    @Override
+    protected void resetState() {
+        h0 = 0x67452301;
+        h1 = 0xefcdab89;
+        h2 = 0x98badcfe;
+        h3 = 0x10325476;
+        Arrays.fill(x, 0);
+    }
+
+    @Override
+    protected void copyState(PureDigest other) {
+        PureMD4 o = (PureMD4)other;
+        h0 = o.h0; h1 = o.h1; h2 = o.h2; h3 = o.h3;
+    }
+
+    @Override
+    protected void processBlock(byte [] in, int off) {
+        for(int i=0; i<16; i++)
+            x[i] = readIntLE(in, off + i * 4);
+
+        int a = h0, b = h1, c = h2, d = h3;
+
+        // Round 1
+        for(int i=0; i<16; i+=4) {
+            a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x[i], 3);
+            d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x[i + 1], 7);
+            c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x[i + 2], 11);
+            b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x[i + 3], 19);
+        }
+
+        // Round 2
+        for(int i=0; i<4; i++) {
+            a = Integer.rotateLeft(a + ((b & c) | (b & d) | (c & d)) + x[i] + 0x5a827999, 3);
+            d = Integer.rotateLeft(d + ((a & b) | (a & c) | (b & c)) + x[i + 4] + 0x5a827999, 5);
+            c = Integer.rotateLeft(c + ((d & a) | (d & b) | (a & b)) + x[i + 8] + 0x5a827999, 9);
+            b = Integer.rotateLeft(b + ((c & d) | (c & a) | (d & a)) + x[i + 12] + 0x5a827999, 13);
+        }
+
+        // Round 3, words in the order 0 2 1 3 for the low bits
+        for(int i=0; i<4; i++) {
+            int j = ((i & 1) << 1) | (i >>> 1);
+            a = Integer.rotateLeft(a + (b ^ c ^ d) + x[j] + 0x6ed9eba1, 3);
+            d = Integer.rotateLeft(d + (a ^ b ^ c) + x[j + 8] + 0x6ed9eba1, 9);
+            c = Integer.rotateLeft(c + (d ^ a ^ b) + x[j + 4] + 0x6ed9eba1, 11);
+            b = Integer.rotateLeft(b + (c ^ d ^ a) + x[j + 12] + 0x6ed9eba1, 15);
+        }
+
+        h0 += a;
+        h1 += b;
+        h2 += c;
+        h3 += d;
+    }
+
+    @Override
+    protected void writeOutput(byte [] out, int off) {
+        writeIntLE(h0, out, off);
+        writeIntLE(h1, out, off + 4);
+        writeIntLE(h2, out, off + 8);
+        writeIntLE(h3, out, off + 12);
+    }
+}
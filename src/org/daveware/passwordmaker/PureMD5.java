@@ -0,0 +1,118 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.Arrays;
+
+/**
+ * MD5 (RFC 1321).
+ *
+ * @author Dave Marotti
+ */
+public final class PureMD5 extends PureDigest {
+    static final int [] T = {
+        0xd76aa478, 0xe8c7b756, 0x242070db, 0xc1bdceee, 0xf57c0faf, 0x4787c62a, 0xa8304613, 0xfd469501,
+        0x698098d8, 0x8b44f7af, 0xffff5bb1, 0x895cd7be, 0x6b901122, 0xfd987193, 0xa679438e, 0x49b40821,
+        0xf61e2562, 0xc040b340, 0x265e5a51, 0xe9b6c7aa, 0xd62f105d, 0x02441453, 0xd8a1e681, 0xe7d3fbc8,
+        0x21e1cde6, 0xc33707d6, 0xf4d50d87, 0x455a14ed, 0xa9e3e905, 0xfcefa3f8, 0x676f02d9, 0x8d2a4c8a,
+        0xfffa3942, 0x8771f681, 0x6d9d6122, 0xfde5380c, 0xa4beea44, 0x4bdecfa9, 0xf6bb4b60, 0xbebfbc70,
+        0x289b7ec6, 0xeaa127fa, 0xd4ef3085, 0x04881d05, 0xd9d4d039, 0xe6db99e5, 0x1fa27cf8, 0xc4ac5665,
+        0xf4292244, 0x432aff97, 0xab9423a7, 0xfc93a039, 0x655b59c3, 0x8f0ccc92, 0xffeff47d, 0x85845dd1,
+        0x6fa87e4f, 0xfe2ce6e0, 0xa3014314, 0x4e0811a1, 0xf7537e82, 0xbd3af235, 0x2ad7d2bb, 0xeb86d391
+    };
+
+    private int h0, h1, h2, h3;
+    private final int [] x = new int[16];
+
+    public PureMD5() {
+        super(false);
+        resetState();
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return "MD5";
+    }
+
+    @Override
+    public int getDigestSize() {
+        return 16;
+    }
+
+    @Override
+    protected void resetState() {
+        h0 = 0x67452301;
+        h1 = 0xefcdab89;
+        h2 = 0x98badcfe;
+        h3 = 0x10325476;
+        Arrays.fill(x, 0);
+    }
+
+    @Override
+    protected void copyState(PureDigest other) {
+        PureMD5 o = (PureMD5)other;
+        h0 = o.h0; h1 = o.h1; h2 = o.h2; h3 = o.h3;
+    }
+
+    @Override
+    protected void processBlock(byte [] in, int off) {
+        for(int i=0; i<16; i++)
+            x[i] = readIntLE(in, off + i * 4);
+
+        int a = h0, b = h1, c = h2, d = h3;
+
+        // Each round is four groups of four steps, with the same shifts in every group
+        for(int i=0; i<16; i+=4) {
+            a = b + Integer.rotateLeft(a + ((b & c) | (~b & d)) + x[i] + T[i], 7);
+            d = a + Integer.rotateLeft(d + ((a & b) | (~a & c)) + x[i + 1] + T[i + 1], 12);
+            c = d + Integer.rotateLeft(c + ((d & a) | (~d & b)) + x[i + 2] + T[i + 2], 17);
+            b = c + Integer.rotateLeft(b + ((c & d) | (~c & a)) + x[i + 3] + T[i + 3], 22);
+        }
+        for(int i=16; i<32; i+=4) {
+            a = b + Integer.rotateLeft(a + ((b & d) | (c & ~d)) + x[(5 * i + 1) & 15] + T[i], 5);
+            d = a + Integer.rotateLeft(d + ((a & c) | (b & ~c)) + x[(5 * i + 6) & 15] + T[i + 1], 9);
+            c = d + Integer.rotateLeft(c + ((d & b) | (a & ~b)) + x[(5 * i + 11) & 15] + T[i + 2], 14);
+            b = c + Integer.rotateLeft(b + ((c & a) | (d & ~a)) + x[(5 * i) & 15] + T[i + 3], 20);
+        }
+        for(int i=32; i<48; i+=4) {
+            a = b + Integer.rotateLeft(a + (b ^ c ^ d) + x[(3 * i + 5) & 15] + T[i], 4);
+            d = a + Integer.rotateLeft(d + (a ^ b ^ c) + x[(3 * i + 8) & 15] + T[i + 1], 11);
+            c = d + Integer.rotateLeft(c + (d ^ a ^ b) + x[(3 * i + 11) & 15] + T[i + 2], 16);
+            b = c + Integer.rotateLeft(b + (c ^ d ^ a) + x[(3 * i + 14) & 15] + T[i + 3], 23);
+        }
+        for(int i=48; i<64; i+=4) {
+            a = b + Integer.rotateLeft(a + (c ^ (b | ~d)) + x[(7 * i) & 15] + T[i], 6);
+            d = a + Integer.rotateLeft(d + (b ^ (a | ~c)) + x[(7 * i + 7) & 15] + T[i + 1], 10);
+            c = d + Integer.rotateLeft(c + (a ^ (d | ~b)) + x[(7 * i + 14) & 15] + T[i + 2], 15);
+            b = c + Integer.rotateLeft(b + (d ^ (c | ~a)) + x[(7 * i + 21) & 15] + T[i + 3], 21);
+        }
+
+        h0 += a;
+        h1 += b;
+        h2 += c;
+        h3 += d;
+    }
+
+    @Override
+    protected void writeOutput(byte [] out, int off) {
+        writeIntLE(h0, out, off);
+        writeIntLE(h1, out, off + 4);
+        writeIntLE(h2, out, off + 8);
+        writeIntLE(h3, out, off + 12);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.Arrays;
+
+/**
+ * SHA-1 (FIPS 180-4).
+ *
+ * @author Dave Marotti
+ */
+public final class PureSHA1 extends PureDigest {
+    private int h0, h1, h2, h3, h4;
+    private final int [] w = new int[80];
+
+    public PureSHA1() {
+        super(true);
+        resetState();
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return "SHA1";
+    }
+
+    @Override
+    public int getDigestSize() {
+        return 20;
+    }
+
+    @Override
+    protected void resetState() {
+        h0 = 0x67452301;
+        h1 = 0xefcdab89;
+        h2 = 0x98badcfe;
+        h3 = 0x10325476;
+        h4 = 0xc3d2e1f0;
+        Arrays.fill(w, 0);
+    }
+
+    @Override
+    protected void copyState(PureDigest other) {
+        PureSHA1 o = (PureSHA1)other;
+        h0 = o.h0; h1 = o.h1; h2 = o.h2; h3 = o.h3; h4 = o.h4;
+    }
+
+    @Override
+    protected void processBlock(byte [] in, int off) {
+        for(int i=0; i<16; i++)
+            w[i] = readIntBE(in, off + i * 4);
+        for(int i=16; i<80; i++)
+            w[i] = Integer.rotateLeft(w[i - 3] ^ w[i - 8] ^ w[i - 14] ^ w[i - 16], 1);
+
+        int a = h0, b = h1, c = h2, d = h3, e = h4, t;
+
+        for(int i=0; i<20; i++) {
+            t = Integer.rotateLeft(a, 5) + ((b & c) | (~b & d)) + e + w[i] + 0x5a827999;
+            e = d; d = c; c = Integer.rotateLeft(b, 30); b = a; a = t;
+        }
+        for(int i=20; i<40; i++) {
+            t = Integer.rotateLeft(a, 5) + (b ^ c ^ d) + e + w[i] + 0x6ed9eba1;
+            e = d; d = c; c = Integer.rotateLeft(b, 30); b = a; a = t;
+        }
+        for(int i=40; i<60; i++) {
+            t = Integer.rotateLeft(a, 5) + ((b & c) | (b & d) | (c & d)) + e + w[i] + 0x8f1bbcdc;
+            e = d; d = c; c = Integer.rotateLeft(b, 30); b = a; a = t;
+        }
+        for(int i=60; i<80; i++) {
+            t = Integer.rotateLeft(a, 5) + (b ^ c ^ d) + e + w[i] + 0xca62c1d6;
+            e = d; d = c; c = Integer.rotateLeft(b, 30); b = a; a = t;
+        }
+
+        h0 += a;
+        h1 += b;
+        h2 += c;
+        h3 += d;
+        h4 += e;
+    }
+
+    @Override
+    protected void writeOutput(byte [] out, int off) {
+        writeIntBE(h0, out, off);
+        writeIntBE(h1, out, off + 4);
+        writeIntBE(h2, out, off + 8);
+        writeIntBE(h3, out, off + 12);
+        writeIntBE(h4, out, off + 16);
+    }
+}
@@ -20,6 +20,9 @@ package org.daveware.passwordmaker;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -67,26 +70,15 @@ public class RDFDatabaseReader implements DatabaseReader {
     }
     
     public Database read(InputStream i) throws Exception {
+        FlightRecorderEvents.DatabaseRead event = new FlightRecorderEvents.DatabaseRead();
+        event.begin();
+        
         Database db = new Database();
+        FlightRecorderEvents.CountingInputStream counter = new FlightRecorderEvents.CountingInputStream(i);
         
         HashMap<String, Account> descriptionMap = new HashMap<String, Account>();  // Map of hash -> Account
         HashMap<String, ArrayList<String> > seqMap = new HashMap<String, ArrayList<String> >(); // List of non-root nodes that have children
-        
-        // XML crap
-        DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
-        Document doc = docBuilder.parse(i);
-        
-        doc.getDocumentElement().normalize();
-       
-        // Locate the RDF:RDF node
-        Node rdfNode = doc.getFirstChild();
-        if(rdfNode.getNodeName().compareTo("RDF:RDF")!=0)
-            throw new Exception("RDF file contained no 'RDF:RDF' nodes, corrupt file?");
-        if(rdfNode.getNodeType()!=Node.ELEMENT_NODE)
-            throw new Exception("RDF XML node does not appear to be an element, corrupt file?");
-        
-        //parseFile(db, (Element)rdfNode);
+        LinkedHashMap<String, String> globalSettings = new LinkedHashMap<String, String>();
         
         // Build a hashmap of all accounts keyed off the weird RDF hash.
         //
@@ -99,15 +91,72 @@ public class RDFDatabaseReader implements DatabaseReader {
         // Any node that has a child, has a corresponding RDF:Seq node which 
         // holds a list of children as RDF:li.  Each of those RDF:li objects themselves
         // COULD be SEQs later in the file.
-        readAndCreateMaps((Element)rdfNode, descriptionMap, seqMap, db);
+        readMaps(counter, descriptionMap, seqMap, globalSettings);
+        for(Map.Entry<String, String> setting : globalSettings.entrySet())
+            db.setGlobalSetting(setting.getKey(), setting.getValue());
         
         // Now build the account tree itself from this data
         createParentChildRelationships(db, descriptionMap, seqMap);
         
+        // The tree was built directly, so the database has to re-snapshot it
+        db.invalidateSnapshot();
+        
+        event.end();
+        if(event.shouldCommit()) {
+            int [] counts = FlightRecorderEvents.countAccountsAndPatterns(db.getSnapshot().getRootAccount());
+            event.accounts = counts[0];
+            event.patterns = counts[1];
+            event.bytes = counter.count;
+            event.commit();
+        }
+        
         // woot!
         return db;
     }
 
+    /**
+     * Parses the file and fills in the maps which read() builds the database
+     * from. ParallelRDFDatabaseReader replaces this.
+     * 
+     * @param in The file.
+     * @param descriptionMap Gets the accounts, keyed by id.
+     * @param seqMap Gets the children of each account which has any.
+     * @param globalSettings Gets the firefox global settings.
+     * @throws Exception if the file can't be parsed.
+     */
+    void readMaps(InputStream in,
+                  HashMap<String, Account> descriptionMap,
+                  HashMap<String, ArrayList<String> > seqMap,
+                  Map<String, String> globalSettings)
+            throws Exception
+    {
+        readAndCreateMaps(parseRdfElement(in), descriptionMap, seqMap, globalSettings);
+    }
+    
+    /**
+     * Parses an XML document and finds its RDF:RDF element.
+     * 
+     * @param in The document.
+     * @return The RDF:RDF element.
+     * @throws Exception if it can't be parsed or has no RDF:RDF element.
+     */
+    static Element parseRdfElement(InputStream in) throws Exception {
+        // XML crap
+        DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+        DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
+        Document doc = docBuilder.parse(in);
+        
+        doc.getDocumentElement().normalize();
+       
+        // Locate the RDF:RDF node
+        Node rdfNode = doc.getFirstChild();
+        if(rdfNode.getNodeName().compareTo("RDF:RDF")!=0)
+            throw new Exception("RDF file contained no 'RDF:RDF' nodes, corrupt file?");
+        if(rdfNode.getNodeType()!=Node.ELEMENT_NODE)
+            throw new Exception("RDF XML node does not appear to be an element, corrupt file?");
+        return (Element)rdfNode;
+    }
+
     /**
      * Internal routine which will build a HashMap<String, Account> of values
      * corresponding to every RDF:Description node it can find.
@@ -117,10 +166,10 @@ public class RDFDatabaseReader implements DatabaseReader {
      * @throws Exception upon seeing things no one else can see, doing things
      *                   noone else can do!.
      */
-    private void readAndCreateMaps(Element rdfElement, 
+    void readAndCreateMaps(Element rdfElement, 
                            HashMap<String, Account> descriptionMap,
                            HashMap<String, ArrayList<String> > seqMap,
-                           Database db)
+                           Map<String, String> globalSettings)
             throws Exception
     {
         Node child = rdfElement.getFirstChild();
@@ -154,7 +203,7 @@ public class RDFDatabaseReader implements DatabaseReader {
                             for(int iAttribute=0; iAttribute < mapLength; iAttribute++) {
                                 Node node = nodeMap.item(iAttribute);
                                 if(node.getNodeName().startsWith("NS1:"))
-                                    db.setGlobalSetting(node.getNodeName(), node.getNodeValue());
+                                    globalSettings.put(node.getNodeName(), node.getNodeValue());
                             }
                         }
                     } catch(IncompatibleException e) {
@@ -308,6 +357,9 @@ public class RDFDatabaseReader implements DatabaseReader {
        throws Exception {
         // List of ID's used to avoid recursion
         ArrayList<String> parentIdStack = new ArrayList<String>();
+        // The ids of every account added to the tree so far, this answers
+        // db.findAccountById(id)!=null without searching the whole tree
+        HashSet<String> idsInTree = new HashSet<String>();
 
         // Verify the root node exists
         if(seqMap.containsKey(Account.ROOT_ACCOUNT_URI)==false)
@@ -325,7 +377,7 @@ public class RDFDatabaseReader implements DatabaseReader {
             if(parentId.compareTo(Account.ROOT_ACCOUNT_URI)!=0) {
                 if(parentAccount!=null) {
                     // If the parent node is not already in the db, add it
-                    if(db.findAccountById(parentId)==null) {
+                    if(!idsInTree.contains(parentId)) {
                         Account parentParentAccount = db.findParent(parentAccount);
                         if(parentParentAccount==null) {
                             logger.warning("SeqNode[" + parentId + "] does not have a parent, will be dropped");
@@ -348,6 +400,7 @@ public class RDFDatabaseReader implements DatabaseReader {
                     if(childAccount!=null) {
                         if(parentAccount.hasChild(childAccount)==false) {
                             parentAccount.getChildren().add(childAccount);
+                            idsInTree.add(childAccount.getId());
                             
                             // If the child has children, add it to the parentIdStack for later processing, also mark
                             // it as a folder (which should have been done already based on it not having an algorithm.
@@ -70,6 +70,21 @@ public class RDFDatabaseWriter implements DatabaseWriter {
 	public void write(OutputStream os, Database db) 
 	        throws Exception 
     {
+	    // Copy the whole tree rather than using db.getSnapshot() in case the caller
+	    // modified accounts without telling the database.
+	    write(os, DatabaseSnapshot.capture(db));
+    }
+	
+	/**
+	 * Writes a DatabaseSnapshot to an OutputStream in the RDF format. Since the
+	 * snapshot cannot change, this is safe to call from a background thread.
+	 */
+	public void write(OutputStream os, DatabaseSnapshot db) 
+	        throws Exception 
+    {
+		FlightRecorderEvents.DatabaseWrite event = new FlightRecorderEvents.DatabaseWrite();
+		event.begin();
+		
 		try {
 			StringWriter sWriter = new StringWriter();
 			
@@ -98,10 +113,20 @@ public class RDFDatabaseWriter implements DatabaseWriter {
 			
 			// Now pretty-print it
 			String pretty = formatXml(sWriter.toString());
-			BufferedWriter bWriter = new BufferedWriter(new OutputStreamWriter(os));
+			FlightRecorderEvents.CountingOutputStream counter = new FlightRecorderEvents.CountingOutputStream(os);
+			BufferedWriter bWriter = new BufferedWriter(new OutputStreamWriter(counter));
 			bWriter.write(pretty);
 			bWriter.flush();
 			bWriter.close();
+			
+			event.end();
+			if(event.shouldCommit()) {
+			    int [] counts = FlightRecorderEvents.countAccountsAndPatterns(db.getRootAccount());
+			    event.accounts = counts[0];
+			    event.patterns = counts[1];
+			    event.bytes = counter.count;
+			    event.commit();
+			}
 
 		} catch(Exception e) {
 			e.printStackTrace();
@@ -154,7 +179,7 @@ public class RDFDatabaseWriter implements DatabaseWriter {
     		}
     		
     		int patternCount = 0;
-    		for(AccountPatternData data : account.getPatterns()) {
+    		for(AccountPatternData data : account.patternList()) {
     			writer.writeAttribute("NS1:pattern" + patternCount, data.getPattern());
     			if(data.getType()==AccountPatternType.WILDCARD)
     				writer.writeAttribute("NS1:patterntype" + patternCount, "wildcard");
@@ -176,13 +201,13 @@ public class RDFDatabaseWriter implements DatabaseWriter {
 	 * @param writer The XML stream to write to.
 	 * @throws Exception on who the hell knows.
 	 */
-	private void writeParent(Account account, XMLStreamWriter writer) 
+	private void writeParent(AccountSnapshot account, XMLStreamWriter writer) 
 			throws Exception 
 	{
 		// Sequence block
 		writer.writeStartElement("RDF:Seq");
 		writer.writeAttribute("RDF:about", account.getId());
-		for(Account child : account.getChildren()) {
+		for(AccountSnapshot child : account.getChildren()) {
 			logger.fine("    Write-RDF:li: " + child.getId());
 			writer.writeStartElement("RDF:li");
 			writer.writeAttribute("RDF:resource", child.getId());
@@ -191,15 +216,15 @@ public class RDFDatabaseWriter implements DatabaseWriter {
 		writer.writeEndElement();
 
 		// Descriptions of all elements including the parent
-		writeDescription(account, writer);
-		for(Account child : account.getChildren()) {
+		writeDescription(account.getSettings(), writer);
+		for(AccountSnapshot child : account.getChildren()) {
 			logger.fine("Write-RDF:Desc: " + child.getName());
-			writeDescription(child, writer);
+			writeDescription(child.getSettings(), writer);
 		}
 		
 		// Recurse into the children
-		for(Account child : account.getChildren()) {
-			if(child.getChildren().size()>0) {
+		for(AccountSnapshot child : account.getChildren()) {
+			if(child.hasChildren()) {
 				writeParent(child, writer);
 			}
 		}
@@ -212,7 +237,7 @@ public class RDFDatabaseWriter implements DatabaseWriter {
 	 * @param writer The XML stream to write to.
 	 * @throws Exception ... probably never.
 	 */
-	private void writeFFGlobalSettings(Database db, XMLStreamWriter writer) 
+	private void writeFFGlobalSettings(DatabaseSnapshot db, XMLStreamWriter writer) 
 	    throws Exception 
 	{
 	    writer.writeStartElement("RDF:Description");
@@ -0,0 +1,126 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of direct ByteBuffers for DirectSecureCharArray and DirectSecureByteArray.
+ *
+ * Direct buffers live outside the java heap so the garbage collector never
+ * moves them, and zeroing one really does remove its contents from memory
+ * instead of leaving copies behind wherever a heap array was compacted from.
+ * They are expensive to allocate though, so released buffers are kept and
+ * handed out again.
+ *
+ * Buffers come in power of two sizes. Every buffer is zeroed when it's
+ * released, so whatever acquire() returns is all zeros.
+ *
+ * @author Dave Marotti
+ */
+public final class SecureBufferPool {
+    private static final int MIN_SHIFT = 6;          // 64 bytes
+    private static final int MAX_SHIFT = 16;         // 64KB, bigger buffers aren't pooled
+    private static final int MAX_PER_SIZE = 32;
+
+    // Free buffers per size, guarded by the array
+    private static final ArrayDeque<ByteBuffer> [] free = createFreeLists();
+
+    private static final byte [] ZEROS = new byte[1024];
+
+    private SecureBufferPool() {
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayDeque<ByteBuffer> [] createFreeLists() {
+        ArrayDeque<ByteBuffer> [] lists = new ArrayDeque[MAX_SHIFT - MIN_SHIFT + 1];
+        for(int i=0; i<lists.length; i++)
+            lists[i] = new ArrayDeque<ByteBuffer>();
+        return lists;
+    }
+
+    private static int shiftFor(int bytes) {
+        int shift = MIN_SHIFT;
+        while((1 << shift) < bytes)
+            shift++;
+        return shift;
+    }
+
+    /**
+     * Gets a zeroed buffer.
+     * @param bytes The minimum capacity.
+     * @return A direct buffer of at least that capacity, position 0 and limit at capacity.
+     */
+    public static ByteBuffer acquire(int bytes) {
+        if(bytes < 0)
+            throw new IllegalArgumentException("Invalid buffer size");
+        int shift = shiftFor(bytes);
+        if(shift <= MAX_SHIFT) {
+            ArrayDeque<ByteBuffer> list = free[shift - MIN_SHIFT];
+            synchronized(free) {
+                ByteBuffer buffer = list.poll();
+                if(buffer!=null)
+                    return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(1 << shift);
+    }
+
+    /**
+     * Zeros a buffer and returns it to the pool. The buffer must not be used
+     * afterwards.
+     * @param buffer A buffer obtained from acquire().
+     */
+    public static void release(ByteBuffer buffer) {
+        erase(buffer, 0, buffer.capacity());
+        buffer.clear();
+
+        int shift = shiftFor(buffer.capacity());
+        if(shift > MAX_SHIFT || (1 << shift) != buffer.capacity())
+            return;
+        ArrayDeque<ByteBuffer> list = free[shift - MIN_SHIFT];
+        synchronized(free) {
+            if(list.size() < MAX_PER_SIZE)
+                list.push(buffer);
+        }
+    }
+
+    /**
+     * Zeros part of a buffer without changing its position or limit.
+     */
+    static void erase(ByteBuffer buffer, int from, int to) {
+        ByteBuffer view = buffer.duplicate();
+        view.clear();
+        view.position(from);
+        while(view.position() < to)
+            view.put(ZEROS, 0, Math.min(ZEROS.length, to - view.position()));
+    }
+
+    /**
+     * @return The number of buffers waiting in the pool.
+     */
+    public static int getPooledCount() {
+        int count = 0;
+        synchronized(free) {
+            for(ArrayDeque<ByteBuffer> list : free)
+                count += list.size();
+        }
+        return count;
+    }
+}
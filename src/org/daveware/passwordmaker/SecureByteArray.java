@@ -65,6 +65,19 @@ public class SecureByteArray {
         // there may be weird character encodings.  Maybe char & 0x7F ?
     }
     
+    /**
+     * Converts the characters the same way as SecureByteArray(char[]), without
+     * needing the array from SecureCharArray.getData().
+     * 
+     * @param chars The characters to convert.
+     */
+    public SecureByteArray(SecureCharArray chars)
+    {
+        data = new byte[chars.size()];
+        for(int i=0; i<data.length; i++)
+            data[i] = (byte)chars.getCharAt(i);
+    }
+    
     public SecureByteArray(SecureByteArray copy)
     {
         data = new byte[copy.size()];
@@ -17,6 +17,8 @@
  */
 package org.daveware.passwordmaker;
 
+import java.util.Arrays;
+
 /**
  * Provides an array capable of erasing the contents upon request.
  * 
@@ -28,13 +30,21 @@ package org.daveware.passwordmaker;
  * This object stores a plain array of chars allowing the data to be erased
  * back to 0 at any given time.
  * 
+ * The array usually has room past size() so append() and prepend() don't need
+ * a new one every time, it doubles whenever it runs out. Whenever the data
+ * moves to a new array the old one is erased, and everything past size() is
+ * always 0.
+ * 
  * ALWWAYS reset your password storage variables when you are through with them
  * and be very wary of the stack.
  * 
  * @author Dave Marotti
  */
 public class SecureCharArray {
+    private static final int MIN_CAPACITY = 16;
+
     private char [] data = null;
+    private int size = 0;
     
     public SecureCharArray()
     {
@@ -44,29 +54,27 @@ public class SecureCharArray {
     public SecureCharArray(int size)
     {
         data = new char[size];
-        for(int i=0; i<size; i++)
-            data[i] = 0;
+        this.size = size;
     }
             
     public SecureCharArray(byte [] bytes)
     {
         data = new char[bytes.length];
-        for(int i=0; i<data.length; i++)
+        size = bytes.length;
+        for(int i=0; i<size; i++)
             data[i] = (char)(bytes[i] & 0xFF);
     }
     
     public SecureCharArray(char [] chars)
     {
-        data = new char[chars.length];
-        for(int i=0; i<data.length; i++)
-            data[i] = chars[i];
+        data = Arrays.copyOf(chars, chars.length);
+        size = chars.length;
     }
     
     public SecureCharArray(SecureCharArray copy)
     {
-        data = new char[copy.size()];
-        for(int i=0; i<data.length; i++)
-            data[i] = copy.data[i];
+        data = Arrays.copyOf(copy.data, copy.size);
+        size = copy.size;
     }
     
     /**
@@ -76,10 +84,41 @@ public class SecureCharArray {
      */
     public SecureCharArray(String str)
     {
-        // TODO: does this include the null? We don't want the null...
-        // FIXME:
-        // XXX:
         data = str.toCharArray();
+        size = data.length;
+    }
+    
+    /**
+     * Overwrites part of an array with the erase pattern, ending with 0.
+     */
+    private static void wipe(char [] arr, int from, int to)
+    {
+        Arrays.fill(arr, from, to, (char)0xAA);
+        Arrays.fill(arr, from, to, (char)0x55);
+        Arrays.fill(arr, from, to, (char)0x00);
+    }
+    
+    /**
+     * Makes sure the array can hold a number of characters without moving.
+     * 
+     * @param capacity The number of characters.
+     */
+    public void ensureCapacity(int capacity)
+    {
+        if(capacity <= data.length)
+            return;
+        char [] bigger = new char[Math.max(capacity, Math.max(MIN_CAPACITY, data.length * 2))];
+        System.arraycopy(data, 0, bigger, 0, size);
+        wipe(data, 0, data.length);
+        data = bigger;
+    }
+    
+    /**
+     * @return The number of characters the array holds before it has to move.
+     */
+    public int capacity()
+    {
+        return data.length;
     }
     
     /**
@@ -91,11 +130,36 @@ public class SecureCharArray {
     public void append(SecureCharArray arr)
             throws Exception
     {
-        int oldSize = size();
-        resize(size() + arr.size(), true);
-        
-        for(int i=oldSize, arrI=0; i<size(); i++, arrI++)
-            data[i] = arr.data[arrI];
+        int count = arr.size;
+        ensureCapacity(size + count);
+        System.arraycopy(arr.data, 0, data, size, count);
+        size += count;
+    }
+    
+    /**
+     * Appends characters which aren't secret (a String) or which are already
+     * protected elsewhere (a Slice).
+     * 
+     * @param seq The characters to append.
+     * @throws IndexOutOfBoundsException If seq is a Slice past the end of an
+     *         array that has since shrunk.
+     */
+    public void append(CharSequence seq)
+    {
+        int count = seq.length();
+        if(seq instanceof Slice) {
+            Slice slice = (Slice)seq;
+            if(slice.end > slice.owner.size)
+                throw new IndexOutOfBoundsException("Slice ends at " + slice.end + " past size " + slice.owner.size);
+            ensureCapacity(size + count);
+            System.arraycopy(slice.owner.data, slice.start, data, size, count);
+        }
+        else {
+            ensureCapacity(size + count);
+            for(int i=0; i<count; i++)
+                data[size + i] = seq.charAt(i);
+        }
+        size += count;
     }
        
     /**
@@ -120,12 +184,7 @@ public class SecureCharArray {
      */
     public void erase()
     {
-        for(int i=0; i<data.length; i++)
-            data[i] = 0xAA;
-        for(int i=0; i<data.length; i++)
-            data[i] = 0x55;
-        for(int i=0; i<data.length; i++)
-            data[i] = 0x00;
+        wipe(data, 0, data.length);
     }
     
     /**
@@ -137,21 +196,43 @@ public class SecureCharArray {
     public char getCharAt(int index)
             throws ArrayIndexOutOfBoundsException
     {
-        if(index >= 0 && index < data.length)
+        if(index >= 0 && index < size)
             return data[index];
         else
             throw new ArrayIndexOutOfBoundsException(index);
     }
     
     /**
-     * Returns a reference to the data.
+     * Returns a reference to the data. The array is exactly size() long, if there
+     * was spare room the data is first moved to an array which fits (and the old
+     * one erased).
+     * 
      * @return a reference to the data.
      */
     public char [] getData()
     {
+        if(data.length != size) {
+            char [] exact = Arrays.copyOf(data, size);
+            wipe(data, 0, data.length);
+            data = exact;
+        }
         return data;
     }
     
+    /**
+     * Takes over an array as the data, the old one is erased.
+     * 
+     * @param newData The new data, it must not be used by anything else.
+     */
+    void setData(char [] newData)
+    {
+        if(newData==data)
+            return;
+        wipe(data, 0, data.length);
+        data = newData;
+        size = newData.length;
+    }
+    
     /**
      * Prepends this array with another SecureCharArray.
      * 
@@ -161,23 +242,42 @@ public class SecureCharArray {
     public void prepend(SecureCharArray arr)
             throws Exception
     {
-        char [] olddata = new char[data.length];
-
-        for(int i=0; i<olddata.length; i++)
-            olddata[i] = data[i];
-        
-        resize(size() + arr.size(), false);
-        
-        for(int i=0; i<arr.data.length; i++)
-            data[i] = arr.data[i];
-        for(int i=arr.data.length; i<data.length; i++)
-            data[i] = olddata[i - arr.data.length];
-        for(int i=0; i<olddata.length; i++)
-        {
-            olddata[i] = 0x55;
-            olddata[i] = 0xAA;
-            olddata[i] = 0x0;
+        prepend(arr.data, 0, arr.size);
+    }
+    
+    /**
+     * Prepends characters which aren't secret, a prefix for example.
+     * 
+     * @param str The characters to prepend.
+     */
+    public void prepend(String str)
+    {
+        char [] chars = str.toCharArray();
+        prepend(chars, 0, chars.length);
+    }
+    
+    private void prepend(char [] src, int offset, int count)
+    {
+        if(size + count > data.length) {
+            // Moving anyway, so put everything where it belongs in one go
+            char [] bigger = new char[Math.max(size + count, Math.max(MIN_CAPACITY, data.length * 2))];
+            System.arraycopy(src, offset, bigger, 0, count);
+            System.arraycopy(data, 0, bigger, count, size);
+            wipe(data, 0, data.length);
+            data = bigger;
         }
+        else {
+            char [] copy = src==data ? Arrays.copyOfRange(src, offset, offset + count) : null;
+            System.arraycopy(data, 0, data, count, size);
+            if(copy!=null) {
+                System.arraycopy(copy, 0, data, 0, count);
+                wipe(copy, 0, copy.length);
+            }
+            else {
+                System.arraycopy(src, offset, data, 0, count);
+            }
+        }
+        size += count;
     }
     
     /**
@@ -190,17 +290,18 @@ public class SecureCharArray {
     public void replace(SecureCharArray arr)
             throws Exception
     {
-        erase();
-        
-        if(data.length != arr.data.length)
-            data = new char[arr.data.length];
-        
-        for(int i=0; i<data.length; i++)
-            data[i] = arr.data[i];
+        if(arr==this)
+            return;
+        wipe(data, 0, size);
+        size = 0;
+        ensureCapacity(arr.size);
+        System.arraycopy(arr.data, 0, data, 0, arr.size);
+        size = arr.size;
     }
     
     /**
-     * Resizes the array, optionally keeping the old data.
+     * Resizes the array, optionally keeping the old data. Characters past the
+     * old size are 0.
      * 
      * @param size The new size of the array. This must be 1 or larger.
      * @param retainData Whether or not to keep the old data.
@@ -212,28 +313,13 @@ public class SecureCharArray {
         if(size < 0)
             throw new Exception("Invalid array size");
         
-        char [] newData = new char[size];
-        
-        if(retainData==true)
-        {
-            int limit = (size <= data.length) ? size : data.length;
-            for(int i=0; i<limit; i++)
-            {
-                if(i < limit)
-                    newData[i] = data[i];
-                else
-                    newData[i] = 0;
-            }
-        }
-        else
-        {
-            for(int i=0; i<size; i++)
-                newData[i] = 0;
-        }
+        if(retainData==false)
+            wipe(data, 0, this.size);
+        else if(size < this.size)
+            wipe(data, size, this.size);
         
-        erase();
-        
-        data = newData;
+        ensureCapacity(size);
+        this.size = size;
     }
 
     /**
@@ -245,7 +331,7 @@ public class SecureCharArray {
     public void setCharAt(int index, char c)
             throws ArrayIndexOutOfBoundsException
     {
-        if(index >= 0 && index < data.length)
+        if(index >= 0 && index < size)
             data[index] = c;
         else
             throw new ArrayIndexOutOfBoundsException(index);
@@ -258,6 +344,67 @@ public class SecureCharArray {
      */
     public int size()
     {
-        return data.length;
+        return size;
+    }
+    
+    /**
+     * Gets a view of part of this array without copying it.
+     * 
+     * @param start The first character.
+     * @param end One past the last character.
+     * @return The view.
+     * @throws IndexOutOfBoundsException Upon bad indexes.
+     */
+    public Slice slice(int start, int end)
+            throws IndexOutOfBoundsException
+    {
+        if(start < 0 || end > size || start > end)
+            throw new IndexOutOfBoundsException("Invalid slice " + start + " to " + end);
+        return new Slice(this, start, end);
+    }
+    
+    /**
+     * A live view of part of a SecureCharArray. It reads through to the array, so
+     * it sees any changes made to it, and stops working where the array has been
+     * shrunk.
+     * 
+     * Beware that toString() makes a String which can't be erased.
+     */
+    public static final class Slice implements CharSequence {
+        private final SecureCharArray owner;
+        private final int start;
+        private final int end;
+        
+        private Slice(SecureCharArray owner, int start, int end)
+        {
+            this.owner = owner;
+            this.start = start;
+            this.end = end;
+        }
+        
+        public int length()
+        {
+            return end - start;
+        }
+        
+        public char charAt(int index)
+        {
+            if(index < 0 || index >= end - start)
+                throw new IndexOutOfBoundsException("Index " + index);
+            return owner.getCharAt(start + index);
+        }
+        
+        public Slice subSequence(int from, int to)
+        {
+            if(from < 0 || to > end - start || from > to)
+                throw new IndexOutOfBoundsException("Invalid slice " + from + " to " + to);
+            return new Slice(owner, start + from, start + to);
+        }
+        
+        @Override
+        public String toString()
+        {
+            return new String(owner.data, start, end - start);
+        }
     }
 }
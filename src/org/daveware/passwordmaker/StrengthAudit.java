@@ -0,0 +1,171 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates the password of every account in a database and reports the ones
+ * which score below a threshold with PasswordMaker.calcPasswordStrength().
+ *
+ * The accounts are split between a pool of threads. Each password is erased as
+ * soon as it has been scored, only the names and scores of the weak accounts
+ * are kept.
+ *
+ * @author Dave Marotti
+ */
+public final class StrengthAudit {
+    private static final int CHUNK = 64;
+
+    /**
+     * An account whose password scored below the threshold.
+     */
+    public static final class WeakAccount {
+        private final String id;
+        private final String name;
+        private final double strength;
+
+        WeakAccount(String id, String name, double strength) {
+            this.id = id;
+            this.name = name;
+            this.strength = strength;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getStrength() {
+            return strength;
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + Math.round(strength) + ")";
+        }
+    }
+
+    private final int threads;
+
+    /**
+     * Creates an audit which uses one thread per processor.
+     */
+    public StrengthAudit() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads The number of threads to generate passwords on.
+     */
+    public StrengthAudit(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Audits the current state of a database.
+     *
+     * @param db The database, only its current snapshot is used.
+     * @param masterPassword The master password, it is not modified.
+     * @param threshold Accounts scoring below this (0 to 100) are reported.
+     * @return The weak accounts, weakest first.
+     * @throws Exception if a password could not be generated.
+     */
+    public List<WeakAccount> run(Database db, SecureCharArray masterPassword, double threshold) throws Exception {
+        return run(db.getSnapshot(), masterPassword, threshold);
+    }
+
+    /**
+     * Audits a snapshot of a database.
+     *
+     * @param snapshot The snapshot.
+     * @param masterPassword The master password, it is not modified.
+     * @param threshold Accounts scoring below this (0 to 100) are reported.
+     * @return The weak accounts, weakest first.
+     * @throws Exception if a password could not be generated.
+     */
+    public List<WeakAccount> run(DatabaseSnapshot snapshot, SecureCharArray masterPassword, final double threshold)
+            throws Exception {
+        final ArrayList<AccountSnapshot> accounts = new ArrayList<AccountSnapshot>();
+        collect(snapshot.getRootAccount(), accounts);
+
+        // Shared by all the threads so each leet level is converted only once
+        final LeetMasterCache masters = new LeetMasterCache(masterPassword);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("pwmje-audit"));
+        try {
+            ArrayList<Future<List<WeakAccount>>> futures = new ArrayList<Future<List<WeakAccount>>>();
+            for(int start=0; start<accounts.size(); start+=CHUNK) {
+                final List<AccountSnapshot> chunk = accounts.subList(start, Math.min(accounts.size(), start + CHUNK));
+                futures.add(executor.submit(new Callable<List<WeakAccount>>() {
+                    public List<WeakAccount> call() throws Exception {
+                        return audit(chunk, masters, threshold);
+                    }
+                }));
+            }
+
+            ArrayList<WeakAccount> weak = new ArrayList<WeakAccount>();
+            for(Future<List<WeakAccount>> future : futures)
+                weak.addAll(WorkerPools.get(future));
+            Collections.sort(weak, new Comparator<WeakAccount>() {
+                public int compare(WeakAccount a, WeakAccount b) {
+                    return Double.compare(a.getStrength(), b.getStrength());
+                }
+            });
+            return weak;
+        } finally {
+            WorkerPools.shutdownAndWait(executor);
+            masters.erase();
+        }
+    }
+
+    private static void collect(AccountSnapshot parent, List<AccountSnapshot> accounts) {
+        for(AccountSnapshot child : parent.getChildren()) {
+            if(!child.isFolder())
+                accounts.add(child);
+            collect(child, accounts);
+        }
+    }
+
+    private static List<WeakAccount> audit(List<AccountSnapshot> accounts, LeetMasterCache masters, double threshold)
+            throws Exception {
+        PasswordMaker pwm = new PasswordMaker();
+        ArrayList<WeakAccount> weak = new ArrayList<WeakAccount>();
+        for(AccountSnapshot account : accounts) {
+            SecureCharArray password = pwm.makePassword(masters, account.getSettings(), account.getUrl());
+            double strength;
+            try {
+                strength = PasswordMaker.calcPasswordStrength(password);
+            } finally {
+                password.erase();
+            }
+            if(strength < threshold)
+                weak.add(new WeakAccount(account.getId(), account.getName(), strength));
+        }
+        return weak;
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * MD5, SHA1 and SHA256 computed for several independent messages at once, one
+ * message per SIMD lane.
+ * 
+ * This is the only class which references the jdk.incubator.vector module. It
+ * must only be touched after MultiLaneHasher has checked the module is present,
+ * otherwise loading it fails.
+ * 
+ * The words of each block are transposed so word i of every lane sits side by
+ * side. Lanes whose message has fewer blocks than the longest in the group
+ * simply stop taking the new state once they're done.
+ *
+ * @author Dave Marotti
+ */
+final class VectorDigests {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    // Whole words of message are read with these, much faster than a byte at a time
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_BE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final int [] MD5_SHIFTS = {
+        7, 12, 17, 22,  5, 9, 14, 20,  4, 11, 16, 23,  6, 10, 15, 21
+    };
+
+    private VectorDigests() {
+    }
+
+    /**
+     * @return The number of messages hashed at once.
+     */
+    static int getLanes() {
+        return LANES;
+    }
+
+    static boolean supports(AlgorithmType algorithm) {
+        return algorithm==AlgorithmType.MD5 || algorithm==AlgorithmType.SHA1 || algorithm==AlgorithmType.SHA256;
+    }
+
+    /**
+     * Hashes messages[start .. start+count) into out[start .. start+count).
+     *
+     * @param algorithm MD5, SHA1 or SHA256.
+     * @param messages The messages.
+     * @param lengths The number of bytes of each message to use.
+     * @param start The first message.
+     * @param count The number of messages.
+     * @param out Receives the digests, each must hold the digest size.
+     */
+    static void digest(AlgorithmType algorithm, byte [][] messages, int [] lengths, int start, int count, byte [][] out) {
+        boolean bigEndian = algorithm!=AlgorithmType.MD5;
+        int words = algorithm==AlgorithmType.MD5 ? 4 : algorithm==AlgorithmType.SHA1 ? 5 : 8;
+        int [] state = new int[words * LANES];
+        int [] x = new int[16 * LANES];
+        int [] w = new int[(algorithm==AlgorithmType.SHA1 ? 80 : 64) * LANES];
+        int [] v = new int[8 * LANES];
+        int [] blocks = new int[LANES];
+
+        try {
+            for(int group=start; group<start+count; group+=LANES) {
+                int n = Math.min(LANES, start + count - group);
+                int maxBlocks = 0;
+                Arrays.fill(blocks, 0);
+                for(int l=0; l<n; l++) {
+                    // Room for the 0x80 terminator and the 64 bit length
+                    blocks[l] = (lengths[group + l] + 8) / 64 + 1;
+                    maxBlocks = Math.max(maxBlocks, blocks[l]);
+                }
+
+                initState(algorithm, state);
+                for(int b=0; b<maxBlocks; b++) {
+                    for(int l=0; l<n; l++) {
+                        if(b >= blocks[l])
+                            continue;
+                        byte [] message = messages[group + l];
+                        int length = lengths[group + l];
+                        for(int i=0, pos=b * 64; i<16; i++, pos+=4) {
+                            int word;
+                            if(pos + 4 <= length)
+                                word = bigEndian ? (int)INT_BE.get(message, pos) : (int)INT_LE.get(message, pos);
+                            else
+                                word = paddingWord(message, length, blocks[l] * 64, pos, bigEndian);
+                            x[i * LANES + l] = word;
+                        }
+                    }
+                    VectorMask<Integer> active = IntVector.fromArray(SPECIES, blocks, 0).compare(VectorOperators.GT, b);
+                    if(algorithm==AlgorithmType.MD5)
+                        md5Block(state, x, v, active);
+                    else if(algorithm==AlgorithmType.SHA1)
+                        sha1Block(state, x, w, v, active);
+                    else
+                        sha256Block(state, x, w, v, active);
+                }
+
+                for(int l=0; l<n; l++) {
+                    for(int k=0; k<words; k++) {
+                        if(bigEndian)
+                            PureDigest.writeIntBE(state[k * LANES + l], out[group + l], k * 4);
+                        else
+                            PureDigest.writeIntLE(state[k * LANES + l], out[group + l], k * 4);
+                    }
+                }
+            }
+        } finally {
+            Arrays.fill(x, 0);
+            Arrays.fill(w, 0);
+            Arrays.fill(v, 0);
+            Arrays.fill(state, 0);
+        }
+    }
+
+    /**
+     * Builds a word of the padded message which isn't entirely message bytes:
+     * the message is followed by 0x80, zeros and the 64 bit length in bits. This
+     * saves copying every message into a padded buffer.
+     */
+    private static int paddingWord(byte [] message, int length, int paddedLength, int pos, boolean bigEndian) {
+        long bits = (long)length * 8;
+        int word = 0;
+        for(int j=0; j<4; j++) {
+            int p = pos + j;
+            int value = 0;
+            if(p < length)
+                value = message[p] & 0xff;
+            else if(p == length)
+                value = 0x80;
+            else if(p >= paddedLength - 8) {
+                // Which byte of the length, counting from the least significant
+                int k = bigEndian ? paddedLength - 1 - p : p - (paddedLength - 8);
+                value = (int)(bits >>> (k * 8)) & 0xff;
+            }
+            word |= bigEndian ? value << (24 - j * 8) : value << (j * 8);
+        }
+        return word;
+    }
+
+    private static void initState(AlgorithmType algorithm, int [] state) {
+        int [] iv;
+        if(algorithm==AlgorithmType.MD5)
+            iv = new int[] { 0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476 };
+        else if(algorithm==AlgorithmType.SHA1)
+            iv = new int[] { 0x67452301, 0xefcdab89, 0x98badcfe, 0x10325476, 0xc3d2e1f0 };
+        else
+            iv = new int[] { 0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a,
+                             0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19 };
+        for(int k=0; k<iv.length; k++)
+            Arrays.fill(state, k * LANES, (k + 1) * LANES, iv[k]);
+    }
+
+    private static IntVector load(int [] a, int index) {
+        return IntVector.fromArray(SPECIES, a, index * LANES);
+    }
+
+    /**
+     * Adds the working variables to the state, in the lanes still taking blocks.
+     */
+    private static void finish(int [] state, int [] v, int words, VectorMask<Integer> active) {
+        for(int k=0; k<words; k++) {
+            IntVector h = load(state, k);
+            h.blend(h.add(load(v, k)), active).intoArray(state, k * LANES);
+        }
+    }
+
+    private static IntVector rol(IntVector v, int n) {
+        return v.lanewise(VectorOperators.LSHL, n).or(v.lanewise(VectorOperators.LSHR, 32 - n));
+    }
+
+    private static IntVector xor(IntVector a, IntVector b) {
+        return a.lanewise(VectorOperators.XOR, b);
+    }
+
+    // Each step is its own method which loads what it needs from arrays and stores
+    // its results back. The vector API is only fast once the JIT has inlined and
+    // intrinsified every operation, and a whole 64 or 80 step block is more than
+    // it will inline into one method. Passing vectors between methods which
+    // aren't inlined would box them, arrays don't.
+    //
+    // Instead of shuffling the working variables around, the slot in v each one
+    // lives in rotates by one every step.
+
+    private static void md5Block(int [] state, int [] x, int [] v, VectorMask<Integer> active) {
+        System.arraycopy(state, 0, v, 0, 4 * LANES);
+        for(int i=0; i<64; i++)
+            md5Step(v, x, i);
+        finish(state, v, 4, active);
+    }
+
+    private static void md5Step(int [] v, int [] x, int i) {
+        int sa = -i & 3;
+        IntVector a = load(v, sa), b = load(v, (1 - i) & 3), c = load(v, (2 - i) & 3), d = load(v, (3 - i) & 3);
+        IntVector f;
+        int g;
+        if(i < 16) {
+            f = b.and(c).or(b.not().and(d));
+            g = i;
+        } else if(i < 32) {
+            f = b.and(d).or(c.and(d.not()));
+            g = (5 * i + 1) & 15;
+        } else if(i < 48) {
+            f = xor(xor(b, c), d);
+            g = (3 * i + 5) & 15;
+        } else {
+            f = xor(c, b.or(d.not()));
+            g = (7 * i) & 15;
+        }
+        // b takes the new value, the slot of a becomes the slot of b
+        b.add(rol(a.add(f).add(load(x, g)).add(PureMD5.T[i]), MD5_SHIFTS[(i >> 4) * 4 + (i & 3)]))
+            .intoArray(v, sa * LANES);
+    }
+
+    private static void sha1Block(int [] state, int [] x, int [] w, int [] v, VectorMask<Integer> active) {
+        System.arraycopy(x, 0, w, 0, 16 * LANES);
+        for(int i=16; i<80; i++)
+            sha1Schedule(w, i);
+        System.arraycopy(state, 0, v, 0, 5 * LANES);
+        for(int i=0; i<80; i++)
+            sha1Step(v, w, i);
+        finish(state, v, 5, active);
+    }
+
+    private static void sha1Schedule(int [] w, int i) {
+        rol(xor(xor(load(w, i - 3), load(w, i - 8)), xor(load(w, i - 14), load(w, i - 16))), 1).intoArray(w, i * LANES);
+    }
+
+    private static void sha1Step(int [] v, int [] w, int i) {
+        int r = i % 5;
+        int sb = (6 - r) % 5, se = (9 - r) % 5;
+        IntVector a = load(v, (5 - r) % 5), b = load(v, sb), c = load(v, (7 - r) % 5), d = load(v, (8 - r) % 5);
+        IntVector f;
+        int k;
+        if(i < 20) {
+            f = b.and(c).or(b.not().and(d));
+            k = 0x5a827999;
+        } else if(i < 40) {
+            f = xor(xor(b, c), d);
+            k = 0x6ed9eba1;
+        } else if(i < 60) {
+            f = b.and(c).or(b.and(d)).or(c.and(d));
+            k = 0x8f1bbcdc;
+        } else {
+            f = xor(xor(b, c), d);
+            k = 0xca62c1d6;
+        }
+        // The new a goes where e was, c is b rotated in place
+        rol(a, 5).add(f).add(load(v, se)).add(load(w, i)).add(k).intoArray(v, se * LANES);
+        rol(b, 30).intoArray(v, sb * LANES);
+    }
+
+    private static void sha256Block(int [] state, int [] x, int [] w, int [] v, VectorMask<Integer> active) {
+        System.arraycopy(x, 0, w, 0, 16 * LANES);
+        for(int i=16; i<64; i++)
+            sha256Schedule(w, i);
+        System.arraycopy(state, 0, v, 0, 8 * LANES);
+        for(int i=0; i<64; i++) {
+            sha256StepE(v, w, i);
+            sha256StepA(v, i);
+        }
+        finish(state, v, 8, active);
+    }
+
+    private static void sha256Schedule(int [] w, int i) {
+        IntVector w15 = load(w, i - 15);
+        IntVector w2 = load(w, i - 2);
+        IntVector s0 = xor(xor(rol(w15, 25), rol(w15, 14)), w15.lanewise(VectorOperators.LSHR, 3));
+        IntVector s1 = xor(xor(rol(w2, 15), rol(w2, 13)), w2.lanewise(VectorOperators.LSHR, 10));
+        load(w, i - 16).add(s0).add(load(w, i - 7)).add(s1).intoArray(w, i * LANES);
+    }
+
+    /**
+     * First half of a step: t1 = h + S1(e) + Ch(e, f, g) + K + W, the new e is
+     * d + t1. t1 is left in the slot of h for the second half.
+     */
+    private static void sha256StepE(int [] v, int [] w, int i) {
+        int sd = (3 - i) & 7, sh = (7 - i) & 7;
+        IntVector e = load(v, (4 - i) & 7), f = load(v, (5 - i) & 7), g = load(v, (6 - i) & 7);
+
+        // Right rotations by 6, 11 and 25
+        IntVector s1 = xor(xor(rol(e, 26), rol(e, 21)), rol(e, 7));
+        IntVector ch = xor(e.and(f), e.not().and(g));
+        IntVector t1 = load(v, sh).add(s1).add(ch).add(PureSHA256.K[i]).add(load(w, i));
+        t1.intoArray(v, sh * LANES);
+        load(v, sd).add(t1).intoArray(v, sd * LANES);
+    }
+
+    /**
+     * Second half of a step: the new a is t1 + S0(a) + Maj(a, b, c), it goes
+     * where h (now t1) was.
+     */
+    private static void sha256StepA(int [] v, int i) {
+        int sh = (7 - i) & 7;
+        IntVector a = load(v, -i & 7), b = load(v, (1 - i) & 7), c = load(v, (2 - i) & 7);
+
+        // Right rotations by 2, 13 and 22
+        IntVector s0 = xor(xor(rol(a, 30), rol(a, 19)), rol(a, 10));
+        IntVector maj = xor(xor(a.and(b), a.and(c)), b.and(c));
+        load(v, sh).add(s0).add(maj).intoArray(v, sh * LANES);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers for the thread pools which generate passwords in bulk.
+ *
+ * @author Dave Marotti
+ */
+final class WorkerPools {
+    private WorkerPools() {
+    }
+
+    /**
+     * Waits for a task and returns its result. Whatever the task threw is
+     * thrown as is, rather than wrapped in an ExecutionException.
+     */
+    static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof Exception)
+                throw (Exception)cause;
+            if(cause instanceof Error)
+                throw (Error)cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Stops a pool and waits for the tasks which are already running to finish,
+     * so whatever they share can be erased safely afterwards. Being interrupted
+     * doesn't cut the wait short, the interrupt is kept for the caller.
+     */
+    static void shutdownAndWait(ExecutorService executor) {
+        executor.shutdownNow();
+        boolean interrupted = false;
+        while(true) {
+            try {
+                if(executor.awaitTermination(1, TimeUnit.SECONDS))
+                    break;
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -4,6 +4,10 @@ import junit.framework.Assert;
 
 import org.daveware.passwordmaker.Account;
 import org.daveware.passwordmaker.Account.UrlComponents;
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.CharacterSets;
+import org.daveware.passwordmaker.LeetLevel;
+import org.daveware.passwordmaker.LeetType;
 import org.junit.Test;
 
 public class AccountTest {
@@ -27,4 +31,60 @@ public class AccountTest {
         Assert.assertTrue(copy.getUrlComponents().isEmpty());
     }
 
+    @Test
+    public void testPackedSettings() {
+        Account account = new Account();
+        Assert.assertEquals(AlgorithmType.MD5, account.getAlgorithm());
+        Assert.assertTrue(account.isTrim());
+        Assert.assertFalse(account.isHmac());
+        Assert.assertEquals(LeetType.NONE, account.getLeetType());
+        Assert.assertEquals(LeetLevel.LEVEL1, account.getLeetLevel());
+
+        // Each setting must only change its own bits
+        for(AlgorithmType algorithm : AlgorithmType.getTypes()) {
+            for(LeetType leetType : LeetType.TYPES) {
+                for(LeetLevel leetLevel : LeetLevel.getLevels()) {
+                    account.setAlgorithm(algorithm);
+                    account.setLeetType(leetType);
+                    account.setLeetLevel(leetLevel);
+                    account.setHmac(leetLevel.getLevel() % 2==0);
+                    account.setSha256Bug(leetType==LeetType.BOTH);
+                    account.setIsFolder(true);
+                    account.addUrlComponent(UrlComponents.PortPathAnchorQuery);
+                    Assert.assertEquals(algorithm, account.getAlgorithm());
+                    Assert.assertEquals(leetType, account.getLeetType());
+                    Assert.assertEquals(leetLevel, account.getLeetLevel());
+                    Assert.assertEquals(leetLevel.getLevel() % 2==0, account.isHmac());
+                    Assert.assertEquals(leetType==LeetType.BOTH, account.isSha256Bug());
+                    Assert.assertTrue(account.isTrim());
+                    Assert.assertTrue(account.isFolder());
+                    Assert.assertFalse(account.isAutoPop());
+                    Assert.assertEquals(1, account.getUrlComponents().size());
+                    account.setIsFolder(false);
+                    Assert.assertFalse(account.isFolder());
+                }
+            }
+        }
+
+        Account copy = new Account();
+        copy.copySettings(account);
+        Assert.assertTrue(copy.hasSameSettings(account));
+        copy.setAutoPop(true);
+        Assert.assertFalse(copy.hasSameSettings(account));
+    }
+
+    @Test
+    public void testSharedStorage() {
+        Account account = new Account();
+        Assert.assertFalse(account.hasChildren());
+        Assert.assertEquals(0, account.getPatternCount());
+        account.getChildren().add(new Account("child", false));
+        Assert.assertEquals(1, account.getChildCount());
+
+        // Equal strings from elsewhere (a file for example) share the constant
+        account.setCharacterSet(new String(CharacterSets.HEX));
+        Assert.assertSame(CharacterSets.HEX, account.getCharacterSet());
+        account.setPrefix(new String(""));
+        Assert.assertSame("", account.getPrefix());
+    }
 }
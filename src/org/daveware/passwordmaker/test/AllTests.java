@@ -22,8 +22,8 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ DatabaseTest.class, LeetTest.class, PasswordMakerTest.class,
-		RDFDatabaseReaderTest.class /*, Account.class */ })
+@SuiteClasses({ CompactAccountStoreTest.class, DatabaseTest.class, DatabaseDiffTest.class, DatabaseGeneratorTest.class, DatabaseJournalTest.class, DatabaseMergeTest.class, DatabaseSaveServiceTest.class, DatabaseWatcherTest.class, DirectSecureCharArrayTest.class, FlightRecorderEventsTest.class, HashEnginesTest.class, LeetTest.class, ModifierSweepTest.class, MultiLaneHasherTest.class, ParallelRDFDatabaseReaderTest.class, PasswordCacheTest.class, PasswordMakerMetricsTest.class, PasswordMakerTest.class, PasswordVerifierTest.class, PureDigestTest.class,
+		RDFDatabaseReaderTest.class, SecureCharArrayTest.class, StrengthAuditTest.class /*, Account.class */ })
 public class AllTests {
     // Can't figure out how the hell to get this to work with Account. The Account
     // class has multiple structures which causes JUnit (or eclipse?) to throw
@@ -0,0 +1,113 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Security;
+import java.util.ArrayList;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.AccountPatternData;
+import org.daveware.passwordmaker.AccountPatternType;
+import org.daveware.passwordmaker.CompactAccountStore;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.PasswordMaker;
+import org.daveware.passwordmaker.SecureCharArray;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against CompactAccountStore.
+ * 
+ * @author Dave Marotti
+ */
+public class CompactAccountStoreTest {
+
+    @Before
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private static void treeOrder(Account account, ArrayList<Account> accounts) {
+        accounts.add(account);
+        for(Account child : account.getChildren())
+            treeOrder(child, accounts);
+    }
+
+    @Test
+    public void testMatchesDatabase() throws Exception {
+        DatabaseGenerator generator = new DatabaseGenerator(49);
+        generator.setAccounts(2000);
+        generator.setAccountsPerFolder(30);
+        Database db = generator.generate();
+
+        // Non-latin1 strings and a regex
+        Account odd = new Account("\u00fcber \u2603", "http://snow.example.com", "\u96ea");
+        odd.setId("snowman");
+        AccountPatternData pattern = new AccountPatternData();
+        pattern.setPattern(".*snow\\.example\\.com.*");
+        pattern.setType(AccountPatternType.REGEX);
+        pattern.setEnabled(false);
+        odd.getPatterns().add(pattern);
+        db.addAccount(db.getRootAccount().getChild(0), odd);
+
+        CompactAccountStore store = new CompactAccountStore(db);
+        ArrayList<Account> accounts = new ArrayList<Account>();
+        treeOrder(db.getRootAccount(), accounts);
+        assertEquals(accounts.size(), store.size());
+
+        for(int i=0; i<store.size(); i++) {
+            Account account = accounts.get(i);
+            Account copy = store.toAccount(i);
+            assertTrue(account.getName(), copy.hasSameSettings(account));
+            assertEquals(account.getId(), store.getId(i));
+            assertEquals(account.getChildCount(), store.getChildCount(i));
+            for(int c=0; c<account.getChildCount(); c++)
+                assertTrue(account.getChild(c)==accounts.get(store.getChild(i, c)));
+            if(i > 0) {
+                assertTrue(accounts.get(store.getParent(i)).hasChild(account));
+                assertEquals(i, store.findAccountById(account.getId()));
+            }
+        }
+        assertEquals(-1, store.getParent(0));
+        assertEquals(-1, store.findAccountById("nope"));
+
+        // Not every generated account has patterns
+        int withPatterns = 1000;
+        while(db.findAccountByUrl(DatabaseGenerator.getUrl(withPatterns))==null)
+            withPatterns++;
+        String [] urls = { DatabaseGenerator.getUrl(withPatterns), DatabaseGenerator.getUrl(7),
+                           "http://snow.example.com/x", "https://nowhere.example.org/" };
+        for(String url : urls) {
+            Account expected = db.findAccountByUrl(url);
+            int found = store.findAccountByUrl(url);
+            assertEquals(url, expected==null ? -1 : accounts.indexOf(expected), found);
+        }
+        assertTrue(store.findAccountByUrl(urls[0]) > 0);
+        assertEquals(store.findAccountById("snowman"), store.findAccountByUrl(urls[2]));
+
+        PasswordMaker pwm = new PasswordMaker();
+        SecureCharArray master = new SecureCharArray("columns");
+        int index = store.findAccountById("snowman");
+        assertEquals(new String(pwm.makePassword(master, odd).getData()),
+                     new String(pwm.makePassword(master, store.toAccount(index)).getData()));
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.security.Security;
+import java.util.Random;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.CompactAccountStore;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.LatencyHistogram;
+import org.daveware.passwordmaker.RDFDatabaseReader;
+import org.daveware.passwordmaker.RDFDatabaseWriter;
+
+/**
+ * Measures how loading, saving and searching scale with the number of accounts.
+ *
+ * For each size a database is created with DatabaseGenerator (fixed seed) and
+ * written to a temporary file. The benchmark then reports the read time, peak
+ * heap used while reading, the heap still held per account once the database
+ * is loaded and by a CompactAccountStore of it, and the write time and peak
+ * heap, followed by the latency of findAccountByUrl (for urls which exist and
+ * urls which don't) and findAccountById on the database and on the store.
+ *
+ * Usage: DatabaseBenchmark [accounts...]
+ *
+ * The default sizes are 1000 10000 100000 1000000. The largest needs a big
+ * heap, run it with something like -Xmx8g.
+ *
+ * @author Dave Marotti
+ */
+public class DatabaseBenchmark {
+    private static final long SEED = 20110101L;
+
+    // Upper bound on account visits per lookup measurement, keeps big sizes bounded
+    private static final long LOOKUP_BUDGET = 5000000L;
+
+    public static void main(String [] args) throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+
+        int [] sizes = { 1000, 10000, 100000, 1000000 };
+        if(args.length > 0) {
+            sizes = new int[args.length];
+            for(int i=0; i<args.length; i++)
+                sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        System.out.println(String.format("%-9s %9s %8s %9s %10s %13s %9s %10s  %s",
+                "accounts", "file(KB)", "read(ms)", "read-heap", "bytes/acct", "compact/acct", "write(ms)", "write-heap", "lookups"));
+        for(int size : sizes)
+            run(size);
+    }
+
+    private static void run(int size) throws Exception {
+        File file = File.createTempFile("pwmje-bench-" + size + "-", ".rdf");
+        file.deleteOnExit();
+        try {
+            DatabaseGenerator generator = new DatabaseGenerator(SEED);
+            generator.setAccounts(size);
+            generator.generate(file);
+
+            // Read
+            resetPeakHeap();
+            long baseline = usedHeap();
+            long start = System.nanoTime();
+            Database db;
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                db = new RDFDatabaseReader().read(in);
+            } finally {
+                in.close();
+            }
+            long readNanos = System.nanoTime() - start;
+            long readHeap = peakHeap() - baseline;
+            long retained = usedHeap() - baseline;
+
+            // Compact copy, measured while the database is still held
+            baseline = usedHeap();
+            CompactAccountStore store = new CompactAccountStore(db);
+            long compact = usedHeap() - baseline;
+
+            // Write
+            resetPeakHeap();
+            baseline = usedHeap();
+            start = System.nanoTime();
+            OutputStream out = new FileOutputStream(file);
+            try {
+                new RDFDatabaseWriter().write(out, db.getSnapshot());
+            } finally {
+                out.close();
+            }
+            long writeNanos = System.nanoTime() - start;
+            long writeHeap = peakHeap() - baseline;
+
+            // Lookups, each one visits up to "size" accounts
+            int lookups = (int)Math.max(10, Math.min(1000, LOOKUP_BUDGET / size));
+            Random random = new Random(SEED);
+            LatencyHistogram urlHits = new LatencyHistogram();
+            LatencyHistogram urlMisses = new LatencyHistogram();
+            LatencyHistogram ids = new LatencyHistogram();
+            LatencyHistogram compactUrls = new LatencyHistogram();
+            LatencyHistogram compactIds = new LatencyHistogram();
+            for(int pass=0; pass<2; pass++) {
+                // The first pass warms up the JIT
+                urlHits.reset();
+                urlMisses.reset();
+                ids.reset();
+                compactUrls.reset();
+                compactIds.reset();
+                for(int i=0; i<lookups; i++) {
+                    int n = random.nextInt(size);
+
+                    start = System.nanoTime();
+                    db.findAccountByUrl(DatabaseGenerator.getUrl(n));
+                    urlHits.record(System.nanoTime() - start);
+
+                    start = System.nanoTime();
+                    db.findAccountByUrl("https://nowhere" + n + ".example.org/");
+                    urlMisses.record(System.nanoTime() - start);
+
+                    start = System.nanoTime();
+                    if(db.findAccountById(DatabaseGenerator.getId(n))==null)
+                        throw new Exception("Generated account " + n + " was not read back");
+                    ids.record(System.nanoTime() - start);
+
+                    start = System.nanoTime();
+                    store.findAccountByUrl(DatabaseGenerator.getUrl(n));
+                    compactUrls.record(System.nanoTime() - start);
+
+                    start = System.nanoTime();
+                    if(store.findAccountById(DatabaseGenerator.getId(n)) < 0)
+                        throw new Exception("Generated account " + n + " is not in the compact store");
+                    compactIds.record(System.nanoTime() - start);
+                }
+            }
+
+            System.out.println(String.format("%-9d %9d %8d %8dM %10d %13d %9d %9dM  %d each",
+                    size, file.length() / 1024, readNanos / 1000000, readHeap >> 20, retained / size, compact / size,
+                    writeNanos / 1000000, writeHeap >> 20, lookups));
+            System.out.println("  findAccountByUrl (hit)  " + urlHits);
+            System.out.println("  findAccountByUrl (miss) " + urlMisses);
+            System.out.println("  findAccountById         " + ids);
+            System.out.println("  compact findAccountByUrl (hit) " + compactUrls);
+            System.out.println("  compact findAccountById        " + compactIds);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        System.gc();
+        long used = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType()==MemoryType.HEAP)
+                used += pool.getUsage().getUsed();
+        }
+        return used;
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType()==MemoryType.HEAP)
+                pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * @return The sum of the peak usage of every heap pool since resetPeakHeap().
+     *         The pools peak at different times so this is an upper bound.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType()==MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.daveware.passwordmaker.test.TestAccounts.createAccount;
+import static org.daveware.passwordmaker.test.TestAccounts.createFolder;
+import static org.daveware.passwordmaker.test.TestAccounts.id;
+import static org.daveware.passwordmaker.test.TestAccounts.toRdf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.security.Security;
+import java.util.Collections;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.DatabaseBatch;
+import org.daveware.passwordmaker.DatabaseBatchListener;
+import org.daveware.passwordmaker.DatabaseDiff;
+import org.daveware.passwordmaker.GlobalSettingKey;
+import org.daveware.passwordmaker.RDFDatabaseReader;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against the DatabaseDiff class.
+ * 
+ * @author Dave Marotti
+ */
+public class DatabaseDiffTest {
+
+    @Before
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private Database createDatabase() throws Exception {
+        Database db = new Database();
+        Account f1 = createFolder("f1");
+        Account f2 = createFolder("f2");
+        db.addAccount(db.getRootAccount(), f1);
+        db.addAccount(db.getRootAccount(), f2);
+        db.addAccount(f1, createAccount("a"));
+        db.addAccount(f1, createAccount("b"));
+        db.addAccount(f1, createAccount("c"));
+        db.addAccount(f2, createAccount("d"));
+        db.addAccount(db.getRootAccount(), createAccount("e"));
+        return db;
+    }
+
+    /**
+     * Makes an independent copy by going through the RDF format, like reading
+     * the file again would.
+     */
+    private Database copy(Database db) throws Exception {
+        return new RDFDatabaseReader().read(new ByteArrayInputStream(toRdf(db).getBytes("UTF-8")));
+    }
+
+    /**
+     * Applying the diff of two versions to the older one turns it into the newer one.
+     */
+    @Test
+    public void testApply() throws Exception {
+        Database older = createDatabase();
+        Database newer = copy(older);
+
+        // added, including a folder with contents
+        Account f3 = createFolder("f3");
+        newer.addAccount(newer.getRootAccount(), f3);
+        newer.addAccount(f3, createAccount("g"));
+        newer.addAccount(newer.findAccountById(id("f1")), createAccount("h"));
+        // changed
+        Account b = newer.findAccountById(id("b"));
+        b.setAlgorithm(AlgorithmType.SHA1);
+        b.setName("bee");
+        newer.changeAccount(b);
+        // moved
+        Account d = newer.findAccountById(id("d"));
+        newer.removeAccount(d);
+        newer.addAccount(f3, d);
+        // removed
+        newer.removeAccount(newer.findAccountById(id("e")));
+        // reordered
+        Collections.reverse(newer.findAccountById(id("f1")).getChildren());
+        newer.changeAccount(newer.findAccountById(id("f1")));
+        newer.setGlobalSetting(GlobalSettingKey.CLIPBOARD_TIMEOUT, "3");
+
+        DatabaseDiff diff = DatabaseDiff.compare(older.getSnapshot(), newer.getSnapshot());
+        assertEquals(3, diff.getEntries(DatabaseDiff.Type.ADDED).size());
+        assertEquals(1, diff.getEntries(DatabaseDiff.Type.REMOVED).size());
+        assertEquals(1, diff.getEntries(DatabaseDiff.Type.MOVED).size());
+        assertEquals(2, diff.getEntries(DatabaseDiff.Type.CHANGED).size());
+        assertEquals(1, diff.getChangedSettings().size());
+
+        final int [] batches = { 0 };
+        older.addDatabaseListener(new DatabaseBatchListener() {
+            public void accountAdded(Account parent, Account account) {}
+            public void accountRemoved(Account parent, Account account) {}
+            public void accountChanged(Account account) {}
+            public void dirtyStatusChanged(boolean status) {}
+            public void accountsBatchUpdated(DatabaseBatch batch) {
+                batches[0]++;
+            }
+        });
+        diff.apply(older);
+        assertEquals(1, batches[0]);
+        assertEquals(toRdf(newer), toRdf(older));
+
+        // Nothing left to do
+        assertTrue(DatabaseDiff.compare(older.getSnapshot(), newer.getSnapshot()).isEmpty());
+    }
+
+    /**
+     * Applying a diff between two other versions only touches what that diff
+     * changed, so local edits survive.
+     */
+    @Test
+    public void testKeepsLocalChanges() throws Exception {
+        Database base = createDatabase();
+        Database local = copy(base);
+        Database onDisk = copy(base);
+
+        Account a = local.findAccountById(id("a"));
+        a.setName("local edit");
+        local.changeAccount(a);
+        local.addAccount(local.getRootAccount(), createAccount("local"));
+
+        Account c = onDisk.findAccountById(id("c"));
+        c.setName("remote edit");
+        onDisk.changeAccount(c);
+        onDisk.removeAccount(onDisk.findAccountById(id("d")));
+
+        DatabaseDiff.compare(base.getSnapshot(), onDisk.getSnapshot()).apply(local);
+
+        assertEquals("local edit", local.findAccountById(id("a")).getName());
+        assertEquals("remote edit", local.findAccountById(id("c")).getName());
+        assertTrue(local.findAccountById(id("local"))!=null);
+        assertTrue(local.findAccountById(id("d"))==null);
+    }
+}
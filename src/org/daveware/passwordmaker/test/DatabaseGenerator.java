@@ -0,0 +1,227 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.AccountPatternData;
+import org.daveware.passwordmaker.AccountPatternType;
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.CharacterSets;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.LeetLevel;
+import org.daveware.passwordmaker.LeetType;
+import org.daveware.passwordmaker.RDFDatabaseWriter;
+
+/**
+ * Generates synthetic databases for benchmarks and scaling tests.
+ *
+ * The same seed and settings always produce the same database, ids included,
+ * so results from different runs and different machines can be compared.
+ *
+ * Accounts get an url of the form "https://www.site<n>.example.com/login" and,
+ * depending on getPatternsPerAccount(), wildcard and regex patterns which
+ * match that url. getUrl(n) returns the url for account n so lookups can be
+ * aimed at accounts which exist.
+ *
+ * @author Dave Marotti
+ */
+public class DatabaseGenerator {
+    private final long seed;
+    private int accounts = 1000;
+    private int accountsPerFolder = 50;
+    private int maxDepth = 3;
+    private int patternsPerAccount = 2;
+    private String [] charsets = CharacterSets.CHARSETS;
+
+    public DatabaseGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public int getAccounts() {
+        return accounts;
+    }
+
+    /**
+     * @param accounts The number of non-folder accounts to create.
+     */
+    public void setAccounts(int accounts) {
+        this.accounts = accounts;
+    }
+
+    public int getAccountsPerFolder() {
+        return accountsPerFolder;
+    }
+
+    /**
+     * @param accountsPerFolder The average number of accounts per folder, 0 for no folders.
+     */
+    public void setAccountsPerFolder(int accountsPerFolder) {
+        this.accountsPerFolder = accountsPerFolder;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @param maxDepth How deep folders may be nested, 1 keeps all folders directly under the root.
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public int getPatternsPerAccount() {
+        return patternsPerAccount;
+    }
+
+    /**
+     * @param patternsPerAccount The maximum number of patterns per account, each account
+     *                           gets between 0 and this many.
+     */
+    public void setPatternsPerAccount(int patternsPerAccount) {
+        this.patternsPerAccount = patternsPerAccount;
+    }
+
+    public String [] getCharsets() {
+        return charsets;
+    }
+
+    /**
+     * @param charsets The character sets to pick from, defaults to CharacterSets.CHARSETS.
+     */
+    public void setCharsets(String [] charsets) {
+        this.charsets = charsets;
+    }
+
+    /**
+     * @return The url given to the n'th account.
+     */
+    public static String getUrl(int n) {
+        return "https://www.site" + n + ".example.com/login";
+    }
+
+    /**
+     * @return The id given to the n'th account.
+     */
+    public static String getId(int n) {
+        return "rdf:#$acct" + n;
+    }
+
+    /**
+     * Builds the database in memory. The tree is assembled directly rather than
+     * through Database.addAccount(), whose duplicate id check would make this
+     * quadratic.
+     *
+     * @return The new database, it is not dirty.
+     */
+    public Database generate() throws Exception {
+        Random random = new Random(seed);
+        Database db = new Database();
+        db.addDefaultAccount();
+
+        // Folders first, each under the root or a random shallower folder
+        ArrayList<Account> folders = new ArrayList<Account>();
+        ArrayList<Integer> depths = new ArrayList<Integer>();
+        int folderCount = accountsPerFolder > 0 ? accounts / accountsPerFolder : 0;
+        for(int i=0; i<folderCount; i++) {
+            Account folder = new Account("Folder " + i, true);
+            folder.setId("rdf:#$folder" + i);
+            folder.setDesc("Generated folder " + i);
+
+            int parentIndex = folders.isEmpty() ? -1 : random.nextInt(folders.size() + 1) - 1;
+            if(parentIndex>=0 && depths.get(parentIndex) < maxDepth) {
+                folders.get(parentIndex).getChildren().add(folder);
+                depths.add(depths.get(parentIndex) + 1);
+            }
+            else {
+                db.getRootAccount().getChildren().add(folder);
+                depths.add(1);
+            }
+            folders.add(folder);
+        }
+
+        AlgorithmType [] algorithms = AlgorithmType.getTypes();
+        LeetLevel [] leetLevels = LeetLevel.getLevels();
+        for(int i=0; i<accounts; i++) {
+            Account account = new Account("Site " + i, getUrl(i), "user" + i + "@example.com");
+            account.setId(getId(i));
+            account.setDesc(random.nextInt(4)==0 ? "Generated account " + i : "");
+            account.setAlgorithm(algorithms[random.nextInt(algorithms.length)]);
+            account.setHmac(random.nextBoolean());
+            account.setLength(8 + random.nextInt(25));
+            account.setCharacterSet(charsets[random.nextInt(charsets.length)]);
+            if(random.nextInt(5)==0) {
+                account.setLeetType(LeetType.TYPES[1 + random.nextInt(LeetType.TYPES.length - 1)]);
+                account.setLeetLevel(leetLevels[random.nextInt(leetLevels.length)]);
+            }
+            if(random.nextInt(10)==0)
+                account.setModifier(Integer.toString(random.nextInt(100)));
+            if(random.nextInt(10)==0)
+                account.setPrefix("P" + random.nextInt(10));
+            if(random.nextInt(10)==0)
+                account.setSuffix("!" + random.nextInt(10));
+
+            int patterns = patternsPerAccount > 0 ? random.nextInt(patternsPerAccount + 1) : 0;
+            for(int p=0; p<patterns; p++) {
+                AccountPatternData data = new AccountPatternData();
+                if(p % 2 == 0) {
+                    data.setPattern("*site" + i + ".example.com/*");
+                    data.setType(AccountPatternType.WILDCARD);
+                }
+                else {
+                    data.setPattern("https?://([a-z]+\\.)?site" + i + "\\.example\\.com/.*");
+                    data.setType(AccountPatternType.REGEX);
+                }
+                data.setDesc("Pattern " + p);
+                data.setEnabled(true);
+                account.getPatterns().add(data);
+            }
+
+            if(folders.isEmpty() || random.nextInt(10)==0)
+                db.getRootAccount().getChildren().add(account);
+            else
+                folders.get(random.nextInt(folders.size())).getChildren().add(account);
+        }
+
+        // The tree was built directly, so the database has to re-snapshot it
+        db.invalidateSnapshot();
+        db.setDirty(false);
+        return db;
+    }
+
+    /**
+     * Generates the database and writes it as RDF.
+     * @param file The file to write.
+     * @return The generated database.
+     */
+    public Database generate(File file) throws Exception {
+        Database db = generate();
+        FileOutputStream fout = new FileOutputStream(file);
+        try {
+            new RDFDatabaseWriter().write(fout, db.getSnapshot());
+        } finally {
+            fout.close();
+        }
+        return db;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.security.Security;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.RDFDatabaseReader;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against the DatabaseGenerator used by DatabaseBenchmark.
+ * 
+ * @author Dave Marotti
+ */
+public class DatabaseGeneratorTest {
+
+    @Before
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void testRepeatable() throws Exception {
+        DatabaseGenerator generator = new DatabaseGenerator(42);
+        generator.setAccounts(500);
+        Database a = generator.generate();
+        Database b = generator.generate();
+        assertEquals(a.getSnapshot().getRootAccount().getTreeHash(), b.getSnapshot().getRootAccount().getTreeHash());
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DatabaseGenerator generator = new DatabaseGenerator(7);
+        generator.setAccounts(2000);
+        generator.setAccountsPerFolder(20);
+        generator.setPatternsPerAccount(3);
+
+        File file = File.createTempFile("pwmje-gen", ".rdf");
+        try {
+            Database generated = generator.generate(file);
+            FileInputStream fin = new FileInputStream(file);
+            Database read;
+            try {
+                read = new RDFDatabaseReader().read(fin);
+            } finally {
+                fin.close();
+            }
+
+            assertEquals(generated.getSnapshot().getRootAccount().getTreeHash(), read.getSnapshot().getRootAccount().getTreeHash());
+
+            // Every account with a pattern is found by its own url
+            for(int i=0; i<2000; i++) {
+                Account account = read.findAccountById(DatabaseGenerator.getId(i));
+                assertNotNull(account);
+                if(account.getPatterns().size() > 0)
+                    assertSame(account, read.findAccountByUrl(DatabaseGenerator.getUrl(i)));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.daveware.passwordmaker.test.TestAccounts.createAccount;
+import static org.daveware.passwordmaker.test.TestAccounts.createFolder;
+import static org.daveware.passwordmaker.test.TestAccounts.id;
+import static org.daveware.passwordmaker.test.TestAccounts.toRdf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.security.Security;
+import java.util.Comparator;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.AccountPatternData;
+import org.daveware.passwordmaker.AccountPatternType;
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.DatabaseJournal;
+import org.daveware.passwordmaker.DatabaseSaveService;
+import org.daveware.passwordmaker.GlobalSettingKey;
+import org.daveware.passwordmaker.LeetLevel;
+import org.daveware.passwordmaker.LeetType;
+import org.daveware.passwordmaker.RDFDatabaseReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against the DatabaseJournal class.
+ * 
+ * @author Dave Marotti
+ */
+public class DatabaseJournalTest {
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        dir = File.createTempFile("pwmje-journal", "");
+        dir.delete();
+        dir.mkdir();
+        file = new File(dir, "test.rdf");
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    private Database createDatabase() throws Exception {
+        Database db = new Database();
+        db.addDefaultAccount();
+        Account folder = createFolder("folder");
+        db.addAccount(db.getRootAccount(), folder);
+        db.addAccount(folder, createAccount("b"));
+        db.addAccount(folder, createAccount("a"));
+        db.addAccount(db.getRootAccount(), createAccount("c"));
+        DatabaseSaveService.writeAtomically(file, db.getSnapshot());
+        return db;
+    }
+
+    /**
+     * Every kind of change survives a sync and load.
+     */
+    @Test
+    public void testReplay() throws Exception {
+        Database db = createDatabase();
+        long rdfLength = file.length();
+        DatabaseJournal journal = new DatabaseJournal(file, db);
+
+        Account folder = db.findAccountById(id("folder"));
+        Account d = createAccount("d");
+        d.setAlgorithm(AlgorithmType.SHA256);
+        d.setHmac(true);
+        d.setLeetType(LeetType.BOTH);
+        d.setLeetLevel(LeetLevel.LEVEL7);
+        d.setPrefix("pre");
+        d.setLength(21);
+        AccountPatternData pattern = new AccountPatternData();
+        pattern.setPattern("http://*.d.com/*");
+        pattern.setType(AccountPatternType.REGEX);
+        pattern.setDesc("the d pattern");
+        pattern.setEnabled(true);
+        d.getPatterns().add(pattern);
+        db.addAccount(folder, d);
+
+        Account c = db.findAccountById(id("c"));
+        c.setName("c renamed \u00e9");
+        db.changeAccount(c);
+
+        db.sortChildren(folder, new Comparator<Account>() {
+            public int compare(Account a1, Account a2) {
+                return a1.getName().compareTo(a2.getName());
+            }
+        });
+
+        db.beginUpdate();
+        try {
+            db.removeAccount(db.findAccountById(id("b")));
+            db.addAccount(db.getRootAccount(), createAccount("e"));
+        } finally {
+            db.commitUpdate();
+        }
+        db.setGlobalSetting(GlobalSettingKey.CLIPBOARD_TIMEOUT, "42");
+
+        journal.sync();
+        journal.close();
+
+        // The RDF file itself was not touched
+        assertEquals(rdfLength, file.length());
+        assertTrue(DatabaseJournal.getJournalFile(file).exists());
+
+        Database loaded = DatabaseJournal.load(file);
+        assertEquals(toRdf(db), toRdf(loaded));
+        assertEquals("42", loaded.getGlobalSetting(GlobalSettingKey.CLIPBOARD_TIMEOUT));
+        assertTrue(loaded.isDirty()==false);
+    }
+
+    /**
+     * Changes which were never synced are not in the journal.
+     */
+    @Test
+    public void testDiscard() throws Exception {
+        Database db = createDatabase();
+        DatabaseJournal journal = new DatabaseJournal(file, db);
+        db.addAccount(db.getRootAccount(), createAccount("d"));
+        journal.sync();
+
+        db.addAccount(db.getRootAccount(), createAccount("e"));
+        journal.close();
+
+        Database loaded = DatabaseJournal.load(file);
+        assertNotNull(loaded.findAccountById(id("d")));
+        assertNull(loaded.findAccountById(id("e")));
+    }
+
+    /**
+     * A damaged record at the end is ignored, everything before it is applied.
+     */
+    @Test
+    public void testTornRecord() throws Exception {
+        Database db = createDatabase();
+        DatabaseJournal journal = new DatabaseJournal(file, db);
+        db.addAccount(db.getRootAccount(), createAccount("d"));
+        journal.sync();
+        db.addAccount(db.getRootAccount(), createAccount("e"));
+        journal.sync();
+        journal.close();
+
+        // Chop off the last few bytes, as if the last append was interrupted
+        File journalFile = DatabaseJournal.getJournalFile(file);
+        RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        Database loaded = DatabaseJournal.load(file);
+        assertNotNull(loaded.findAccountById(id("d")));
+        assertNull(loaded.findAccountById(id("e")));
+    }
+
+    /**
+     * Passing the threshold rewrites the RDF file and empties the journal.
+     */
+    @Test
+    public void testCompaction() throws Exception {
+        Database db = createDatabase();
+        DatabaseJournal journal = new DatabaseJournal(file, db);
+        journal.setCompactThreshold(1024);
+
+        for(int i=0; i<20; i++) {
+            db.addAccount(db.getRootAccount(), createAccount("acc" + i));
+            journal.sync();
+        }
+        // Waits for the compaction to finish
+        journal.close();
+
+        // The early accounts made it into the RDF file itself
+        FileInputStream fin = new FileInputStream(file);
+        Database rdfOnly = new RDFDatabaseReader().read(fin);
+        fin.close();
+        assertNotNull(rdfOnly.findAccountById(id("acc0")));
+
+        Database loaded = DatabaseJournal.load(file);
+        assertEquals(toRdf(db), toRdf(loaded));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.daveware.passwordmaker.test.TestAccounts.createAccount;
+import static org.daveware.passwordmaker.test.TestAccounts.createFolder;
+import static org.daveware.passwordmaker.test.TestAccounts.id;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.security.Security;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.DatabaseDiff;
+import org.daveware.passwordmaker.DatabaseMerge;
+import org.daveware.passwordmaker.DatabaseSnapshot;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against the DatabaseMerge class and the hash based parts of DatabaseDiff.
+ * 
+ * @author Dave Marotti
+ */
+public class DatabaseMergeTest {
+
+    @Before
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private Database createDatabase(int folders, int accountsPerFolder) throws Exception {
+        Database db = new Database();
+        db.beginUpdate();
+        try {
+            for(int f=0; f<folders; f++) {
+                Account folder = createFolder("folder" + f);
+                for(int a=0; a<accountsPerFolder; a++)
+                    folder.getChildren().add(createAccount("acc" + f + "-" + a));
+                db.getRootAccount().getChildren().add(folder);
+            }
+        } finally {
+            db.commitUpdate();
+        }
+        db.invalidateSnapshot();
+        return db;
+    }
+
+    private void rename(Database db, String name, String newName) {
+        Account account = db.findAccountById(id(name));
+        account.setName(newName);
+        db.changeAccount(account);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        DatabaseSnapshot base = createDatabase(3, 3).getSnapshot();
+        Database ours = base.toDatabase();
+        Database theirs = base.toDatabase();
+
+        rename(ours, "acc0-0", "ours");
+        ours.addAccount(ours.findAccountById(id("folder1")), createAccount("x"));
+        rename(ours, "acc2-2", "same");
+
+        rename(theirs, "acc0-0", "theirs");
+        rename(theirs, "acc0-1", "theirs too");
+        rename(theirs, "acc2-2", "same");
+        theirs.removeAccount(theirs.findAccountById(id("acc1-1")));
+        theirs.addAccount(theirs.getRootAccount(), createAccount("y"));
+        // A folder they removed but we added to stays
+        theirs.removeAccount(theirs.findAccountById(id("folder1")));
+
+        DatabaseMerge merge = DatabaseMerge.merge(base, ours.getSnapshot(), theirs.getSnapshot());
+        Database merged = merge.getMerged();
+
+        assertEquals(1, merge.getConflicts().size());
+        assertEquals(id("acc0-0"), merge.getConflicts().get(0).getId());
+        assertEquals("ours", merged.findAccountById(id("acc0-0")).getName());
+        assertEquals("theirs too", merged.findAccountById(id("acc0-1")).getName());
+        assertEquals("same", merged.findAccountById(id("acc2-2")).getName());
+        assertNotNull(merged.findAccountById(id("x")));
+        assertNotNull(merged.findAccountById(id("y")));
+        assertNotNull(merged.findAccountById(id("folder1")));
+        assertNull(merged.findAccountById(id("acc1-1")));
+        assertNull(merged.findAccountById(id("acc1-0")));
+
+        // Our database itself wasn't touched
+        assertNotNull(ours.findAccountById(id("acc1-1")));
+    }
+
+    /**
+     * Two large trees with a handful of differences, built separately so nothing
+     * is shared between them.
+     */
+    @Test
+    public void testLargeDiff() throws Exception {
+        Database older = createDatabase(500, 100);
+        Database newer = createDatabase(500, 100);
+
+        rename(newer, "acc10-10", "changed");
+        newer.removeAccount(newer.findAccountById(id("acc20-20")));
+        newer.addAccount(newer.findAccountById(id("folder30")), createAccount("new"));
+        Account moved = newer.findAccountById(id("acc40-40"));
+        newer.removeAccount(moved);
+        newer.addAccount(newer.findAccountById(id("folder50")), moved);
+
+        DatabaseDiff diff = DatabaseDiff.compare(older.getSnapshot(), newer.getSnapshot());
+        assertEquals(1, diff.getEntries(DatabaseDiff.Type.CHANGED).size());
+        assertEquals(1, diff.getEntries(DatabaseDiff.Type.REMOVED).size());
+        assertEquals(1, diff.getEntries(DatabaseDiff.Type.ADDED).size());
+        assertEquals(1, diff.getEntries(DatabaseDiff.Type.MOVED).size());
+    }
+
+    /**
+     * Accounts they add or move into a folder we removed must not be lost.
+     */
+    @Test
+    public void testAddedIntoFolderWeRemoved() throws Exception {
+        DatabaseSnapshot base = createDatabase(3, 3).getSnapshot();
+        Database ours = base.toDatabase();
+        Database theirs = base.toDatabase();
+
+        ours.removeAccount(ours.findAccountById(id("folder2")));
+        ours.removeAccount(ours.findAccountById(id("folder1")));
+
+        theirs.addAccount(theirs.findAccountById(id("folder2")), createAccount("z"));
+        Account moved = theirs.findAccountById(id("acc0-0"));
+        theirs.removeAccount(moved);
+        theirs.addAccount(theirs.findAccountById(id("folder1")), moved);
+
+        DatabaseMerge merge = DatabaseMerge.merge(base, ours.getSnapshot(), theirs.getSnapshot());
+        Database merged = merge.getMerged();
+
+        HashSet<String> conflicts = new HashSet<String>();
+        for(DatabaseMerge.Conflict conflict : merge.getConflicts())
+            conflicts.add(conflict.getId());
+        assertEquals(new HashSet<String>(Arrays.asList(id("z"), id("acc0-0"))), conflicts);
+        assertEquals(id("folder2"), merged.findParent(merged.findAccountById(id("z"))).getId());
+        assertEquals(id("folder1"), merged.findParent(merged.findAccountById(id("acc0-0"))).getId());
+        // Only the folders come back, the rest of what we removed stays removed
+        assertNull(merged.findAccountById(id("acc2-0")));
+        assertNull(merged.findAccountById(id("acc1-0")));
+    }
+}
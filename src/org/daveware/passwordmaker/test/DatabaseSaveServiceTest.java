@@ -0,0 +1,176 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.DatabaseSaveService;
+import org.daveware.passwordmaker.DatabaseSnapshot;
+import org.daveware.passwordmaker.RDFDatabaseReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against the DatabaseSaveService class.
+ * 
+ * @author Dave Marotti
+ */
+public class DatabaseSaveServiceTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        dir = File.createTempFile("pwmje-save", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    private Database readFile(File file) throws Exception {
+        InputStream is = new FileInputStream(file);
+        try {
+            return new RDFDatabaseReader().read(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Saves queued while the delay is running should turn into one write of the
+     * newest state, and no temporary files should be left behind.
+     */
+    @Test
+    public void testCoalescing() throws Exception {
+        final AtomicInteger writes = new AtomicInteger(0);
+        final ArrayList<DatabaseSnapshot> written = new ArrayList<DatabaseSnapshot>();
+        DatabaseSaveService service = new DatabaseSaveService(60000);
+        service.addListener(new DatabaseSaveService.Listener() {
+            public void saveCompleted(File file, DatabaseSnapshot snapshot) {
+                writes.incrementAndGet();
+                written.add(snapshot);
+            }
+            public void saveFailed(File file, DatabaseSnapshot snapshot, Exception e) {
+            }
+        });
+
+        File file = new File(dir, "test.rdf");
+        Database db = new Database();
+        for(int i=0; i<10; i++) {
+            Account account = new Account("acc" + i, "http://site" + i + ".com", "user" + i);
+            account.setId(Account.createId("acc" + i));
+            db.addAccount(db.getRootAccount(), account);
+            service.save(file, db);
+        }
+        assertTrue(service.isIdle()==false);
+
+        assertTrue(service.flush(10000));
+        service.shutdown();
+
+        assertEquals(1, writes.get());
+        assertTrue(written.get(0) == db.getSnapshot());
+        assertEquals(1, dir.listFiles().length);
+
+        Database readBack = readFile(file);
+        assertEquals(10, readBack.getRootAccount().getChildren().size());
+        assertNotNull(readBack.findAccountById(db.getRootAccount().getChild(9).getId()));
+    }
+
+    /**
+     * A failed write must leave the previous file alone.
+     */
+    @Test
+    public void testFailureKeepsOldFile() throws Exception {
+        final AtomicInteger failures = new AtomicInteger(0);
+        DatabaseSaveService service = new DatabaseSaveService();
+        service.addListener(new DatabaseSaveService.Listener() {
+            public void saveCompleted(File file, DatabaseSnapshot snapshot) {
+            }
+            public void saveFailed(File file, DatabaseSnapshot snapshot, Exception e) {
+                failures.incrementAndGet();
+            }
+        });
+
+        File file = new File(dir, "test.rdf");
+        Database db = new Database();
+        Account account = new Account("acc", "http://site.com", "user");
+        account.setId(Account.createId("acc"));
+        db.addAccount(db.getRootAccount(), account);
+        service.save(file, db);
+        assertTrue(service.flush(10000));
+        long length = file.length();
+
+        // Saving into a directory which doesn't exist can't create the temp file
+        service.save(new File(new File(dir, "missing"), "test.rdf"), db);
+        assertTrue(service.flush(10000));
+        service.shutdown();
+
+        assertEquals(1, failures.get());
+        assertEquals(length, file.length());
+        assertEquals(1, readFile(file).getRootAccount().getChildren().size());
+    }
+
+    /**
+     * Saving must keep the permissions of the file and write through a symlink
+     * rather than replace it.
+     */
+    @Test
+    public void testKeepsPermissionsAndSymlinks() throws Exception {
+        if(FileSystems.getDefault().supportedFileAttributeViews().contains("posix")==false)
+            return;
+
+        File file = new File(dir, "test.rdf");
+        File link = new File(dir, "link.rdf");
+        Database db = new Database();
+        DatabaseSaveService.writeAtomically(file, db.getSnapshot());
+        Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rw-------"));
+        Files.createSymbolicLink(link.toPath(), file.toPath());
+
+        Account account = new Account("acc", "http://site.com", "user");
+        account.setId(Account.createId("acc"));
+        db.addAccount(db.getRootAccount(), account);
+        DatabaseSaveService.writeAtomically(link, db.getSnapshot());
+
+        assertTrue(Files.isSymbolicLink(link.toPath()));
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())));
+        assertEquals(1, readFile(file).getRootAccount().getChildren().size());
+        assertEquals(2, dir.listFiles().length);
+    }
+}
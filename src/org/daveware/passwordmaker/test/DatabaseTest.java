@@ -24,7 +24,10 @@ import java.security.Security;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.daveware.passwordmaker.Account;
 import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.DatabaseBatch;
+import org.daveware.passwordmaker.DatabaseBatchListener;
 import org.daveware.passwordmaker.DatabaseListener;
+import org.daveware.passwordmaker.DatabaseSnapshot;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -85,6 +88,17 @@ public class DatabaseTest {
         }
     }
     
+    int numBatch = 0;
+    DatabaseBatch lastBatch = null;
+    
+    class MyBatchListener extends MyDBListener implements DatabaseBatchListener {
+        @Override
+        public void accountsBatchUpdated(DatabaseBatch batch) {
+            numBatch++;
+            lastBatch = batch;
+        }
+    }
+    
     /**
      * Test of addAccount method, of class Database.
      */
@@ -222,4 +236,172 @@ public class DatabaseTest {
         assertEquals(account2, instance.findAccountById(account2.getId()));
         assertEquals(subAccount, instance.findAccountById(subAccount.getId()));
     }
+
+    /**
+     * Test of beginUpdate/commitUpdate, batch listeners get a single event.
+     */
+    @Test
+    public void testBatchUpdate() throws Exception {
+        System.out.println("batchUpdate");
+        Database instance = new Database();
+        instance.addDatabaseListener(new MyBatchListener());
+        
+        numAdd = numRemove = numChange = numDirty = numBatch = 0;
+        
+        Account account = new Account("name1", "http://url.org", "username1");
+        Account subAccount = new Account("name2", "http://url2.org", "username2");
+        Account account2 = new Account("name3", "http://url3.org", "username3");
+        
+        instance.beginUpdate();
+        try {
+            instance.addAccount(instance.getRootAccount(), account);
+            instance.beginUpdate();
+            try {
+                instance.addAccount(account, subAccount);
+            } finally {
+                instance.commitUpdate();
+            }
+            instance.addAccount(instance.getRootAccount(), account2);
+            instance.changeAccount(account2);
+            assertEquals(0, numBatch);
+        } finally {
+            instance.commitUpdate();
+        }
+        
+        assertEquals(1, numBatch);
+        assertEquals(0, numAdd);
+        assertEquals(0, numChange);
+        assertEquals(1, numDirty);
+        assertEquals(4, lastBatch.size());
+        assertEquals(2, lastBatch.getAffectedParents().size());
+        assertEquals(1, lastBatch.getChangedAccounts().size());
+        assert(lastBatch.isRootAffected());
+        assertEquals(false, instance.isUpdating());
+    }
+
+    /**
+     * Test that plain listeners receive the individual events of a batch.
+     */
+    @Test
+    public void testBatchReplay() throws Exception {
+        System.out.println("batchReplay");
+        Database instance = new Database();
+        instance.addDatabaseListener(new MyDBListener());
+        
+        numAdd = numRemove = numChange = numDirty = 0;
+        
+        Account account = new Account("name1", "http://url.org", "username1");
+        Account account2 = new Account("name3", "http://url3.org", "username3");
+        
+        instance.beginUpdate();
+        try {
+            instance.addAccount(instance.getRootAccount(), account);
+            instance.addAccount(instance.getRootAccount(), account2);
+            instance.removeAccount(account);
+            assertEquals(0, numAdd);
+        } finally {
+            instance.commitUpdate();
+        }
+        
+        assertEquals(2, numAdd);
+        assertEquals(1, numRemove);
+        assertEquals(1, numDirty);
+    }
+
+    /**
+     * Test that snapshots are immutable and share unchanged subtrees.
+     */
+    @Test
+    public void testSnapshot() throws Exception {
+        System.out.println("snapshot");
+        Database instance = new Database();
+        
+        Account folder1 = new Account("folder1", true);
+        folder1.setId(Account.createId("folder1"));
+        Account folder2 = new Account("folder2", true);
+        folder2.setId(Account.createId("folder2"));
+        Account account = new Account("name1", "http://url.org", "username1");
+        account.setId(Account.createId("name1"));
+        instance.addAccount(instance.getRootAccount(), folder1);
+        instance.addAccount(instance.getRootAccount(), folder2);
+        instance.addAccount(folder1, account);
+        
+        DatabaseSnapshot before = instance.getSnapshot();
+        assertEquals("name1", before.findAccountById(account.getId()).getName());
+        
+        account.setName("name2");
+        assertEquals("name1", instance.getSnapshot().findAccountById(account.getId()).getName());
+        instance.changeAccount(account);
+        
+        DatabaseSnapshot after = instance.getSnapshot();
+        assert(after.getVersion() > before.getVersion());
+        assertEquals("name1", before.findAccountById(account.getId()).getName());
+        assertEquals("name2", after.findAccountById(account.getId()).getName());
+        
+        // folder2 was not touched so both versions share it
+        assert(before.getRootAccount().getChild(1) == after.getRootAccount().getChild(1));
+        assert(before.getRootAccount().getChild(0) != after.getRootAccount().getChild(0));
+    }
+
+    /**
+     * Test that a batch is published as a single snapshot on commit.
+     */
+    @Test
+    public void testSnapshotBatch() throws Exception {
+        System.out.println("snapshotBatch");
+        Database instance = new Database();
+        DatabaseSnapshot before = instance.getSnapshot();
+        
+        instance.beginUpdate();
+        try {
+            instance.addAccount(instance.getRootAccount(), new Account("name1", "http://url.org", "username1"));
+            instance.addAccount(instance.getRootAccount(), new Account("name2", "http://url2.org", "username2"));
+            assert(instance.getSnapshot() == before);
+        } finally {
+            instance.commitUpdate();
+        }
+        
+        assertEquals(0, before.getRootAccount().getChildCount());
+        assertEquals(2, instance.getSnapshot().getRootAccount().getChildCount());
+    }
+
+    /**
+     * Test that edits deep in the tree are published after accounts move around,
+     * including through Account.getChildren() directly.
+     */
+    @Test
+    public void testSnapshotAfterMoves() throws Exception {
+        System.out.println("snapshotAfterMoves");
+        Database instance = new Database();
+        
+        Account folder1 = new Account("folder1", true);
+        folder1.setId(Account.createId("folder1"));
+        Account folder2 = new Account("folder2", true);
+        folder2.setId(Account.createId("folder2"));
+        Account account = new Account("name1", "http://url.org", "username1");
+        account.setId(Account.createId("name1"));
+        instance.addAccount(instance.getRootAccount(), folder1);
+        instance.addAccount(folder1, folder2);
+        instance.addAccount(folder2, account);
+        
+        account.setName("name2");
+        instance.changeAccount(account);
+        assertEquals("name2", instance.getSnapshot().findAccountById(account.getId()).getName());
+        
+        // Move folder2 up to the root
+        instance.removeAccount(folder2);
+        instance.addAccount(instance.getRootAccount(), folder2);
+        account.setName("name3");
+        instance.changeAccount(account);
+        assertEquals("name3", instance.getSnapshot().findAccountById(account.getId()).getName());
+        
+        // And back under folder1, behind the database's back
+        instance.getRootAccount().getChildren().remove(folder2);
+        folder1.getChildren().add(folder2);
+        account.setName("name4");
+        instance.changeAccount(account);
+        DatabaseSnapshot snapshot = instance.getSnapshot();
+        assertEquals("name4", snapshot.findAccountById(account.getId()).getName());
+        assertEquals(1, snapshot.getRootAccount().getChildCount());
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.security.Security;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.DatabaseDiff;
+import org.daveware.passwordmaker.DatabaseJournal;
+import org.daveware.passwordmaker.DatabaseSaveService;
+import org.daveware.passwordmaker.DatabaseWatcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against the DatabaseWatcher class.
+ * 
+ * @author Dave Marotti
+ */
+public class DatabaseWatcherTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        dir = File.createTempFile("pwmje-watch", "");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for(File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    /**
+     * Another program rewriting the file is reported, our own saves are not.
+     */
+    @Test
+    public void testExternalChange() throws Exception {
+        File file = new File(dir, "test.rdf");
+        Database db = new Database();
+        Account a = new Account("a", "http://a.com", "user");
+        a.setId("rdf:#$a");
+        db.addAccount(db.getRootAccount(), a);
+        DatabaseSaveService.writeAtomically(file, db.getSnapshot());
+
+        final ArrayBlockingQueue<DatabaseDiff> diffs = new ArrayBlockingQueue<DatabaseDiff>(10);
+        DatabaseWatcher watcher = new DatabaseWatcher(file, db.getSnapshot(), 100);
+        watcher.addListener(new DatabaseWatcher.Listener() {
+            public void databaseChangedOnDisk(File f, DatabaseDiff diff) {
+                diffs.add(diff);
+            }
+            public void reloadFailed(File f, Exception e) {
+            }
+        });
+        watcher.start();
+        try {
+            // Our own save
+            a.setName("renamed");
+            db.changeAccount(a);
+            DatabaseSaveService.writeAtomically(file, db.getSnapshot());
+            watcher.setBase(db.getSnapshot());
+
+            // Someone else's save
+            Database other = DatabaseJournal.load(file);
+            Account b = new Account("b", "http://b.com", "user");
+            b.setId("rdf:#$b");
+            other.addAccount(other.getRootAccount(), b);
+            DatabaseSaveService.writeAtomically(file, other.getSnapshot());
+
+            DatabaseDiff diff = diffs.poll(10, TimeUnit.SECONDS);
+            assertNotNull(diff);
+            assertEquals(1, diff.getEntries().size());
+            assertEquals(DatabaseDiff.Type.ADDED, diff.getEntries().get(0).getType());
+
+            diff.apply(db);
+            assertEquals("renamed", db.findAccountById("rdf:#$a").getName());
+            assertNotNull(db.findAccountById("rdf:#$b"));
+            assertTrue(diffs.poll(500, TimeUnit.MILLISECONDS)==null);
+        } finally {
+            watcher.stop();
+        }
+    }
+}
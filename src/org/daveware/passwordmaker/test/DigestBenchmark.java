@@ -0,0 +1,186 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import java.security.MessageDigest;
+import java.security.Security;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.PureDigest;
+import org.daveware.passwordmaker.PureHmac;
+
+/**
+ * Compares the built in digests and HMAC with BouncyCastle and the JDK's own
+ * providers.
+ *
+ * For each algorithm and message size it prints the time per message for:
+ *   pure     - PureDigest/PureHmac, one instance reused
+ *   bc       - the "BC" provider, one instance reused
+ *   bc-new   - the "BC" provider with getInstance() per message, as
+ *              PasswordMaker.runAlgorithm() does it
+ *   jdk      - the default JDK provider, one instance reused (MD5, SHA1 and
+ *              SHA256 only)
+ *
+ * Usage: DigestBenchmark [millisPerMeasurement]
+ *
+ * @author Dave Marotti
+ */
+public class DigestBenchmark {
+    private static final int [] SIZES = { 16, 64, 256, 4096 };
+    private static long millis = 300;
+
+    private interface Op {
+        public void run(byte [] data, byte [] out) throws Exception;
+    }
+
+    public static void main(String [] args) throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        if(args.length > 0)
+            millis = Long.parseLong(args[0]);
+
+        System.out.println(String.format("%-16s %6s %10s %10s %10s %10s   (ns per message)", "algorithm", "bytes", "pure", "bc", "bc-new", "jdk"));
+        for(AlgorithmType algorithm : AlgorithmType.getTypes()) {
+            for(int size : SIZES)
+                System.out.println(row(algorithm, false, size));
+        }
+        for(AlgorithmType algorithm : AlgorithmType.getTypes()) {
+            for(int size : SIZES)
+                System.out.println(row(algorithm, true, size));
+        }
+    }
+
+    static String jdkName(AlgorithmType algorithm, boolean hmac) {
+        if(algorithm==AlgorithmType.MD5)
+            return hmac ? "HmacMD5" : "MD5";
+        if(algorithm==AlgorithmType.SHA1)
+            return hmac ? "HmacSHA1" : "SHA-1";
+        if(algorithm==AlgorithmType.SHA256)
+            return hmac ? "HmacSHA256" : "SHA-256";
+        return null;
+    }
+
+    private static String row(final AlgorithmType algorithm, boolean hmac, int size) throws Exception {
+        byte [] data = new byte[size];
+        new Random(size).nextBytes(data);
+        final byte [] key = "0123456789abcdef".getBytes();
+        final String bcName = (hmac ? "HMAC" : "") + algorithm.getName();
+        final String jdkName = jdkName(algorithm, hmac);
+        Op pure, bc, bcNew, jdk = null;
+
+        if(hmac) {
+            final PureHmac pureHmac = new PureHmac(algorithm);
+            pureHmac.init(key, 0, key.length);
+            final Mac bcMac = Mac.getInstance(bcName, "BC");
+            bcMac.init(new SecretKeySpec(key, bcName));
+
+            pure = new Op() {
+                public void run(byte [] data, byte [] out) {
+                    pureHmac.update(data, 0, data.length);
+                    pureHmac.doFinal(out, 0);
+                }
+            };
+            bc = new Op() {
+                public void run(byte [] data, byte [] out) throws Exception {
+                    bcMac.update(data);
+                    bcMac.doFinal(out, 0);
+                }
+            };
+            bcNew = new Op() {
+                public void run(byte [] data, byte [] out) throws Exception {
+                    Mac mac = Mac.getInstance(bcName, "BC");
+                    mac.init(new SecretKeySpec(key, bcName));
+                    mac.update(data);
+                    mac.doFinal(out, 0);
+                }
+            };
+            if(jdkName!=null) {
+                final Mac jdkMac = Mac.getInstance(jdkName);
+                jdkMac.init(new SecretKeySpec(key, jdkName));
+                jdk = new Op() {
+                    public void run(byte [] data, byte [] out) throws Exception {
+                        jdkMac.update(data);
+                        jdkMac.doFinal(out, 0);
+                    }
+                };
+            }
+        }
+        else {
+            final PureDigest pureDigest = PureDigest.create(algorithm);
+            final MessageDigest bcDigest = MessageDigest.getInstance(bcName, "BC");
+
+            pure = new Op() {
+                public void run(byte [] data, byte [] out) {
+                    pureDigest.update(data, 0, data.length);
+                    pureDigest.doFinal(out, 0);
+                }
+            };
+            bc = new Op() {
+                public void run(byte [] data, byte [] out) throws Exception {
+                    bcDigest.update(data);
+                    bcDigest.digest(out, 0, out.length);
+                }
+            };
+            bcNew = new Op() {
+                public void run(byte [] data, byte [] out) throws Exception {
+                    MessageDigest md = MessageDigest.getInstance(bcName, "BC");
+                    md.update(data);
+                    md.digest(out, 0, out.length);
+                }
+            };
+            if(jdkName!=null) {
+                final MessageDigest jdkDigest = MessageDigest.getInstance(jdkName);
+                jdk = new Op() {
+                    public void run(byte [] data, byte [] out) throws Exception {
+                        jdkDigest.update(data);
+                        jdkDigest.digest(out, 0, out.length);
+                    }
+                };
+            }
+        }
+
+        byte [] out = new byte[PureDigest.create(algorithm).getDigestSize()];
+        return String.format("%-16s %6d %10.0f %10.0f %10.0f %10s", hmac ? algorithm.getHmacName() : algorithm.getName(), size,
+                measure(pure, data, out), measure(bc, data, out), measure(bcNew, data, out),
+                jdk==null ? "-" : String.format("%.0f", measure(jdk, data, out)));
+    }
+
+    /**
+     * @return Nanoseconds per call, after a warm up of the same length.
+     */
+    private static double measure(Op op, byte [] data, byte [] out) throws Exception {
+        double result = 0;
+        for(int pass=0; pass<2; pass++) {
+            long calls = 0;
+            long start = System.nanoTime();
+            long end = start + millis * 1000000;
+            long now;
+            do {
+                for(int i=0; i<64; i++)
+                    op.run(data, out);
+                calls += 64;
+            } while((now = System.nanoTime()) < end);
+            result = (double)(now - start) / calls;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.security.Security;
+import java.util.List;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.DirectSecureCharArray;
+import org.daveware.passwordmaker.PasswordMaker;
+import org.daveware.passwordmaker.SecureBufferPool;
+import org.daveware.passwordmaker.SecureCharArray;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against DirectSecureCharArray and the off-heap makePassword().
+ * 
+ * @author Dave Marotti
+ */
+public class DirectSecureCharArrayTest {
+
+    @Before
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private static String str(DirectSecureCharArray arr) {
+        char [] chars = new char[arr.size()];
+        arr.getChars(chars, 0);
+        return new String(chars);
+    }
+
+    @Test
+    public void testEditing() throws Exception {
+        DirectSecureCharArray arr = new DirectSecureCharArray("world");
+        DirectSecureCharArray hello = new DirectSecureCharArray("hello ");
+
+        arr.prepend(hello);
+        assertEquals("hello world", str(arr));
+
+        // Grow well past the first buffer
+        for(int i=0; i<100; i++)
+            arr.append(new DirectSecureCharArray("!"));
+        assertEquals(111, arr.size());
+        assertTrue(arr.capacity() >= 111);
+        assertEquals('!', arr.getCharAt(110));
+
+        arr.resize(5, true);
+        assertEquals("hello", str(arr));
+        arr.resize(7, true);
+        assertEquals("hello\0\0", str(arr));
+
+        arr.replace(hello);
+        assertEquals("hello ", str(arr));
+        assertEquals("hello ", new String(arr.toSecureCharArray().getData()));
+
+        arr.erase();
+        assertEquals("\0\0\0\0\0\0", str(arr));
+
+        arr.release();
+        hello.release();
+        try {
+            arr.getCharAt(0);
+            fail("A released array must not be usable");
+        } catch(IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void testBuffersAreRecycled() {
+        DirectSecureCharArray arr = new DirectSecureCharArray(10);
+        arr.release();
+        int pooled = SecureBufferPool.getPooledCount();
+        assertTrue(pooled > 0);
+
+        arr = new DirectSecureCharArray(10);
+        assertEquals(pooled - 1, SecureBufferPool.getPooledCount());
+        // Recycled buffers come back zeroed
+        for(int i=0; i<arr.size(); i++)
+            assertEquals(0, arr.getCharAt(i));
+        arr.release();
+    }
+
+    @Test
+    public void testMatchesHeapPasswords() throws Exception {
+        InputStream is = getClass().getResourceAsStream("reference-vectors.txt");
+        List<ReferenceVector> vectors = PasswordVerifier.load(is);
+        PasswordMaker pwm = new PasswordMaker();
+
+        for(ReferenceVector vector : vectors) {
+            SecureCharArray master = new SecureCharArray(vector.masterPassword);
+            DirectSecureCharArray directMaster = new DirectSecureCharArray(vector.masterPassword);
+            DirectSecureCharArray password = pwm.makePassword(directMaster, vector.toAccount(), vector.inputText);
+            assertEquals(vector.toString(), vector.expected, str(password));
+
+            // Neither version modifies the master password, even with leet before hashing
+            pwm.makePassword(master, vector.toAccount(), vector.inputText).erase();
+            assertEquals(vector.masterPassword, new String(master.getData()));
+            assertEquals(vector.masterPassword, str(directMaster));
+
+            password.release();
+            directMaster.release();
+        }
+    }
+
+    @Test
+    public void testManyRoundsMatchHeap() throws Exception {
+        // Long enough for round counts with two digits in the key
+        PasswordMaker pwm = new PasswordMaker();
+        SecureCharArray master = new SecureCharArray("master");
+        DirectSecureCharArray directMaster = new DirectSecureCharArray("master");
+
+        for(AlgorithmType algorithm : AlgorithmType.getTypes()) {
+            for(int hmac=0; hmac<2; hmac++) {
+                Account account = new Account();
+                account.setAlgorithm(algorithm);
+                account.setHmac(hmac==1);
+                account.setLength(400);
+                account.setModifier("mod");
+
+                SecureCharArray expected = pwm.makePassword(master, account, "example.com");
+                DirectSecureCharArray password = pwm.makePassword(directMaster, account, "example.com");
+                assertEquals(account.getAlgorithm().getName(), new String(expected.getData()), str(password));
+                expected.erase();
+                password.release();
+            }
+        }
+        directMaster.release();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.DirectSecureCharArray;
+import org.daveware.passwordmaker.PasswordMaker;
+import org.daveware.passwordmaker.RDFDatabaseReader;
+import org.daveware.passwordmaker.RDFDatabaseWriter;
+import org.daveware.passwordmaker.SecureCharArray;
+import org.junit.Test;
+
+/**
+ * Checks the flight recorder events emitted by the reader, writer, lookups and
+ * password generation.
+ * 
+ * @author Dave Marotti
+ */
+public class FlightRecorderEventsTest {
+
+    @Test
+    public void testEvents() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        File jfrFile = File.createTempFile("pwmje", ".jfr");
+        Database db;
+        byte [] sample = readSample();
+        int writtenBytes;
+
+        Recording recording = new Recording();
+        try {
+            recording.enable("org.daveware.passwordmaker.DatabaseRead");
+            recording.enable("org.daveware.passwordmaker.DatabaseWrite");
+            recording.enable("org.daveware.passwordmaker.AccountLookup");
+            recording.enable("org.daveware.passwordmaker.PasswordGeneration");
+            recording.start();
+
+            db = new RDFDatabaseReader().read(new ByteArrayInputStream(sample));
+
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            new RDFDatabaseWriter().write(bout, db);
+            writtenBytes = bout.size();
+
+            db.findAccountByUrl("http://no.such.site.example/");
+
+            Account account = new Account();
+            account.setAlgorithm(AlgorithmType.SHA256);
+            account.setHmac(true);
+            account.setLength(12);
+            new PasswordMaker().makePassword(new SecureCharArray("secret"), account, "input").erase();
+
+            // The off-heap version records the same event
+            account.setLength(9);
+            DirectSecureCharArray master = new DirectSecureCharArray("secret");
+            new PasswordMaker().makePassword(master, account, "input").release();
+            master.release();
+
+            recording.stop();
+            recording.dump(jfrFile.toPath());
+        } finally {
+            recording.close();
+        }
+
+        HashMap<String, RecordedEvent> events = new HashMap<String, RecordedEvent>();
+        ArrayList<RecordedEvent> generations = new ArrayList<RecordedEvent>();
+        List<RecordedEvent> recorded = RecordingFile.readAllEvents(jfrFile.toPath());
+        jfrFile.delete();
+        for(RecordedEvent event : recorded) {
+            events.put(event.getEventType().getName(), event);
+            if(event.getEventType().getName().equals("org.daveware.passwordmaker.PasswordGeneration"))
+                generations.add(event);
+        }
+
+        RecordedEvent read = events.get("org.daveware.passwordmaker.DatabaseRead");
+        assertNotNull(read);
+        assertTrue(read.getInt("accounts") > 0);
+        assertEquals(sample.length, read.getLong("bytes"));
+
+        RecordedEvent write = events.get("org.daveware.passwordmaker.DatabaseWrite");
+        assertNotNull(write);
+        assertEquals(read.getInt("accounts"), write.getInt("accounts"));
+        assertEquals(read.getInt("patterns"), write.getInt("patterns"));
+        assertEquals(writtenBytes, write.getLong("bytes"));
+
+        RecordedEvent lookup = events.get("org.daveware.passwordmaker.AccountLookup");
+        assertNotNull(lookup);
+        assertFalse(lookup.getBoolean("found"));
+        assertEquals(read.getInt("accounts") + 1, lookup.getInt("accountsSearched"));
+
+        assertEquals(2, generations.size());
+        for(RecordedEvent generation : generations) {
+            assertEquals("HMAC-SHA256", generation.getString("algorithm"));
+            assertTrue(generation.getInt("length")==12 || generation.getInt("length")==9);
+            assertTrue(generation.getBoolean("succeeded"));
+        }
+        for(RecordedEvent event : recorded)
+            assertFalse(event.toString().contains("secret"));
+    }
+
+    private byte [] readSample() throws Exception {
+        InputStream is = getClass().getResourceAsStream("sample.rdf");
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try {
+            byte [] buffer = new byte[4096];
+            int n;
+            while((n = is.read(buffer))>0)
+                bout.write(buffer, 0, n);
+        } finally {
+            is.close();
+        }
+        return bout.toByteArray();
+    }
+}
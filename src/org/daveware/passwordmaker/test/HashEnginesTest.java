@@ -0,0 +1,117 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.security.Security;
+import java.util.List;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.GlobalSettingKey;
+import org.daveware.passwordmaker.HashEngines;
+import org.daveware.passwordmaker.HashProvider;
+import org.daveware.passwordmaker.PasswordMaker;
+import org.daveware.passwordmaker.SecureCharArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against the HashEngines provider selection.
+ * 
+ * @author Dave Marotti
+ */
+public class HashEnginesTest {
+
+    @Before
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @After
+    public void tearDown() {
+        HashEngines.setOverride(null);
+    }
+
+    @Test
+    public void testSelection() {
+        for(AlgorithmType algorithm : AlgorithmType.getTypes()) {
+            assertNotNull(HashEngines.getProvider(algorithm, false));
+            assertNotNull(HashEngines.getProvider(algorithm, true));
+        }
+
+        // The JDK has no MD4 or RIPEMD160
+        HashEngines.setOverride(HashProvider.JDK);
+        assertSame(HashProvider.JDK, HashEngines.getProvider(AlgorithmType.SHA256, true));
+        assertSame(HashProvider.BC, HashEngines.getProvider(AlgorithmType.MD4, false));
+        assertSame(HashProvider.BC, HashEngines.getProvider(AlgorithmType.RIPEMD160, true));
+    }
+
+    @Test
+    public void testSetting() {
+        Database db = new Database();
+        HashEngines.applySettings(db);
+        assertNull(HashEngines.getOverride());
+
+        db.setGlobalSetting(GlobalSettingKey.HASH_PROVIDER, "pure");
+        HashEngines.applySettings(db);
+        assertSame(HashProvider.PURE, HashEngines.getOverride());
+
+        db.setGlobalSetting(GlobalSettingKey.HASH_PROVIDER, "bogus");
+        HashEngines.applySettings(db);
+        assertNull(HashEngines.getOverride());
+    }
+
+    @Test
+    public void testEveryProviderMatchesReferenceVectors() throws Exception {
+        InputStream is = getClass().getResourceAsStream("reference-vectors.txt");
+        List<ReferenceVector> vectors = PasswordVerifier.load(is);
+        for(HashProvider provider : HashProvider.values()) {
+            HashEngines.setOverride(provider);
+            List<PasswordVerifier.Mismatch> mismatches = new PasswordVerifier().verify(vectors, PasswordVerifier.REFERENCE);
+            assertEquals(provider + ": " + mismatches, 0, mismatches.size());
+        }
+    }
+
+    @Test
+    public void testEmptyHmacKeyFailsOnEveryProvider() throws Exception {
+        Account account = new Account("empty", "http://example.com", "bob");
+        account.setHmac(true);
+        for(HashProvider provider : HashProvider.values()) {
+            HashEngines.setOverride(provider);
+            for(AlgorithmType algorithm : AlgorithmType.getTypes()) {
+                account.setAlgorithm(algorithm);
+                try {
+                    new PasswordMaker().makePassword(new SecureCharArray(), account);
+                    fail(provider + " " + algorithm + " accepted an empty key");
+                } catch(IllegalArgumentException e) {
+                    assertEquals("Empty key", e.getMessage());
+                }
+            }
+        }
+    }
+}
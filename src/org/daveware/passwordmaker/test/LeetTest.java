@@ -17,10 +17,12 @@
  */
 package org.daveware.passwordmaker.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.util.Arrays;
 
+import org.daveware.passwordmaker.DirectSecureCharArray;
 import org.daveware.passwordmaker.LeetEncoder;
 import org.daveware.passwordmaker.LeetLevel;
 import org.daveware.passwordmaker.SecureCharArray;
@@ -160,4 +162,28 @@ public class LeetTest {
             }
         }
     }
+
+    /**
+     * Characters outside ASCII are lowercased too, and the ones which lowercase
+     * to a letter get converted.
+     */
+    @Test
+    public void testNonAscii() throws Exception {
+        // A with diaeresis, dotted capital I, Kelvin sign
+        String message = "x\u00c4\u0130\u212Ay";
+        String expected9 = ")(\u00e4!|{'/";
+
+        SecureCharArray arr = new SecureCharArray(message);
+        LeetEncoder.leetConvert(LeetLevel.LEVEL9, arr);
+        assertEquals(expected9, new String(arr.getData()));
+
+        arr = new SecureCharArray(message);
+        LeetEncoder.leetConvert(LeetLevel.LEVEL1, arr);
+        assertEquals("x\u00e4iky", new String(arr.getData()));
+
+        DirectSecureCharArray direct = new DirectSecureCharArray(message);
+        LeetEncoder.leetConvert(LeetLevel.LEVEL9, direct);
+        assertEquals(expected9, new String(direct.toSecureCharArray().getData()));
+        direct.release();
+    }
 }
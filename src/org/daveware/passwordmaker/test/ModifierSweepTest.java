@@ -0,0 +1,134 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.ModifierSweep;
+import org.daveware.passwordmaker.PasswordMaker;
+import org.daveware.passwordmaker.SecureCharArray;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against ModifierSweep and PasswordMaker.sweepModifiers().
+ * 
+ * @author Dave Marotti
+ */
+public class ModifierSweepTest {
+    // Long enough for the modifier alone to span more than one block
+    private static final String LONG_MODIFIER = "0123456789abcdefghijklmnopqrstuvwxyz0123456789abcdefghijklmnopqrstuvwxyz";
+
+    @Before
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private static String expected(PasswordMaker pwm, SecureCharArray master, Account account, String inputText,
+            String modifier) throws Exception {
+        String original = account.getModifier();
+        account.setModifier(modifier);
+        try {
+            return new String(pwm.makePassword(master, account, inputText).getData());
+        } finally {
+            account.setModifier(original);
+        }
+    }
+
+    @Test
+    public void testMatchesMakePassword() throws Exception {
+        InputStream is = getClass().getResourceAsStream("reference-vectors.txt");
+        List<ReferenceVector> vectors = PasswordVerifier.load(is);
+        PasswordMaker pwm = new PasswordMaker();
+        final String [] modifiers = { "", "1", "2", "10", LONG_MODIFIER };
+
+        for(ReferenceVector vector : vectors.subList(0, 300)) {
+            final Account account = vector.toAccount();
+            SecureCharArray master = new SecureCharArray(vector.masterPassword);
+            String [] all = { vector.modifier, modifiers[0], modifiers[1], modifiers[2], modifiers[3], modifiers[4] };
+            final ArrayList<String> passwords = new ArrayList<String>();
+            pwm.sweepModifiers(master, account, vector.inputText, all, new ModifierSweep.Receiver() {
+                public void passwordGenerated(Account a, String modifier, SecureCharArray password) {
+                    passwords.add(new String(password.getData()));
+                }
+            });
+
+            assertEquals(vector.masterPassword, new String(master.getData()));
+            assertEquals(vector.toString(), vector.expected, passwords.get(0));
+            for(int i=1; i<all.length; i++)
+                assertEquals(vector.toString(), expected(pwm, master, account, vector.inputText, all[i]), passwords.get(i));
+        }
+    }
+
+    @Test
+    public void testParallelSweep() throws Exception {
+        InputStream is = getClass().getResourceAsStream("reference-vectors.txt");
+        List<ReferenceVector> vectors = PasswordVerifier.load(is).subList(0, 100);
+        Account [] accounts = new Account[vectors.size()];
+        for(int i=0; i<accounts.length; i++) {
+            accounts[i] = vectors.get(i).toAccount();
+            accounts[i].setModifier(Integer.toString(i));
+        }
+        assertArrayEquals(new String [] { "6", "7", "8" }, ModifierSweep.nextCounters(accounts[5], 3));
+
+        SecureCharArray master = new SecureCharArray("r0tate me");
+        final ConcurrentHashMap<String, String> results = new ConcurrentHashMap<String, String>();
+        new ModifierSweep(4).run(master, accounts, 3, new ModifierSweep.Receiver() {
+            public void passwordGenerated(Account account, String modifier, SecureCharArray password) {
+                results.put(account.getName() + " " + modifier, new String(password.getData()));
+            }
+        });
+
+        assertEquals(accounts.length * 3, results.size());
+        PasswordMaker pwm = new PasswordMaker();
+        for(int i=0; i<accounts.length; i++) {
+            for(String modifier : ModifierSweep.nextCounters(accounts[i], 3)) {
+                assertEquals(expected(pwm, master, accounts[i], accounts[i].getUrl(), modifier),
+                        results.get(accounts[i].getName() + " " + modifier));
+            }
+        }
+    }
+
+    @Test
+    public void testReceiverExceptionIsRethrown() throws Exception {
+        Account account = new Account("a", "http://example.com", "");
+        try {
+            new ModifierSweep(2).run(new SecureCharArray("r0tate me"), new Account [] { account }, 3,
+                    new ModifierSweep.Receiver() {
+                public void passwordGenerated(Account account, String modifier, SecureCharArray password)
+                        throws Exception {
+                    throw new IOException("disk full");
+                }
+            });
+            fail("The receiver's exception was swallowed");
+        } catch(IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.InputStream;
+import java.security.Security;
+import java.util.List;
+import java.util.Random;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.HashEngines;
+import org.daveware.passwordmaker.HashProvider;
+import org.daveware.passwordmaker.MultiLaneHasher;
+import org.daveware.passwordmaker.PasswordMaker;
+import org.daveware.passwordmaker.SecureCharArray;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against MultiLaneHasher and PasswordMaker.makePasswords(). These pass
+ * with or without the vector module, run with "--add-modules jdk.incubator.vector"
+ * to test the lanes.
+ * 
+ * @author Dave Marotti
+ */
+public class MultiLaneHasherTest {
+
+    @Before
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @After
+    public void tearDown() {
+        HashEngines.setOverride(null);
+    }
+
+    @Test
+    public void testMatchesHashEngines() throws Exception {
+        Random r = new Random(38);
+        AlgorithmType [] algorithms = { AlgorithmType.MD5, AlgorithmType.SHA1, AlgorithmType.SHA256, AlgorithmType.MD4 };
+
+        // An odd count so the last group of lanes is only partly used
+        int count = 37;
+        byte [][] keys = new byte[count][];
+        int [] keyLens = new int[count];
+        byte [][] data = new byte[count][];
+        int [] dataLens = new int[count];
+        byte [][] out = new byte[count][32];
+        byte [] expected = new byte[32];
+
+        for(AlgorithmType algorithm : algorithms) {
+            for(int hmac=0; hmac<2; hmac++) {
+                for(int i=0; i<count; i++) {
+                    // Lengths either side of the block and padding boundaries, and spare bytes past them
+                    keyLens[i] = (hmac==1 ? 1 : 0) + r.nextInt(150);
+                    dataLens[i] = r.nextInt(200);
+                    keys[i] = new byte[keyLens[i] + 3];
+                    data[i] = new byte[dataLens[i] + 3];
+                    r.nextBytes(keys[i]);
+                    r.nextBytes(data[i]);
+                }
+
+                MultiLaneHasher.hash(algorithm, hmac==1, keys, keyLens, data, dataLens, count, out);
+                for(int i=0; i<count; i++) {
+                    int n = HashEngines.hash(algorithm, hmac==1, keys[i], keyLens[i], data[i], dataLens[i], expected);
+                    for(int j=0; j<n; j++)
+                        assertEquals(algorithm.getName() + " hmac=" + hmac + " #" + i, expected[j], out[i][j]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMakePasswords() throws Exception {
+        InputStream is = getClass().getResourceAsStream("reference-vectors.txt");
+        List<ReferenceVector> vectors = PasswordVerifier.load(is).subList(0, 300);
+
+        Account [] accounts = new Account[vectors.size()];
+        String [] inputs = new String[vectors.size()];
+        for(int i=0; i<accounts.length; i++) {
+            accounts[i] = vectors.get(i).toAccount();
+            inputs[i] = vectors.get(i).inputText;
+        }
+
+        PasswordMaker pwm = new PasswordMaker();
+        SecureCharArray master = new SecureCharArray("b4tch m4ster");
+        for(HashProvider provider : new HashProvider [] { null, HashProvider.PURE }) {
+            HashEngines.setOverride(provider);
+            SecureCharArray [] passwords = pwm.makePasswords(master, accounts, inputs);
+
+            // The master password must be left alone even by accounts with leet before hashing
+            assertEquals("b4tch m4ster", new String(master.getData()));
+            for(int i=0; i<accounts.length; i++) {
+                SecureCharArray expected = pwm.makePassword(new SecureCharArray(master), accounts[i], inputs[i]);
+                assertArrayEquals(provider + " #" + i, expected.getData(), passwords[i].getData());
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.Security;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.DatabaseSnapshot;
+import org.daveware.passwordmaker.ParallelRDFDatabaseReader;
+import org.daveware.passwordmaker.RDFDatabaseReader;
+import org.daveware.passwordmaker.RDFDatabaseWriter;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against ParallelRDFDatabaseReader.
+ * 
+ * @author Dave Marotti
+ */
+public class ParallelRDFDatabaseReaderTest {
+
+    @Before
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private static byte [] generate() throws Exception {
+        DatabaseGenerator generator = new DatabaseGenerator(50);
+        // Comfortably over MIN_PARALLEL_SIZE
+        generator.setAccounts(4000);
+        Database db = generator.generate();
+        db.setGlobalSetting("NS1:maskMasterPassword", "false");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RDFDatabaseWriter().write(out, db.getSnapshot());
+        byte [] data = out.toByteArray();
+        assertTrue(data.length > ParallelRDFDatabaseReader.MIN_PARALLEL_SIZE);
+        return data;
+    }
+
+    private static void assertSame(byte [] data) throws Exception {
+        DatabaseSnapshot expected = new RDFDatabaseReader().read(new ByteArrayInputStream(data)).getSnapshot();
+        for(int threads : new int [] { 2, 3, 8 }) {
+            DatabaseSnapshot actual = new ParallelRDFDatabaseReader(threads).read(new ByteArrayInputStream(data)).getSnapshot();
+            assertEquals(expected.getRootAccount().getTreeHash(), actual.getRootAccount().getTreeHash());
+            assertEquals(expected.getGlobalSettings(), actual.getGlobalSettings());
+        }
+    }
+
+    @Test
+    public void testMatchesSequentialReader() throws Exception {
+        assertSame(generate());
+    }
+
+    @Test
+    public void testDuplicatesAndMarkup() throws Exception {
+        String rdf = new String(generate(), "UTF-8");
+
+        // A later description replaces an earlier one with the same id, even from
+        // another range. Comments, CDATA and '>' in values mustn't confuse the split.
+        int end = rdf.lastIndexOf("</RDF:RDF>");
+        String extra =
+            "<!-- <RDF:Description RDF:about=\"rdf:#$acct5\"> -->\n" +
+            "<RDF:Description RDF:about=\"" + DatabaseGenerator.getId(5) + "\" NS1:name=\"a &gt; b > c\" " +
+            "NS1:hashAlgorithmLB=\"md5\" NS1:urlToUse=\"'quoted'\"><![CDATA[</RDF:RDF>]]></RDF:Description>\n";
+        rdf = rdf.substring(0, end) + extra + rdf.substring(end);
+        assertSame(rdf.getBytes("UTF-8"));
+        Database db = new ParallelRDFDatabaseReader(4).read(new ByteArrayInputStream(rdf.getBytes("UTF-8")));
+        assertEquals("a > b > c", db.findAccountById(DatabaseGenerator.getId(5)).getName());
+    }
+
+    @Test
+    public void testErrorsMatchSequentialReader() throws Exception {
+        String rdf = new String(generate(), "UTF-8");
+        int middle = rdf.indexOf("<RDF:Description", rdf.length() / 2);
+        byte [] broken = (rdf.substring(0, middle) + "<RDF:Description RDF:about=\"x\"" + rdf.substring(middle)).getBytes("UTF-8");
+
+        String expected = null;
+        try {
+            new RDFDatabaseReader().read(new ByteArrayInputStream(broken));
+        } catch(Exception e) {
+            expected = e.getClass().getName() + e.getMessage();
+        }
+        String actual = null;
+        try {
+            new ParallelRDFDatabaseReader(4).read(new ByteArrayInputStream(broken));
+        } catch(Exception e) {
+            actual = e.getClass().getName() + e.getMessage();
+        }
+        assertTrue(expected!=null);
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.security.Security;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.PasswordCache;
+import org.daveware.passwordmaker.PasswordMaker;
+import org.daveware.passwordmaker.SecureCharArray;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against PasswordCache.
+ * 
+ * @author Dave Marotti
+ */
+public class PasswordCacheTest {
+    private PasswordMaker pwm;
+    private Account account;
+    private SecureCharArray master;
+
+    @Before
+    public void setUp() throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        pwm = new PasswordMaker();
+        account = new Account("cached", "http://example.com", "bob");
+        account.setAlgorithm(AlgorithmType.SHA256);
+        account.setLength(12);
+        master = new SecureCharArray("cache me");
+    }
+
+    private String cached(PasswordCache cache, SecureCharArray masterPassword, Account acc, String input)
+            throws Exception {
+        SecureCharArray password = cache.makePassword(pwm, masterPassword, acc, input);
+        String str = new String(password.getData());
+        password.erase();
+        return str;
+    }
+
+    private String direct(SecureCharArray masterPassword, Account acc, String input) throws Exception {
+        return new String(pwm.makePassword(masterPassword, acc, input).getData());
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        PasswordCache cache = new PasswordCache(8, 60000);
+        String expected = direct(master, account, "example.com");
+        assertEquals(expected, cached(cache, master, account, "example.com"));
+        assertEquals(expected, cached(cache, master, account, "example.com"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // Any setting which changes the password must miss
+        account.setModifier("2");
+        assertEquals(direct(master, account, "example.com"), cached(cache, master, account, "example.com"));
+        assertEquals(direct(master, account, "example.org"), cached(cache, master, account, "example.org"));
+        assertEquals(3, cache.getMisses());
+        assertEquals(3, cache.size());
+        assertEquals("cache me", new String(master.getData()));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        PasswordCache cache = new PasswordCache(2, 60000);
+        cached(cache, master, account, "a");
+        cached(cache, master, account, "b");
+        cached(cache, master, account, "a");
+        cached(cache, master, account, "c");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getHits());
+
+        cached(cache, master, account, "a");
+        assertEquals(2, cache.getHits());
+        cached(cache, master, account, "b");
+        assertEquals(2, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        PasswordCache cache = new PasswordCache(8, 20);
+        String first = cached(cache, master, account, "x");
+        Thread.sleep(50);
+        assertEquals(first, cached(cache, master, account, "x"));
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testHitAfterExpiry() throws Exception {
+        PasswordCache cache = new PasswordCache(8, 250);
+        String first = cached(cache, master, account, "x");
+        Thread.sleep(300);
+        cached(cache, master, account, "x");
+        assertEquals(first, cached(cache, master, account, "x"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testMasterPasswordChangeFlushes() throws Exception {
+        PasswordCache cache = new PasswordCache(8, 60000);
+        String first = cached(cache, master, account, "x");
+        cached(cache, master, account, "y");
+        assertEquals(2, cache.size());
+
+        SecureCharArray other = new SecureCharArray("something else");
+        String second = cached(cache, other, account, "x");
+        assertFalse(first.equals(second));
+        assertEquals(second, direct(other, account, "x"));
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getHits());
+
+        cache.flush();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testFlushWhileMakingIsNotCached() throws Exception {
+        final PasswordCache cache = new PasswordCache(8, 60000);
+        PasswordMaker flushing = new PasswordMaker() {
+            @Override
+            public SecureCharArray makePassword(SecureCharArray masterPassword, Account acc, String inputText)
+                    throws Exception {
+                // As if the application were locked while the password is made
+                cache.flush();
+                return super.makePassword(masterPassword, acc, inputText);
+            }
+        };
+        SecureCharArray password = cache.makePassword(flushing, master, account, "x");
+        assertEquals(direct(master, account, "x"), new String(password.getData()));
+        assertEquals(0, cache.size());
+
+        // Without a flush it's cached as usual
+        cached(cache, master, account, "x");
+        assertEquals(1, cache.size());
+    }
+}
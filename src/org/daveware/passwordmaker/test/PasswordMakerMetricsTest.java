@@ -0,0 +1,77 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.LatencyHistogram;
+import org.daveware.passwordmaker.PasswordMakerMetrics;
+import org.junit.Test;
+
+/**
+ * Runs tests against the PasswordMakerMetrics and LatencyHistogram classes.
+ * 
+ * @author Dave Marotti
+ */
+public class PasswordMakerMetricsTest {
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentileNanos(99));
+
+        for(int i=0; i<99; i++)
+            h.record(1000);
+        h.record(1000000);
+
+        assertEquals(100, h.getCount());
+        assertEquals(1000000, h.getMaxNanos());
+        assertEquals((99 * 1000 + 1000000) / 100, h.getMeanNanos());
+        // Reported as the top of the power of two bucket
+        assertEquals(1023, h.getPercentileNanos(50));
+        assertEquals(1023, h.getPercentileNanos(99));
+        assertEquals(1000000, h.getPercentileNanos(100));
+
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMaxNanos());
+    }
+
+    @Test
+    public void testCountsAndDump() {
+        PasswordMakerMetrics metrics = new PasswordMakerMetrics();
+        metrics.passwordGenerated(AlgorithmType.MD5, false);
+        metrics.passwordGenerated(AlgorithmType.MD5, true);
+        metrics.passwordGenerated(AlgorithmType.SHA256, true);
+        long mark = metrics.lap(PasswordMakerMetrics.Phase.HASH_ROUND, System.nanoTime());
+        assertTrue(mark > 0);
+
+        assertEquals(3, metrics.getPasswordCount());
+        assertEquals(Long.valueOf(1), metrics.getPasswordCountByAlgorithm().get(AlgorithmType.MD5.getName()));
+        assertEquals(Long.valueOf(1), metrics.getPasswordCountByAlgorithm().get(AlgorithmType.SHA256.getHmacName()));
+        assertEquals(Long.valueOf(0), metrics.getPasswordCountByAlgorithm().get(AlgorithmType.SHA1.getName()));
+        assertEquals(1, metrics.getHistogram(PasswordMakerMetrics.Phase.HASH_ROUND).getCount());
+        assertTrue(metrics.dump().contains("Passwords generated: 3"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getPasswordCount());
+        assertEquals(0, metrics.getHistogram(PasswordMakerMetrics.Phase.HASH_ROUND).getCount());
+    }
+}
@@ -32,6 +32,7 @@ import org.daveware.passwordmaker.CharacterSets;
 import org.daveware.passwordmaker.LeetLevel;
 import org.daveware.passwordmaker.LeetType;
 import org.daveware.passwordmaker.PasswordMaker;
+import org.daveware.passwordmaker.PasswordVariant;
 import org.daveware.passwordmaker.SecureCharArray;
 import org.daveware.passwordmaker.Account.UrlComponents;
 import org.junit.After;
@@ -385,4 +386,57 @@ public class PasswordMakerTest {
         if(failCount!=0)
             fail(Integer.toString(failCount) + " failures");
     }
+
+    /**
+     * Leet before hashing must not convert the caller's master password, so the
+     * same array can be used for any number of accounts.
+     */
+    @Test
+    public void testMasterPasswordIsNotModified() throws Exception {
+        PasswordMaker pm = new PasswordMaker();
+        for(PWTest test : tests) {
+            SecureCharArray mpw = new SecureCharArray(test.mpw);
+            for(int i=0; i<2; i++) {
+                SecureCharArray output = pm.makePassword(mpw, test.account);
+                Assert.assertEquals(test.toString(), test.expectedOutput, new String(output.getData()));
+                Assert.assertEquals(test.mpw, new String(mpw.getData()));
+            }
+        }
+    }
+
+    /**
+     * Every variant must be what makePassword() gives for the account with that
+     * length, prefix and suffix.
+     */
+    @Test
+    public void testVariants() throws Exception {
+        PasswordMaker pm = new PasswordMaker();
+        String [][] affixes = { {"", ""}, {"pre", ""}, {"", "suf"}, {"ab", "cd"}, {"", "a very long suffix indeed"} };
+        for(PWTest test : tests) {
+            PasswordVariant [] variants = new PasswordVariant[affixes.length * 40];
+            for(int i=0; i<variants.length; i++)
+                variants[i] = new PasswordVariant(i / affixes.length, affixes[i % affixes.length][0], affixes[i % affixes.length][1]);
+
+            SecureCharArray mpw = new SecureCharArray(test.mpw);
+            SecureCharArray [] outputs = pm.makePasswordVariants(mpw, test.account, test.account.getUrl(), variants);
+            // Not a copy, copySettings() doesn't keep empty url components
+            Account account = test.account;
+            int length = account.getLength();
+            String prefix = account.getPrefix();
+            String suffix = account.getSuffix();
+            try {
+                for(int i=0; i<variants.length; i++) {
+                    account.setLength(variants[i].getLength());
+                    account.setPrefix(variants[i].getPrefix());
+                    account.setSuffix(variants[i].getSuffix());
+                    SecureCharArray expected = pm.makePassword(mpw, account);
+                    Assert.assertEquals(test.toString() + " variant " + i, new String(expected.getData()), new String(outputs[i].getData()));
+                }
+            } finally {
+                account.setLength(length);
+                account.setPrefix(prefix);
+                account.setSuffix(suffix);
+            }
+        }
+    }
 }
@@ -0,0 +1,287 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.PasswordMaker;
+import org.daveware.passwordmaker.SecureCharArray;
+
+/**
+ * Checks that a password generator produces exactly the same passwords as the
+ * reference implementation, PasswordMaker.makePassword().
+ *
+ * Vectors either come from a stored file (see load()) or are derived on the
+ * fly with ReferenceVector.generate(), in which case a whole corpus can be
+ * reduced to one digest or run through two engines side by side. Work is split
+ * into chunks and run on a thread pool, each engine call gets its own copy of
+ * the master password in case the engine modifies it.
+ *
+ * Usage:
+ *   PasswordVerifier digest count [seed]     Prints the digest of a generated corpus
+ *   PasswordVerifier write file count [seed] Writes vectors and their passwords to a file
+ *
+ * @author Dave Marotti
+ */
+public class PasswordVerifier {
+
+    /**
+     * Anything which generates passwords the way PasswordMaker.makePassword() does.
+     * Implementations must be safe to call from several threads at once.
+     */
+    public interface Engine {
+        public SecureCharArray makePassword(SecureCharArray masterPassword, Account account, String inputText)
+            throws Exception;
+    }
+
+    /**
+     * A vector for which two engines, or an engine and the stored password, disagree.
+     */
+    public static class Mismatch {
+        public final ReferenceVector vector;
+        public final String expected;
+        public final String actual;
+
+        Mismatch(ReferenceVector vector, String expected, String actual) {
+            this.vector = vector;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        @Override
+        public String toString() {
+            return "vector " + vector.index + ": expected '" + expected + "' but got '" + actual + "' (" + vector + ")";
+        }
+    }
+
+    /**
+     * The current implementation.
+     */
+    public static final Engine REFERENCE = new Engine() {
+        public SecureCharArray makePassword(SecureCharArray masterPassword, Account account, String inputText)
+                throws Exception {
+            return new PasswordMaker().makePassword(masterPassword, account, inputText);
+        }
+    };
+
+    public static final long DEFAULT_SEED = 0x50574d4aL;
+    private static final int CHUNK = 2048;
+
+    private final int threads;
+
+    public PasswordVerifier() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public PasswordVerifier(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Runs one vector through an engine.
+     * @return The password, or "#error:" followed by the exception class if the engine threw one.
+     */
+    public static String run(Engine engine, ReferenceVector vector) {
+        SecureCharArray master = null;
+        SecureCharArray output = null;
+        try {
+            master = new SecureCharArray(vector.masterPassword);
+            output = engine.makePassword(master, vector.toAccount(), vector.inputText);
+            return new String(output.getData());
+        } catch(Exception e) {
+            return "#error:" + e.getClass().getSimpleName();
+        } finally {
+            if(master!=null)
+                master.erase();
+            if(output!=null)
+                output.erase();
+        }
+    }
+
+    /**
+     * Checks an engine against vectors whose expected passwords are known.
+     * @return The vectors which didn't match, in order.
+     */
+    public List<Mismatch> verify(final List<ReferenceVector> vectors, final Engine engine) throws Exception {
+        return runChunks(vectors.size(), new ChunkTask<List<Mismatch>>() {
+            public List<Mismatch> run(int start, int end) {
+                ArrayList<Mismatch> mismatches = new ArrayList<Mismatch>();
+                for(int i=start; i<end; i++) {
+                    ReferenceVector vector = vectors.get(i);
+                    String actual = PasswordVerifier.run(engine, vector);
+                    if(actual.equals(vector.expected)==false)
+                        mismatches.add(new Mismatch(vector, vector.expected, actual));
+                }
+                return mismatches;
+            }
+        });
+    }
+
+    /**
+     * Runs a generated corpus through two engines and compares the results.
+     * @return The vectors which didn't match, in order.
+     */
+    public List<Mismatch> compare(final long seed, int count, final Engine expected, final Engine actual) throws Exception {
+        return runChunks(count, new ChunkTask<List<Mismatch>>() {
+            public List<Mismatch> run(int start, int end) {
+                ArrayList<Mismatch> mismatches = new ArrayList<Mismatch>();
+                for(int i=start; i<end; i++) {
+                    ReferenceVector vector = ReferenceVector.generate(seed, i);
+                    String a = PasswordVerifier.run(expected, vector);
+                    String b = PasswordVerifier.run(actual, vector);
+                    if(a.equals(b)==false)
+                        mismatches.add(new Mismatch(vector, a, b));
+                }
+                return mismatches;
+            }
+        });
+    }
+
+    /**
+     * Reduces the passwords an engine produces for a generated corpus to a
+     * single SHA-256 digest. The digest doesn't depend on the number of threads.
+     * @return The digest as lower case hex.
+     */
+    public String digest(final long seed, int count, final Engine engine) throws Exception {
+        List<byte []> chunkDigests = runChunks(count, new ChunkTask<List<byte []>>() {
+            public List<byte []> run(int start, int end) throws Exception {
+                MessageDigest md = MessageDigest.getInstance("SHA-256");
+                for(int i=start; i<end; i++) {
+                    String password = PasswordVerifier.run(engine, ReferenceVector.generate(seed, i));
+                    md.update((i + ":" + password + "\n").getBytes("UTF-8"));
+                }
+                ArrayList<byte []> result = new ArrayList<byte []>();
+                result.add(md.digest());
+                return result;
+            }
+        });
+
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for(byte [] chunkDigest : chunkDigests)
+            md.update(chunkDigest);
+        StringBuilder hex = new StringBuilder();
+        for(byte b : md.digest())
+            hex.append(String.format("%02x", b & 0xff));
+        return hex.toString();
+    }
+
+    private interface ChunkTask<T> {
+        public T run(int start, int end) throws Exception;
+    }
+
+    /**
+     * Splits [0, count) into chunks, runs them on the pool and concatenates the
+     * results in order.
+     */
+    private <E> List<E> runChunks(int count, final ChunkTask<List<E>> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<List<E>>> futures = new ArrayList<Future<List<E>>>();
+            for(int start=0; start<count; start+=CHUNK) {
+                final int s = start;
+                final int e = Math.min(count, start + CHUNK);
+                futures.add(executor.submit(new Callable<List<E>>() {
+                    public List<E> call() throws Exception {
+                        return task.run(s, e);
+                    }
+                }));
+            }
+
+            ArrayList<E> results = new ArrayList<E>();
+            for(Future<List<E>> future : futures)
+                results.addAll(future.get());
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads vectors written by write(). Blank lines and lines starting with '#' are skipped.
+     */
+    public static List<ReferenceVector> load(InputStream is) throws Exception {
+        ArrayList<ReferenceVector> vectors = new ArrayList<ReferenceVector>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+        try {
+            String line;
+            while((line = reader.readLine())!=null) {
+                if(line.length()==0 || line.startsWith("#"))
+                    continue;
+                vectors.add(ReferenceVector.parse(line));
+            }
+        } finally {
+            reader.close();
+        }
+        return vectors;
+    }
+
+    /**
+     * Writes generated vectors along with the passwords the reference engine produces for them.
+     */
+    public static void write(String filename, long seed, int count) throws Exception {
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(filename), "UTF-8"));
+        try {
+            out.print("# PasswordMaker reference vectors, seed=" + seed + "\n");
+            out.print("# index algorithm hmac trim length charset leetType leetLevel modifier prefix suffix " +
+                      "username url urlComponents isDefault sha256Bug masterPassword inputText expected\n");
+            for(int i=0; i<count; i++) {
+                ReferenceVector vector = ReferenceVector.generate(seed, i);
+                vector.expected = run(REFERENCE, vector);
+                out.print(vector.toLine() + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String [] args) throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+
+        if(args.length >= 2 && args[0].equals("digest")) {
+            int count = Integer.parseInt(args[1]);
+            long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+            long start = System.nanoTime();
+            String digest = new PasswordVerifier().digest(seed, count, REFERENCE);
+            long millis = (System.nanoTime() - start) / 1000000;
+            System.out.println(digest + "  (" + count + " vectors in " + millis + "ms)");
+        }
+        else if(args.length >= 3 && args[0].equals("write")) {
+            write(args[1], args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_SEED, Integer.parseInt(args[2]));
+        }
+        else {
+            System.err.println("Usage: PasswordVerifier digest count [seed]");
+            System.err.println("       PasswordVerifier write file count [seed]");
+            System.exit(1);
+        }
+    }
+}
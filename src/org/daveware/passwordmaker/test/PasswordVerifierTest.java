@@ -0,0 +1,90 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.io.InputStream;
+import java.security.Security;
+import java.util.List;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.SecureCharArray;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks PasswordMaker against the stored and generated reference vectors.
+ *
+ * If one of these fails after a change to password generation, existing users
+ * would get different passwords. Do not regenerate the vectors to make it pass.
+ * 
+ * @author Dave Marotti
+ */
+public class PasswordVerifierTest {
+    // "PasswordVerifier digest 10000". The full corpus is too slow for the unit
+    // tests, "PasswordVerifier digest 1000000" must print
+    // 972d2ef183afd1ef74347444bbac75b5c21548a8591a8090a186e065b5259b53
+    private static final String DIGEST_10K = "e8cd0e354b7f5d9266b17cbd13f3f80b63eadcd2617dee4d24d048aa6b043b61";
+
+    @Before
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void testStoredVectors() throws Exception {
+        InputStream is = getClass().getResourceAsStream("reference-vectors.txt");
+        List<ReferenceVector> vectors = PasswordVerifier.load(is);
+        assertEquals(1000, vectors.size());
+
+        List<PasswordVerifier.Mismatch> mismatches = new PasswordVerifier().verify(vectors, PasswordVerifier.REFERENCE);
+        assertEquals(mismatches.toString(), 0, mismatches.size());
+    }
+
+    @Test
+    public void testGeneratedCorpus() throws Exception {
+        assertEquals(DIGEST_10K, new PasswordVerifier(2).digest(PasswordVerifier.DEFAULT_SEED, 10000, PasswordVerifier.REFERENCE));
+    }
+
+    @Test
+    public void testDetectsDifferences() throws Exception {
+        // An engine which gets HMAC-SHA1 wrong
+        PasswordVerifier.Engine broken = new PasswordVerifier.Engine() {
+            public SecureCharArray makePassword(SecureCharArray masterPassword, Account account, String inputText)
+                    throws Exception {
+                SecureCharArray output = PasswordVerifier.REFERENCE.makePassword(masterPassword, account, inputText);
+                if(account.isHmac() && account.getAlgorithm()==AlgorithmType.SHA1)
+                    output.setCharAt(0, (char)(output.getCharAt(0) ^ 1));
+                return output;
+            }
+        };
+
+        List<PasswordVerifier.Mismatch> mismatches = new PasswordVerifier().compare(PasswordVerifier.DEFAULT_SEED, 500,
+                PasswordVerifier.REFERENCE, broken);
+        assertFalse(mismatches.isEmpty());
+        for(PasswordVerifier.Mismatch mismatch : mismatches) {
+            assertSame(AlgorithmType.SHA1, mismatch.vector.algorithm);
+            assertEquals(true, mismatch.vector.hmac);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.security.MessageDigest;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.PureDigest;
+import org.daveware.passwordmaker.PureHmac;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the built in digests and HMAC against BouncyCastle.
+ * 
+ * @author Dave Marotti
+ */
+public class PureDigestTest {
+
+    @Before
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void testKnownValues() {
+        // "abc" from the respective specifications
+        assertEquals("a448017aaf21d8525fc10ae87aa6729d", hash(AlgorithmType.MD4, "abc"));
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", hash(AlgorithmType.MD5, "abc"));
+        assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", hash(AlgorithmType.SHA1, "abc"));
+        assertEquals("8eb208f7e05d987a9b044a8e98c6b087f15a0bfc", hash(AlgorithmType.RIPEMD160, "abc"));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", hash(AlgorithmType.SHA256, "abc"));
+    }
+
+    private static String hash(AlgorithmType algorithm, String text) {
+        PureDigest digest = PureDigest.create(algorithm);
+        byte [] out = new byte[digest.getDigestSize()];
+        byte [] in = text.getBytes();
+        digest.update(in, 0, in.length);
+        digest.doFinal(out, 0);
+        StringBuilder sb = new StringBuilder();
+        for(byte b : out)
+            sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+
+    @Test
+    public void testDigestsMatchBouncyCastle() throws Exception {
+        Random random = new Random(1);
+        for(AlgorithmType algorithm : AlgorithmType.getTypes()) {
+            MessageDigest bc = MessageDigest.getInstance(algorithm.getName(), "BC");
+            PureDigest digest = PureDigest.create(algorithm);
+            byte [] out = new byte[digest.getDigestSize() + 3];
+
+            // Every length around the padding boundaries of the first few blocks
+            for(int len=0; len<300; len++) {
+                byte [] data = new byte[len + 5];
+                random.nextBytes(data);
+                bc.update(data, 5, len);
+                byte [] expected = bc.digest();
+
+                // In one go, at an offset
+                digest.update(data, 5, len);
+                digest.doFinal(out, 3);
+                assertArrayEquals(algorithm.getName() + " length " + len, expected, Arrays.copyOfRange(out, 3, out.length));
+
+                // In odd sized pieces
+                int off = 5;
+                while(off < data.length) {
+                    int n = Math.min(data.length - off, 1 + random.nextInt(70));
+                    if(n==1)
+                        digest.update(data[off]);
+                    else
+                        digest.update(data, off, n);
+                    off += n;
+                }
+                digest.doFinal(out, 0);
+                assertArrayEquals(algorithm.getName() + " pieces " + len, expected, Arrays.copyOf(out, expected.length));
+            }
+        }
+    }
+
+    @Test
+    public void testHmacMatchesBouncyCastle() throws Exception {
+        Random random = new Random(2);
+        for(AlgorithmType algorithm : AlgorithmType.getTypes()) {
+            Mac bc = Mac.getInstance("HMAC" + algorithm.getName(), "BC");
+            PureHmac hmac = new PureHmac(algorithm);
+            byte [] out = new byte[hmac.getMacSize()];
+
+            for(int keyLen=1; keyLen<140; keyLen+=3) {
+                byte [] key = new byte[keyLen];
+                random.nextBytes(key);
+                byte [] data = new byte[random.nextInt(200)];
+                random.nextBytes(data);
+
+                bc.init(new SecretKeySpec(key, "HMAC" + algorithm.getName()));
+                byte [] expected = bc.doFinal(data);
+
+                hmac.init(key, 0, key.length);
+                hmac.update(data, 0, data.length);
+                hmac.doFinal(out, 0);
+                assertArrayEquals(algorithm.getName() + " key " + keyLen, expected, out);
+
+                // The key is kept for the next message
+                hmac.update(data, 0, data.length);
+                hmac.doFinal(out, 0);
+                assertArrayEquals(expected, out);
+            }
+        }
+    }
+}
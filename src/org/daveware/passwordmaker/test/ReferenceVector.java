@@ -0,0 +1,228 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import java.util.EnumSet;
+import java.util.Random;
+
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.Account.UrlComponents;
+import org.daveware.passwordmaker.AlgorithmType;
+import org.daveware.passwordmaker.CharacterSets;
+import org.daveware.passwordmaker.LeetLevel;
+import org.daveware.passwordmaker.LeetType;
+
+/**
+ * One set of inputs to PasswordMaker.makePassword() and, once known, the
+ * password it produced.
+ *
+ * Vectors are derived from a seed and an index by generate(), so a corpus of
+ * any size can be recreated without storing it. generate() must therefore
+ * never change, or the corpus digests recorded in PasswordVerifierTest become
+ * meaningless. Vectors can also be written as a tab separated line, which is
+ * how reference-vectors.txt stores them independently of this class.
+ *
+ * @author Dave Marotti
+ */
+public class ReferenceVector {
+    public int index;
+    public AlgorithmType algorithm;
+    public boolean hmac;
+    public boolean trim;
+    public int length;
+    public String charset;
+    public LeetType leetType;
+    public LeetLevel leetLevel;
+    public String modifier;
+    public String prefix;
+    public String suffix;
+    public String username;
+    public String url;
+    public EnumSet<UrlComponents> urlComponents;
+    public boolean isDefault;
+    public boolean sha256Bug;
+    public String masterPassword;
+    public String inputText;
+    public String expected;
+
+    // Printable, non-ASCII characters for master passwords. The ones above 0xff
+    // exercise the truncation done by SecureByteArray(char[]).
+    private static final String EXTRA_CHARS = "\u00e9\u00fc\u00df\u00f8\u00a7\u20ac\u0416\u4e2d";
+
+    /**
+     * Derives a vector from a seed and index. The same arguments always give the
+     * same vector, expected is left null.
+     */
+    public static ReferenceVector generate(long seed, int index) {
+        Random r = new Random(seed ^ (index * 0x9E3779B97F4A7C15L));
+        ReferenceVector v = new ReferenceVector();
+        AlgorithmType [] algorithms = AlgorithmType.getTypes();
+        LeetLevel [] levels = LeetLevel.getLevels();
+
+        v.index = index;
+        v.algorithm = algorithms[r.nextInt(algorithms.length)];
+        v.hmac = r.nextBoolean();
+        v.trim = r.nextInt(4)!=0;
+
+        int lengthClass = r.nextInt(10);
+        if(lengthClass < 2)
+            v.length = 1 + r.nextInt(8);
+        else if(lengthClass < 8)
+            v.length = 8 + r.nextInt(25);
+        else
+            v.length = 33 + r.nextInt(96);
+
+        if(r.nextInt(10) < 7)
+            v.charset = CharacterSets.CHARSETS[r.nextInt(CharacterSets.CHARSETS.length)];
+        else
+            v.charset = randomString(r, 2 + r.nextInt(40), 33, 126, false);
+
+        v.leetType = LeetType.TYPES[r.nextInt(LeetType.TYPES.length)];
+        v.leetLevel = levels[r.nextInt(levels.length)];
+        v.modifier = r.nextInt(10) < 3 ? randomString(r, 1 + r.nextInt(8), 33, 126, false) : "";
+        v.prefix = r.nextInt(5)==0 ? randomString(r, 1 + r.nextInt(6), 33, 126, false) : "";
+        v.suffix = r.nextInt(5)==0 ? randomString(r, 1 + r.nextInt(10), 33, 126, false) : "";
+        v.username = r.nextInt(10) < 7 ? "user" + r.nextInt(100000) : "";
+        v.url = "site" + r.nextInt(100000) + ".example.com";
+
+        v.urlComponents = EnumSet.noneOf(UrlComponents.class);
+        if(r.nextBoolean()) {
+            for(UrlComponents component : UrlComponents.values()) {
+                if(r.nextBoolean())
+                    v.urlComponents.add(component);
+            }
+        }
+        v.isDefault = r.nextInt(10)==0;
+        v.sha256Bug = r.nextInt(10)==0;
+
+        v.masterPassword = randomString(r, 1 + r.nextInt(24), 32, 126, r.nextInt(10)==0);
+
+        StringBuilder input = new StringBuilder();
+        if(r.nextBoolean())
+            input.append(r.nextBoolean() ? "https://" : "http://");
+        if(r.nextBoolean())
+            input.append("www.");
+        if(r.nextInt(4)==0)
+            input.append("login.");
+        input.append("domain").append(r.nextInt(100000)).append(r.nextBoolean() ? ".com" : ".co.uk");
+        if(r.nextInt(4)==0)
+            input.append(':').append(1 + r.nextInt(65535));
+        if(r.nextBoolean())
+            input.append("/path/").append(r.nextInt(1000));
+        if(r.nextInt(4)==0)
+            input.append("?q=").append(r.nextInt(1000));
+        if(r.nextInt(4)==0)
+            input.append("#anchor");
+        v.inputText = input.toString();
+
+        return v;
+    }
+
+    private static String randomString(Random r, int length, int min, int max, boolean extra) {
+        StringBuilder sb = new StringBuilder(length);
+        for(int i=0; i<length; i++) {
+            if(extra && r.nextInt(4)==0)
+                sb.append(EXTRA_CHARS.charAt(r.nextInt(EXTRA_CHARS.length())));
+            else
+                sb.append((char)(min + r.nextInt(max - min + 1)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return A new account with the settings of this vector.
+     */
+    public Account toAccount() throws Exception {
+        Account account = new Account("Vector " + index, "", url, username, algorithm, hmac, trim,
+                length, charset, leetType, leetLevel, modifier, prefix, suffix, sha256Bug);
+        account.setId(isDefault ? Account.DEFAULT_ACCOUNT_URI : "rdf:#$vector" + index);
+        account.setUrlComponents(urlComponents);
+        return account;
+    }
+
+    /**
+     * @return The vector as a single tab separated line, without a line terminator.
+     */
+    public String toLine() {
+        StringBuilder components = new StringBuilder();
+        for(UrlComponents component : urlComponents) {
+            if(components.length() > 0)
+                components.append(',');
+            components.append(component.name());
+        }
+
+        String [] fields = {
+            Integer.toString(index), algorithm.getName(), Boolean.toString(hmac), Boolean.toString(trim),
+            Integer.toString(length), charset, leetType.toRdfString(), Integer.toString(leetLevel.getLevel()),
+            modifier, prefix, suffix, username, url, components.toString(), Boolean.toString(isDefault),
+            Boolean.toString(sha256Bug), masterPassword, inputText, expected==null ? "" : expected
+        };
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<fields.length; i++) {
+            if(i > 0)
+                sb.append('\t');
+            sb.append(fields[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses a line written by toLine().
+     */
+    public static ReferenceVector parse(String line) throws Exception {
+        String [] fields = line.split("\t", -1);
+        if(fields.length!=19)
+            throw new Exception("Expected 19 fields but found " + fields.length + ": " + line);
+
+        ReferenceVector v = new ReferenceVector();
+        v.index = Integer.parseInt(fields[0]);
+        for(AlgorithmType type : AlgorithmType.getTypes()) {
+            if(type.getName().equals(fields[1]))
+                v.algorithm = type;
+        }
+        if(v.algorithm==null)
+            throw new Exception("Unknown algorithm '" + fields[1] + "'");
+        v.hmac = Boolean.parseBoolean(fields[2]);
+        v.trim = Boolean.parseBoolean(fields[3]);
+        v.length = Integer.parseInt(fields[4]);
+        v.charset = fields[5];
+        v.leetType = LeetType.fromRdfString(fields[6]);
+        v.leetLevel = LeetLevel.fromString(fields[7]);
+        v.modifier = fields[8];
+        v.prefix = fields[9];
+        v.suffix = fields[10];
+        v.username = fields[11];
+        v.url = fields[12];
+        v.urlComponents = EnumSet.noneOf(UrlComponents.class);
+        if(fields[13].length() > 0) {
+            for(String component : fields[13].split(","))
+                v.urlComponents.add(UrlComponents.valueOf(component));
+        }
+        v.isDefault = Boolean.parseBoolean(fields[14]);
+        v.sha256Bug = Boolean.parseBoolean(fields[15]);
+        v.masterPassword = fields[16];
+        v.inputText = fields[17];
+        v.expected = fields[18];
+        return v;
+    }
+
+    @Override
+    public String toString() {
+        return toLine();
+    }
+}
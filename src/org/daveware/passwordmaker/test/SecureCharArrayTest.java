@@ -0,0 +1,120 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.daveware.passwordmaker.SecureCharArray;
+import org.junit.Test;
+
+/**
+ * Runs tests against the growth and erasure of SecureCharArray.
+ * 
+ * @author Dave Marotti
+ */
+public class SecureCharArrayTest {
+
+    @Test
+    public void testGrowth() throws Exception {
+        SecureCharArray arr = new SecureCharArray("world");
+        arr.prepend(new SecureCharArray("hello "));
+        assertEquals("hello world", new String(arr.getData()));
+
+        for(int i=0; i<1000; i++)
+            arr.append("!");
+        assertEquals(1011, arr.size());
+        // Doubling, not one allocation per append
+        assertTrue(arr.capacity() < 2048);
+        assertEquals('!', arr.getCharAt(1010));
+        try {
+            arr.getCharAt(1011);
+            fail("The spare capacity must not be readable");
+        } catch(ArrayIndexOutOfBoundsException e) {
+        }
+
+        // getData() is still exactly size() long
+        assertEquals(1011, arr.getData().length);
+        assertSame(arr.getData(), arr.getData());
+
+        arr.resize(5, true);
+        assertEquals("hello", new String(arr.getData()));
+        arr.resize(7, true);
+        assertEquals("hello\0\0", new String(arr.getData()));
+
+        arr.prepend(arr);
+        assertEquals("hello\0\0hello\0\0", new String(arr.getData()));
+    }
+
+    @Test
+    public void testRetiredArraysAreErased() throws Exception {
+        SecureCharArray arr = new SecureCharArray("secret");
+        char [] old = arr.getData();
+
+        arr.append("!");
+        for(char c : old)
+            assertEquals(0, c);
+
+        // Trimming to an exact array for getData() retires the spare one too
+        arr.ensureCapacity(100);
+        arr.append("?");
+        char [] data = arr.getData();
+        assertEquals("secret!?", new String(data));
+
+        arr.erase();
+        for(char c : data)
+            assertEquals(0, c);
+    }
+
+    @Test
+    public void testSlices() throws Exception {
+        SecureCharArray arr = new SecureCharArray("hello world");
+        SecureCharArray.Slice world = arr.slice(6, 11);
+        assertEquals(5, world.length());
+        assertEquals('w', world.charAt(0));
+        assertEquals("orl", world.subSequence(1, 4).toString());
+
+        // A slice reads through to the array
+        arr.setCharAt(6, 'W');
+        assertEquals('W', world.charAt(0));
+
+        SecureCharArray copy = new SecureCharArray();
+        copy.append(world);
+        copy.append(arr.slice(5, 6));
+        copy.append(arr.slice(0, 5));
+        assertEquals("World hello", new String(copy.getData()));
+
+        try {
+            arr.slice(6, 12);
+            fail("A slice past the end must be refused");
+        } catch(IndexOutOfBoundsException e) {
+        }
+
+        // Once the array shrinks, its old slices must not read past size()
+        SecureCharArray.Slice stale = arr.slice(6, 11);
+        arr.resize(3, true);
+        try {
+            copy.append(stale);
+            fail("A slice past the shrunk array must be refused");
+        } catch(IndexOutOfBoundsException e) {
+        }
+        assertEquals("World hello", new String(copy.getData()));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.Security;
+import java.util.HashMap;
+import java.util.List;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.PasswordMaker;
+import org.daveware.passwordmaker.SecureCharArray;
+import org.daveware.passwordmaker.StrengthAudit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs tests against StrengthAudit.
+ * 
+ * @author Dave Marotti
+ */
+public class StrengthAuditTest {
+
+    @Before
+    public void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private static void expected(PasswordMaker pwm, SecureCharArray master, Account parent,
+            double threshold, HashMap<String, Double> weak) throws Exception {
+        for(Account child : parent.getChildren()) {
+            if(!child.isFolder()) {
+                SecureCharArray password = pwm.makePassword(new SecureCharArray(master), child);
+                double strength = PasswordMaker.calcPasswordStrength(password);
+                if(strength < threshold)
+                    weak.put(child.getId(), strength);
+            }
+            expected(pwm, master, child, threshold, weak);
+        }
+    }
+
+    @Test
+    public void testMatchesSequentialScores() throws Exception {
+        DatabaseGenerator generator = new DatabaseGenerator(11);
+        generator.setAccounts(400);
+        generator.setAccountsPerFolder(25);
+        Database db = generator.generate();
+        SecureCharArray master = new SecureCharArray("audit me");
+
+        HashMap<String, Double> expected = new HashMap<String, Double>();
+        expected(new PasswordMaker(), master, db.getRootAccount(), 70, expected);
+        assertTrue(expected.size() > 0);
+
+        List<StrengthAudit.WeakAccount> weak = new StrengthAudit(4).run(db, master, 70);
+        assertEquals("audit me", new String(master.getData()));
+        assertEquals(expected.size(), weak.size());
+        double last = -1;
+        for(StrengthAudit.WeakAccount account : weak) {
+            assertEquals(account.getName(), expected.get(account.getId()), account.getStrength(), 0);
+            assertTrue(account.getStrength() >= last);
+            last = account.getStrength();
+        }
+    }
+
+    @Test
+    public void testFailureIsRethrown() throws Exception {
+        Database db = new Database();
+        Account account = new Account("short", "http://example.com", "");
+        account.setCharacterSet("a");
+        db.addAccount(db.getRootAccount(), account);
+        try {
+            new StrengthAudit(2).run(db, new SecureCharArray("audit me"), 70);
+            fail("The failure was swallowed");
+        } catch(Exception e) {
+            assertEquals("Account contains a character set that is too short", e.getMessage());
+        }
+    }
+}
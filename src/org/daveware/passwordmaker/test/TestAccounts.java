@@ -0,0 +1,58 @@
+/*
+ * PasswordMaker Java Edition - One Password To Rule Them All
+ * Copyright (C) 2011 Dave Marotti
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.daveware.passwordmaker.test;
+
+import java.io.ByteArrayOutputStream;
+
+import org.daveware.passwordmaker.Account;
+import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.RDFDatabaseWriter;
+
+/**
+ * Builds accounts with predictable ids for the tests which have to find them
+ * again, and turns databases into RDF text for comparing them.
+ *
+ * @author Dave Marotti
+ */
+final class TestAccounts {
+    private TestAccounts() {
+    }
+
+    // Account.createId() isn't repeatable
+    static String id(String name) {
+        return "rdf:#$" + name;
+    }
+
+    static Account createAccount(String name) {
+        Account account = new Account(name, "http://" + name + ".com", "user-" + name);
+        account.setId(id(name));
+        return account;
+    }
+
+    static Account createFolder(String name) {
+        Account folder = new Account(name, true);
+        folder.setId(id(name));
+        return folder;
+    }
+
+    static String toRdf(Database db) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        new RDFDatabaseWriter().write(os, db);
+        return os.toString("UTF-8");
+    }
+}
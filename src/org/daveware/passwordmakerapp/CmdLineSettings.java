@@ -38,6 +38,8 @@ public class CmdLineSettings {
     public boolean quiet = false;
     public boolean nogui = false;
     public int timeout = -1;
+    public boolean journal = false;
+    public boolean metrics = false;
     
     public CmdLineSettings() {
     }
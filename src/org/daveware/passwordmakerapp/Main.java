@@ -23,6 +23,7 @@ import gnu.getopt.LongOpt;
 import java.security.Security;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.daveware.passwordmaker.PasswordMakerMetrics;
 import org.daveware.passwordmakerapp.cli.CliMain;
 import org.daveware.passwordmakerapp.gui.GuiMain;
 
@@ -69,6 +70,10 @@ public class Main {
                     "\t-n, --nogui                 Use the console instead of the GUI\n" +
                     "\t-q, --quiet                 Quiet mode. Do not print the final password to the\n" +
                     "\t                            screen. This is only valid with -c.\n" +
+                    "\t-j, --journal               Save changes to a journal beside the RDF file instead\n" +
+                    "\t                            of rewriting the whole file every time (GUI only)\n" +
+                    "\t-m, --metrics               Time password generation and print the statistics\n" +
+                    "\t                            to stderr on exit (also available through JMX)\n" +
                     "\n";
 
     private CmdLineSettings cmdLineSettings = null;
@@ -95,6 +100,8 @@ public class Main {
         LongOpt [] longopts = new LongOpt[] {
                 new LongOpt("clipboard", LongOpt.REQUIRED_ARGUMENT, null, 'c'),
                 new LongOpt("help",      LongOpt.NO_ARGUMENT,       null, 'h'),
+                new LongOpt("journal",   LongOpt.NO_ARGUMENT,       null, 'j'),
+                new LongOpt("metrics",   LongOpt.NO_ARGUMENT,       null, 'm'),
                 new LongOpt("file",      LongOpt.REQUIRED_ARGUMENT, null, 'f'),
                 new LongOpt("font",      LongOpt.REQUIRED_ARGUMENT, null, 'F'),
                 new LongOpt("fontsize",  LongOpt.REQUIRED_ARGUMENT, null, 'z'),
@@ -103,7 +110,7 @@ public class Main {
                 new LongOpt("url",       LongOpt.REQUIRED_ARGUMENT, null, 'u'),
         };
         int c;
-        Getopt g = new Getopt("pwmje", args, "-:hf:F:nc:u:qd:z:", longopts);
+        Getopt g = new Getopt("pwmje", args, "-:hf:F:jmnc:u:qd:z:", longopts);
         g.setOpterr(false);
         
         while((c = g.getopt())!=-1) {
@@ -131,6 +138,16 @@ public class Main {
                     cmdLineSettings.pwFont = g.getOptarg();
                     break;
                     
+                case 'j': // journal changes instead of rewriting the file
+                    cmdLineSettings.journal = true;
+                    break;
+                    
+                case 'm': // collect password generation metrics
+                    cmdLineSettings.metrics = true;
+                    // Must be set before PasswordMaker is loaded
+                    System.setProperty(PasswordMakerMetrics.PROPERTY, "true");
+                    break;
+                    
                 case 'n': // no gui
                     cmdLineSettings.nogui = true;
                     break;
@@ -177,6 +194,9 @@ public class Main {
             ret = gui.run();
         }
         
+        if(cmdLineSettings.metrics && PasswordMakerMetrics.get()!=null)
+            System.err.print(PasswordMakerMetrics.get().dump());
+        
         return ret;
     }
 
@@ -19,13 +19,13 @@ package org.daveware.passwordmakerapp.cli;
 
 import java.io.Console;
 import java.io.File;
-import java.io.FileInputStream;
 import java.util.Arrays;
 
 import org.daveware.passwordmaker.Account;
 import org.daveware.passwordmaker.Database;
+import org.daveware.passwordmaker.DatabaseJournal;
+import org.daveware.passwordmaker.HashEngines;
 import org.daveware.passwordmaker.PasswordMaker;
-import org.daveware.passwordmaker.RDFDatabaseReader;
 import org.daveware.passwordmaker.SecureCharArray;
 import org.daveware.passwordmaker.Utilities;
 import org.daveware.passwordmakerapp.CmdLineSettings;
@@ -92,9 +92,9 @@ public class CliMain {
         }
         
         try {
-            RDFDatabaseReader rdfReader = new RDFDatabaseReader();
             PasswordMaker pwm = new PasswordMaker();
-            Database db = rdfReader.read(new FileInputStream(new File(config.inputFilename)));
+            Database db = DatabaseJournal.load(new File(config.inputFilename));
+            HashEngines.applySettings(db);
             Account acc = db.findAccountByUrl(config.matchUrl);
             Console console = System.console();
 
@@ -74,7 +74,7 @@ public class AccountTreeLabelProvider implements ILabelProvider {
 			Account account = (Account)o;
 			if(account.isFolder())
 				return iconFolder;
-			if(account.getPatterns()!=null && account.getPatterns().size()>0)
+			if(account.getPatternCount()>0)
 				return iconKeyNext;
 			return iconKey;
 		}
@@ -86,7 +86,7 @@ public class AccountTreeModel implements ITreeContentProvider {
 	public boolean hasChildren(Object o) {
 		if(o instanceof Account) {
 			Account account = (Account)o;
-			return account.getChildren().size()>0;
+			return account.hasChildren();
 		}
 		return false;
 	}
@@ -19,21 +19,24 @@ package org.daveware.passwordmakerapp.gui;
 
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Collections;
 
 import org.daveware.passwordmaker.Account;
 import org.daveware.passwordmaker.BuildInfo;
 import org.daveware.passwordmaker.Database;
-import org.daveware.passwordmaker.DatabaseListener;
+import org.daveware.passwordmaker.DatabaseBatch;
+import org.daveware.passwordmaker.DatabaseBatchListener;
+import org.daveware.passwordmaker.DatabaseDiff;
+import org.daveware.passwordmaker.DatabaseJournal;
+import org.daveware.passwordmaker.DatabaseSaveService;
+import org.daveware.passwordmaker.DatabaseSnapshot;
+import org.daveware.passwordmaker.DatabaseWatcher;
 import org.daveware.passwordmaker.GlobalSettingKey;
+import org.daveware.passwordmaker.HashEngines;
+import org.daveware.passwordmaker.PasswordCache;
 import org.daveware.passwordmaker.PasswordMaker;
-import org.daveware.passwordmaker.RDFDatabaseReader;
-import org.daveware.passwordmaker.RDFDatabaseWriter;
 import org.daveware.passwordmaker.SecureCharArray;
 import org.daveware.passwordmaker.Utilities;
 import org.daveware.passwordmakerapp.AccountComparator;
@@ -122,7 +125,7 @@ import org.eclipse.swt.widgets.Spinner;
  * 
  * @author Dave Marotti
  */
-public class GuiMain implements DatabaseListener {
+public class GuiMain implements DatabaseBatchListener {
     // Text used in the account-filter box by default
     private final static String ACCOUNT_FILTER_DESC = "type filter text";
     private final static String TITLE_STRING = "PasswordMaker Java Edition";
@@ -189,7 +192,13 @@ public class GuiMain implements DatabaseListener {
     private String currentFilename = "";
     private Account selectedAccount = null;
     private PasswordMaker pwm = null;
+    private PasswordCache passwordCache = PasswordCache.fromProperty();
     private Database db = null;
+    private DatabaseSaveService saveService = new DatabaseSaveService();
+    private volatile boolean lastSaveFailed = false;
+    private volatile DatabaseJournal journal = null;
+    private volatile DatabaseWatcher watcher = null;
+    private boolean applyingExternalChange = false;
     private BuildInfo buildInfo = null;
     private SortOptions sortOptions = new SortOptions();
     private boolean urlSearchEnabled = true;
@@ -261,6 +270,7 @@ public class GuiMain implements DatabaseListener {
             shlPasswordMaker.layout();
 
             pwm = new PasswordMaker();
+            setupSaveService();
             loadFromCmdLineSettings();
 
             regeneratePasswordAndDraw();
@@ -279,6 +289,54 @@ public class GuiMain implements DatabaseListener {
 
     }
 
+    /**
+     * Hooks up the background save service. Results arrive on the save thread
+     * and are handed back to the UI thread here.
+     */
+    private void setupSaveService() {
+        saveService.addListener(new DatabaseSaveService.Listener() {
+            public void saveCompleted(final File file, final DatabaseSnapshot snapshot) {
+                lastSaveFailed = false;
+
+                // The whole file was just written, an old journal beside it
+                // would only replay stale changes on top of it.
+                DatabaseJournal j = journal;
+                if (j == null || j.getDatabaseFile().equals(file) == false)
+                    DatabaseJournal.getJournalFile(file).delete();
+
+                // Don't report our own write as an external change
+                DatabaseWatcher w = watcher;
+                if (w != null && w.getDatabaseFile().equals(file))
+                    w.setBase(snapshot);
+
+                asyncExecIfAlive(new Runnable() {
+                    public void run() {
+                        // Only clear the dirty flag if nothing was edited since
+                        // the save was requested.
+                        if (db != null && db.getSnapshot().getVersion() == snapshot.getVersion()
+                                && file.equals(new File(currentFilename).getAbsoluteFile()))
+                            db.setDirty(false);
+                    }
+                });
+            }
+
+            public void saveFailed(final File file, DatabaseSnapshot snapshot, final Exception e) {
+                lastSaveFailed = true;
+                asyncExecIfAlive(new Runnable() {
+                    public void run() {
+                        MBox.showError(shlPasswordMaker, "Unable to save to "
+                                + file.getPath() + ".\n" + e.getMessage());
+                    }
+                });
+            }
+        });
+    }
+
+    private void asyncExecIfAlive(Runnable r) {
+        if (display != null && display.isDisposed() == false)
+            display.asyncExec(r);
+    }
+
     /**
      * Assigns the application icon.
      */
@@ -740,6 +798,9 @@ public class GuiMain implements DatabaseListener {
                 1));
         editMP.addModifyListener(new ModifyListener() {
             public void modifyText(ModifyEvent arg0) {
+                // Nothing cached may outlive the master password
+                if (passwordCache != null && editMP.getText().length() == 0)
+                    passwordCache.flush();
                 regeneratePasswordAndDraw();
             }
         });
@@ -1135,7 +1196,7 @@ public class GuiMain implements DatabaseListener {
         if (db.isDirty()) {
             switch (MBox.showYesNoCancel(shlPasswordMaker, EXIT_PROMPT)) {
             case SWT.YES:
-                if (saveFile() == false)
+                if (saveFileAndWait() == false)
                     return;
                 break;
 
@@ -1188,7 +1249,10 @@ public class GuiMain implements DatabaseListener {
 
                 mpw = new SecureCharArray(editMP.getText());
 
-                output = pwm.makePassword(mpw, tempAccount);
+                if(passwordCache!=null)
+                    output = passwordCache.makePassword(pwm, mpw, tempAccount, tempAccount.getUrl());
+                else
+                    output = pwm.makePassword(mpw, tempAccount);
             } else {
                 output = new SecureCharArray();
             }
@@ -1268,6 +1332,7 @@ public class GuiMain implements DatabaseListener {
                 GlobalSettingKey.SHOW_GEN_PW).compareTo("true") == 0);
         onShowPasswordClicked(); // due to manual "setSelection" not triggering
                                  // an event
+        HashEngines.applySettings(db);
     }
 
     private boolean loadPredefinedLocations() {
@@ -1361,7 +1426,7 @@ public class GuiMain implements DatabaseListener {
             case SWT.YES:
                 // Attempt to save the file, if that fails then abort the new
                 // file operation
-                if (saveFile() == false)
+                if (saveFileAndWait() == false)
                     return false;
                 break;
 
@@ -1373,6 +1438,8 @@ public class GuiMain implements DatabaseListener {
             }
         }
 
+        closeJournal();
+        stopWatcher();
         db = new Database();
         db.addDatabaseListener(this);
         accountTreeViewer.setInput(db);
@@ -1484,7 +1551,7 @@ public class GuiMain implements DatabaseListener {
                 switch (MBox.showYesNoCancel(shlPasswordMaker, EXIT_PROMPT)) {
                 case SWT.YES:
                     // Only continue if the save succeeded
-                    if (saveFile() != true)
+                    if (saveFileAndWait() != true)
                         return;
                     break;
     
@@ -1560,7 +1627,7 @@ public class GuiMain implements DatabaseListener {
         if (db.isDirty() == true) {
             switch (MBox.showYesNoCancel(shlPasswordMaker, EXIT_PROMPT)) {
             case SWT.YES:
-                if (saveFile() == true) {
+                if (saveFileAndWait() == true) {
                     e.doit = true;
                 }
                 break;
@@ -1588,6 +1655,15 @@ public class GuiMain implements DatabaseListener {
      */
     private void onDisposing(DisposeEvent arg0) {
         Utilities.clearClipboard();
+
+        closeJournal();
+        stopWatcher();
+        try {
+            saveService.shutdown();
+        } catch (InterruptedException e) {
+        }
+        if (passwordCache != null)
+            passwordCache.flush();
         
         if (passwordImage != null)
             passwordImage.dispose();
@@ -1919,15 +1995,12 @@ public class GuiMain implements DatabaseListener {
         newOptions = dlg.open();
         if (newOptions != null) {
             sortOptions = newOptions;
-            Collections.sort(parentAccount.getChildren(),
-                    new AccountComparator(sortOptions));
+            db.sortChildren(parentAccount, new AccountComparator(sortOptions));
 
             if (parentAccount.isRoot())
                 accountTreeViewer.refresh(null, true);
             else
                 accountTreeViewer.refresh(parentAccount, true);
-
-            db.setDirty(true);
         }
     }
 
@@ -1967,7 +2040,7 @@ public class GuiMain implements DatabaseListener {
         if (db != null && db.isDirty()) {
             switch (MBox.showYesNoCancel(shlPasswordMaker, EXIT_PROMPT)) {
             case SWT.YES:
-                if (saveFile() == false)
+                if (saveFileAndWait() == false)
                     return false;
                 break;
 
@@ -2000,18 +2073,16 @@ public class GuiMain implements DatabaseListener {
      * @return true on success.
      */
     private boolean openFile(String filename, boolean inhibitErrors) {
-        RDFDatabaseReader rdfReader = null;
-        File inputFile = null;
-        FileInputStream fin = null;
         boolean ret = false;
 
+        closeJournal();
+        stopWatcher();
         try {
-            rdfReader = new RDFDatabaseReader();
-            inputFile = new File(filename);
-            fin = new FileInputStream(inputFile);
-            db = rdfReader.read(fin);
+            db = DatabaseJournal.load(new File(filename));
             db.addDatabaseListener(this);
             currentFilename = filename;
+            openJournal();
+            startWatcher();
 
             // Widget setup
             accountTreeViewer.setInput(db);
@@ -2030,15 +2101,127 @@ public class GuiMain implements DatabaseListener {
             if (!inhibitErrors)
                 MBox.showError(shlPasswordMaker, "Unable to open " + filename
                         + "\n" + ex.getMessage());
-        } finally {
+        }
+
+        return ret;
+    }
+
+    /**
+     * Starts journaling changes to the current file if that was requested on
+     * the command line.
+     */
+    private void openJournal() {
+        if (cmdLineSettings.journal && currentFilename.trim().length() > 0)
+            journal = new DatabaseJournal(new File(currentFilename), db);
+    }
+
+    /**
+     * Stops journaling, any unsaved changes are not written to the journal.
+     */
+    private void closeJournal() {
+        if (journal != null) {
             try {
-                if (fin != null)
-                    fin.close();
-            } catch (Exception exinner) {
+                journal.close();
+            } catch (InterruptedException e) {
             }
+            journal = null;
         }
+    }
 
-        return ret;
+    /**
+     * Starts watching the current file for changes made by other programs.
+     */
+    private void startWatcher() {
+        if (currentFilename.trim().length() == 0)
+            return;
+
+        final DatabaseWatcher w = new DatabaseWatcher(new File(currentFilename), db.getSnapshot());
+        w.addListener(new DatabaseWatcher.Listener() {
+            public void databaseChangedOnDisk(File file, final DatabaseDiff diff) {
+                asyncExecIfAlive(new Runnable() {
+                    public void run() {
+                        applyExternalChange(w, diff);
+                    }
+                });
+            }
+
+            public void reloadFailed(File file, Exception e) {
+            }
+        });
+
+        try {
+            w.start();
+            watcher = w;
+        } catch (Exception e) {
+            // Not fatal, changes made elsewhere just won't be noticed
+            w.stop();
+        }
+    }
+
+    private void stopWatcher() {
+        if (watcher != null) {
+            watcher.stop();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Applies changes another program made to the current file. Only the
+     * accounts that changed on disk are touched, local edits which haven't been
+     * saved are kept, and the selection and expanded folders stay as they were.
+     * 
+     * @param w
+     *            The watcher which found the changes.
+     * @param diff
+     *            The changes.
+     */
+    private void applyExternalChange(DatabaseWatcher w, DatabaseDiff diff) {
+        // The file was closed while the change was on its way
+        if (w != watcher || db == null)
+            return;
+
+        Object[] expanded = accountTreeViewer.getExpandedElements();
+        Account oldSelection = selectedAccount;
+        Account fallback = null;
+        if (oldSelection != null)
+            fallback = db.findNearestRelative(oldSelection);
+        boolean wasDirty = db.isDirty();
+
+        applyingExternalChange = true;
+        try {
+            diff.apply(db);
+        } catch (Exception e) {
+            MBox.showError(shlPasswordMaker, "Unable to apply the changes made to "
+                    + currentFilename + " by another program.\n" + e.getMessage());
+        } finally {
+            applyingExternalChange = false;
+        }
+
+        // What is in memory now matches the file, unless it didn't before
+        db.setDirty(wasDirty);
+        if (wasDirty == false && journal != null)
+            journal.discard();
+
+        ArrayList<Object> stillExpanded = new ArrayList<Object>();
+        for (Object o : expanded) {
+            if (db.findAccountById(((Account) o).getId()) == o)
+                stillExpanded.add(o);
+        }
+        accountTreeViewer.setExpandedElements(stillExpanded.toArray());
+
+        if (oldSelection != null && db.findAccountById(oldSelection.getId()) == oldSelection) {
+            // Only refresh the fields if the selected account itself changed,
+            // otherwise anything typed into them would be lost
+            for (DatabaseDiff.Entry entry : diff.getEntries(DatabaseDiff.Type.CHANGED)) {
+                if (entry.getAccount().getId().equals(oldSelection.getId()))
+                    selectAccount(oldSelection);
+            }
+        } else if (oldSelection != null) {
+            if (fallback != null && db.findAccountById(fallback.getId()) == fallback)
+                accountTreeViewer.setSelection(new StructuredSelection(fallback));
+            else
+                selectFirstAccount();
+        }
     }
 
     /**
@@ -2114,15 +2297,18 @@ public class GuiMain implements DatabaseListener {
             return saveFileAs();
         }
 
+        // The write happens on the save thread, the dirty flag is cleared (or an
+        // error shown) when it finishes. With a journal only the changes are
+        // written, which is quick enough to do right here.
         try {
-            RDFDatabaseWriter out = new RDFDatabaseWriter();
-            File newFile = new File(currentFilename);
-            if (newFile.exists() == false)
-                newFile.createNewFile();
-
-            FileOutputStream fout = new FileOutputStream(newFile);
-            out.write(fout, db);
-            db.setDirty(false);
+            if (journal != null) {
+                journal.sync();
+                db.setDirty(false);
+                if (watcher != null)
+                    watcher.setBase(db.getSnapshot());
+            } else {
+                saveService.save(new File(currentFilename), db);
+            }
             ret = true;
         } catch (Exception e) {
             MBox.showError(shlPasswordMaker, "Unable to save to "
@@ -2132,6 +2318,38 @@ public class GuiMain implements DatabaseListener {
         return ret;
     }
 
+    /**
+     * Saves and waits for the write to finish. This is used when the current
+     * database is about to be thrown away (exit, new, open). Events are still
+     * dispatched while waiting so the window keeps painting.
+     * 
+     * @return true if the file was written.
+     */
+    private boolean saveFileAndWait() {
+        if (saveFile() == false)
+            return false;
+        return waitForSaves();
+    }
+
+    /**
+     * Waits for the background saves to finish while dispatching events.
+     * 
+     * @return true if the last save succeeded.
+     */
+    private boolean waitForSaves() {
+        while (saveService.isIdle() == false) {
+            if (!display.readAndDispatch()) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        }
+
+        return lastSaveFailed == false;
+    }
+
     /**
      * Opens up a dialog-box allowing the user to select a file to save to. This
      * will invoke saveFile behind the scenes and update currentFilename on
@@ -2155,12 +2373,20 @@ public class GuiMain implements DatabaseListener {
                     return false;
             }
 
-            if (saveFile() == true) {
+            // The journal belongs to the old file, the new one starts out as a
+            // complete RDF file.
+            closeJournal();
+            stopWatcher();
+            if (saveFileAndWait() == true) {
+                openJournal();
+                startWatcher();
                 return true;
             }
 
             // it failed if we get here, restore the filename
             currentFilename = oldFilename;
+            openJournal();
+            startWatcher();
         }
 
         return false;
@@ -2275,4 +2501,27 @@ public class GuiMain implements DatabaseListener {
     public void dirtyStatusChanged(boolean status) {
         setTitle();
     }
+
+    @Override
+    public void accountsBatchUpdated(DatabaseBatch batch) {
+        // Refresh each modified subtree once instead of once per account. As
+        // with accountAdded(), changes off the root need the whole tree refreshed.
+        if (batch.isRootAffected()) {
+            accountTreeViewer.refresh();
+        } else {
+            for (Account parent : batch.getAffectedParents())
+                accountTreeViewer.refresh(parent);
+        }
+
+        Account lastAdded = null;
+        for (DatabaseBatch.Change change : batch.getChanges()) {
+            if (change.getType() == DatabaseBatch.ChangeType.ADDED)
+                lastAdded = change.getAccount();
+        }
+        for (Account account : batch.getChangedAccounts())
+            accountTreeViewer.update(account, null);
+
+        if (lastAdded != null && applyingExternalChange == false)
+            accountTreeViewer.setSelection(new StructuredSelection(lastAdded));
+    }
 }